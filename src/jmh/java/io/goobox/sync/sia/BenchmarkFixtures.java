@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import io.goobox.sync.common.Utils;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds contexts and synthetic file listings shared by benchmarks.
+ */
+public final class BenchmarkFixtures {
+
+    /**
+     * System property the jmh task sets when it runs benchmarks in an isolated home directory.
+     */
+    public static final String IsolatedProperty = "goobox.benchmark";
+
+    public static final String UserName = "benchmark-user";
+
+    /**
+     * Creation time of the first version of each synthetic file; newer versions are created every second.
+     */
+    public static final long BaseCreationTime = 1500000000000L;
+
+    private static final long FileSize = 1024 * 1024;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Makes sure the sync DB and data files are in an isolated directory since benchmarks delete the sync DB.
+     *
+     * @return the data directory, which is created if not exists.
+     * @throws IOException if fails to create the data directory.
+     */
+    @NotNull
+    public static Path requireIsolatedDataDir() throws IOException {
+        if (!Boolean.getBoolean(IsolatedProperty)) {
+            throw new IllegalStateException(String.format(
+                    "benchmarks must run via the jmh task, which isolates the data directory (%s)", Utils.getDataDir()));
+        }
+        return Files.createDirectories(Utils.getDataDir());
+    }
+
+    /**
+     * Creates a context of which sync directory is the given directory.
+     *
+     * @param syncDir sync directory.
+     * @return a new context.
+     */
+    @NotNull
+    public static Context createContext(@NotNull final Path syncDir) {
+        final Config cfg = new Config(syncDir.resolve(App.ConfigFileName));
+        cfg.setUserName(UserName);
+        cfg.setSyncDir(syncDir);
+        return new Context(cfg);
+    }
+
+    /**
+     * Returns the name of the i-th synthetic file, which is stored in one of 100 directories.
+     *
+     * @param i index of the file.
+     * @return the name.
+     */
+    @NotNull
+    public static String getName(final int i) {
+        return String.format("dir-%02d/sub-dir/file-%d.dat", i % 100, i);
+    }
+
+    /**
+     * Creates a listing renterFilesGet would return.
+     *
+     * @param ctx      context.
+     * @param files    the number of files.
+     * @param versions the number of versions of each file.
+     * @return a list of file information; versions of a file aren't adjacent, like listings sorted by sia paths.
+     */
+    @NotNull
+    public static List<FileInfo> createFileInfos(@NotNull final Context ctx, final int files, final int versions) {
+        final List<FileInfo> res = new ArrayList<>(files * versions);
+        for (int v = 0; v != versions; v++) {
+            for (int i = 0; i != files; i++) {
+                res.add(createFileInfo(ctx, getName(i), BaseCreationTime + v * 1000));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Creates information of an available cloud file.
+     *
+     * @param ctx          context.
+     * @param name         of the file.
+     * @param creationTime of the file.
+     * @return a file information.
+     */
+    @NotNull
+    public static FileInfo createFileInfo(@NotNull final Context ctx, @NotNull final String name, final long creationTime) {
+        final FileInfo file = new FileInfo();
+        file.setSiapath(APIUtils.toSlash(ctx.getPathPrefix().resolve(name).resolve(String.valueOf(creationTime))));
+        file.setLocalpath(ctx.getLocalPath(name).toString());
+        file.setFilesize(FileSize);
+        file.setAvailable(true);
+        file.setRenewing(true);
+        file.setRedundancy(new BigDecimal("2.5"));
+        file.setUploadedbytes(FileSize * 3);
+        file.setUploadprogress(new BigDecimal(100));
+        file.setExpiration(200000L);
+        return file;
+    }
+
+}
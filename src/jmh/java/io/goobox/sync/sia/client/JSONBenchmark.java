@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.client;
+
+import io.goobox.sync.sia.BenchmarkFixtures;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.api.model.InlineResponse20012;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of deserializing responses of renterFilesGet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JSONBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    private JSON json;
+    private String payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Context ctx = BenchmarkFixtures.createContext(Paths.get(System.getProperty("java.io.tmpdir"), "sync"));
+        this.json = new JSON();
+        this.payload = this.json.serialize(
+                new InlineResponse20012().files(BenchmarkFixtures.createFileInfos(ctx, this.files, 1)));
+    }
+
+    @Benchmark
+    public InlineResponse20012 deserializeFiles() {
+        return this.json.deserialize(this.payload, InlineResponse20012.class);
+    }
+
+}
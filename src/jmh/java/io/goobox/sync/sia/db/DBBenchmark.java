@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import io.goobox.sync.sia.BenchmarkFixtures;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of sync DB operations with a given number of records.
+ * <p>
+ * One percent of the records are MODIFIED and the others are SYNCED.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DBBenchmark {
+
+    private static final int ModifiedRatio = 100;
+    private static final int CommitInterval = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    private Path tmpDir;
+    private Path localPath;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        BenchmarkFixtures.requireIsolatedDataDir();
+        DB.clear();
+
+        this.tmpDir = Files.createTempDirectory("db-benchmark");
+        this.localPath = this.tmpDir.resolve("file");
+        Files.write(this.localPath, new byte[4096]);
+
+        for (int i = 0; i != this.records; i++) {
+            if (i % ModifiedRatio == 0) {
+                DB.addNewFile(BenchmarkFixtures.getName(i), this.localPath);
+            } else {
+                DB.setSynced(this.cloudFile(i), this.localPath);
+            }
+            if (i % CommitInterval == 0) {
+                DB.commit();
+            }
+        }
+        DB.commit();
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DB.close();
+        DB.clear();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Benchmark
+    public Optional<SyncFile> get() {
+        return DB.get(BenchmarkFixtures.getName(this.nextIndex()));
+    }
+
+    @Benchmark
+    public void setSynced() throws IOException {
+        int i = this.nextIndex();
+        if (i % ModifiedRatio == 0) {
+            // Keep the number of MODIFIED records.
+            i++;
+        }
+        DB.setSynced(this.cloudFile(i % this.records), this.localPath);
+    }
+
+    @Benchmark
+    public long getFilesByState() {
+        return DB.getFiles(SyncState.MODIFIED).count();
+    }
+
+    private int nextIndex() {
+        final int i = this.next;
+        this.next = (i + 1) % this.records;
+        return i;
+    }
+
+    @NotNull
+    private CloudFile cloudFile(final int i) {
+        final String name = BenchmarkFixtures.getName(i);
+        final Path cloudPath = Paths.get(BenchmarkFixtures.UserName, "Goobox", name, String.valueOf(i));
+        return new CloudFile() {
+            @NotNull
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @NotNull
+            @Override
+            public Path getCloudPath() {
+                return cloudPath;
+            }
+
+            @Override
+            public long getFileSize() {
+                return 4096;
+            }
+        };
+    }
+
+}
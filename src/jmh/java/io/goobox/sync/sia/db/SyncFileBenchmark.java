@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of SyncFile.setLocalData, which reads the attributes of a local file and computes its digest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SyncFileBenchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    public int fileSize;
+
+    private Path localPath;
+    private SyncFile syncFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        this.localPath = Files.createTempFile("sync-file-benchmark", ".dat");
+        final Random random = new Random(0);
+        final byte[] buffer = new byte[64 * 1024];
+        try (final OutputStream out = Files.newOutputStream(this.localPath)) {
+            for (int written = 0; written < this.fileSize; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, Math.min(buffer.length, this.fileSize - written));
+            }
+        }
+        this.syncFile = new SyncFile();
+        this.syncFile.setName(this.localPath.getFileName().toString());
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.localPath);
+    }
+
+    @Benchmark
+    public SyncFile setLocalData() throws IOException {
+        this.syncFile.setLocalData(this.localPath);
+        return this.syncFile;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import io.goobox.sync.sia.BenchmarkFixtures;
+import org.dizitart.no2.Document;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory footprint of sync DB records.
+ * <p>
+ * The setup prints the heap a SYNCED record retains, including its strings and arrays, measured over a sample of
+ * records, and the size of its document serialized as the DB stores it. Run the benchmarks with -prof gc to see the
+ * bytes allocated to decode and encode a record, which streaming the whole DB does for each record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SyncFileFootprintBenchmark {
+
+    /**
+     * The number of records the footprint is measured over.
+     */
+    private static final int SampleSize = 10000;
+
+    private Path localPath;
+    private SyncFile syncFile;
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        this.localPath = Files.createTempFile("sync-file-footprint-benchmark", ".dat");
+        Files.write(this.localPath, new byte[4096]);
+        this.syncFile = this.createRecord(0);
+        this.document = this.syncFile.write(null);
+
+        final SyncFile[] records = new SyncFile[SampleSize];
+        for (int i = 0; i != SampleSize; i++) {
+            records[i] = this.createRecord(i);
+        }
+        final long arrayBytes = GraphLayout.parseInstance((Object) new SyncFile[SampleSize]).totalSize();
+        final long retainedBytes = GraphLayout.parseInstance((Object) records).totalSize() - arrayBytes;
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(this.document);
+        }
+        System.out.println(String.format(
+                "Footprint of a record: %d bytes retained, %d bytes serialized",
+                retainedBytes / SampleSize, buffer.size()));
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.localPath);
+    }
+
+    @Benchmark
+    public SyncFile read() {
+        final SyncFile res = new SyncFile();
+        res.read(null, this.document);
+        return res;
+    }
+
+    @Benchmark
+    public Document write() {
+        return this.syncFile.write(null);
+    }
+
+    @NotNull
+    private SyncFile createRecord(final int i) throws IOException {
+
+        final String name = BenchmarkFixtures.getName(i);
+        final Path cloudPath = Paths.get(
+                BenchmarkFixtures.UserName, "Goobox", name, String.valueOf(BenchmarkFixtures.BaseCreationTime + i));
+        final SyncFile syncFile = new SyncFile();
+        syncFile.setName(name);
+        syncFile.setCloudData(new CloudFile() {
+            @NotNull
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @NotNull
+            @Override
+            public Path getCloudPath() {
+                return cloudPath;
+            }
+
+            @Override
+            public long getFileSize() {
+                return 4096;
+            }
+        });
+        syncFile.setLocalData(this.localPath);
+        syncFile.setState(SyncState.SYNCED);
+        return syncFile;
+
+    }
+
+}
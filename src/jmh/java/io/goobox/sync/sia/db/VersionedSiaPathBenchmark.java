@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing creation times from cloud paths of a listing which mixes versioned and non-versioned paths.
+ * <p>
+ * legacy is the parser which SyncFile.getCloudCreationTime used before VersionedSiaPath, i.e. Long.valueOf on the
+ * file name catching NumberFormatException.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class VersionedSiaPathBenchmark {
+
+    private static final int Entries = 1024;
+
+    /**
+     * Percentage of versioned paths in the listing.
+     */
+    @Param({"0", "50", "100"})
+    public int versioned;
+
+    private String[] cloudPaths;
+    private SyncFile[] syncFiles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        final Random random = new Random(0);
+        this.cloudPaths = new String[Entries];
+        this.syncFiles = new SyncFile[Entries];
+        for (int i = 0; i != Entries; i++) {
+            Path path = Paths.get("benchmark-user", "Goobox", "dir-" + (i % 16), "file-" + i + ".dat");
+            if (random.nextInt(100) < this.versioned) {
+                path = path.resolve(String.valueOf(1500000000000L + i));
+            }
+            this.cloudPaths[i] = path.toString();
+            this.syncFiles[i] = new SyncFile();
+            this.syncFiles[i].setCloudPath(path);
+        }
+
+    }
+
+    @Benchmark
+    public Optional<Long> legacy() {
+        final String cloudPath = this.cloudPaths[this.nextIndex()];
+        try {
+            return Optional.of(Paths.get(cloudPath)).map(path -> Long.valueOf(path.getFileName().toString()));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Benchmark
+    public long codec() {
+        return VersionedSiaPath.getCreationTime(this.cloudPaths[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public Optional<Long> syncFile() {
+        return this.syncFiles[this.nextIndex()].getCloudCreationTime();
+    }
+
+    private int nextIndex() {
+        final int i = this.next;
+        this.next = (i + 1) % Entries;
+        return i;
+    }
+
+}
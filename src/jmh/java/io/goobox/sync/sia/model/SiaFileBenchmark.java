@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.model;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.BenchmarkFixtures;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing sia paths into names, local paths and creation times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SiaFileBenchmark {
+
+    private static final int Files = 1024;
+
+    private Context ctx;
+    private List<FileInfo> listing;
+    private String[] siaPaths;
+    private Path[] cloudPaths;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.ctx = BenchmarkFixtures.createContext(Paths.get(System.getProperty("java.io.tmpdir"), "sync"));
+        this.listing = BenchmarkFixtures.createFileInfos(this.ctx, Files, 1);
+        this.siaPaths = new String[Files];
+        this.cloudPaths = new Path[Files];
+        for (int i = 0; i != Files; i++) {
+            this.siaPaths[i] = this.listing.get(i).getSiapath();
+            this.cloudPaths[i] = APIUtils.fromSlash(this.siaPaths[i]);
+        }
+    }
+
+    @Benchmark
+    public SiaFileFromFilesAPI parse() {
+        return new SiaFileFromFilesAPI(this.ctx, this.listing.get(this.nextIndex()));
+    }
+
+    @Benchmark
+    public Path fromSlash() {
+        return APIUtils.fromSlash(this.siaPaths[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public String toSlash() {
+        return APIUtils.toSlash(this.cloudPaths[this.nextIndex()]);
+    }
+
+    private int nextIndex() {
+        final int i = this.next;
+        this.next = (i + 1) % Files;
+        return i;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.BenchmarkFixtures;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of CheckStateTask over synthetic listings of which files have several versions.
+ * <p>
+ * All files are synced, so processCloudFile measures the steady state, in which no tasks are enqueued.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CheckStateTaskBenchmark {
+
+    private static final int Versions = 3;
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    private Path tmpDir;
+    private CheckStateTask task;
+    private List<FileInfo> listing;
+    private List<SiaFileFromFilesAPI> newestFiles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        BenchmarkFixtures.requireIsolatedDataDir();
+        DB.clear();
+
+        this.tmpDir = Files.createTempDirectory("check-state-benchmark");
+        final Path localPath = this.tmpDir.resolve("file");
+        Files.write(localPath, new byte[4096]);
+
+        final Context ctx = BenchmarkFixtures.createContext(this.tmpDir.resolve("sync"));
+        this.task = new CheckStateTask(ctx, command -> {
+            throw new IllegalStateException("no tasks should be enqueued");
+        });
+        this.listing = BenchmarkFixtures.createFileInfos(ctx, this.files, Versions);
+        this.newestFiles = new ArrayList<>(this.task.takeNewestFiles(this.listing));
+        for (final SiaFileFromFilesAPI file : this.newestFiles) {
+            DB.setSynced(file, localPath);
+        }
+        DB.commit();
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DB.close();
+        DB.clear();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Collection<SiaFileFromFilesAPI> takeNewestFiles() {
+        return this.task.takeNewestFiles(this.listing);
+    }
+
+    @Benchmark
+    public String processCloudFile() {
+        final SiaFileFromFilesAPI file = this.newestFiles.get(this.next);
+        this.next = (this.next + 1) % this.newestFiles.size();
+        return this.task.processCloudFile(file);
+    }
+
+}
@@ -20,19 +20,25 @@ import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import io.goobox.sync.sia.client.ApiClient;
 import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.client.api.model.StandardError;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class APIUtils {
 
@@ -71,12 +77,25 @@ public class APIUtils {
      */
     @NotNull
     public static ApiClient getApiClient(@NotNull Config cfg) {
+        return getApiClient(cfg, cfg.getSiadApiAddress());
+    }
+
+    /**
+     * Creates an API client of the sia daemon at the given address.
+     *
+     * @param cfg     providing the API password.
+     * @param address host:port of the API server.
+     * @return an ApiClient object.
+     */
+    @NotNull
+    public static ApiClient getApiClient(@NotNull final Config cfg, @NotNull final String address) {
 
         final ApiClient apiClient = new ApiClient();
-        apiClient.setBasePath(String.format("http://%s", cfg.getSiadApiAddress()));
+        apiClient.setBasePath(String.format("http://%s", address));
         apiClient.setPassword(cfg.getSiaApiPassword());
         apiClient.setConnectTimeout(0);
         apiClient.setReadTimeout(0);
+        apiClient.getHttpClient().interceptors().add(new ApiMetricsInterceptor(MetricsRegistry.getDefault()));
         return apiClient;
 
     }
@@ -102,14 +121,60 @@ public class APIUtils {
 
     }
 
+    /**
+     * Sends a renter request returning a list to each sia daemon of the given context and concatenates the results.
+     *
+     * @param ctx     of which daemons are queried.
+     * @param request sent to each daemon.
+     * @param <T>     type of list elements.
+     * @return the concatenated list, which is empty if no daemons return lists.
+     * @throws ApiException if any of the daemons fails.
+     */
+    @NotNull
+    public static <T> List<T> collectFromDaemons(
+            @NotNull final Context ctx, @NotNull final RenterListRequest<T> request) throws ApiException {
+
+        final List<Context> daemons = ctx.getDaemonContexts();
+        if (daemons.size() == 1) {
+            final List<T> res = request.apply(new RenterApi(daemons.get(0).getApiClient()));
+            return res != null ? res : Collections.emptyList();
+        }
+
+        final List<T> res = new ArrayList<>();
+        for (final Context daemon : daemons) {
+            final List<T> list = request.apply(new RenterApi(daemon.getApiClient()));
+            if (list != null) {
+                res.addAll(list);
+            }
+        }
+        return res;
+
+    }
+
+    /**
+     * A renter request returning a list.
+     *
+     * @param <T> type of list elements.
+     */
+    @FunctionalInterface
+    public interface RenterListRequest<T> {
+        @Nullable
+        List<T> apply(@NotNull RenterApi api) throws ApiException;
+    }
+
     @NotNull
     public static String toSlash(@NotNull final Path path) {
-        return path.toString().replace("\\", "/");
+        return path.toString().replace('\\', '/');
     }
 
     @NotNull
     public static Path fromSlash(@NotNull final String path) {
 
+        if (File.separatorChar == '/') {
+            // The path is already in the local form; parsing it removes redundant slashes as the split below does.
+            return Paths.get(path);
+        }
+
         final String[] components = path.split("/");
         if (components.length < 2) {
             return Paths.get(path);
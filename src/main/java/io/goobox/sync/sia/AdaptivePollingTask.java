@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs a task repeatedly with an interval which adapts to the activity.
+ * <p>
+ * While the given activity signal is true, the task runs every minimum interval. Once it becomes false, or the task
+ * fails, i.e. returns false or throws an exception, the interval is doubled after each run until it reaches the
+ * maximum interval. Tasks retried by {@link RetryableTask} fail when the recovery gives up.
+ * {@link #wakeUp()} resets the interval to the minimum one so that a new activity, such as a file change found by
+ * the file watcher, is handled without waiting for the current interval.
+ * <p>
+ * The current interval, the duration of the last cycle, and the number of consecutive failures are available as
+ * metrics.
+ */
+public class AdaptivePollingTask implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptivePollingTask.class);
+
+    @NotNull
+    private final String name;
+    @NotNull
+    private final ScheduledExecutorService executor;
+    /**
+     * Runs the task once and returns true if it succeeded.
+     */
+    @NotNull
+    private final BooleanSupplier task;
+    @NotNull
+    private final BooleanSupplier active;
+
+    /**
+     * Minimum and maximum intervals in milliseconds.
+     */
+    private final long minInterval;
+    private final long maxInterval;
+
+    /**
+     * Interval in milliseconds used to schedule the next run.
+     */
+    private long currentInterval;
+
+    /**
+     * Time in milliseconds the last run took.
+     */
+    private long lastCycleDuration;
+
+    /**
+     * The number of runs which have failed in a row.
+     */
+    private int consecutiveFailures;
+
+    @Nullable
+    private ScheduledFuture<?> future;
+
+    /**
+     * True while the task is running.
+     */
+    private boolean running;
+
+    /**
+     * True if wakeUp is called while the task is running.
+     */
+    private boolean wokenUp;
+
+    public AdaptivePollingTask(
+            @NotNull final String name, @NotNull final ScheduledExecutorService executor, @NotNull final BooleanSupplier task,
+            @NotNull final BooleanSupplier active, final long minInterval, final long maxInterval, @NotNull final TimeUnit unit) {
+        if (minInterval <= 0 || minInterval > maxInterval) {
+            throw new IllegalArgumentException(String.format("invalid intervals: min = %d, max = %d", minInterval, maxInterval));
+        }
+        this.name = name;
+        this.executor = executor;
+        this.task = task;
+        this.active = active;
+        this.minInterval = unit.toMillis(minInterval);
+        this.maxInterval = unit.toMillis(maxInterval);
+        this.currentInterval = this.maxInterval;
+    }
+
+    /**
+     * Schedules the first run of the task.
+     *
+     * @param initialDelay the time to delay the first run.
+     * @param unit         the time unit of the initialDelay parameter.
+     */
+    public synchronized void start(final long initialDelay, @NotNull final TimeUnit unit) {
+        this.future = this.executor.schedule(this, initialDelay, unit);
+    }
+
+    /**
+     * Reschedules the next run after the minimum interval if it is scheduled later than that.
+     */
+    public synchronized void wakeUp() {
+
+        this.currentInterval = this.minInterval;
+        if (this.running) {
+            this.wokenUp = true;
+            return;
+        }
+        if (this.future != null && this.future.getDelay(TimeUnit.MILLISECONDS) > this.minInterval && this.future.cancel(false)) {
+            logger.trace("Waking up {}", this.name);
+            this.future = this.executor.schedule(this, this.minInterval, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+    /**
+     * Returns the interval used to schedule the next run.
+     *
+     * @return the interval in milliseconds.
+     */
+    public synchronized long getCurrentInterval() {
+        return this.currentInterval;
+    }
+
+    /**
+     * Returns the time the last run took.
+     *
+     * @return the duration in milliseconds.
+     */
+    public synchronized long getLastCycleDuration() {
+        return this.lastCycleDuration;
+    }
+
+    /**
+     * Returns the number of runs which have failed in a row.
+     *
+     * @return the number of consecutive failures.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return this.consecutiveFailures;
+    }
+
+    @NotNull
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public void run() {
+
+        synchronized (this) {
+            this.running = true;
+            this.wokenUp = false;
+        }
+
+        final long start = System.currentTimeMillis();
+        boolean active = false;
+        boolean failed = true;
+        try {
+            if (this.task.getAsBoolean()) {
+                failed = false;
+                active = this.active.getAsBoolean();
+            } else {
+                logger.warn("Failed to run {}", this.name);
+            }
+        } catch (final RuntimeException e) {
+            logger.error("Failed to run {}: {}", this.name, e.getMessage());
+        } finally {
+            synchronized (this) {
+                this.running = false;
+                this.lastCycleDuration = System.currentTimeMillis() - start;
+                this.consecutiveFailures = failed ? this.consecutiveFailures + 1 : 0;
+                if (this.wokenUp || active) {
+                    this.currentInterval = this.minInterval;
+                } else {
+                    this.currentInterval = Math.min(this.currentInterval * 2, this.maxInterval);
+                }
+                logger.debug(
+                        "{} took {} msec, next run in {} msec", this.name, this.lastCycleDuration, this.currentInterval);
+                if (!this.executor.isShutdown()) {
+                    this.future = this.executor.schedule(this, this.currentInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Records latencies and failures of calls to the sia daemon API.
+ * <p>
+ * Calls are labelled by their method and endpoint, which consists of the first two segments of the path, e.g.
+ * /renter/upload, so that paths containing sia paths don't create unbounded numbers of metrics.
+ */
+class ApiMetricsInterceptor implements Interceptor {
+
+    static final String LatencyMetric = "goobox_siad_request_duration_seconds";
+    static final String ErrorMetric = "goobox_siad_request_errors_total";
+
+    @NotNull
+    private final MetricsRegistry registry;
+
+    ApiMetricsInterceptor(@NotNull final MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Response intercept(@NotNull final Chain chain) throws IOException {
+
+        final Request request = chain.request();
+        final String method = request.method();
+        final String endpoint = getEndpoint(request.httpUrl().pathSegments());
+
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Response response = chain.proceed(request);
+            failed = !response.isSuccessful();
+            return response;
+        } finally {
+            this.registry.latency(
+                    LatencyMetric, "Latency of siad API calls.", "method", method, "endpoint", endpoint
+            ).record(System.nanoTime() - start);
+            if (failed) {
+                this.registry.counter(
+                        ErrorMetric, "siad API calls which failed or returned an error status.",
+                        "method", method, "endpoint", endpoint
+                ).increment();
+            }
+        }
+
+    }
+
+    @NotNull
+    static String getEndpoint(@NotNull final List<String> segments) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String segment : segments.subList(0, Math.min(2, segments.size()))) {
+            builder.append('/').append(segment);
+        }
+        return builder.length() == 0 ? "/" : builder.toString();
+    }
+
+}
@@ -26,17 +26,25 @@ import io.goobox.sync.sia.command.DumpDB;
 import io.goobox.sync.sia.command.GatewayConnect;
 import io.goobox.sync.sia.command.Wallet;
 import io.goobox.sync.sia.db.DB;
-import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.Mount;
 import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.db.SyncStateCache;
+import io.goobox.sync.sia.metrics.Histogram;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.metrics.MetricsServer;
 import io.goobox.sync.sia.task.CheckDownloadStateTask;
 import io.goobox.sync.sia.task.CheckStateTask;
 import io.goobox.sync.sia.task.CheckUploadStateTask;
+import io.goobox.sync.sia.task.Chunks;
+import io.goobox.sync.sia.task.CollectGarbageTask;
+import io.goobox.sync.sia.task.CompactPacksTask;
 import io.goobox.sync.sia.task.DeleteCloudFileTask;
 import io.goobox.sync.sia.task.DeleteLocalFileTask;
 import io.goobox.sync.sia.task.DownloadCloudFileTask;
 import io.goobox.sync.sia.task.GetWalletInfoTask;
 import io.goobox.sync.sia.task.NotifyEmptyFundTask;
 import io.goobox.sync.sia.task.NotifyFundInfoTask;
+import io.goobox.sync.sia.task.UploadChunkedFileTask;
 import io.goobox.sync.sia.task.UploadLocalFileTask;
 import io.goobox.sync.sia.task.WaitContractsTask;
 import io.goobox.sync.sia.task.WaitSynchronizationTask;
@@ -56,20 +64,30 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ConnectException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
 
 /**
  * The goobox-sync-sia App.
@@ -103,6 +121,11 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
      */
     public static final long DefaultSleepTime = 60 * 1000;
 
+    /**
+     * The first sleep time of polling the sia daemon until it becomes ready; it doubles up to DefaultSleepTime.
+     */
+    public static final long MinSleepTime = 1000;
+
     /**
      * Default config file name.
      */
@@ -158,6 +181,7 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
         opts.addOption(null, "reset-db", false, "reset sync DB");
         opts.addOption(null, "sync-dir", true, "set the sync dir");
         opts.addOption(null, "output-events", false, "output events for the GUI app");
+        opts.addOption(null, "event-pipe", true, "output events to the given named pipe instead of stdout");
         opts.addOption("h", "help", false, "show this help");
         opts.addOption("v", "version", false, "print version");
         try {
@@ -193,7 +217,9 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
             }
             App.app = app;
 
-            if (cmd.hasOption("output-events")) {
+            if (cmd.hasOption("event-pipe")) {
+                app.enableOutputEvents(new FileOutputStream(cmd.getOptionValue("event-pipe")));
+            } else if (cmd.hasOption("output-events")) {
                 app.enableOutputEvents();
             }
 
@@ -233,14 +259,58 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
      */
     private boolean outputEvents = false;
 
+    /**
+     * Delivers events to the GUI app; available if outputEvents is true.
+     */
     @Nullable
-    private SiaDaemon daemon;
+    private EventBus eventBus;
+
+    /**
+     * Tracks progress of transfers and reports it to the GUI app.
+     */
+    @NotNull
+    private final TransferMonitor transferMonitor =
+            new TransferMonitor(this::notifyEvent, TransferMonitor.DefaultSampleInterval, TimeUnit.MILLISECONDS);
+
+    /**
+     * Starts the sia daemon and restarts it when it stops responding.
+     */
+    @NotNull
+    private final SiaDaemonSupervisor supervisor;
 
     @NotNull
     private final OverlayHelper overlayHelper;
 
     private boolean synchronizing;
 
+    /**
+     * Coalesces refreshes of overlay icons and changes of the sync state.
+     */
+    @NotNull
+    private final OverlayRefresher overlayRefresher;
+
+    /**
+     * Latency of getIcon in nanoseconds.
+     */
+    @NotNull
+    private final Histogram iconLookupLatency = new Histogram();
+
+    /**
+     * Records the time from the launch to startup milestones.
+     */
+    @NotNull
+    private final StartupTimeline startupTimeline = new StartupTimeline();
+
+    /**
+     * Checkers of the sync state, downloading files, and uploading files; available after the event loop starts.
+     */
+    @Nullable
+    private AdaptivePollingTask stateChecker;
+    @Nullable
+    private AdaptivePollingTask downloadTracker;
+    @Nullable
+    private AdaptivePollingTask uploadTracker;
+
     public App() {
         this(null);
     }
@@ -248,15 +318,19 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
     public App(@Nullable final Path syncDir) {
         final Path configPath = Utils.getDataDir().resolve(ConfigFileName);
         this.cfg = APIUtils.loadConfig(configPath);
-        this.ctx = new Context(cfg);
-
         if (syncDir != null) {
             logger.info("Overwrite the sync directory: {}", syncDir);
             this.cfg.setSyncDir(syncDir);
         }
+        this.ctx = new Context(cfg);
+        this.supervisor = new SiaDaemonSupervisor(this.cfg);
 
         logger.debug("Loading icon overlay libraries");
         this.overlayHelper = new OverlayHelper(this.cfg.getSyncDir(), this);
+        this.overlayRefresher = new OverlayRefresher(
+                this.overlayHelper::refresh, DB::isSynced, this::updateSyncState, false,
+                OverlayRefresher.DefaultWindow, OverlayRefresher.DefaultDebounce, TimeUnit.MILLISECONDS);
+
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutting down the overlay helper");
             overlayHelper.shutdown();
@@ -268,8 +342,39 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
 
     }
 
+    /**
+     * Drops additional sync directories which would hide folders in the sync directory, including folders of which
+     * files are in the sync DB but deleted locally, and records the rest in the sync DB.
+     * <p>
+     * This method must be called after the sync directory is overwritten and the sync DB is opened, and before any
+     * file is synchronized.
+     */
+    void checkAdditionalSyncDirs() {
+        final Map<String, Path> mounts = DB.getMounts().stream()
+                .collect(Collectors.toMap(Mount::getName, Mount::getPath));
+        this.cfg.checkAdditionalSyncDirs(dir -> {
+            final String name = dir.getFileName().toString();
+            return !dir.equals(mounts.get(name)) && DB.hasFiles(name);
+        });
+        DB.setMounts(this.cfg.getAdditionalSyncDirs().stream()
+                .map(dir -> new Mount(dir.getFileName().toString(), dir)).collect(Collectors.toList()));
+    }
+
     void enableOutputEvents() {
+        this.enableOutputEvents(System.out);
+    }
+
+    /**
+     * Enables to output events to the given stream.
+     *
+     * @param out stream the GUI app reads.
+     */
+    void enableOutputEvents(@NotNull final OutputStream out) {
         this.outputEvents = true;
+        final EventBus eventBus = new EventBus(out);
+        eventBus.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(eventBus::close));
+        this.eventBus = eventBus;
     }
 
     @NotNull
@@ -277,33 +382,85 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
         return ctx;
     }
 
+    /**
+     * Returns the overlay icon of the given path.
+     * <p>
+     * This method is called for every visible file by the shell extension, and thus it reads the sync states from
+     * {@link SyncStateCache} instead of the sync DB. The icon of a directory is derived from the states of
+     * the files in it.
+     */
     @Override
     public OverlayIcon getIcon(Path path) {
 
-        if (Files.isDirectory(path)) {
-            return OverlayIcon.OK;
+        final long start = System.nanoTime();
+        try {
+
+            final String name = cfg.getSyncDir().relativize(path).toString();
+            final SyncStateCache cache = DB.getStateCache();
+            final OverlayIcon icon = cache.getState(name).map(state -> {
+                if (state.isSynced()) {
+                    return OverlayIcon.OK;
+                } else if (state.isSynchronizing()) {
+                    return OverlayIcon.SYNCING;
+                } else if (state.isFailed()) {
+                    return OverlayIcon.ERROR;
+                } else {
+                    return OverlayIcon.WARNING;
+                }
+            }).orElseGet(() -> cache.getDirectory(name).map(summary -> {
+                if (summary.isFailed()) {
+                    return OverlayIcon.ERROR;
+                } else if (summary.isSynchronizing()) {
+                    return OverlayIcon.SYNCING;
+                } else if (summary.isSynced()) {
+                    return OverlayIcon.OK;
+                } else {
+                    return OverlayIcon.WARNING;
+                }
+            }).orElseGet(() -> Files.isDirectory(path) ? OverlayIcon.OK : OverlayIcon.NONE));
+            logger.trace("Updating the icon of {} to {}", name, icon);
+            return icon;
+
+        } finally {
+            this.iconLookupLatency.record(System.nanoTime() - start);
         }
-        final String name = cfg.getSyncDir().relativize(path).toString();
-        final OverlayIcon icon = DB.get(name).map(SyncFile::getState).map(state -> {
-            if (state.isSynced()) {
-                return OverlayIcon.OK;
-            } else if (state.isSynchronizing()) {
-                return OverlayIcon.SYNCING;
-            } else if (state.isFailed()) {
-                return OverlayIcon.ERROR;
-            } else {
-                return OverlayIcon.WARNING;
-            }
-        }).orElse(OverlayIcon.NONE);
-        logger.trace("Updating the icon of {} to {}", name, icon);
-        return icon;
 
     }
 
+    /**
+     * Returns the histogram of the time getIcon takes in nanoseconds.
+     *
+     * @return the histogram of the latency of getIcon.
+     */
+    @NotNull
+    public Histogram getIconLookupLatency() {
+        return this.iconLookupLatency;
+    }
+
+    /**
+     * Requests to refresh the overlay icon of the given path and to check the sync state.
+     * <p>
+     * Requests are coalesced by {@link OverlayRefresher}, and so the icon is refreshed asynchronously.
+     *
+     * @param localPath of which icon is refreshed.
+     */
     public void refreshOverlayIcon(@NotNull Path localPath) {
         logger.trace("Refresh the overlay icon of {}", localPath);
-        this.overlayHelper.refresh(localPath);
-        if (DB.isSynced()) {
+        this.overlayRefresher.request(localPath);
+    }
+
+    /**
+     * Returns the overlay refresher, which provides the number of coalesced refreshes.
+     *
+     * @return the overlay refresher.
+     */
+    @NotNull
+    public OverlayRefresher getOverlayRefresher() {
+        return this.overlayRefresher;
+    }
+
+    private void updateSyncState(final boolean synced) {
+        if (synced) {
             if (this.synchronizing) {
                 this.overlayHelper.setOK();
                 this.notifyEvent(SyncStateEvent.idle);
@@ -318,29 +475,78 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
         }
     }
 
-    public void notifyEvent(@NotNull Event e) {
-        if (this.outputEvents) {
-            System.out.println(e.toJson());
+    /**
+     * Makes the state checker check changes soon.
+     */
+    public void wakeUpStateChecker() {
+        if (this.stateChecker != null) {
+            this.stateChecker.wakeUp();
         }
     }
 
-    synchronized void startSiaDaemon() {
-
-        if (this.daemon == null || this.daemon.isClosed()) {
+    /**
+     * Makes the download tracker check states of downloading files soon.
+     */
+    public void wakeUpDownloadTracker() {
+        if (this.downloadTracker != null) {
+            this.downloadTracker.wakeUp();
+        }
+    }
 
-            this.daemon = new SiaDaemon(this.cfg);
-            try {
-                this.daemon.checkAndDownloadConsensusDB();
-                Runtime.getRuntime().addShutdownHook(new Thread(this.daemon::close));
+    /**
+     * Returns the timeline of startup milestones.
+     *
+     * @return the startup timeline.
+     */
+    @NotNull
+    public StartupTimeline getStartupTimeline() {
+        return this.startupTimeline;
+    }
 
-                logger.info("Starting a sia daemon");
-                this.daemon.start();
-            } catch (IOException e) {
-                logger.error("Failed to start the sia daemon: {}", e.getMessage());
-            }
+    /**
+     * Makes the upload tracker check states of uploading files soon.
+     */
+    public void wakeUpUploadTracker() {
+        if (this.uploadTracker != null) {
+            this.uploadTracker.wakeUp();
+        }
+    }
 
+    /**
+     * Sends the given event to the GUI app if outputting events is enabled; the event is sent asynchronously.
+     *
+     * @param e event to be sent.
+     */
+    public void notifyEvent(@NotNull Event e) {
+        if (this.eventBus != null) {
+            this.eventBus.publish(e);
         }
+    }
 
+    /**
+     * Returns the transfer monitor, which tasks report progress of uploads and downloads to.
+     *
+     * @return the transfer monitor.
+     */
+    @NotNull
+    public TransferMonitor getTransferMonitor() {
+        return this.transferMonitor;
+    }
+
+    /**
+     * Returns the event bus, which provides the numbers of written and dropped events.
+     *
+     * @return the event bus if outputting events is enabled.
+     */
+    public Optional<EventBus> getEventBus() {
+        return Optional.ofNullable(this.eventBus);
+    }
+
+    /**
+     * Starts a sia daemon unless the one this app has started is running.
+     */
+    void startSiaDaemon() {
+        this.supervisor.start();
     }
 
     /**
@@ -358,12 +564,13 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
         if (!checkAndCreateDataDir()) {
             return 1;
         }
+        if (!this.cfg.getAdditionalSyncDirs().isEmpty()) {
+            this.checkAdditionalSyncDirs();
+        }
+        if (!prepareStagingArea()) {
+            return 1;
+        }
 
-        this.synchronizeModifiedFiles(this.ctx.getConfig().getSyncDir());
-        this.synchronizeDeletedFiles();
-        this.refreshOverlayIcon(ctx.getConfig().getSyncDir());
-
-        int retry = 0;
         final ScheduledExecutorService executor = Executors.newScheduledThreadPool(WorkerThreadSize, new ThreadFactory() {
 
             final ThreadFactory threadFactory = Executors.defaultThreadFactory();
@@ -377,26 +584,55 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
             }
 
         });
+        this.registerMetrics(executor);
+        this.startMetricsServer();
+        this.supervisor.monitor(executor);
+
+        // Local work doesn't need the sia daemon, so the file watcher and the startup scan run while the daemon is
+        // starting; they only update the sync DB, and cloud work for the recorded states starts after the daemon has
+        // enough contracts.
+        final FileWatcher fileWatcher = new FileWatcher(this.ctx, executor);
+        Runtime.getRuntime().addShutdownHook(new Thread(fileWatcher::close));
+        final Future<?> localScan = executor.submit(() -> {
+            this.ctx.getSyncDirs().values().forEach(this::synchronizeModifiedFiles);
+            this.synchronizeDeletedFiles();
+            this.refreshOverlayIcon(this.ctx.getConfig().getSyncDir());
+            this.startupTimeline.reached(StartupTimeline.Milestone.localScan);
+        });
+
+        int retry = 0;
+        final Backoff backoff = new Backoff(MinSleepTime, DefaultSleepTime);
+
         while (true) {
 
             try {
 
-                final GetWalletInfoTask getWalletInfo = new GetWalletInfoTask(this.ctx);
-                getWalletInfo.call();
+                // Each daemon has its own wallet and contracts.
+                for (final Context daemon : this.ctx.getDaemonContexts()) {
+
+                    final GetWalletInfoTask getWalletInfo = new GetWalletInfoTask(daemon);
+                    getWalletInfo.call();
 
-                final WaitSynchronizationTask waitSynchronizationTask = new WaitSynchronizationTask(this.ctx);
-                waitSynchronizationTask.call();
+                    final WaitSynchronizationTask waitSynchronizationTask = new WaitSynchronizationTask(daemon);
+                    waitSynchronizationTask.call();
+
+                }
 
                 if (this.outputEvents) {
                     final NotifyEmptyFundTask notifyEmptyFundTask = new NotifyEmptyFundTask(this.ctx);
                     notifyEmptyFundTask.run();
 
-                    executor.scheduleWithFixedDelay(
-                            new NotifyFundInfoTask(ctx, !this.ctx.getConfig().isDisableAutoAllocation()), 0, 1, TimeUnit.HOURS);
+                    for (final Context daemon : this.ctx.getDaemonContexts()) {
+                        executor.scheduleWithFixedDelay(
+                                new NotifyFundInfoTask(daemon, !this.ctx.getConfig().isDisableAutoAllocation()),
+                                0, 1, TimeUnit.HOURS);
+                    }
                 }
 
-                final WaitContractsTask waitContractsTask = new WaitContractsTask(this.ctx);
-                waitContractsTask.call();
+                for (final Context daemon : this.ctx.getDaemonContexts()) {
+                    final WaitContractsTask waitContractsTask = new WaitContractsTask(daemon);
+                    waitContractsTask.call();
+                }
                 break;
 
             } catch (final ApiException e) {
@@ -415,7 +651,7 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
                 logger.debug("Failed to obtain the wallet information: {}", APIUtils.getErrorMessage(e));
                 logger.info("Waiting the daemon starts");
                 try {
-                    Thread.sleep(DefaultSleepTime);
+                    Thread.sleep(backoff.next());
                 } catch (final InterruptedException e1) {
                     logger.error("Interrupted while waiting for the sia daemon to start: {}", e1.getMessage());
                     return 1;
@@ -428,28 +664,205 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
             }
 
         }
+        this.startupTimeline.reached(StartupTimeline.Milestone.daemonReady);
 
+        try {
+            localScan.get();
+        } catch (final InterruptedException e) {
+            logger.error("Interrupted while scanning the sync folder: {}", e.getMessage());
+            return 1;
+        } catch (final ExecutionException e) {
+            logger.error("Failed to scan the sync folder: {}", e.getCause().getMessage());
+        }
+
+        this.overlayRefresher.start(executor);
         this.resumeTasks(ctx, executor);
         this.refreshOverlayIcon(ctx.getConfig().getSyncDir());
 
         final RecoveryTask startSiaDaemonTask = new StartSiaDaemonTask();
+        final long minInterval = this.cfg.getMinCheckInterval();
+        final long maxInterval = this.cfg.getMaxCheckInterval();
+
+        final CheckStateTask checkStateTask = new CheckStateTask(ctx, executor);
+        this.stateChecker = new AdaptivePollingTask(
+                "state checker", executor, new RetryableTask(checkStateTask, startSiaDaemonTask)::execute,
+                checkStateTask::isActive, minInterval, maxInterval, TimeUnit.SECONDS);
+        this.stateChecker.start(0, TimeUnit.SECONDS);
+        registerMetrics(MetricsRegistry.getDefault(), this.stateChecker);
+
+        final CheckDownloadStateTask checkDownloadStateTask = new CheckDownloadStateTask(ctx);
+        this.downloadTracker = new AdaptivePollingTask(
+                "download tracker", executor, new RetryableTask(checkDownloadStateTask, startSiaDaemonTask)::execute,
+                checkDownloadStateTask::isActive, minInterval, maxInterval, TimeUnit.SECONDS);
+        this.downloadTracker.start(30, TimeUnit.SECONDS);
+        registerMetrics(MetricsRegistry.getDefault(), this.downloadTracker);
+
+        final CheckUploadStateTask checkUploadStateTask = new CheckUploadStateTask(ctx);
+        this.uploadTracker = new AdaptivePollingTask(
+                "upload tracker", executor, new RetryableTask(checkUploadStateTask, startSiaDaemonTask)::execute,
+                checkUploadStateTask::isActive, minInterval, maxInterval, TimeUnit.SECONDS);
+        this.uploadTracker.start(45, TimeUnit.SECONDS);
+        registerMetrics(MetricsRegistry.getDefault(), this.uploadTracker);
+
         executor.scheduleWithFixedDelay(
-                new RetryableTask(new CheckStateTask(ctx, executor), startSiaDaemonTask),
-                0, 60, TimeUnit.SECONDS);
-        executor.scheduleWithFixedDelay(
-                new RetryableTask(new CheckDownloadStateTask(ctx), startSiaDaemonTask),
-                30, 60, TimeUnit.SECONDS);
+                new RetryableTask(new CollectGarbageTask(ctx), startSiaDaemonTask),
+                10, 60, TimeUnit.MINUTES);
         executor.scheduleWithFixedDelay(
-                new RetryableTask(new CheckUploadStateTask(ctx), startSiaDaemonTask),
-                45, 60, TimeUnit.SECONDS);
+                new RetryableTask(new CompactPacksTask(ctx), startSiaDaemonTask),
+                10, 10, TimeUnit.MINUTES);
+
+        this.notifyEvent(SyncStateEvent.startSynchronization);
+        return 0;
+
+    }
+
+    /**
+     * Registers gauges of the given checker, which is labeled with its name.
+     *
+     * @param registry to which the gauges are registered.
+     * @param checker  polling the sia daemon.
+     */
+    static void registerMetrics(@NotNull final MetricsRegistry registry, @NotNull final AdaptivePollingTask checker) {
+        registry.gauge(
+                "goobox_checker_interval_milliseconds", "Current polling interval of a checker.",
+                checker::getCurrentInterval, "checker", checker.getName());
+        registry.gauge(
+                "goobox_checker_last_cycle_milliseconds", "Time the last run of a checker took.",
+                checker::getLastCycleDuration, "checker", checker.getName());
+        registry.gauge(
+                "goobox_checker_consecutive_failures", "Runs of a checker which have failed in a row after retries.",
+                checker::getConsecutiveFailures, "checker", checker.getName());
+    }
 
-        if (this.outputEvents) {
-            System.out.println(SyncStateEvent.startSynchronization.toJson());
+    /**
+     * Registers gauges and counters of the worker threads, transfers, overlay refreshes, icon lookups, and events.
+     *
+     * @param executor running worker threads.
+     */
+    private void registerMetrics(@NotNull final ScheduledExecutorService executor) {
+
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        if (executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            registry.gauge(
+                    "goobox_executor_queue_depth", "Tasks waiting in the worker queue, including scheduled ones.",
+                    () -> pool.getQueue().size());
+            registry.gauge(
+                    "goobox_executor_active_threads", "Worker threads running tasks.", pool::getActiveCount);
+            registry.counter(
+                    "goobox_executor_completed_tasks_total", "Tasks completed by the worker threads.",
+                    pool::getCompletedTaskCount);
         }
 
-        final FileWatcher fileWatcher = new FileWatcher(this.ctx.getConfig().getSyncDir(), executor);
-        Runtime.getRuntime().addShutdownHook(new Thread(fileWatcher::close));
-        return 0;
+        for (final TransferMonitor.Direction direction : TransferMonitor.Direction.values()) {
+            registry.counter(
+                    "goobox_transferred_bytes_total", "Bytes uploaded to or downloaded from the sia network.",
+                    () -> this.transferMonitor.getTransferredBytes(direction), "direction", direction.name());
+            registry.gauge(
+                    "goobox_active_transfers", "Files being uploaded or downloaded.",
+                    () -> this.transferMonitor.getActiveTransfers(direction), "direction", direction.name());
+        }
+
+        registry.gauge(
+                "goobox_siad_uptime_seconds", "Seconds the sia daemon started by this app has been running.",
+                () -> TimeUnit.MILLISECONDS.toSeconds(this.supervisor.getUptimeMillis()));
+        registry.counter(
+                "goobox_siad_restarts_total", "Restarts of the sia daemon started by this app.",
+                this.supervisor::getRestartCount);
+        registry.gauge(
+                "goobox_siad_healthy", "1 if the last health check of the sia daemon passed, otherwise 0.",
+                () -> this.supervisor.isHealthy() ? 1 : 0);
+
+        // Files of each sync directory are stored under its own top folder, i.e. the empty name for the sync directory,
+        // and so the per directory summaries of the state cache give the numbers without scanning the DB.
+        final Map<String, Path> syncDirs = this.ctx.getSyncDirs();
+        syncDirs.forEach((name, dir) -> {
+            final String root = dir.toString();
+            registry.gauge(
+                    "goobox_sync_root_unsynced_files", "Files in a sync folder which are not synced.",
+                    () -> this.countFiles(syncDirs, name, SyncStateCache.Summary::getFailedFiles),
+                    "root", root, "state", "failed");
+            registry.gauge(
+                    "goobox_sync_root_unsynced_files", "Files in a sync folder which are not synced.",
+                    () -> this.countFiles(syncDirs, name, SyncStateCache.Summary::getSynchronizingFiles),
+                    "root", root, "state", "synchronizing");
+            registry.gauge(
+                    "goobox_sync_root_unsynced_files", "Files in a sync folder which are not synced.",
+                    () -> this.countFiles(syncDirs, name, SyncStateCache.Summary::getWaitingFiles),
+                    "root", root, "state", "waiting");
+        });
+
+        for (final StartupTimeline.Milestone milestone : StartupTimeline.Milestone.values()) {
+            registry.gauge(
+                    "goobox_startup_milestone_milliseconds",
+                    "Milliseconds from the launch to a startup milestone, or -1 if it hasn't been reached.",
+                    () -> this.startupTimeline.getElapsedMillis(milestone).orElse(-1), "milestone", milestone.name());
+        }
+
+        registry.counter(
+                "goobox_overlay_refresh_requests_total", "Requested refreshes of overlay icons.",
+                this.overlayRefresher::getRequests);
+        registry.counter(
+                "goobox_overlay_refresh_coalesced_total", "Requested refreshes of overlay icons merged into others.",
+                this.overlayRefresher::getCoalesced);
+        registry.gauge(
+                "goobox_icon_lookup_latency_nanoseconds", "Approximated percentiles of the time icon lookups take.",
+                () -> this.iconLookupLatency.getPercentile(50), "quantile", "0.5");
+        registry.gauge(
+                "goobox_icon_lookup_latency_nanoseconds", "Approximated percentiles of the time icon lookups take.",
+                () -> this.iconLookupLatency.getPercentile(99), "quantile", "0.99");
+
+        this.getEventBus().ifPresent(bus -> {
+            registry.counter("goobox_events_published_total", "Events published to the GUI.", bus::getPublished);
+            registry.counter("goobox_events_written_total", "Events written to the GUI.", bus::getWritten);
+            registry.counter("goobox_events_coalesced_total", "Events merged into newer ones.", bus::getCoalesced);
+            registry.counter("goobox_events_dropped_total", "Events dropped because of overflows.", bus::getDropped);
+        });
+
+    }
+
+    /**
+     * Starts serving metrics if a metrics port is configured.
+     */
+    private void startMetricsServer() {
+
+        final int port = this.cfg.getMetricsPort();
+        if (port == 0) {
+            return;
+        }
+        try {
+            final MetricsServer server = new MetricsServer(MetricsRegistry.getDefault(), port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        } catch (final IOException e) {
+            logger.error("Failed to start the metrics server on port {}: {}", port, e.getMessage());
+        }
+
+    }
+
+    /**
+     * Counts files in a sync directory by the given function; files of the additional sync directories are excluded
+     * from the counts of the sync directory.
+     *
+     * @param syncDirs all the sync directories.
+     * @param name     of the sync directory.
+     * @param count    function counting files in a summary.
+     * @return the number of files.
+     */
+    private int countFiles(
+            @NotNull final Map<String, Path> syncDirs, @NotNull final String name,
+            @NotNull final ToIntFunction<SyncStateCache.Summary> count) {
+
+        final SyncStateCache cache = DB.getStateCache();
+        int res = cache.getDirectory(name).map(count::applyAsInt).orElse(0);
+        if (name.isEmpty()) {
+            for (final String mount : syncDirs.keySet()) {
+                if (!mount.isEmpty()) {
+                    res -= cache.getDirectory(mount).map(count::applyAsInt).orElse(0);
+                }
+            }
+        }
+        return res;
 
     }
 
@@ -459,8 +872,13 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
      * @return true if the synchronizing directory is ready.
      */
     boolean checkAndCreateSyncDir() {
-        logger.info("Checking if local Goobox sync folder exists: {}", this.ctx.getConfig().getSyncDir());
-        return checkAndCreateFolder(this.ctx.getConfig().getSyncDir());
+        for (final Path syncDir : this.ctx.getSyncDirs().values()) {
+            logger.info("Checking if local Goobox sync folder exists: {}", syncDir);
+            if (!checkAndCreateFolder(syncDir)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -473,6 +891,25 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
         return checkAndCreateFolder(this.ctx.getConfig().getDataDir());
     }
 
+    /**
+     * Creates the staging directory if not exists and deletes orphaned temporary files in it.
+     *
+     * @return true if the staging area is ready.
+     */
+    boolean prepareStagingArea() {
+        logger.info("Checking staging area: {}", this.ctx.getConfig().getStagingDir());
+        try {
+            final int deleted = this.ctx.getStagingArea().cleanUp();
+            if (deleted != 0) {
+                logger.info("Deleted {} orphaned temporary files", deleted);
+            }
+            return true;
+        } catch (final IOException e) {
+            logger.error("Failed to prepare staging area {}: {}", this.ctx.getConfig().getStagingDir(), e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Create a folder represented by the given path if not exists.
      *
@@ -497,9 +934,13 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
     void resumeTasks(final Context ctx, final Executor executor) {
 
         logger.info("Resume pending uploads if exist");
-        DB.getFiles(SyncState.FOR_UPLOAD).forEach(syncFile -> syncFile.getLocalPath().ifPresent(localPath -> {
+        DB.getFiles(SyncState.FOR_UPLOAD).forEach(syncFile -> ctx.getLocalPath(syncFile).ifPresent(localPath -> {
             logger.info("File {} is going to be uploaded", syncFile.getName());
-            executor.execute(new RetryableTask(new UploadLocalFileTask(ctx, localPath), new StartSiaDaemonTask()));
+            if (Chunks.isChunkable(ctx, localPath)) {
+                executor.execute(new RetryableTask(new UploadChunkedFileTask(ctx, localPath), new StartSiaDaemonTask()));
+            } else {
+                executor.execute(new RetryableTask(new UploadLocalFileTask(ctx, localPath), new StartSiaDaemonTask()));
+            }
         }));
 
         logger.info("Resume pending downloads if exist");
@@ -509,13 +950,19 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
         });
 
         logger.info("Resume pending deletes from the cloud network if exist");
-        DB.getFiles(SyncState.FOR_CLOUD_DELETE).forEach(syncFile -> {
+        // Cloud files to be moved by the state checker are kept; the files they are moved from are marked as deleted
+        // after the moves.
+        final Set<Path> movingFiles = new HashSet<>();
+        DB.getFiles(SyncState.FOR_MOVE).forEach(syncFile -> syncFile.getCloudPath().ifPresent(movingFiles::add));
+        DB.getFiles(SyncState.FOR_CLOUD_DELETE).filter(
+                syncFile -> !syncFile.getCloudPath().map(movingFiles::contains).orElse(false)
+        ).forEach(syncFile -> {
             logger.info("File {} is going to be deleted from the cloud network", syncFile.getName());
             executor.execute(new RetryableTask(new DeleteCloudFileTask(ctx, syncFile.getName()), new StartSiaDaemonTask()));
         });
 
         logger.info("Resume pending deletes from the local directory if exist");
-        DB.getFiles(SyncState.FOR_LOCAL_DELETE).forEach(syncFile -> syncFile.getLocalPath().ifPresent(localPath -> {
+        DB.getFiles(SyncState.FOR_LOCAL_DELETE).forEach(syncFile -> ctx.getLocalPath(syncFile).ifPresent(localPath -> {
             logger.info("File {} is going to be deleted from the local directory", syncFile.getName());
             executor.execute(new DeleteLocalFileTask(ctx, localPath));
         }));
@@ -527,7 +974,8 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
 
         try {
 
-            Files.list(rootDir).filter(localPath -> !Utils.isExcluded(localPath)).forEach(localPath -> {
+            Files.list(rootDir).filter(localPath -> !Utils.isExcluded(localPath)
+                    && !this.ctx.getStagingArea().contains(localPath) && !this.ctx.isShadowed(localPath)).forEach(localPath -> {
 
                 if (localPath.toFile().isDirectory()) {
                     synchronizeModifiedFiles(localPath);
@@ -535,17 +983,16 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
                 }
 
                 final String name = ctx.getName(localPath);
-                final boolean modified = DB.get(name).flatMap(syncFile -> syncFile.getLocalDigest().map(digest -> {
+                final boolean modified = DB.get(name).map(syncFile -> {
 
                     try (final FileInputStream in = new FileInputStream(localPath.toFile())) {
-                        final String currentDigest = DigestUtils.sha512Hex(in);
-                        return !digest.equals(currentDigest);
+                        return !syncFile.matchesLocalDigest(DigestUtils.sha512(in));
                     } catch (IOException e) {
                         logger.error("Failed to read {}: {}", localPath, e.getMessage());
                         return false;
                     }
 
-                })).orElse(true);
+                }).orElse(true);
 
                 if (modified) {
                     try {
@@ -568,7 +1015,7 @@ public final class App implements Callable<Integer>, OverlayIconProvider {
     void synchronizeDeletedFiles() {
         logger.debug("Checking deleted files");
 
-        DB.getFiles().forEach(syncFile -> syncFile.getLocalPath().ifPresent(localPath -> {
+        DB.getFiles().forEach(syncFile -> this.ctx.getLocalPath(syncFile).ifPresent(localPath -> {
 
             if (!localPath.toFile().exists()) {
                 logger.debug("File {} has been deleted", localPath);
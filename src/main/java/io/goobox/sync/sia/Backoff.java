@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+/**
+ * Backoff gives sleep times of polling which start short and double up to a limit, so that readiness which comes
+ * soon is noticed soon while long waits don't poll too often.
+ */
+public class Backoff {
+
+    private final long max;
+    private long next;
+
+    /**
+     * Creates a backoff.
+     *
+     * @param initial the first sleep time.
+     * @param max     the upper limit of sleep times.
+     */
+    public Backoff(final long initial, final long max) {
+        this.next = Math.min(initial, max);
+        this.max = max;
+    }
+
+    /**
+     * Returns the next sleep time.
+     *
+     * @return the sleep time, which is twice of the previous one up to the limit.
+     */
+    public long next() {
+        final long current = this.next;
+        this.next = Math.min(current * 2, this.max);
+        return current;
+    }
+
+}
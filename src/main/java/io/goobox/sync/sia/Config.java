@@ -31,8 +31,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Config defines information stored in a config file.
@@ -47,6 +55,7 @@ public class Config {
     static final String UserName = "username";
     static final String PrimarySeed = "primary-seed";
     static final String SyncDir = "sync-folder";
+    static final String AdditionalSyncDirs = "additional-sync-folders";
     static final String DataDir = "data-folder";
     static final String DataPieces = "data-pieces";
     static final String ParityPieces = "parity-pieces";
@@ -55,11 +64,24 @@ public class Config {
     static final String SiadApiAddress = "siad-api-address";
     @SuppressWarnings("SpellCheckingInspection")
     static final String SiadGatewayAddress = "siad-gateway-address";
+    @SuppressWarnings("SpellCheckingInspection")
+    static final String AdditionalSiadApiAddresses = "additional-siad-api-addresses";
     static final String SiaApiPassword = "sia-api-password";
+    static final String StagingDir = "staging-folder";
+    static final String MinCheckInterval = "min-check-interval";
+    static final String MaxCheckInterval = "max-check-interval";
+    static final String GCDryRun = "gc-dry-run";
+    static final String MetricsPort = "metrics-port";
+    static final String PackThreshold = "pack-threshold";
+    static final String ChunkThreshold = "chunk-threshold";
+    static final String CompressionThreshold = "compression-threshold";
 
     static final int MinimumParityPieces = 12;
     static final String DefaultApiAddress = "127.0.0.1:9983";
     static final String DefaultGatewayAddress = ":9984";
+    static final String DefaultStagingDirName = ".goobox-staging";
+    static final long DefaultMinCheckInterval = 5;
+    static final long DefaultMaxCheckInterval = 120;
 
     /**
      * Path to this config file.
@@ -83,6 +105,13 @@ public class Config {
     @NotNull
     private Path syncDir;
 
+    /**
+     * Directories synchronized in addition to syncDir. Each of them appears in the cloud as a folder named after it
+     * under the cloud root, and thus their names must be unique.
+     */
+    @NotNull
+    private List<Path> additionalSyncDirs;
+
     /**
      * Path to the directory where sia daemon data files are stored.
      */
@@ -125,9 +154,62 @@ public class Config {
     @NotNull
     private String siadGatewayAddress;
 
+    /**
+     * host:port of API servers of sia daemons which share the sync load with the one at siadApiAddress.
+     * Files are assigned to the daemons by consistent hashing on their names. These daemons are managed by the user;
+     * they must accept the same API password, and their wallets must be initialized.
+     */
+    @NotNull
+    private List<String> additionalSiadApiAddresses;
+
     @NotNull
     private String siaApiPassword;
 
+    /**
+     * Path to the directory where files being downloaded are stored until they are completed.
+     * It should be on the same volume as the sync directory so that completed files can be moved atomically.
+     * If null, a hidden directory in the sync directory is used.
+     */
+    @Nullable
+    private Path stagingDir;
+
+    /**
+     * Minimum and maximum intervals in seconds between state checks.
+     * Checkers run every minimum interval while files are being synchronized and back off to the maximum interval
+     * while idle.
+     */
+    private long minCheckInterval;
+    private long maxCheckInterval;
+
+    /**
+     * If true, the garbage collector only reports stale cloud files and doesn't delete them.
+     */
+    private boolean gcDryRun;
+
+    /**
+     * Port of the loopback interface where metrics are served in the Prometheus text format. If 0, metrics aren't
+     * served.
+     */
+    private int metricsPort;
+
+    /**
+     * Files smaller than this number of bytes are bundled into packs instead of being uploaded one by one.
+     * If 0, files are never bundled.
+     */
+    private long packThreshold;
+
+    /**
+     * Files of this number of bytes or larger are split into chunks by their contents, and only chunks which aren't
+     * stored in the cloud network are uploaded when they are modified. If 0, files are never split.
+     */
+    private long chunkThreshold;
+
+    /**
+     * Files of this number of bytes or larger are compressed before being uploaded unless they look already
+     * compressed. If 0, files are never compressed.
+     */
+    private long compressionThreshold;
+
     /**
      * Create a config object associated with a given path.
      * <p>
@@ -140,13 +222,23 @@ public class Config {
         this.userName = "";
         this.primarySeed = "";
         this.syncDir = Utils.getSyncDir().toAbsolutePath();
+        this.additionalSyncDirs = Collections.emptyList();
         this.dataDir = Utils.getDataDir().toAbsolutePath();
         this.dataPieces = null;
         this.parityPieces = null;
         this.disableAutoAllocation = false;
         this.siadApiAddress = DefaultApiAddress;
         this.siadGatewayAddress = DefaultGatewayAddress;
+        this.additionalSiadApiAddresses = Collections.emptyList();
         this.siaApiPassword = RandomStringUtils.randomAlphabetic(32);
+        this.stagingDir = null;
+        this.minCheckInterval = DefaultMinCheckInterval;
+        this.maxCheckInterval = DefaultMaxCheckInterval;
+        this.gcDryRun = false;
+        this.metricsPort = 0;
+        this.packThreshold = 0;
+        this.chunkThreshold = 0;
+        this.compressionThreshold = 0;
     }
 
     @NotNull
@@ -181,6 +273,50 @@ public class Config {
         this.syncDir = path.toAbsolutePath();
     }
 
+    /**
+     * Returns directories synchronized in addition to the sync directory.
+     *
+     * @return a list of absolute paths, which is empty if only the sync directory is synchronized.
+     */
+    @NotNull
+    public List<Path> getAdditionalSyncDirs() {
+        return additionalSyncDirs;
+    }
+
+    void setAdditionalSyncDirs(@NotNull final List<Path> dirs) {
+        this.additionalSyncDirs = Collections.unmodifiableList(
+                dirs.stream().map(Path::toAbsolutePath).collect(Collectors.toList()));
+    }
+
+    /**
+     * Drops additional sync directories which can't be synchronized along with the sync directory, i.e. directories
+     * overlapping it, having the same name as another one, or having the name of a top folder of it. Files of such a
+     * directory would be named as files of the sync directory, which then would look deleted.
+     * <p>
+     * This check needs to be done again whenever the sync directory is changed.
+     *
+     * @param inUse returns true if the sync DB has files of the sync directory in the top folder of which name is the
+     *              same as the given additional sync directory.
+     */
+    void checkAdditionalSyncDirs(@NotNull final Predicate<Path> inUse) {
+        final Set<Path> names = new HashSet<>();
+        this.setAdditionalSyncDirs(this.additionalSyncDirs.stream().filter(dir -> {
+            if (dir.getFileName() == null || dir.startsWith(this.syncDir) || this.syncDir.startsWith(dir)) {
+                logger.warn("Sync folder {} overlaps {} and is ignored", dir, this.syncDir);
+                return false;
+            }
+            if (!names.add(dir.getFileName())) {
+                logger.warn("Sync folder {} has the same name as another one and is ignored", dir);
+                return false;
+            }
+            if (Files.exists(this.syncDir.resolve(dir.getFileName().toString())) || inUse.test(dir)) {
+                logger.error("Sync folder {} has the same name as a folder in {} and is ignored", dir, this.syncDir);
+                return false;
+            }
+            return true;
+        }).collect(Collectors.toList()));
+    }
+
     @NotNull
     public Path getDataDir() {
         return dataDir;
@@ -230,6 +366,20 @@ public class Config {
         this.siadGatewayAddress = siadGatewayAddress;
     }
 
+    /**
+     * Returns addresses of the additional sia daemons.
+     *
+     * @return a list of host:port, which is empty if only one daemon is used.
+     */
+    @NotNull
+    public List<String> getAdditionalSiadApiAddresses() {
+        return additionalSiadApiAddresses;
+    }
+
+    void setAdditionalSiadApiAddresses(@NotNull final List<String> addresses) {
+        this.additionalSiadApiAddresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+    }
+
     @NotNull
     public String getSiaApiPassword() {
         return siaApiPassword;
@@ -239,6 +389,80 @@ public class Config {
         this.siaApiPassword = siaApiPassword;
     }
 
+    /**
+     * Returns the path to the staging directory. If it isn't configured, returns a hidden directory in the sync
+     * directory.
+     *
+     * @return the path to the staging directory.
+     */
+    @NotNull
+    public Path getStagingDir() {
+        if (this.stagingDir != null) {
+            return this.stagingDir;
+        }
+        return this.syncDir.resolve(DefaultStagingDirName);
+    }
+
+    void setStagingDir(@Nullable Path path) {
+        this.stagingDir = path != null ? path.toAbsolutePath() : null;
+    }
+
+    public long getMinCheckInterval() {
+        return minCheckInterval;
+    }
+
+    void setMinCheckInterval(long minCheckInterval) {
+        this.minCheckInterval = minCheckInterval;
+    }
+
+    public long getMaxCheckInterval() {
+        return maxCheckInterval;
+    }
+
+    void setMaxCheckInterval(long maxCheckInterval) {
+        this.maxCheckInterval = maxCheckInterval;
+    }
+
+    public boolean isGCDryRun() {
+        return gcDryRun;
+    }
+
+    void setGCDryRun(boolean gcDryRun) {
+        this.gcDryRun = gcDryRun;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public long getPackThreshold() {
+        return packThreshold;
+    }
+
+    void setPackThreshold(long packThreshold) {
+        this.packThreshold = packThreshold;
+    }
+
+    public long getChunkThreshold() {
+        return chunkThreshold;
+    }
+
+    void setChunkThreshold(long chunkThreshold) {
+        this.chunkThreshold = chunkThreshold;
+    }
+
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    void setCompressionThreshold(long compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     @Override
     public String toString() {
         return new ReflectionToStringBuilder(this).toString();
@@ -250,23 +474,35 @@ public class Config {
         if (o == null || getClass() != o.getClass()) return false;
         Config config = (Config) o;
         return disableAutoAllocation == config.disableAutoAllocation &&
+                minCheckInterval == config.minCheckInterval &&
+                maxCheckInterval == config.maxCheckInterval &&
+                gcDryRun == config.gcDryRun &&
+                metricsPort == config.metricsPort &&
+                packThreshold == config.packThreshold &&
+                chunkThreshold == config.chunkThreshold &&
+                compressionThreshold == config.compressionThreshold &&
                 Objects.equals(filePath, config.filePath) &&
                 Objects.equals(userName, config.userName) &&
                 Objects.equals(primarySeed, config.primarySeed) &&
                 Objects.equals(syncDir, config.syncDir) &&
+                Objects.equals(additionalSyncDirs, config.additionalSyncDirs) &&
                 Objects.equals(dataDir, config.dataDir) &&
                 Objects.equals(dataPieces, config.dataPieces) &&
                 Objects.equals(parityPieces, config.parityPieces) &&
                 Objects.equals(siadApiAddress, config.siadApiAddress) &&
                 Objects.equals(siadGatewayAddress, config.siadGatewayAddress) &&
-                Objects.equals(siaApiPassword, config.siaApiPassword);
+                Objects.equals(additionalSiadApiAddresses, config.additionalSiadApiAddresses) &&
+                Objects.equals(siaApiPassword, config.siaApiPassword) &&
+                Objects.equals(stagingDir, config.stagingDir);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(
-                filePath, userName, primarySeed, syncDir, dataDir, dataPieces,
-                parityPieces, disableAutoAllocation, siadApiAddress, siadGatewayAddress, siaApiPassword);
+                filePath, userName, primarySeed, syncDir, additionalSyncDirs, dataDir, dataPieces,
+                parityPieces, disableAutoAllocation, siadApiAddress, siadGatewayAddress, additionalSiadApiAddresses,
+                siaApiPassword, stagingDir, minCheckInterval, maxCheckInterval, gcDryRun, metricsPort,
+                packThreshold, chunkThreshold, compressionThreshold);
     }
 
     /**
@@ -282,6 +518,10 @@ public class Config {
         }
         props.setProperty(PrimarySeed, this.primarySeed);
         props.setProperty(SyncDir, this.syncDir.toAbsolutePath().toString());
+        if (!this.additionalSyncDirs.isEmpty()) {
+            props.setProperty(AdditionalSyncDirs, this.additionalSyncDirs.stream()
+                    .map(Path::toString).collect(Collectors.joining(",")));
+        }
         props.setProperty(DataDir, this.dataDir.toAbsolutePath().toString());
         if (this.dataPieces != null) {
             props.setProperty(DataPieces, String.valueOf(this.dataPieces));
@@ -297,7 +537,34 @@ public class Config {
         if (!this.siadGatewayAddress.equals(DefaultGatewayAddress)) {
             props.setProperty(SiadGatewayAddress, this.siadGatewayAddress);
         }
+        if (!this.additionalSiadApiAddresses.isEmpty()) {
+            props.setProperty(AdditionalSiadApiAddresses, String.join(",", this.additionalSiadApiAddresses));
+        }
         props.setProperty(SiaApiPassword, this.getSiaApiPassword());
+        if (this.stagingDir != null) {
+            props.setProperty(StagingDir, this.stagingDir.toString());
+        }
+        if (this.minCheckInterval != DefaultMinCheckInterval) {
+            props.setProperty(MinCheckInterval, String.valueOf(this.minCheckInterval));
+        }
+        if (this.maxCheckInterval != DefaultMaxCheckInterval) {
+            props.setProperty(MaxCheckInterval, String.valueOf(this.maxCheckInterval));
+        }
+        if (this.gcDryRun) {
+            props.setProperty(GCDryRun, String.valueOf(true));
+        }
+        if (this.metricsPort != 0) {
+            props.setProperty(MetricsPort, String.valueOf(this.metricsPort));
+        }
+        if (this.packThreshold != 0) {
+            props.setProperty(PackThreshold, String.valueOf(this.packThreshold));
+        }
+        if (this.chunkThreshold != 0) {
+            props.setProperty(ChunkThreshold, String.valueOf(this.chunkThreshold));
+        }
+        if (this.compressionThreshold != 0) {
+            props.setProperty(CompressionThreshold, String.valueOf(this.compressionThreshold));
+        }
 
         try (final BufferedWriter output = Files.newBufferedWriter(this.filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
             props.store(output, "");
@@ -331,6 +598,15 @@ public class Config {
         if (props.getProperty(SyncDir) != null) {
             cfg.setSyncDir(Paths.get(props.getProperty(SyncDir)));
         }
+        final String additionalSyncDirs = props.getProperty(AdditionalSyncDirs);
+        if (additionalSyncDirs != null) {
+            cfg.setAdditionalSyncDirs(Arrays.stream(additionalSyncDirs.split(","))
+                    .map(String::trim)
+                    .filter(dir -> !dir.isEmpty())
+                    .map(dir -> Paths.get(dir).toAbsolutePath().normalize())
+                    .collect(Collectors.toList()));
+            cfg.checkAdditionalSyncDirs(dir -> false);
+        }
         if (props.getProperty(DataDir) != null) {
             cfg.dataDir = Paths.get(props.getProperty(DataDir)).toAbsolutePath();
         }
@@ -369,13 +645,108 @@ public class Config {
         if (gatewayAddress != null) {
             cfg.setSiadGatewayAddress(gatewayAddress);
         }
+        final String additionalApiAddresses = props.getProperty(AdditionalSiadApiAddresses);
+        if (additionalApiAddresses != null) {
+            cfg.setAdditionalSiadApiAddresses(Arrays.stream(additionalApiAddresses.split(","))
+                    .map(String::trim)
+                    .filter(address -> !address.isEmpty() && !address.equals(cfg.getSiadApiAddress()))
+                    .distinct()
+                    .collect(Collectors.toList()));
+        }
 
         final String siaApiPassword = props.getProperty(SiaApiPassword);
         if (siaApiPassword != null) {
             cfg.setSiaApiPassword(siaApiPassword);
         }
 
+        final String stagingDir = props.getProperty(StagingDir);
+        if (stagingDir != null) {
+            cfg.setStagingDir(Paths.get(stagingDir));
+        }
+
+        final String minCheckInterval = props.getProperty(MinCheckInterval);
+        if (minCheckInterval != null) {
+            try {
+                cfg.setMinCheckInterval(Long.valueOf(minCheckInterval));
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid min check interval {}", minCheckInterval);
+            }
+        }
+        final String maxCheckInterval = props.getProperty(MaxCheckInterval);
+        if (maxCheckInterval != null) {
+            try {
+                cfg.setMaxCheckInterval(Long.valueOf(maxCheckInterval));
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid max check interval {}", maxCheckInterval);
+            }
+        }
+        if (cfg.getMinCheckInterval() <= 0 || cfg.getMinCheckInterval() > cfg.getMaxCheckInterval()) {
+            logger.warn(
+                    "Invalid check intervals: min = {}, max = {}", cfg.getMinCheckInterval(), cfg.getMaxCheckInterval());
+            cfg.setMinCheckInterval(DefaultMinCheckInterval);
+            cfg.setMaxCheckInterval(DefaultMaxCheckInterval);
+        }
+
+        cfg.setGCDryRun(Boolean.parseBoolean(props.getProperty(GCDryRun, "false")));
+
+        final String metricsPort = props.getProperty(MetricsPort);
+        if (metricsPort != null) {
+            try {
+                final int port = Integer.valueOf(metricsPort);
+                if (port >= 0 && port <= 65535) {
+                    cfg.setMetricsPort(port);
+                } else {
+                    logger.warn("Invalid metrics port {}", metricsPort);
+                }
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid metrics port {}", metricsPort);
+            }
+        }
+
+        final String packThreshold = props.getProperty(PackThreshold);
+        if (packThreshold != null) {
+            try {
+                final long threshold = Long.valueOf(packThreshold);
+                if (threshold >= 0) {
+                    cfg.setPackThreshold(threshold);
+                } else {
+                    logger.warn("Invalid pack threshold {}", packThreshold);
+                }
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid pack threshold {}", packThreshold);
+            }
+        }
+
+        final String chunkThreshold = props.getProperty(ChunkThreshold);
+        if (chunkThreshold != null) {
+            try {
+                final long threshold = Long.valueOf(chunkThreshold);
+                if (threshold >= 0) {
+                    cfg.setChunkThreshold(threshold);
+                } else {
+                    logger.warn("Invalid chunk threshold {}", chunkThreshold);
+                }
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid chunk threshold {}", chunkThreshold);
+            }
+        }
+
+        final String compressionThreshold = props.getProperty(CompressionThreshold);
+        if (compressionThreshold != null) {
+            try {
+                final long threshold = Long.valueOf(compressionThreshold);
+                if (threshold >= 0) {
+                    cfg.setCompressionThreshold(threshold);
+                } else {
+                    logger.warn("Invalid compression threshold {}", compressionThreshold);
+                }
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid compression threshold {}", compressionThreshold);
+            }
+        }
+
         logger.info("Sync directory: {}", cfg.getSyncDir());
+        cfg.getAdditionalSyncDirs().forEach(dir -> logger.info("Additional sync directory: {}", dir));
         logger.info(
                 "Sync configuration: data pieces = {}, parity pieces = {}",
                 cfg.dataPieces, cfg.parityPieces);
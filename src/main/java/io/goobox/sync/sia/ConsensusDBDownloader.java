@@ -0,0 +1,623 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * ConsensusDBDownloader downloads the gzipped bootstrap consensus DB and decompresses it.
+ * <p>
+ * If the server supports range requests, the file is split into segments, which are downloaded in parallel into a
+ * part file. The number of downloaded bytes of each segment is saved in a progress file next to the part file, so that
+ * a download interrupted by an error or a crash resumes from where it stopped. While the segments are downloaded, the
+ * contiguous downloaded prefix of the part file is hashed and decompressed in a streaming stage, so that the check sum
+ * and the decompressed DB are ready soon after the last segment arrives.
+ * <p>
+ * If the server doesn't support range requests, the file is downloaded in one stream, which is hashed and decompressed
+ * on the fly.
+ */
+class ConsensusDBDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsensusDBDownloader.class);
+
+    private static final int BufferSize = 64 * 1024;
+
+    /**
+     * The progress file is saved each time this many bytes are downloaded.
+     */
+    static final long SaveInterval = 16L * 1024L * 1024L;
+
+    private static final long LogInterval = TimeUnit.SECONDS.toMillis(5);
+    private static final int ConnectTimeout = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final int ReadTimeout = (int) TimeUnit.SECONDS.toMillis(60);
+
+    // Keys of the progress file.
+    private static final String URLKey = "url";
+    private static final String LengthKey = "length";
+    private static final String ValidatorKey = "validator";
+    private static final String SegmentSizeKey = "segment-size";
+    private static final String SegmentKeyPrefix = "segment.";
+
+    @NotNull
+    private final URL url;
+    @NotNull
+    private final String userAgent;
+    @NotNull
+    private final Path partFile;
+    @NotNull
+    private final Path progressFile;
+    private final int connections;
+    private final long segmentSize;
+    private final int maxRetry;
+
+    /**
+     * Creates a downloader.
+     *
+     * @param url         of the gzipped DB.
+     * @param userAgent   sent to the server.
+     * @param partFile    where the gzipped DB is downloaded; the progress file is created next to it.
+     * @param connections the number of segments downloaded in parallel.
+     * @param segmentSize the byte size of a segment.
+     * @param maxRetry    the number of attempts to download a segment.
+     */
+    ConsensusDBDownloader(
+            @NotNull final URL url, @NotNull final String userAgent, @NotNull final Path partFile,
+            final int connections, final long segmentSize, final int maxRetry) {
+        this.url = url;
+        this.userAgent = userAgent;
+        this.partFile = partFile;
+        this.progressFile = partFile.resolveSibling(partFile.getFileName() + ".progress");
+        this.connections = connections;
+        this.segmentSize = segmentSize;
+        this.maxRetry = maxRetry;
+    }
+
+    /**
+     * Downloads the gzipped DB and decompresses it into the given path.
+     * <p>
+     * The part and progress files are kept if the download fails, so that the next call resumes it. The caller
+     * should call {@link #discard()} once the check sum is verified, or if it doesn't match.
+     *
+     * @param output path where the decompressed DB is written.
+     * @return the SHA-256 check sum of the gzipped DB in hex.
+     * @throws IOException if the download fails.
+     */
+    @NotNull
+    String download(@NotNull final Path output) throws IOException {
+
+        final URLConnection conn = this.openConnection();
+        if (conn instanceof HttpURLConnection) {
+            conn.setRequestProperty("Range", "bytes=0-0");
+        }
+        conn.connect();
+
+        final long length = getRangeLength(conn);
+        if (length < 0) {
+            logger.info("Downloading the bootstrap DB in one stream");
+            try (final InputStream in = new BufferedInputStream(conn.getInputStream(), BufferSize)) {
+                return decompress(in, output);
+            }
+        }
+
+        String validator = conn.getHeaderField("ETag");
+        if (validator == null) {
+            validator = conn.getHeaderField("Last-Modified");
+        }
+        try (final InputStream in = conn.getInputStream()) {
+            IOUtils.copy(in, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        return this.downloadSegments(length, validator != null ? validator : "", output);
+
+    }
+
+    /**
+     * Deletes the part and progress files.
+     *
+     * @throws IOException if failed to delete them.
+     */
+    void discard() throws IOException {
+        Files.deleteIfExists(this.partFile);
+        Files.deleteIfExists(this.progressFile);
+    }
+
+    @NotNull
+    private String downloadSegments(
+            final long length, @NotNull final String validator, @NotNull final Path output) throws IOException {
+
+        final Progress progress = this.loadProgress(length, validator);
+        try (final FileChannel channel = FileChannel.open(
+                this.partFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            final ExecutorService executor = Executors.newFixedThreadPool(this.connections, new ThreadFactory() {
+
+                final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+                int nThread = 0;
+
+                @Override
+                public Thread newThread(@NotNull Runnable r) {
+                    final Thread thread = threadFactory.newThread(r);
+                    thread.setName(String.format("Consensus DB Download %d", ++nThread));
+                    return thread;
+                }
+
+            });
+            try {
+
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i != progress.getSegments(); i++) {
+                    if (!progress.isCompleted(i)) {
+                        final int segment = i;
+                        futures.add(executor.submit(() -> {
+                            this.downloadSegment(channel, progress, segment);
+                            return null;
+                        }));
+                    }
+                }
+
+                final String checkSum = decompress(new DownloadedInputStream(channel, progress), output);
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+                return checkSum;
+
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading the bootstrap DB");
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+
+                // Workers aren't interrupted because it'd close the shared channel; they check the stop flag instead.
+                progress.stop();
+                executor.shutdown();
+                try {
+                    if (!executor.awaitTermination(ReadTimeout, TimeUnit.MILLISECONDS)) {
+                        logger.warn("Segment downloads of the bootstrap DB didn't stop in time");
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                try {
+                    this.saveProgress(channel, progress);
+                } catch (final IOException e) {
+                    logger.warn("Failed to save the progress of downloading the bootstrap DB: {}", e.getMessage());
+                }
+
+            }
+
+        }
+
+    }
+
+    private void downloadSegment(@NotNull final FileChannel channel, @NotNull final Progress progress, final int segment)
+            throws IOException {
+
+        final byte[] buffer = new byte[BufferSize];
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= this.maxRetry && !progress.isStopped(); attempt++) {
+
+            long position = progress.getStart(segment) + progress.getDone(segment);
+            final long end = progress.getStart(segment) + progress.getSize(segment);
+            if (position >= end) {
+                return;
+            }
+
+            try {
+                final HttpURLConnection conn = (HttpURLConnection) this.openConnection();
+                conn.setRequestProperty("Range", String.format("bytes=%d-%d", position, end - 1));
+                if (!progress.getValidator().isEmpty()) {
+                    conn.setRequestProperty("If-Range", progress.getValidator());
+                }
+                try (final InputStream in = conn.getInputStream()) {
+
+                    if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                        // The server returns the whole file instead if it has been updated.
+                        final IOException e = new IOException(String.format(
+                                "The server returned %d instead of the requested range", conn.getResponseCode()));
+                        progress.fail(e);
+                        throw e;
+                    }
+
+                    while (position < end) {
+                        final int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                        if (n == -1) {
+                            throw new EOFException(String.format("Connection closed at %d before %d", position, end));
+                        }
+                        if (progress.isStopped()) {
+                            return;
+                        }
+                        final ByteBuffer buf = ByteBuffer.wrap(buffer, 0, n);
+                        while (buf.hasRemaining()) {
+                            position += channel.write(buf, position);
+                        }
+                        if (progress.advance(segment, n)) {
+                            this.saveProgress(channel, progress);
+                        }
+                    }
+                    return;
+
+                }
+            } catch (final IOException e) {
+                if (progress.isStopped()) {
+                    throw e;
+                }
+                lastError = e;
+                logger.warn("Failed to download segment {} of the bootstrap DB (attempt {}/{}): {}",
+                        segment, attempt, this.maxRetry, e.getMessage());
+            }
+
+        }
+
+        if (lastError != null) {
+            final IOException e = new IOException(
+                    String.format("Cannot download segment %d of the bootstrap DB: %s", segment,
+                            lastError.getMessage()),
+                    lastError);
+            progress.fail(e);
+            throw e;
+        }
+
+    }
+
+    @NotNull
+    private URLConnection openConnection() throws IOException {
+        final URLConnection conn = this.url.openConnection();
+        conn.setRequestProperty("User-Agent", this.userAgent);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        conn.setConnectTimeout(ConnectTimeout);
+        conn.setReadTimeout(ReadTimeout);
+        return conn;
+    }
+
+    /**
+     * Loads the progress of the previous download if it is of the same file, otherwise starts over.
+     */
+    @NotNull
+    private Progress loadProgress(final long length, @NotNull final String validator) throws IOException {
+
+        final Progress progress = new Progress(length, this.segmentSize, validator);
+        if (Files.exists(this.progressFile) && Files.exists(this.partFile)) {
+
+            final Properties props = new Properties();
+            try (final InputStream in = Files.newInputStream(this.progressFile)) {
+                props.load(in);
+            }
+            if (this.url.toString().equals(props.getProperty(URLKey))
+                    && String.valueOf(length).equals(props.getProperty(LengthKey))
+                    && validator.equals(props.getProperty(ValidatorKey))
+                    && String.valueOf(this.segmentSize).equals(props.getProperty(SegmentSizeKey))) {
+                try {
+                    for (int i = 0; i != progress.getSegments(); i++) {
+                        progress.advance(i, Math.max(0, Long.parseLong(props.getProperty(SegmentKeyPrefix + i, "0"))));
+                    }
+                    logger.info("Resuming the download of the bootstrap DB ({} / {} MB)",
+                            progress.getDownloaded() / 1000000, length / 1000000);
+                    return progress;
+                } catch (final NumberFormatException e) {
+                    logger.warn("Invalid progress file {}: {}", this.progressFile, e.getMessage());
+                }
+            } else {
+                logger.info("The bootstrap DB has been changed since the last download, starting over");
+            }
+
+        }
+
+        this.discard();
+        return new Progress(length, this.segmentSize, validator);
+
+    }
+
+    /**
+     * Saves the progress file. Downloaded bytes are flushed to the disk first, so that the progress file never claims
+     * bytes which aren't stored.
+     */
+    private synchronized void saveProgress(
+            @NotNull final FileChannel channel, @NotNull final Progress progress) throws IOException {
+
+        final Properties props = new Properties();
+        props.setProperty(URLKey, this.url.toString());
+        props.setProperty(LengthKey, String.valueOf(progress.getLength()));
+        props.setProperty(ValidatorKey, progress.getValidator());
+        props.setProperty(SegmentSizeKey, String.valueOf(this.segmentSize));
+        for (int i = 0; i != progress.getSegments(); i++) {
+            props.setProperty(SegmentKeyPrefix + i, String.valueOf(progress.getDone(i)));
+        }
+        channel.force(false);
+
+        final Path tmp = this.progressFile.resolveSibling(this.progressFile.getFileName() + ".tmp");
+        try (final OutputStream out = Files.newOutputStream(tmp)) {
+            props.store(out, "Progress of downloading the bootstrap DB");
+        }
+        Files.move(tmp, this.progressFile, StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+    /**
+     * Hashes and decompresses the given stream of the gzipped DB into the given path.
+     *
+     * @return the SHA-256 check sum of the stream in hex.
+     */
+    @NotNull
+    static String decompress(@NotNull final InputStream in, @NotNull final Path output) throws IOException {
+
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        final DigestInputStream hashed = new DigestInputStream(in, digest);
+        try (final InputStream gz = new GZIPInputStream(hashed, BufferSize)) {
+            Files.copy(gz, output, StandardCopyOption.REPLACE_EXISTING);
+            // Hashes bytes after the gzip trailer, which the decompressor doesn't read.
+            IOUtils.copy(hashed, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        return Hex.encodeHexString(digest.digest());
+
+    }
+
+    /**
+     * Returns the length of the file if the given connection, which requested the first byte, got a partial content.
+     *
+     * @return the length, or -1 if the server doesn't support range requests.
+     */
+    static long getRangeLength(@NotNull final URLConnection conn) throws IOException {
+
+        if (!(conn instanceof HttpURLConnection)
+                || ((HttpURLConnection) conn).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            return -1;
+        }
+
+        // e.g. Content-Range: bytes 0-0/1234
+        final String range = conn.getHeaderField("Content-Range");
+        if (range == null || range.lastIndexOf('/') == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(range.lastIndexOf('/') + 1).trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+
+    }
+
+    /**
+     * Progress of a segmented download, which is shared by the segment downloaders and the streaming stage.
+     */
+    static final class Progress {
+
+        private final long length;
+        private final long segmentSize;
+        @NotNull
+        private final String validator;
+        /**
+         * The number of downloaded bytes of each segment.
+         */
+        private final long[] done;
+        /**
+         * Index of the first segment which isn't completed.
+         */
+        private int firstIncomplete;
+        private long unsaved;
+        private long lastLogged;
+        @Nullable
+        private IOException failure;
+        private boolean stopped;
+
+        Progress(final long length, final long segmentSize, @NotNull final String validator) {
+            this.length = length;
+            this.segmentSize = segmentSize;
+            this.validator = validator;
+            this.done = new long[(int) ((length + segmentSize - 1) / segmentSize)];
+            this.lastLogged = System.currentTimeMillis();
+        }
+
+        long getLength() {
+            return this.length;
+        }
+
+        @NotNull
+        String getValidator() {
+            return this.validator;
+        }
+
+        int getSegments() {
+            return this.done.length;
+        }
+
+        long getStart(final int segment) {
+            return segment * this.segmentSize;
+        }
+
+        long getSize(final int segment) {
+            return Math.min(this.segmentSize, this.length - this.getStart(segment));
+        }
+
+        synchronized long getDone(final int segment) {
+            return this.done[segment];
+        }
+
+        synchronized boolean isCompleted(final int segment) {
+            return this.done[segment] >= this.getSize(segment);
+        }
+
+        synchronized long getDownloaded() {
+            long sum = 0;
+            for (final long d : this.done) {
+                sum += d;
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the number of bytes from the beginning of the file which are downloaded.
+         */
+        synchronized long getContiguous() {
+            if (this.firstIncomplete == this.done.length) {
+                return this.length;
+            }
+            return this.getStart(this.firstIncomplete) + this.done[this.firstIncomplete];
+        }
+
+        /**
+         * Records downloaded bytes of a segment.
+         *
+         * @return true if the progress file should be saved.
+         */
+        synchronized boolean advance(final int segment, final long bytes) {
+
+            this.done[segment] = Math.min(this.done[segment] + bytes, this.getSize(segment));
+            while (this.firstIncomplete != this.done.length && this.isCompleted(this.firstIncomplete)) {
+                this.firstIncomplete++;
+            }
+            this.notifyAll();
+
+            final long now = System.currentTimeMillis();
+            if (now - this.lastLogged >= LogInterval) {
+                logger.info("Downloading consensus database... ({} / {} MB)",
+                        this.getDownloaded() / 1000000, this.length / 1000000);
+                this.lastLogged = now;
+            }
+
+            this.unsaved += bytes;
+            if (this.unsaved >= SaveInterval) {
+                this.unsaved = 0;
+                return true;
+            }
+            return false;
+
+        }
+
+        /**
+         * Waits until some bytes after the given position are downloaded.
+         *
+         * @return the number of contiguous downloaded bytes, which is bigger than the position.
+         * @throws IOException if the download failed.
+         */
+        synchronized long awaitContiguous(final long position) throws IOException {
+            while (this.getContiguous() <= position) {
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+                if (this.stopped) {
+                    throw new IOException("The download has been stopped");
+                }
+                try {
+                    this.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the bootstrap DB");
+                }
+            }
+            return this.getContiguous();
+        }
+
+        synchronized void fail(@NotNull final IOException e) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+            this.notifyAll();
+        }
+
+        synchronized void stop() {
+            this.stopped = true;
+            this.notifyAll();
+        }
+
+        synchronized boolean isStopped() {
+            return this.stopped || this.failure != null;
+        }
+
+    }
+
+    /**
+     * Reads the part file up to the contiguous downloaded bytes, waiting for segments being downloaded.
+     */
+    private static final class DownloadedInputStream extends InputStream {
+
+        @NotNull
+        private final FileChannel channel;
+        @NotNull
+        private final Progress progress;
+        private long position;
+
+        private DownloadedInputStream(@NotNull final FileChannel channel, @NotNull final Progress progress) {
+            this.channel = channel;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] b, final int off, final int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+            if (this.position >= this.progress.getLength()) {
+                return -1;
+            }
+            final long available = this.progress.awaitContiguous(this.position) - this.position;
+            final int n = this.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), this.position);
+            if (n == -1) {
+                throw new EOFException(String.format("Part file ended at %d", this.position));
+            }
+            this.position += n;
+            return n;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * ConsistentHashRing assigns keys to nodes so that adding or removing a node moves only the keys of that node.
+ * <p>
+ * Each node is placed at {@link #VirtualNodes} points on a ring of 64-bit hashes, and a key belongs to the node of
+ * the first point at or after the hash of the key.
+ *
+ * @param <T> type of nodes.
+ */
+public class ConsistentHashRing<T> {
+
+    /**
+     * The number of points each node has on the ring, which evens out the share of keys among nodes.
+     */
+    static final int VirtualNodes = 128;
+
+    @NotNull
+    private final List<T> nodes;
+    @NotNull
+    private final NavigableMap<Long, T> ring = new TreeMap<>();
+
+    /**
+     * Creates a ring of the given nodes.
+     *
+     * @param nodes to be placed on the ring, which must not be empty.
+     * @param id    returning a string identifying each node, e.g. its address, which places the node on the ring.
+     */
+    public ConsistentHashRing(@NotNull final List<T> nodes, @NotNull final Function<T, String> id) {
+
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("no nodes are given");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        for (final T node : this.nodes) {
+            final String nodeId = id.apply(node);
+            for (int i = 0; i != VirtualNodes; i++) {
+                this.ring.putIfAbsent(hash(nodeId + "#" + i), node);
+            }
+        }
+
+    }
+
+    /**
+     * Returns the node the given key belongs to.
+     *
+     * @param key such as a file name.
+     * @return the node.
+     */
+    @NotNull
+    public T get(@NotNull final CharSequence key) {
+
+        if (this.nodes.size() == 1) {
+            return this.nodes.get(0);
+        }
+        final Map.Entry<Long, T> entry = this.ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : this.ring.firstEntry().getValue();
+
+    }
+
+    /**
+     * Returns all nodes in the order they are found walking the ring from the given key; the first one is the node
+     * the key belongs to, and the next ones would take the key over if the nodes before them were removed.
+     *
+     * @param key such as a file name.
+     * @return a list of all nodes.
+     */
+    @NotNull
+    public List<T> getPreferenceList(@NotNull final CharSequence key) {
+
+        if (this.nodes.size() == 1) {
+            return this.nodes;
+        }
+        final Set<T> res = new LinkedHashSet<>();
+        final long hash = hash(key);
+        for (final T node : this.ring.tailMap(hash, true).values()) {
+            if (res.add(node) && res.size() == this.nodes.size()) {
+                return new ArrayList<>(res);
+            }
+        }
+        for (final T node : this.ring.headMap(hash, false).values()) {
+            if (res.add(node) && res.size() == this.nodes.size()) {
+                break;
+            }
+        }
+        return new ArrayList<>(res);
+
+    }
+
+    /**
+     * Returns the nodes on this ring.
+     *
+     * @return a list of the nodes in the given order.
+     */
+    @NotNull
+    public List<T> getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the given characters followed by the finalizer of MurmurHash3, which spreads
+     * similar keys such as file names in the same folder over the ring.
+     */
+    static long hash(@NotNull final CharSequence key) {
+
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i != key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+
+    }
+
+}
@@ -17,15 +17,27 @@
 package io.goobox.sync.sia;
 
 import io.goobox.sync.sia.client.ApiClient;
+import io.goobox.sync.sia.db.SyncFile;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Context manages config, api client, and a task queue.
+ * <p>
+ * If additional sia daemons are configured, the context has a daemon context for each daemon, which shares the
+ * config and the staging area but has the api client of the daemon. Files are assigned to the daemons by consistent
+ * hashing on their names.
  *
  * @author junpei
  */
@@ -40,6 +52,30 @@ public class Context {
     @NotNull
     private final Path pathPrefix;
 
+    @NotNull
+    private final String slashedPathPrefix;
+
+    @NotNull
+    private final StagingArea stagingArea;
+
+    /**
+     * host:port of the API server of the sia daemon the api client talks to.
+     */
+    @NotNull
+    private final String siadApiAddress;
+
+    /**
+     * Contexts of all the sia daemons; the first one is the primary daemon, i.e. this context.
+     */
+    @NotNull
+    private final List<Context> daemons;
+
+    /**
+     * Assigns files to the daemons; null if only one daemon is used.
+     */
+    @Nullable
+    private final ConsistentHashRing<Context> ring;
+
     /**
      * Create a new context with a config object, an API client, and a task queue.
      *
@@ -49,16 +85,56 @@ public class Context {
         this.config = cfg;
         this.apiClient = APIUtils.getApiClient(cfg);
         this.pathPrefix = Paths.get(this.config.getUserName(), "Goobox");
+        this.slashedPathPrefix = this.config.getUserName() + "/Goobox";
+        this.stagingArea = new StagingArea(cfg);
+        this.siadApiAddress = cfg.getSiadApiAddress();
+
+        if (cfg.getAdditionalSiadApiAddresses().isEmpty()) {
+            this.daemons = Collections.singletonList(this);
+            this.ring = null;
+        } else {
+            final List<Context> daemons = new ArrayList<>();
+            daemons.add(this);
+            cfg.getAdditionalSiadApiAddresses().forEach(address -> daemons.add(new Context(this, address)));
+            this.daemons = Collections.unmodifiableList(daemons);
+            this.ring = new ConsistentHashRing<>(this.daemons, Context::getSiadApiAddress);
+        }
+    }
+
+    /**
+     * Create a daemon context of an additional sia daemon.
+     *
+     * @param primary        context of the primary daemon.
+     * @param siadApiAddress host:port of the additional daemon.
+     */
+    private Context(@NotNull final Context primary, @NotNull final String siadApiAddress) {
+        this.config = primary.config;
+        this.apiClient = APIUtils.getApiClient(primary.config, siadApiAddress);
+        this.pathPrefix = primary.pathPrefix;
+        this.slashedPathPrefix = primary.slashedPathPrefix;
+        this.stagingArea = primary.stagingArea;
+        this.siadApiAddress = siadApiAddress;
+        this.daemons = Collections.singletonList(this);
+        this.ring = null;
     }
 
     /**
      * Returns the file name from a given local path.
+     * <p>
+     * Files in an additional sync directory are named as if the directory were a folder in the sync directory.
+     * Additional sync directories are read from the config on every call since the app drops some of them after
+     * checking the sync DB.
      *
      * @param localPath of the file
      * @return the name used in goobox for the given file.
      */
     @NotNull
     public String getName(@NotNull final Path localPath) {
+        for (final Path dir : this.config.getAdditionalSyncDirs()) {
+            if (localPath.startsWith(dir)) {
+                return dir.getFileName().resolve(dir.relativize(localPath)).toString();
+            }
+        }
         return this.config.getSyncDir().relativize(localPath).toString();
     }
 
@@ -70,9 +146,66 @@ public class Context {
      */
     @NotNull
     public Path getLocalPath(@NotNull final String name) {
+        final List<Path> dirs = this.config.getAdditionalSyncDirs();
+        if (dirs.isEmpty()) {
+            return this.config.getSyncDir().resolve(name);
+        }
+        final Path path = Paths.get(name);
+        if (path.getNameCount() != 0) {
+            for (final Path dir : dirs) {
+                if (dir.getFileName().equals(path.getName(0))) {
+                    return path.getNameCount() == 1 ? dir : dir.resolve(path.subpath(1, path.getNameCount()));
+                }
+            }
+        }
         return this.config.getSyncDir().resolve(name);
     }
 
+    /**
+     * Returns all the directories to be synchronized.
+     *
+     * @return a map of which keys are names of the directories, i.e. an empty string for the sync directory and names
+     * of top folders for additional sync directories, and values are the directories; the sync directory comes first.
+     */
+    @NotNull
+    public Map<String, Path> getSyncDirs() {
+        final Map<String, Path> res = new LinkedHashMap<>();
+        res.put("", this.config.getSyncDir());
+        this.config.getAdditionalSyncDirs().forEach(dir -> res.put(dir.getFileName().toString(), dir));
+        return res;
+    }
+
+    /**
+     * Returns true if the given local path is in the sync directory but hidden by an additional sync directory
+     * which has the same name as its top folder. Such files are not synchronized.
+     *
+     * @param localPath to be checked.
+     * @return true if the path is hidden.
+     */
+    public boolean isShadowed(@NotNull final Path localPath) {
+        final List<Path> dirs = this.config.getAdditionalSyncDirs();
+        if (dirs.isEmpty()) {
+            return false;
+        }
+        final Path syncDir = this.config.getSyncDir();
+        if (!localPath.startsWith(syncDir) || localPath.getNameCount() <= syncDir.getNameCount()) {
+            return false;
+        }
+        final Path top = localPath.getName(syncDir.getNameCount());
+        return dirs.stream().anyMatch(dir -> dir.getFileName().equals(top));
+    }
+
+    /**
+     * Returns the local path of a synced file if it has one.
+     *
+     * @param syncFile of which local path is returned.
+     * @return the local path if the local file exists or it is going to be downloaded.
+     */
+    @NotNull
+    public Optional<Path> getLocalPath(@NotNull final SyncFile syncFile) {
+        return syncFile.hasLocalPath() ? Optional.of(this.getLocalPath(syncFile.getName())) : Optional.empty();
+    }
+
     /**
      * Returns the config object in this context.
      *
@@ -93,6 +226,58 @@ public class Context {
         return apiClient;
     }
 
+    /**
+     * Returns the address of the API server of the sia daemon this context talks to.
+     *
+     * @return host:port of the API server.
+     */
+    @NotNull
+    public String getSiadApiAddress() {
+        return siadApiAddress;
+    }
+
+    /**
+     * Returns true if this context talks to the primary sia daemon, i.e. the one the app starts and supervises.
+     *
+     * @return true if the daemon is the primary one.
+     */
+    public boolean isPrimaryDaemon() {
+        return this.siadApiAddress.equals(this.config.getSiadApiAddress());
+    }
+
+    /**
+     * Returns contexts of all the sia daemons, which tasks aggregating state or managing wallets iterate over.
+     *
+     * @return a list of daemon contexts; the first one is the primary daemon.
+     */
+    @NotNull
+    public List<Context> getDaemonContexts() {
+        return daemons;
+    }
+
+    /**
+     * Returns the context of the sia daemon the given file is assigned to.
+     *
+     * @param name of the file.
+     * @return the daemon context, which is this context if only one daemon is used.
+     */
+    @NotNull
+    public Context getDaemonContext(@NotNull final String name) {
+        return this.ring != null ? this.ring.get(name) : this;
+    }
+
+    /**
+     * Returns contexts of all the sia daemons, starting with the one the given file is assigned to. The following
+     * daemons are the ones which might have stored the file before the set of daemons changed.
+     *
+     * @param name of the file.
+     * @return a list of daemon contexts.
+     */
+    @NotNull
+    public List<Context> getDaemonContexts(@NotNull final String name) {
+        return this.ring != null ? this.ring.getPreferenceList(name) : this.daemons;
+    }
+
     /**
      * Returns the prefix of cloud paths in this context.
      *
@@ -103,6 +288,26 @@ public class Context {
         return pathPrefix;
     }
 
+    /**
+     * Returns the path prefix in the slash separated form sia paths use.
+     *
+     * @return the path prefix separated by slashes.
+     */
+    @NotNull
+    public String getSlashedPathPrefix() {
+        return slashedPathPrefix;
+    }
+
+    /**
+     * Returns the staging area where files being downloaded are stored.
+     *
+     * @return the staging area.
+     */
+    @NotNull
+    public StagingArea getStagingArea() {
+        return stagingArea;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -110,17 +315,18 @@ public class Context {
         Context context = (Context) o;
         return Objects.equals(config, context.config) &&
                 Objects.equals(apiClient, context.apiClient) &&
-                Objects.equals(pathPrefix, context.pathPrefix);
+                Objects.equals(pathPrefix, context.pathPrefix) &&
+                Objects.equals(siadApiAddress, context.siadApiAddress);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(config, apiClient, pathPrefix);
+        return Objects.hash(config, apiClient, pathPrefix, siadApiAddress);
     }
 
     @Override
     public String toString() {
-        return new ReflectionToStringBuilder(this).toString();
+        return new ReflectionToStringBuilder(this).setExcludeFieldNames("daemons", "ring").toString();
     }
 
 }
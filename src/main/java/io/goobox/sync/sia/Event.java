@@ -18,10 +18,22 @@
 package io.goobox.sync.sia;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public interface Event {
 
     @NotNull
     public String toJson();
 
+    /**
+     * Returns a key of this event if it only reports a progress, so that it can be replaced with a newer event
+     * having the same key, or dropped, when the GUI app doesn't read events fast enough.
+     *
+     * @return the key, or null if this event must be delivered.
+     */
+    @Nullable
+    default String getCoalesceKey() {
+        return null;
+    }
+
 }
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers events to the GUI app without blocking the threads which publish them.
+ * <p>
+ * Events are stored in a bounded buffer and written as JSON lines by a single writer thread. Progress events, i.e.
+ * events having {@link Event#getCoalesceKey() a coalesce key}, are merged with a pending event with the same key,
+ * and dropped if the buffer is full. Other events are never dropped; if the buffer is full, a pending progress
+ * event is dropped to make room for them. Only when the buffer is full of such events, i.e. the GUI app hasn't read
+ * events for a long time, publishing them blocks.
+ */
+public class EventBus implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBus.class);
+
+    /**
+     * Default capacity of the buffer.
+     */
+    static final int DefaultCapacity = 1024;
+
+    /**
+     * Time in milliseconds close waits for the writer thread to write pending events.
+     */
+    private static final long CloseTimeout = 5000;
+
+    /**
+     * Placeholder of a progress event in the buffer; the latest event with the key is written.
+     */
+    private static final class Progress {
+
+        @NotNull
+        final String key;
+
+        Progress(@NotNull final String key) {
+            this.key = key;
+        }
+
+    }
+
+    @NotNull
+    private final Writer out;
+
+    /**
+     * Buffer of events and placeholders of progress events.
+     */
+    @NotNull
+    private final BlockingQueue<Object> buffer;
+
+    /**
+     * Key: coalesce key, Value: the latest progress event with the key which hasn't been written yet.
+     */
+    @NotNull
+    private final Map<String, Event> progress = new ConcurrentHashMap<>();
+
+    @NotNull
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    @NotNull
+    private final AtomicLong published = new AtomicLong();
+    @NotNull
+    private final AtomicLong written = new AtomicLong();
+    @NotNull
+    private final AtomicLong coalesced = new AtomicLong();
+    @NotNull
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates an event bus writing events to the given stream.
+     *
+     * @param out      stream the GUI app reads, such as stdout or a named pipe.
+     * @param capacity of the buffer.
+     */
+    public EventBus(@NotNull final OutputStream out, final int capacity) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::write, "Event Writer");
+        this.writer.setDaemon(true);
+    }
+
+    public EventBus(@NotNull final OutputStream out) {
+        this(out, DefaultCapacity);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        this.writer.start();
+    }
+
+    /**
+     * Publishes an event; this method doesn't wait for the event to be written.
+     *
+     * @param event to be published.
+     */
+    public void publish(@NotNull final Event event) {
+
+        if (this.closed) {
+            logger.debug("Event bus is already closed: {}", event.toJson());
+            this.dropped.incrementAndGet();
+            return;
+        }
+        this.published.incrementAndGet();
+
+        final String key = event.getCoalesceKey();
+        if (key != null) {
+            if (this.progress.put(key, event) != null) {
+                this.coalesced.incrementAndGet();
+            } else if (!this.buffer.offer(new Progress(key))) {
+                this.progress.remove(key);
+                this.dropped.incrementAndGet();
+            }
+            return;
+        }
+
+        if (this.buffer.offer(event) || this.dropProgress() && this.buffer.offer(event)) {
+            return;
+        }
+        logger.warn("Event buffer is full; waiting for the GUI app to read events");
+        try {
+            this.buffer.put(event);
+        } catch (final InterruptedException e) {
+            logger.error("Interrupted while publishing an event: {}", e.getMessage());
+            this.dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Stops accepting events and waits for the writer thread to write pending events.
+     */
+    @Override
+    public void close() {
+
+        this.closed = true;
+        try {
+            this.writer.join(CloseTimeout);
+        } catch (final InterruptedException e) {
+            logger.warn("Interrupted while closing the event bus: {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+        logger.debug(
+                "Events: {} published, {} written, {} coalesced, {} dropped",
+                this.getPublished(), this.getWritten(), this.getCoalesced(), this.getDropped());
+
+    }
+
+    /**
+     * @return the number of events published.
+     */
+    public long getPublished() {
+        return this.published.get();
+    }
+
+    /**
+     * @return the number of events written to the stream.
+     */
+    public long getWritten() {
+        return this.written.get();
+    }
+
+    /**
+     * @return the number of progress events replaced with newer ones.
+     */
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full or the bus was closed.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Removes the oldest pending progress event from the buffer.
+     *
+     * @return true if an event is removed.
+     */
+    private boolean dropProgress() {
+        for (final Iterator<Object> it = this.buffer.iterator(); it.hasNext(); ) {
+            final Object item = it.next();
+            if (item instanceof Progress) {
+                it.remove();
+                if (this.progress.remove(((Progress) item).key) != null) {
+                    this.dropped.incrementAndGet();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write() {
+
+        boolean failed = false;
+        while (!this.closed || !this.buffer.isEmpty()) {
+
+            final Object item;
+            try {
+                item = this.buffer.poll(100, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                logger.warn("Event writer is interrupted: {}", e.getMessage());
+                break;
+            }
+            if (item == null) {
+                continue;
+            }
+
+            final Event event = item instanceof Progress ? this.progress.remove(((Progress) item).key) : (Event) item;
+            if (event == null) {
+                continue;
+            }
+            if (failed) {
+                this.dropped.incrementAndGet();
+                continue;
+            }
+            try {
+                this.out.write(event.toJson());
+                this.out.write(System.lineSeparator());
+                if (this.buffer.isEmpty()) {
+                    this.out.flush();
+                }
+                this.written.incrementAndGet();
+            } catch (final IOException e) {
+                // Keep draining the buffer so that publishers never block on a broken stream.
+                logger.error("Failed to write events: {}", e.getMessage());
+                failed = true;
+            }
+
+        }
+
+        try {
+            this.out.flush();
+        } catch (final IOException e) {
+            logger.error("Failed to flush events: {}", e.getMessage());
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+}
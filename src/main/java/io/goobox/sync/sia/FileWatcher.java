@@ -20,6 +20,8 @@ package io.goobox.sync.sia;
 import io.goobox.sync.common.Utils;
 import io.goobox.sync.sia.db.DB;
 import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
 import io.methvin.watcher.DirectoryChangeEvent;
 import io.methvin.watcher.DirectoryChangeListener;
 import io.methvin.watcher.DirectoryWatcher;
@@ -36,12 +38,17 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable {
 
@@ -52,8 +59,32 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
      */
     static final long MinElapsedTime = 3000L;
 
+    /**
+     * Time this FileWatcher waits for a deleted file to be found again under another name before it marks the file
+     * as deleted. It must be longer than the time a created file takes to be checked.
+     */
+    static final long MoveWindow = 3 * MinElapsedTime;
+
+    /**
+     * Computes the name of a file from its local path.
+     */
     @NotNull
-    private final Path syncDir;
+    private final Function<Path, String> namer;
+    /**
+     * Computes the local path of a file from its name.
+     */
+    @NotNull
+    private final Function<String, Path> resolver;
+    /**
+     * Files accepted by this predicate are ignored because they are hidden by another sync directory.
+     */
+    @NotNull
+    private final Predicate<Path> shadowed;
+    /**
+     * Files in this directory are ignored because they are temporary files being downloaded.
+     */
+    @NotNull
+    private final Path stagingDir;
     @NotNull
     private final DirectoryWatcher watcher;
 
@@ -63,11 +94,52 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
      */
     private final Map<Path, Long> trackingFiles = new HashMap<>();
 
-    FileWatcher(@NotNull final Path syncDir, @NotNull final ScheduledExecutorService executor) throws IOException {
+    /**
+     * Tracks synced files which were deleted but may have been renamed or moved; a created file of the same contents
+     * is paired with one of them and its cloud file is moved instead of uploading the file.
+     * The items have to be marked as deleted if they are not paired in MoveWindow.
+     */
+    private final Map<Path, DeletedFile> deletedFiles = new HashMap<>();
+
+    /**
+     * The number of tracking files, which can be read without locking this watcher.
+     */
+    private volatile int pendingFiles;
+
+    FileWatcher(
+            @NotNull final Path syncDir, @NotNull final Path stagingDir, @NotNull final ScheduledExecutorService executor)
+            throws IOException {
+        this(Collections.singletonList(syncDir), stagingDir,
+                localPath -> syncDir.relativize(localPath).toString(), syncDir::resolve, localPath -> false, executor);
+    }
+
+    /**
+     * Creates a file watcher which watches all the sync directories of the given context with one watching service.
+     *
+     * @param ctx      providing the sync directories.
+     * @param executor running the watching service and the check of modified files.
+     * @throws IOException if failed to start watching.
+     */
+    FileWatcher(@NotNull final Context ctx, @NotNull final ScheduledExecutorService executor) throws IOException {
+        this(new ArrayList<>(ctx.getSyncDirs().values()), ctx.getConfig().getStagingDir(),
+                ctx::getName, ctx::getLocalPath, ctx::isShadowed, executor);
+    }
 
-        logger.info("Start watching {}", syncDir);
-        this.syncDir = syncDir;
-        this.watcher = DirectoryWatcher.builder().path(syncDir).listener(this).build();
+    private FileWatcher(
+            @NotNull final List<Path> syncDirs, @NotNull final Path stagingDir,
+            @NotNull final Function<Path, String> namer, @NotNull final Function<String, Path> resolver,
+            @NotNull final Predicate<Path> shadowed, @NotNull final ScheduledExecutorService executor)
+            throws IOException {
+
+        logger.info("Start watching {}", syncDirs);
+        this.namer = namer;
+        this.resolver = resolver;
+        this.shadowed = shadowed;
+        this.stagingDir = stagingDir;
+        MetricsRegistry.getDefault().gauge(
+                "goobox_watcher_pending_files", "Modified files waiting for their updates to end.",
+                () -> this.pendingFiles);
+        this.watcher = DirectoryWatcher.builder().paths(syncDirs).listener(this).build();
         this.watcher.watchAsync(executor);
         executor.scheduleAtFixedRate(this, 0, MinElapsedTime, TimeUnit.MILLISECONDS);
 
@@ -76,13 +148,18 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
     @Override
     public synchronized void onEvent(final DirectoryChangeEvent event) {
         logger.trace(new ReflectionToStringBuilder(event).toString());
+        MetricsRegistry.getDefault().counter(
+                "goobox_watcher_events_total", "File system events received by the file watcher.",
+                "type", event.eventType().name().toLowerCase()
+        ).increment();
 
         if (event.eventType() == DirectoryChangeEvent.EventType.OVERFLOW) {
             logger.warn("{} is overflowed", event.path());
             return;
         }
 
-        if (Utils.isExcluded(event.path())) {
+        if (Utils.isExcluded(event.path()) || event.path().startsWith(this.stagingDir)
+                || this.shadowed.test(event.path())) {
             logger.debug("{} is excluded", event.path());
             return;
         }
@@ -109,13 +186,13 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
                     this.trackingFiles.remove(event.path());
                 }
                 DB.getFiles()
-                        .map(SyncFile::getLocalPath)
-                        .filter(Optional::isPresent)
-                        .map(Optional::get)
+                        .filter(SyncFile::hasLocalPath)
+                        .map(syncFile -> this.resolver.apply(syncFile.getName()))
                         .filter(localPath -> localPath.startsWith(event.path()))
                         .forEach(this::onDelete);
                 break;
         }
+        this.pendingFiles = this.trackingFiles.size();
 
     }
 
@@ -137,8 +214,7 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
                 final boolean shouldBeAdded = DB.get(name).map(syncFile -> {
 
                     try (final InputStream in = Files.newInputStream(localPath)) {
-                        final String digest = DigestUtils.sha512Hex(in);
-                        if (syncFile.getLocalDigest().map(digest::equals).orElse(false)) {
+                        if (syncFile.matchesLocalDigest(DigestUtils.sha512(in))) {
                             logger.trace("File {} is modified but the contents are not changed", name);
                             removePaths.add(localPath);
                             return false;
@@ -152,9 +228,14 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
 
                 if (shouldBeAdded) {
                     try {
-                        logger.info("Found modified file {}", name);
-                        DB.addNewFile(name, localPath);
-                        App.getInstance().ifPresent(app -> app.refreshOverlayIcon(localPath));
+                        if (!this.pairWithDeletedFile(name, localPath)) {
+                            logger.info("Found modified file {}", name);
+                            DB.addNewFile(name, localPath);
+                        }
+                        App.getInstance().ifPresent(app -> {
+                            app.refreshOverlayIcon(localPath);
+                            app.wakeUpStateChecker();
+                        });
                         removePaths.add(localPath);
                     } catch (IOException e) {
                         logger.error("Failed to add a new file {} to the sync DB: {}", name, e.getMessage());
@@ -163,6 +244,18 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
 
             });
             removePaths.forEach(this.trackingFiles::remove);
+            this.pendingFiles = this.trackingFiles.size();
+
+            final List<Path> deletedPaths = new ArrayList<>();
+            this.deletedFiles.forEach((localPath, deletedFile) -> {
+                if (now - deletedFile.deletedTime >= FileWatcher.MoveWindow) {
+                    deletedPaths.add(localPath);
+                }
+            });
+            deletedPaths.forEach(localPath -> {
+                this.deletedFiles.remove(localPath);
+                this.setDeleted(localPath);
+            });
 
         } finally {
             DB.commit();
@@ -182,18 +275,20 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
 
     @NotNull
     private String getName(@NotNull final Path localPath) {
-        return this.syncDir.relativize(localPath).toString();
+        return this.namer.apply(localPath);
     }
 
     private void onCreate(@NotNull final Path localPath) {
         final long now = System.currentTimeMillis();
         logger.debug("{} is created at {}", localPath, now);
+        this.deletedFiles.remove(localPath);
         this.trackingFiles.put(localPath, now);
     }
 
     private void onModify(@NotNull final Path localPath) {
         final long now = System.currentTimeMillis();
         logger.debug("{} is modified at {}", localPath, now);
+        this.deletedFiles.remove(localPath);
         this.trackingFiles.put(localPath, now);
     }
 
@@ -202,11 +297,96 @@ public class FileWatcher implements DirectoryChangeListener, Runnable, Closeable
         if (this.trackingFiles.containsKey(localPath)) {
             this.trackingFiles.remove(localPath);
         }
+        final String name = this.getName(localPath);
+        DB.get(name).ifPresent(syncFile -> {
+            if (syncFile.getState() == SyncState.SYNCED && syncFile.getLocalDigest().isPresent()
+                    && syncFile.getCloudSize().isPresent()) {
+                // The file may have been renamed or moved, and it will be paired with a created file.
+                this.deletedFiles.put(localPath, new DeletedFile(System.currentTimeMillis(), syncFile));
+                return;
+            }
+            this.setDeleted(localPath);
+        });
+    }
+
+    private void setDeleted(@NotNull final Path localPath) {
         final String name = this.getName(localPath);
         DB.get(name).ifPresent(syncFile -> {
             DB.setDeleted(name);
             DB.commit();
+            App.getInstance().ifPresent(App::wakeUpStateChecker);
         });
     }
 
+    /**
+     * Pairs the given created file with a deleted file of the same size and contents, and marks the created file
+     * will be stored by moving the cloud file of the deleted file, i.e. the file was renamed or moved.
+     * The state checker moves the cloud file.
+     *
+     * @param name      of the created file.
+     * @param localPath to the created file.
+     * @return true if the file is paired with a deleted file.
+     * @throws IOException if failed to access the created file.
+     */
+    private boolean pairWithDeletedFile(@NotNull final String name, @NotNull final Path localPath) throws IOException {
+
+        if (this.deletedFiles.isEmpty()
+                || DB.get(name).map(syncFile -> syncFile.getState().isSynchronizing()).orElse(false)) {
+            return false;
+        }
+
+        final long size = Files.size(localPath);
+        final List<SyncFile> candidates = this.deletedFiles.values().stream()
+                .map(deletedFile -> deletedFile.syncFile)
+                .filter(syncFile -> syncFile.getLocalSize().map(localSize -> localSize == size).orElse(false))
+                .collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            return false;
+        }
+
+        final byte[] digest;
+        try (final InputStream in = Files.newInputStream(localPath)) {
+            digest = DigestUtils.sha512(in);
+        }
+
+        // Prefers a deleted file of the same file name, which is likely moved to another directory.
+        final Path fileName = localPath.getFileName();
+        final Optional<SyncFile> paired = candidates.stream()
+                .filter(syncFile -> syncFile.matchesLocalDigest(digest))
+                .min(Comparator.comparing(
+                        syncFile -> !this.resolver.apply(syncFile.getName()).getFileName().equals(fileName)));
+        if (!paired.isPresent() || !DB.get(paired.get().getName())
+                .map(syncFile -> syncFile.getState() == SyncState.SYNCED).orElse(false)) {
+            return false;
+        }
+
+        final String from = paired.get().getName();
+        logger.info("Found file {} moved from {}", name, from);
+        DB.setForMove(from, name, localPath, digest);
+        this.deletedFiles.remove(this.resolver.apply(from));
+        App.getInstance().ifPresent(app -> app.refreshOverlayIcon(this.resolver.apply(from)));
+        return true;
+
+    }
+
+    /**
+     * A synced file which was deleted.
+     */
+    private static final class DeletedFile {
+
+        private final long deletedTime;
+
+        /**
+         * Record of the file when it was deleted.
+         */
+        @NotNull
+        private final SyncFile syncFile;
+
+        private DeletedFile(final long deletedTime, @NotNull final SyncFile syncFile) {
+            this.deletedTime = deletedTime;
+            this.syncFile = syncFile;
+        }
+
+    }
+
 }
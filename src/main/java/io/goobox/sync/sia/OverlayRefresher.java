@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces refresh requests of overlay icons and changes of the sync state.
+ * <p>
+ * Requested paths are collected for a short window and refreshed once per window; duplicated paths are refreshed
+ * only once, and if more than {@link #MaxFilesPerDirectory} files in a directory are requested, the directory is
+ * refreshed instead of the files.
+ * <p>
+ * Flushes run on the executor given to {@link #start(ScheduledExecutorService)}.
+ * <p>
+ * After each window, the sync state is checked and the listener is notified only if the new state has lasted for
+ * the debounce period, so that the state doesn't flip between idle and synchronizing while files are being synced
+ * one after another.
+ */
+public class OverlayRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverlayRefresher.class);
+
+    /**
+     * Default window in milliseconds in which refresh requests are coalesced.
+     */
+    static final long DefaultWindow = 500;
+
+    /**
+     * Default period in milliseconds a new sync state has to last before it is notified.
+     */
+    static final long DefaultDebounce = 2000;
+
+    /**
+     * If more files than this number in a directory are requested in a window, the directory is refreshed instead.
+     */
+    static final int MaxFilesPerDirectory = 10;
+
+    @NotNull
+    private final Consumer<Path> refresh;
+    @NotNull
+    private final BooleanSupplier synced;
+    @NotNull
+    private final Consumer<Boolean> listener;
+
+    private final long window;
+    private final long debounce;
+
+    /**
+     * Executor which runs flushes; available after {@link #start(ScheduledExecutorService)} is called.
+     */
+    @Nullable
+    private volatile ScheduledExecutorService executor;
+
+    @NotNull
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * True while a flush is scheduled.
+     */
+    @NotNull
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The sync state last notified to the listener.
+     */
+    private boolean lastSynced;
+
+    /**
+     * Time in nanoseconds since when the sync state has been different from the last notified one, or -1.
+     */
+    private long changedSince = -1;
+
+    @NotNull
+    private final AtomicLong requests = new AtomicLong();
+    @NotNull
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * Creates an overlay refresher.
+     *
+     * @param refresh       refreshes the overlay icon of a path.
+     * @param synced        returns true if all files are synced.
+     * @param listener      receives true when the sync state becomes idle and false when it becomes synchronizing.
+     * @param initialSynced the sync state the listener currently assumes.
+     * @param window        in which refresh requests are coalesced.
+     * @param debounce      period a new sync state has to last before it is notified.
+     * @param unit          the time unit of the window and debounce parameters.
+     */
+    public OverlayRefresher(
+            @NotNull final Consumer<Path> refresh, @NotNull final BooleanSupplier synced,
+            @NotNull final Consumer<Boolean> listener, final boolean initialSynced,
+            final long window, final long debounce, @NotNull final TimeUnit unit) {
+        this.refresh = refresh;
+        this.synced = synced;
+        this.listener = listener;
+        this.lastSynced = initialSynced;
+        this.window = unit.toMillis(window);
+        this.debounce = unit.toMillis(debounce);
+    }
+
+    /**
+     * Starts flushing requests with the given executor; requests received before this method is called are flushed
+     * at the end of the first window.
+     *
+     * @param executor to run flushes.
+     */
+    public void start(@NotNull final ScheduledExecutorService executor) {
+        this.executor = executor;
+        if (!this.pending.isEmpty()) {
+            this.schedule(this.window);
+        }
+    }
+
+    /**
+     * Requests to refresh the overlay icon of the given path; it will be refreshed at the end of the current window.
+     *
+     * @param path to be refreshed.
+     */
+    public void request(@NotNull final Path path) {
+        this.requests.incrementAndGet();
+        this.pending.add(path);
+        this.schedule(this.window);
+    }
+
+    /**
+     * Refreshes the requested paths and checks the sync state.
+     */
+    public synchronized void flush() {
+
+        this.scheduled.set(false);
+
+        final List<Path> paths = new ArrayList<>(this.pending);
+        this.pending.removeAll(paths);
+
+        final Map<Path, List<Path>> directories = new HashMap<>();
+        for (final Path path : paths) {
+            final Path parent = path.getParent();
+            directories.computeIfAbsent(parent != null ? parent : path, key -> new ArrayList<>()).add(path);
+        }
+        directories.forEach((dir, files) -> {
+            if (files.size() > MaxFilesPerDirectory) {
+                this.refresh(dir);
+            } else {
+                files.forEach(this::refresh);
+            }
+        });
+        if (!paths.isEmpty()) {
+            logger.trace(
+                    "Refreshed overlay icons: {} requests, {} coalesced so far", this.requests.get(), this.getCoalesced());
+        }
+
+        this.checkSyncState();
+
+    }
+
+    /**
+     * Returns the number of refresh requests.
+     *
+     * @return the number of requests received so far.
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Returns the number of refreshes actually performed.
+     *
+     * @return the number of refreshes so far.
+     */
+    public long getRefreshes() {
+        return this.refreshes.get();
+    }
+
+    /**
+     * Returns the number of refresh requests which have been merged into other refreshes.
+     *
+     * @return the number of coalesced requests so far; requests still pending are also counted.
+     */
+    public long getCoalesced() {
+        return Math.max(0, this.requests.get() - this.refreshes.get());
+    }
+
+    private void refresh(@NotNull final Path path) {
+        this.refreshes.incrementAndGet();
+        try {
+            this.refresh.accept(path);
+        } catch (final RuntimeException e) {
+            logger.error("Failed to refresh the overlay icon of {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void checkSyncState() {
+
+        final boolean synced = this.synced.getAsBoolean();
+        if (synced == this.lastSynced) {
+            this.changedSince = -1;
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if (this.changedSince < 0) {
+            this.changedSince = now;
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(now - this.changedSince);
+        if (elapsed >= this.debounce) {
+            logger.debug("Sync state changed to {}", synced ? "idle" : "synchronizing");
+            this.lastSynced = synced;
+            this.changedSince = -1;
+            this.listener.accept(synced);
+        } else {
+            // Check again after the debounce period even if no more refreshes are requested.
+            this.schedule(this.debounce - elapsed);
+        }
+
+    }
+
+    private void schedule(final long delay) {
+        final ScheduledExecutorService executor = this.executor;
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        if (this.scheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+}
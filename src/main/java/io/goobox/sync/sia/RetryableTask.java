@@ -17,42 +17,75 @@
 
 package io.goobox.sync.sia;
 
+import io.goobox.sync.sia.metrics.Counter;
+import io.goobox.sync.sia.metrics.Histogram;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
 
+/**
+ * Runs a task and retries it while the recovery task can recover from its failures.
+ * <p>
+ * Durations of each attempt and the number of failed attempts are recorded per task class.
+ */
 @SuppressWarnings("SpellCheckingInspection")
 public class RetryableTask implements Runnable {
 
     private static Logger logger = LoggerFactory.getLogger(RetryableTask.class);
 
+    static final String DurationMetric = "goobox_task_duration_seconds";
+    static final String FailureMetric = "goobox_task_failures_total";
+
     @NotNull
     private final Callable<Void> task;
     @NotNull
     private final RecoveryTask recover;
+    @NotNull
+    private final Histogram duration;
+    @NotNull
+    private final Counter failures;
 
     public RetryableTask(@NotNull final Callable<Void> task, @NotNull final RecoveryTask recover) {
         this.task = task;
         this.recover = recover;
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        final String name = task.getClass().getSimpleName();
+        this.duration = registry.latency(DurationMetric, "Duration of each attempt of tasks.", "task", name);
+        this.failures = registry.counter(FailureMetric, "Attempts of tasks which threw an exception.", "task", name);
     }
 
     @Override
     public void run() {
+        this.execute();
+    }
+
+    /**
+     * Runs the task and retries it while the recovery task can recover from its failures.
+     *
+     * @return true if an attempt of the task succeeded, or false if the recovery task gave up.
+     */
+    public boolean execute() {
 
         boolean retry = true;
         while (retry) {
 
+            final long start = System.nanoTime();
             try {
                 this.task.call();
-                return;
+                this.duration.record(System.nanoTime() - start);
+                return true;
             } catch (Exception e) {
+                this.duration.record(System.nanoTime() - start);
+                this.failures.increment();
                 retry = this.recover.recover(e);
             }
 
         }
         logger.warn("Failed to recover {}", this.task.getClass().getName());
+        return false;
 
     }
 
@@ -17,22 +17,16 @@
 
 package io.goobox.sync.sia;
 
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.SystemUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -41,16 +35,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 public class SiaDaemon extends Thread implements Closeable {
 
@@ -76,12 +66,37 @@ public class SiaDaemon extends Thread implements Closeable {
 
     static final int MaxRetry;
 
+    /**
+     * The number of segments of the bootstrap DB downloaded in parallel.
+     */
+    static final int DownloadConnections;
+
+    /**
+     * Byte size of a segment of the bootstrap DB.
+     */
+    static final long DownloadSegmentSize;
+
     /**
      * Threshold file size of the consensus.db. (2GB)
      * If current file size is smaller than this, the database snapshot will be downloaded.
      */
     static final long ConsensusDBThreshold = 2L * 1024L * 1024L * 1024L;
 
+    /**
+     * Output of the sia daemon which means it has loaded all modules and its API is available.
+     */
+    static final List<String> ReadyMarkers = Arrays.asList("Finished loading", "API is now available");
+
+    /**
+     * Prefixes of output of the sia daemon which means it has hit an unrecoverable error.
+     */
+    static final List<String> FatalMarkers = Arrays.asList("panic:", "fatal error:", "Critical error:");
+
+    /**
+     * Time in seconds to wait for the sia daemon to exit after asking it to stop, before killing it.
+     */
+    static final long ShutdownTimeout = 30;
+
     static {
 
         //noinspection SpellCheckingInspection
@@ -101,6 +116,8 @@ public class SiaDaemon extends Thread implements Closeable {
         DefaultUserAgent = bundle.getString("user-agent");
 
         MaxRetry = Integer.valueOf(bundle.getString("max-retry-download"));
+        DownloadConnections = Integer.valueOf(bundle.getString("bootstrap-db-connections"));
+        DownloadSegmentSize = Long.valueOf(bundle.getString("bootstrap-db-segment-size"));
 
     }
 
@@ -111,6 +128,17 @@ public class SiaDaemon extends Thread implements Closeable {
     @Nullable
     private Process process;
 
+    /**
+     * True once the sia daemon has printed a ready marker.
+     */
+    private volatile boolean ready;
+
+    /**
+     * The first line the sia daemon has printed with a fatal marker.
+     */
+    @Nullable
+    private volatile String fatalError;
+
     public SiaDaemon(@NotNull final Config cfg) {
         this.cfg = cfg;
         this.dataDir = cfg.getDataDir().resolve(SiaDaemonDirectory);
@@ -138,7 +166,7 @@ public class SiaDaemon extends Thread implements Closeable {
         try {
             this.process = cmd.start();
             try (final BufferedReader in = new BufferedReader(new InputStreamReader(this.process.getInputStream()))) {
-                in.lines().forEach(logger::debug);
+                in.lines().forEach(this::parseOutput);
             }
         } catch (final IOException e) {
             logger.error("Failed to start sia daemon: {}", e.getMessage());
@@ -158,7 +186,10 @@ public class SiaDaemon extends Thread implements Closeable {
             logger.info("Closing the sia daemon");
             this.process.destroy();
             try {
-                this.process.waitFor();
+                if (!this.process.waitFor(ShutdownTimeout, TimeUnit.SECONDS)) {
+                    logger.warn("The sia daemon doesn't stop in {} seconds, killing it", ShutdownTimeout);
+                    this.process.destroyForcibly().waitFor();
+                }
             } catch (final InterruptedException e) {
                 logger.warn("Interrupted while waiting the sia daemon ends: {}", e.getMessage());
             }
@@ -166,9 +197,56 @@ public class SiaDaemon extends Thread implements Closeable {
 
     }
 
+    /**
+     * Returns true if the sia daemon isn't running; a daemon which has been started but hasn't spawned the process yet
+     * is running.
+     *
+     * @return true if the sia daemon isn't running.
+     */
     @SuppressWarnings("WeakerAccess")
     public boolean isClosed() {
-        return this.process == null;
+        return this.process == null && !this.isAlive();
+    }
+
+    /**
+     * Returns true if the sia daemon has reported that it has loaded all modules.
+     *
+     * @return true if the sia daemon is ready.
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * Returns the output line of the sia daemon reporting an unrecoverable error.
+     *
+     * @return the output line if the sia daemon has reported a fatal error.
+     */
+    public Optional<String> getFatalError() {
+        return Optional.ofNullable(this.fatalError);
+    }
+
+    /**
+     * Parses a line of output of the sia daemon to find readiness and fatal errors, and logs it.
+     *
+     * @param line printed by the sia daemon.
+     */
+    void parseOutput(@NotNull final String line) {
+
+        if (FatalMarkers.stream().anyMatch(line::startsWith)) {
+            logger.error("Sia daemon: {}", line);
+            if (this.fatalError == null) {
+                this.fatalError = line;
+            }
+            return;
+        }
+        if (!this.ready && ReadyMarkers.stream().anyMatch(line::contains)) {
+            logger.info("Sia daemon: {}", line);
+            this.ready = true;
+            return;
+        }
+        logger.debug(line);
+
     }
 
     @NotNull
@@ -198,7 +276,11 @@ public class SiaDaemon extends Thread implements Closeable {
             Files.createDirectories(dbPath.getParent());
         }
 
-        final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        // The part file is kept next to the DB so that an interrupted download resumes after restarts.
+        final ConsensusDBDownloader downloader = new ConsensusDBDownloader(
+                new URL(ConsensusDBURL), DefaultUserAgent,
+                dbPath.resolveSibling(dbPath.getFileName() + ".gz.part"),
+                DownloadConnections, DownloadSegmentSize, MaxRetry);
         int attempt = 0;
         while (attempt < MaxRetry) {
             attempt++;
@@ -209,56 +291,22 @@ public class SiaDaemon extends Thread implements Closeable {
                 return false;
             }
 
-            final Path tempFile = Files.createTempFile(null, null);
-            final ExecutorService executor = Executors.newFixedThreadPool(2);
+            final Path tempFile = Files.createTempFile(dbPath.getParent(), null, null);
             try {
 
-                final URL url = new URL(ConsensusDBURL);
-                final URLConnection conn = url.openConnection();
-                conn.setRequestProperty("User-Agent", DefaultUserAgent);
-                conn.setRequestProperty("Accept-Encoding", "identity");
-                conn.connect();
-
-                // Calculating the download progress.
-                executor.submit(() -> {
-                    Thread.currentThread().setName("Consensus DB Download Monitor");
-                    try {
-                        while (Files.exists(tempFile)) {
-                            try {
-                                logger.info("Downloading consensus database... ({} MB)", Files.size(tempFile) / 1000000);
-                            } catch (final IOException e) {
-                                logger.error("Failed to get the file size fo consensus database: {}", e.getMessage());
-                            }
-                            Thread.sleep(5000);
-                        }
-                    } catch (final InterruptedException e) {
-                        logger.error("Interrupted while downloading consensus database: {}", e.getMessage());
-                    }
-                });
-
-                final PipedInputStream pipedIn = new PipedInputStream();
-                final PipedOutputStream pipedOut = new PipedOutputStream(pipedIn);
-                final Future checkSumFuture = executor.submit(() -> {
-                    Thread.currentThread().setName("Compute SHA-256 Hash");
-                    return DigestUtils.sha256Hex(pipedIn);
-                });
-
-                try (final InputStream in = new GZIPInputStream(new TeeInputStream(new BufferedInputStream(conn.getInputStream()), pipedOut, true))) {
-                    Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                }
-
-                if (!checkSumOpt.get().equals(checkSumFuture.get())) {
+                final String checkSum = downloader.download(tempFile);
+                if (!checkSumOpt.get().equals(checkSum)) {
                     logger.warn("The check sum of the downloaded bootstrap DB doesn't match, retry");
+                    downloader.discard();
                     continue;
                 }
 
                 Files.move(tempFile, dbPath, StandardCopyOption.REPLACE_EXISTING);
+                downloader.discard();
                 return true;
 
-            } catch (final InterruptedException e) {
-                logger.error("Interrupted while downloading the bootstrap DB: {}", e.getMessage());
-            } catch (final ExecutionException e) {
-                logger.error("Failed to compute the check sum of the bootstrap DB: {}", e.getMessage());
+            } catch (final IOException e) {
+                logger.error("Failed to download the bootstrap DB: {}", e.getMessage());
             } finally {
 
                 try {
@@ -266,12 +314,6 @@ public class SiaDaemon extends Thread implements Closeable {
                 } catch (final IOException e) {
                     logger.error("Failed to delete temporary file {}: {}", tempFile, e.getMessage());
                 }
-                executor.shutdown();
-                try {
-                    executor.awaitTermination(60, TimeUnit.SECONDS);
-                } catch (final InterruptedException e) {
-                    logger.error("Interrupted while preparing the bootstrap DB: {}", e.getMessage());
-                }
 
             }
 
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import io.goobox.sync.sia.client.ApiClient;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.ConsensusApi;
+import io.goobox.sync.sia.client.api.DaemonApi;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Starts the sia daemon and keeps it running.
+ * <p>
+ * Once {@link #monitor(ScheduledExecutorService)} is called, the supervisor checks the daemon it has started every
+ * check interval: the process must be alive, must not have printed a fatal error, and must answer /daemon/version
+ * and /consensus within {@link #HealthCheckTimeout}. Failed health checks aren't counted while the daemon is loading
+ * its modules, up to {@link #StartupGracePeriod}. A daemon which has exited, has printed a fatal error, or has failed
+ * {@link #MaxHealthCheckFailures} health checks in a row is stopped and restarted after a delay which doubles on
+ * each restart until the daemon passes a health check.
+ * <p>
+ * Downloading the consensus DB before starting a daemon may take hours, so it runs on a dedicated starter thread
+ * without holding this supervisor's lock; health checks and the metrics getters aren't blocked meanwhile.
+ * <p>
+ * A sia daemon which this supervisor hasn't started, e.g. one the user runs, isn't supervised.
+ */
+public class SiaDaemonSupervisor implements Runnable, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SiaDaemonSupervisor.class);
+
+    /**
+     * Interval in milliseconds between health checks.
+     */
+    static final long CheckInterval = 10 * 1000;
+
+    /**
+     * Connect and read timeout in milliseconds of each health check request.
+     */
+    static final int HealthCheckTimeout = 5 * 1000;
+
+    /**
+     * The number of failed health checks in a row which makes the daemon restart.
+     */
+    static final int MaxHealthCheckFailures = 3;
+
+    /**
+     * Time in milliseconds a starting daemon which hasn't reported it's ready may fail health checks.
+     */
+    static final long StartupGracePeriod = 10 * 60 * 1000;
+
+    /**
+     * Checks the sia daemon responds.
+     */
+    @FunctionalInterface
+    interface HealthCheck {
+        void check() throws ApiException;
+    }
+
+    @NotNull
+    private final Config cfg;
+    @NotNull
+    private final HealthCheck healthCheck;
+    @NotNull
+    private final LongSupplier clock;
+
+    /**
+     * Prepares and starts daemons, which shouldn't be the shared worker pool.
+     */
+    @NotNull
+    private final Executor starter;
+
+    @Nullable
+    private SiaDaemon daemon;
+
+    /**
+     * True while the starter is preparing a new daemon.
+     */
+    private boolean starting;
+
+    /**
+     * Time in milliseconds the current daemon started.
+     */
+    private long startedAt;
+
+    /**
+     * The number of times the daemon has been restarted.
+     */
+    private long restarts;
+
+    /**
+     * True if the last health check passed.
+     */
+    private boolean healthy;
+
+    /**
+     * The number of failed health checks in a row.
+     */
+    private int consecutiveFailures;
+
+    /**
+     * True if the daemon has been stopped and will be started at restartAt.
+     */
+    private boolean restartPending;
+    private long restartAt;
+
+    @NotNull
+    private Backoff restartBackoff = newRestartBackoff();
+
+    @Nullable
+    private ScheduledExecutorService executor;
+    @Nullable
+    private ScheduledFuture<?> future;
+    private boolean hooked;
+    private boolean closed;
+
+    public SiaDaemonSupervisor(@NotNull final Config cfg) {
+        this(cfg, newHealthCheck(cfg), System::currentTimeMillis, newStarter());
+    }
+
+    SiaDaemonSupervisor(
+            @NotNull final Config cfg, @NotNull final HealthCheck healthCheck, @NotNull final LongSupplier clock,
+            @NotNull final Executor starter) {
+        this.cfg = cfg;
+        this.healthCheck = healthCheck;
+        this.clock = clock;
+        this.starter = starter;
+    }
+
+    /**
+     * Starts a sia daemon unless one started by this supervisor is running, being prepared, or waiting for a restart.
+     * <p>
+     * The daemon is prepared and started by the starter thread, and this method doesn't wait for it.
+     */
+    public void start() {
+
+        synchronized (this) {
+            if (this.closed || this.starting || (this.daemon != null && !this.daemon.isClosed())) {
+                return;
+            }
+            if (this.restartPending && this.clock.getAsLong() < this.restartAt) {
+                return;
+            }
+            this.starting = true;
+        }
+
+        try {
+            this.starter.execute(this::prepareAndStart);
+        } catch (final RejectedExecutionException e) {
+            logger.error("Failed to start the sia daemon: {}", e.getMessage());
+            synchronized (this) {
+                this.starting = false;
+            }
+        }
+
+    }
+
+    /**
+     * Downloads the consensus DB if necessary, and then swaps in and starts a new daemon.
+     */
+    private void prepareAndStart() {
+
+        final SiaDaemon next = new SiaDaemon(this.cfg);
+        try {
+            next.checkAndDownloadConsensusDB();
+        } catch (final IOException e) {
+            logger.error("Failed to start the sia daemon: {}", e.getMessage());
+            synchronized (this) {
+                this.starting = false;
+            }
+            return;
+        }
+
+        synchronized (this) {
+
+            this.starting = false;
+            if (this.closed) {
+                return;
+            }
+            if (!this.hooked) {
+                Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+                this.hooked = true;
+            }
+
+            if (this.daemon != null) {
+                this.restarts++;
+                logger.info("Restarting the sia daemon (restarts: {})", this.restarts);
+            } else {
+                logger.info("Starting a sia daemon");
+            }
+            this.daemon = next;
+            this.daemon.start();
+            this.startedAt = this.clock.getAsLong();
+            this.restartPending = false;
+            this.healthy = false;
+            this.consecutiveFailures = 0;
+
+        }
+
+    }
+
+    /**
+     * Starts checking the health of the daemon periodically.
+     *
+     * @param executor which runs health checks.
+     */
+    public synchronized void monitor(@NotNull final ScheduledExecutorService executor) {
+        this.executor = executor;
+        this.schedule(CheckInterval);
+    }
+
+    /**
+     * Checks the daemon once, restarting it if necessary, and schedules the next check.
+     */
+    @Override
+    public void run() {
+
+        long delay = CheckInterval;
+        try {
+
+            final boolean restartPending;
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                restartPending = this.restartPending;
+            }
+            if (restartPending) {
+                this.start();
+            }
+
+            final SiaDaemon current;
+            synchronized (this) {
+                if (this.restartPending) {
+                    delay = Math.max(this.restartAt - this.clock.getAsLong(), App.MinSleepTime);
+                    return;
+                }
+                current = this.daemon;
+            }
+            if (current != null) {
+                delay = this.check(current);
+            }
+
+        } catch (final RuntimeException e) {
+            logger.error("Failed to supervise the sia daemon: {}", e.getMessage());
+        } finally {
+            synchronized (this) {
+                this.schedule(delay);
+            }
+        }
+
+    }
+
+    /**
+     * Checks the given daemon and stops it if it needs a restart.
+     *
+     * @param current daemon to be checked.
+     * @return delay in milliseconds until the next check.
+     */
+    private long check(@NotNull final SiaDaemon current) {
+
+        if (current.isClosed()) {
+            logger.warn("The sia daemon has exited");
+            return this.stopForRestart(current);
+        }
+        final Optional<String> fatalError = current.getFatalError();
+        if (fatalError.isPresent()) {
+            logger.warn("The sia daemon has reported a fatal error: {}", fatalError.get());
+            return this.stopForRestart(current);
+        }
+
+        try {
+            this.healthCheck.check();
+            synchronized (this) {
+                this.healthy = true;
+                this.consecutiveFailures = 0;
+                this.restartBackoff = newRestartBackoff();
+            }
+            return CheckInterval;
+        } catch (final ApiException e) {
+
+            synchronized (this) {
+                this.healthy = false;
+                if (!current.isReady() && this.clock.getAsLong() - this.startedAt < StartupGracePeriod) {
+                    logger.debug("The sia daemon is loading: {}", APIUtils.getErrorMessage(e));
+                    return CheckInterval;
+                }
+                this.consecutiveFailures++;
+                logger.warn("Health check of the sia daemon failed ({}/{}): {}",
+                        this.consecutiveFailures, MaxHealthCheckFailures, APIUtils.getErrorMessage(e));
+                if (this.consecutiveFailures < MaxHealthCheckFailures) {
+                    return CheckInterval;
+                }
+            }
+            return this.stopForRestart(current);
+
+        }
+
+    }
+
+    /**
+     * Stops the given daemon and schedules a restart after the backoff delay.
+     *
+     * @param current daemon to be stopped.
+     * @return delay in milliseconds until the restart.
+     */
+    private long stopForRestart(@NotNull final SiaDaemon current) {
+
+        current.close();
+        synchronized (this) {
+            final long delay = this.restartBackoff.next();
+            this.healthy = false;
+            this.restartPending = true;
+            this.restartAt = this.clock.getAsLong() + delay;
+            logger.info("Restarting the sia daemon in {} seconds", TimeUnit.MILLISECONDS.toSeconds(delay));
+            return delay;
+        }
+
+    }
+
+    private void schedule(final long delay) {
+        if (!this.closed && this.executor != null) {
+            this.future = this.executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops supervising and closes the daemon.
+     */
+    @Override
+    public synchronized void close() {
+
+        this.closed = true;
+        if (this.future != null) {
+            this.future.cancel(false);
+        }
+        if (this.daemon != null) {
+            this.daemon.close();
+        }
+        if (this.starter instanceof ExecutorService) {
+            ((ExecutorService) this.starter).shutdownNow();
+        }
+
+    }
+
+    /**
+     * Returns how long the current daemon has been running.
+     *
+     * @return the uptime in milliseconds, or 0 if no daemon is running.
+     */
+    public synchronized long getUptimeMillis() {
+        if (this.daemon == null || this.restartPending || this.daemon.isClosed()) {
+            return 0;
+        }
+        return this.clock.getAsLong() - this.startedAt;
+    }
+
+    /**
+     * Returns the number of times the daemon has been restarted.
+     *
+     * @return the number of restarts.
+     */
+    public synchronized long getRestartCount() {
+        return this.restarts;
+    }
+
+    /**
+     * Returns true if the last health check passed.
+     *
+     * @return true if the daemon is healthy.
+     */
+    public synchronized boolean isHealthy() {
+        return this.healthy;
+    }
+
+    @NotNull
+    private static Backoff newRestartBackoff() {
+        return new Backoff(App.MinSleepTime, App.DefaultSleepTime);
+    }
+
+    @NotNull
+    private static Executor newStarter() {
+        return Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "Sia Daemon Starter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @NotNull
+    private static HealthCheck newHealthCheck(@NotNull final Config cfg) {
+
+        final ApiClient apiClient = APIUtils.getApiClient(cfg);
+        apiClient.setConnectTimeout(HealthCheckTimeout);
+        apiClient.setReadTimeout(HealthCheckTimeout);
+        final DaemonApi daemonApi = new DaemonApi(apiClient);
+        final ConsensusApi consensusApi = new ConsensusApi(apiClient);
+        return () -> {
+            daemonApi.daemonVersionGet();
+            consensusApi.consensusGet();
+        };
+
+    }
+
+}
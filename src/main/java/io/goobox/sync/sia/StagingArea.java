@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncState;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manages the staging area where files being downloaded are stored until they are completed. Packs, chunks and
+ * manifests being uploaded are also stored here.
+ * <p>
+ * The staging area should be on the same volume as the sync directory so that a downloaded file can be moved to
+ * its destination by renaming it instead of copying its body.
+ */
+public class StagingArea {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagingArea.class);
+
+    /**
+     * Prefix of temporary files created in the staging area.
+     */
+    static final String FilePrefix = "download-";
+
+    @NotNull
+    private final Config cfg;
+
+    /**
+     * Tracks the sizes reserved for files being downloaded.
+     * Key: temporary path, Value: expected file size.
+     */
+    private final Map<Path, Long> reserved = new ConcurrentHashMap<>();
+
+    /**
+     * Sum of the sizes in reserved, updated along with it so that allocations don't need to check every file.
+     */
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    StagingArea(@NotNull final Config cfg) {
+        this.cfg = cfg;
+    }
+
+    /**
+     * Returns the path to the staging directory.
+     *
+     * @return the path to the staging directory.
+     */
+    @NotNull
+    public Path getDirectory() {
+        return this.cfg.getStagingDir();
+    }
+
+    /**
+     * Returns true if the given path is in the staging area.
+     *
+     * @param path to be checked.
+     * @return true if the path is in the staging area.
+     */
+    public boolean contains(@NotNull final Path path) {
+        return path.toAbsolutePath().startsWith(this.getDirectory());
+    }
+
+    /**
+     * Creates a new temporary file in the staging area and reserves the given size for it.
+     *
+     * @param size expected size of the file to be downloaded.
+     * @return the path to the created file.
+     * @throws IOException if the staging area doesn't have enough space or fails to create the file.
+     */
+    @NotNull
+    public synchronized Path allocate(final long size) throws IOException {
+
+        final Path dir = this.prepare();
+        final long available = Files.getFileStore(dir).getUsableSpace() - this.reservedBytes.get();
+        if (available < size) {
+            throw new IOException(String.format(
+                    "staging area %s doesn't have enough space: %d bytes are required but %d bytes are available",
+                    dir, size, available));
+        }
+
+        final Path tempPath = Files.createTempFile(dir, FilePrefix, null);
+        this.reserve(tempPath, size);
+        logger.trace("Reserved {} bytes for {}", size, tempPath);
+        return tempPath;
+
+    }
+
+    /**
+     * Moves the given temporary file to the destination and releases the reserved space.
+     * <p>
+     * If the staging area is not on the same volume as the destination, the file will be copied instead.
+     *
+     * @param tempPath    to the file in the staging area.
+     * @param destination where the file will be moved to.
+     * @throws IOException if fails to move the file.
+     */
+    public void commit(@NotNull final Path tempPath, @NotNull final Path destination) throws IOException {
+
+        try {
+            Files.move(tempPath, destination, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            logger.warn("Cannot move {} to {} atomically, copying it instead: {}", tempPath, destination, e.getMessage());
+            Files.move(tempPath, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.unreserve(tempPath);
+
+    }
+
+    /**
+     * Reduces the space reserved for the given temporary file, which has been written completely, to its size.
+     *
+     * @param tempPath to the file in the staging area.
+     */
+    public void trim(@NotNull final Path tempPath) {
+        this.reserved.computeIfPresent(tempPath, (path, size) -> {
+            final long trimmed = Math.min(size, sizeOf(path));
+            this.reservedBytes.addAndGet(trimmed - size);
+            return trimmed;
+        });
+    }
+
+    /**
+     * Deletes the given temporary file and releases the reserved space.
+     *
+     * @param tempPath to the file in the staging area.
+     */
+    public void release(@NotNull final Path tempPath) {
+
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (final IOException e) {
+            logger.error("Failed to delete temporary file {}: {}", tempPath, e.getMessage());
+        }
+        this.unreserve(tempPath);
+
+    }
+
+    /**
+     * Deletes orphaned files, which are not used by any downloading files, compressed files, packs, chunks and
+     * manifests being uploaded, from the staging area and reserves spaces for the files still being downloaded and
+     * the uploads.
+     * <p>
+     * This method should be called once on startup, before any download is enqueued.
+     *
+     * @return the number of deleted files.
+     * @throws IOException if fails to prepare the staging directory.
+     */
+    public synchronized int cleanUp() throws IOException {
+
+        final Path dir = this.prepare();
+        this.reserved.clear();
+        this.reservedBytes.set(0);
+        DB.getFiles()
+                .filter(syncFile -> syncFile.getState() == SyncState.FOR_DOWNLOAD || syncFile.getState() == SyncState.DOWNLOADING)
+                .forEach(syncFile -> syncFile.getTemporaryPath()
+                        .filter(this::contains)
+                        .ifPresent(tempPath -> this.reserve(tempPath, syncFile.getCloudSize().orElse(0L))));
+        DB.getFiles()
+                .filter(syncFile -> syncFile.getState() == SyncState.FOR_UPLOAD || syncFile.getState() == SyncState.UPLOADING)
+                .forEach(syncFile -> syncFile.getTemporaryPath()
+                        .filter(this::contains)
+                        .ifPresent(stagedPath -> this.reserve(stagedPath, 0L)));
+        DB.getPacks().forEach(pack -> pack.getStagedPath()
+                .filter(this::contains)
+                .ifPresent(stagedPath -> this.reserve(stagedPath, pack.getSize())));
+        DB.getChunks().forEach(chunk -> chunk.getStagedPath()
+                .filter(this::contains)
+                .ifPresent(stagedPath -> this.reserve(stagedPath, chunk.getLength())));
+        DB.getChunkedFiles().forEach(file -> file.getStagedPath()
+                .filter(this::contains)
+                .ifPresent(stagedPath -> this.reserve(stagedPath, 0L)));
+
+        int deleted = 0;
+        try (final Stream<Path> files = Files.list(dir)) {
+            for (final Path path : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (this.reserved.containsKey(path)) {
+                    continue;
+                }
+                logger.debug("Deleting orphaned temporary file {}", path);
+                try {
+                    Files.deleteIfExists(path);
+                    deleted++;
+                } catch (final IOException e) {
+                    logger.error("Failed to delete orphaned temporary file {}: {}", path, e.getMessage());
+                }
+            }
+        }
+
+        logger.info(
+                "Staging area {} uses {} bytes ({} bytes are reserved for {} files)",
+                dir, this.getUsage(), this.reservedBytes.get(), this.reserved.size());
+        return deleted;
+
+    }
+
+    /**
+     * Returns the total size of the files stored in the staging area.
+     *
+     * @return the disk usage in bytes.
+     */
+    public long getUsage() {
+
+        final Path dir = this.getDirectory();
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (final Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(StagingArea::sizeOf).sum();
+        } catch (final IOException e) {
+            logger.error("Failed to list files in {}: {}", dir, e.getMessage());
+            return 0;
+        }
+
+    }
+
+    /**
+     * Returns the total size reserved for the temporary files.
+     * <p>
+     * Bytes already written to the files are also counted, and so allocations err on the side of refusing.
+     */
+    long getReservedBytes() {
+        return this.reservedBytes.get();
+    }
+
+    private void reserve(@NotNull final Path tempPath, final long size) {
+        final Long prev = this.reserved.put(tempPath, size);
+        this.reservedBytes.addAndGet(prev != null ? size - prev : size);
+    }
+
+    private void unreserve(@NotNull final Path tempPath) {
+        final Long size = this.reserved.remove(tempPath);
+        if (size != null) {
+            this.reservedBytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * Creates the staging directory if not exists.
+     *
+     * @return the path to the staging directory.
+     */
+    @NotNull
+    private Path prepare() throws IOException {
+
+        final Path dir = this.getDirectory();
+        if (!Files.exists(dir)) {
+            logger.info("Creating staging directory {}", dir);
+            Files.createDirectories(dir);
+            if (SystemUtils.IS_OS_WINDOWS) {
+                Files.setAttribute(dir, "dos:hidden", true);
+            }
+        }
+        return dir;
+
+    }
+
+    private static long sizeOf(@NotNull final Path path) {
+        try {
+            return Files.size(path);
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+}
@@ -41,13 +41,14 @@ public class StartSiaDaemonTask implements RecoveryTask {
                 return App.getInstance().map(app -> {
 
                     final Context ctx = app.getContext();
+                    final Backoff backoff = new Backoff(App.MinSleepTime, App.DefaultSleepTime);
                     int retry = 0;
                     while (true) {
 
                         app.startSiaDaemon();
                         try {
 
-                            Thread.sleep(App.DefaultSleepTime);
+                            Thread.sleep(backoff.next());
 
                             final GetWalletInfoTask getWalletInfoTask = new GetWalletInfoTask(ctx);
                             getWalletInfoTask.call();
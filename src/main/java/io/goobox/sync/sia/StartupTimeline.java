@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.function.LongSupplier;
+
+/**
+ * StartupTimeline records when startup milestones are reached, in milliseconds from the launch of the process, so
+ * that the time from launch to the first upload can be measured and reported.
+ */
+public class StartupTimeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeline.class);
+
+    public enum Milestone {
+        // The startup scan of the sync folder has finished.
+        localScan,
+        // The sia daemon is synchronized and has enough contracts.
+        daemonReady,
+        // The first upload has been requested to the sia daemon.
+        firstUpload
+    }
+
+    private final long launchedAt;
+    @NotNull
+    private final LongSupplier clock;
+    private final Map<Milestone, Long> elapsed = new EnumMap<>(Milestone.class);
+
+    /**
+     * Creates a timeline starting at the launch of the JVM.
+     */
+    public StartupTimeline() {
+        this(ManagementFactory.getRuntimeMXBean().getStartTime(), System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a timeline.
+     *
+     * @param launchedAt time in milliseconds when the process was launched.
+     * @param clock      returning the current time in milliseconds.
+     */
+    StartupTimeline(final long launchedAt, @NotNull final LongSupplier clock) {
+        this.launchedAt = launchedAt;
+        this.clock = clock;
+    }
+
+    /**
+     * Records that the given milestone is reached; only the first call for each milestone is recorded.
+     *
+     * @param milestone reached.
+     */
+    public synchronized void reached(@NotNull final Milestone milestone) {
+        if (!this.elapsed.containsKey(milestone)) {
+            final long millis = this.clock.getAsLong() - this.launchedAt;
+            this.elapsed.put(milestone, millis);
+            logger.info("Startup milestone {} reached {} ms after launch", milestone, millis);
+        }
+    }
+
+    /**
+     * Returns the time from the launch to the given milestone.
+     *
+     * @param milestone to be checked.
+     * @return milliseconds from the launch, or empty if the milestone hasn't been reached.
+     */
+    public synchronized OptionalLong getElapsedMillis(@NotNull final Milestone milestone) {
+        final Long millis = this.elapsed.get(milestone);
+        return millis != null ? OptionalLong.of(millis) : OptionalLong.empty();
+    }
+
+}
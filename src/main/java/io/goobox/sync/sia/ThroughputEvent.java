@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reports the aggregate throughput of all files being uploaded and downloaded.
+ */
+public class ThroughputEvent implements Event {
+
+    static class Args {
+        // Bytes per second.
+        final long uploadRate;
+        final long downloadRate;
+        // The numbers of files being transferred.
+        final int uploads;
+        final int downloads;
+
+        Args(final long uploadRate, final long downloadRate, final int uploads, final int downloads) {
+            this.uploadRate = uploadRate;
+            this.downloadRate = downloadRate;
+            this.uploads = uploads;
+            this.downloads = downloads;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    final String method = "throughput";
+    @NotNull
+    final ThroughputEvent.Args args;
+
+    ThroughputEvent(final long uploadRate, final long downloadRate, final int uploads, final int downloads) {
+        this.args = new ThroughputEvent.Args(uploadRate, downloadRate, uploads, downloads);
+    }
+
+    @NotNull
+    @Override
+    public String toJson() {
+        final Gson gson = new Gson();
+        return gson.toJson(this);
+    }
+
+    @NotNull
+    @Override
+    public String getCoalesceKey() {
+        return this.method;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reports the progress of a file being uploaded or downloaded.
+ */
+public class TransferEvent implements Event {
+
+    static class Args {
+        @NotNull
+        final TransferMonitor.Direction direction;
+        @NotNull
+        final String name;
+        final long bytesDone;
+        final long bytesTotal;
+        // Bytes per second.
+        final long rate;
+        // Estimated seconds to complete, or -1 if unknown.
+        final long eta;
+
+        Args(@NotNull final TransferMonitor.Direction direction, @NotNull final String name,
+             final long bytesDone, final long bytesTotal, final long rate, final long eta) {
+            this.direction = direction;
+            this.name = name;
+            this.bytesDone = bytesDone;
+            this.bytesTotal = bytesTotal;
+            this.rate = rate;
+            this.eta = eta;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    final String method = "transferProgress";
+    @NotNull
+    final TransferEvent.Args args;
+
+    TransferEvent(@NotNull final TransferMonitor.Direction direction, @NotNull final String name,
+                  final long bytesDone, final long bytesTotal, final long rate, final long eta) {
+        this.args = new TransferEvent.Args(direction, name, bytesDone, bytesTotal, rate, eta);
+    }
+
+    @NotNull
+    @Override
+    public String toJson() {
+        final Gson gson = new Gson();
+        return gson.toJson(this);
+    }
+
+    @NotNull
+    @Override
+    public String getCoalesceKey() {
+        return String.format("%s:%s:%s", this.method, this.args.direction, this.args.name);
+    }
+
+}
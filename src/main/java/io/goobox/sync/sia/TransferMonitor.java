@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tracks progress of files being uploaded and downloaded, and reports it with {@link TransferEvent} and
+ * {@link ThroughputEvent}.
+ * <p>
+ * Events are sampled: an event of a file is sent at most once per sample interval, at most
+ * {@link #MaxEventsPerInterval} file events are sent in an interval in total, and the aggregate throughput is sent
+ * at most once per interval. Completions are always reported. Rates are smoothed with an exponential moving average.
+ */
+public class TransferMonitor {
+
+    public enum Direction {
+        upload, download
+    }
+
+    /**
+     * Default interval in milliseconds between events of the same kind.
+     */
+    static final long DefaultSampleInterval = 1000;
+
+    /**
+     * The maximum number of file events sent in a sample interval.
+     */
+    static final int MaxEventsPerInterval = 100;
+
+    /**
+     * Transfers which haven't been updated for this time in milliseconds are considered abandoned.
+     */
+    static final long StaleTimeout = 10 * 60 * 1000;
+
+    /**
+     * Weight of the newest sample in the moving average of rates.
+     */
+    private static final double Alpha = 0.5;
+
+    /**
+     * Timestamp meaning no events have been sent.
+     */
+    private static final long Never = Long.MIN_VALUE;
+
+    private static class Transfer {
+        long done;
+        long total;
+        // Bytes per second.
+        double rate;
+        long updatedAt;
+        long emittedAt = Never;
+
+        Transfer(final long done, final long now) {
+            this.done = done;
+            this.updatedAt = now;
+        }
+
+        long getEta() {
+            return this.rate > 0 ? (long) Math.ceil((this.total - this.done) / this.rate) : -1;
+        }
+    }
+
+    @NotNull
+    private final Consumer<Event> sink;
+
+    /**
+     * Sample interval in nanoseconds.
+     */
+    private final long sampleInterval;
+
+    @NotNull
+    private final Map<Direction, Map<String, Transfer>> transfers = new EnumMap<>(Direction.class);
+
+    /**
+     * Total bytes transferred while being monitored.
+     */
+    @NotNull
+    private final Map<Direction, Long> transferredBytes = new EnumMap<>(Direction.class);
+
+    private long windowStart = Never;
+    private int emittedInWindow;
+    private long throughputEmittedAt = Never;
+
+    /**
+     * Creates a transfer monitor.
+     *
+     * @param sink           receives events.
+     * @param sampleInterval the minimum interval between events of the same kind.
+     * @param unit           the time unit of the sampleInterval parameter.
+     */
+    public TransferMonitor(@NotNull final Consumer<Event> sink, final long sampleInterval, @NotNull final TimeUnit unit) {
+        this.sink = sink;
+        this.sampleInterval = unit.toNanos(sampleInterval);
+        for (final Direction direction : Direction.values()) {
+            this.transfers.put(direction, new HashMap<>());
+            this.transferredBytes.put(direction, 0L);
+        }
+    }
+
+    /**
+     * Updates the progress of a file; the transfer is considered completed if bytesDone reaches bytesTotal.
+     *
+     * @param direction  of the transfer.
+     * @param name       of the file.
+     * @param bytesDone  the number of bytes transferred so far.
+     * @param bytesTotal the size of the file.
+     */
+    public void update(
+            @NotNull final Direction direction, @NotNull final String name, final long bytesDone, final long bytesTotal) {
+        this.update(direction, name, bytesDone, bytesTotal, System.nanoTime());
+    }
+
+    synchronized void update(
+            @NotNull final Direction direction, @NotNull final String name,
+            final long bytesDone, final long bytesTotal, final long now) {
+
+        final Map<String, Transfer> transfers = this.transfers.get(direction);
+        Transfer transfer = transfers.get(name);
+        if (transfer == null) {
+            transfer = new Transfer(bytesDone, now);
+            transfers.put(name, transfer);
+        } else if (bytesDone >= transfer.done && now > transfer.updatedAt) {
+            final long delta = bytesDone - transfer.done;
+            final double rate = delta * (double) TimeUnit.SECONDS.toNanos(1) / (now - transfer.updatedAt);
+            transfer.rate = transfer.rate == 0 ? rate : Alpha * rate + (1 - Alpha) * transfer.rate;
+            this.transferredBytes.merge(direction, delta, Long::sum);
+        }
+        transfer.done = bytesDone;
+        transfer.total = bytesTotal;
+        transfer.updatedAt = now;
+
+        final boolean completed = bytesDone >= bytesTotal;
+        if (completed) {
+            transfers.remove(name);
+        }
+        if (completed || this.elapsed(transfer.emittedAt, now) && this.acquire(now)) {
+            transfer.emittedAt = now;
+            this.sink.accept(new TransferEvent(
+                    direction, name, bytesDone, bytesTotal, Math.round(transfer.rate), completed ? 0 : transfer.getEta()));
+        }
+
+        if (this.elapsed(this.throughputEmittedAt, now)) {
+            this.throughputEmittedAt = now;
+            this.sink.accept(this.getThroughput(now));
+        }
+
+    }
+
+    /**
+     * Stops tracking a file, e.g. because its transfer has failed.
+     *
+     * @param direction of the transfer.
+     * @param name      of the file.
+     */
+    public synchronized void remove(@NotNull final Direction direction, @NotNull final String name) {
+        this.transfers.get(direction).remove(name);
+    }
+
+    /**
+     * Returns the number of bytes transferred in the given direction while being monitored.
+     *
+     * @param direction of transfers.
+     * @return the total bytes.
+     */
+    public synchronized long getTransferredBytes(@NotNull final Direction direction) {
+        return this.transferredBytes.get(direction);
+    }
+
+    /**
+     * Returns the number of files being transferred in the given direction.
+     *
+     * @param direction of transfers.
+     * @return the number of files.
+     */
+    public synchronized int getActiveTransfers(@NotNull final Direction direction) {
+        return this.transfers.get(direction).size();
+    }
+
+    /**
+     * Counts a file event in the current window.
+     *
+     * @return false if the maximum number of events have been sent in the current window.
+     */
+    private boolean acquire(final long now) {
+        if (this.elapsed(this.windowStart, now)) {
+            this.windowStart = now;
+            this.emittedInWindow = 0;
+        }
+        if (this.emittedInWindow >= MaxEventsPerInterval) {
+            return false;
+        }
+        this.emittedInWindow++;
+        return true;
+    }
+
+    /**
+     * Returns true if the sample interval has passed since the given time.
+     */
+    private boolean elapsed(final long since, final long now) {
+        return since == Never || now - since >= this.sampleInterval;
+    }
+
+    @NotNull
+    private ThroughputEvent getThroughput(final long now) {
+
+        final long staleBefore = now - TimeUnit.MILLISECONDS.toNanos(StaleTimeout);
+        final double[] rates = new double[Direction.values().length];
+        for (final Direction direction : Direction.values()) {
+            for (final Iterator<Transfer> it = this.transfers.get(direction).values().iterator(); it.hasNext(); ) {
+                final Transfer transfer = it.next();
+                if (transfer.updatedAt < staleBefore) {
+                    it.remove();
+                } else {
+                    rates[direction.ordinal()] += transfer.rate;
+                }
+            }
+        }
+        return new ThroughputEvent(
+                Math.round(rates[Direction.upload.ordinal()]), Math.round(rates[Direction.download.ordinal()]),
+                this.transfers.get(Direction.upload).size(), this.transfers.get(Direction.download).size());
+
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.objects.Id;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Record of a chunk, which is a cloud file storing a part of files split by their contents.
+ * <p>
+ * Chunks are identified by their digests and shared by every file and version having the same part. Files split
+ * into chunks are recorded as {@link ChunkedFile}s.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Chunk implements Serializable {
+
+    /**
+     * Hex string of the sha256 digest of the chunk.
+     */
+    @Id
+    private String digest;
+
+    /**
+     * Path to the cloud file storing the chunk; stored as a string for the same reason as SyncFile.cloudPath.
+     */
+    private String cloudPath;
+
+    private long length;
+
+    /**
+     * Path to the chunk in the staging area while it is being uploaded.
+     */
+    @Nullable
+    private String stagedPath;
+
+    /**
+     * True if the upload of this chunk has been completed.
+     */
+    private boolean uploaded;
+
+    public Chunk() {
+    }
+
+    public Chunk(
+            @NotNull final String digest, @NotNull final Path cloudPath, final long length,
+            @Nullable final Path stagedPath, final boolean uploaded) {
+        this.digest = digest;
+        this.cloudPath = cloudPath.toString();
+        this.length = length;
+        this.stagedPath = stagedPath != null ? stagedPath.toString() : null;
+        this.uploaded = uploaded;
+    }
+
+    @NotNull
+    public String getDigest() {
+        return digest;
+    }
+
+    @NotNull
+    public Path getCloudPath() {
+        return Paths.get(cloudPath);
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    @NotNull
+    public Optional<Path> getStagedPath() {
+        return Optional.ofNullable(this.stagedPath).map(Paths::get);
+    }
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    void setUploaded() {
+        this.uploaded = true;
+        this.stagedPath = null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Chunk chunk = (Chunk) o;
+        return length == chunk.length && uploaded == chunk.uploaded && Objects.equals(digest, chunk.digest) &&
+                Objects.equals(cloudPath, chunk.cloudPath) && Objects.equals(stagedPath, chunk.stagedPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(digest, cloudPath, length, stagedPath, uploaded);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("digest", digest)
+                .append("cloudPath", cloudPath)
+                .append("length", length)
+                .append("stagedPath", stagedPath)
+                .append("uploaded", uploaded)
+                .toString();
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.objects.Id;
+import org.dizitart.no2.objects.Index;
+import org.dizitart.no2.objects.Indices;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Record of a version of a file split into chunks.
+ * <p>
+ * As a file bundled in a pack, the version is known to the rest of the sync DB by the cloud path it would have if it
+ * were uploaded as one cloud file. What is stored in the cloud network is its manifest, which lists the digests of the
+ * chunks, and the chunks recorded as {@link Chunk}s.
+ */
+@SuppressWarnings("WeakerAccess")
+@Indices({
+        @Index(value = "manifestPath", type = IndexType.Unique),
+        @Index(value = "name", type = IndexType.NonUnique)
+})
+public class ChunkedFile implements Serializable {
+
+    /**
+     * Cloud path of this version; stored as a string for the same reason as SyncFile.cloudPath.
+     */
+    @Id
+    private String cloudPath;
+
+    /**
+     * Name of the file.
+     */
+    private String name;
+
+    /**
+     * Path to the manifest in the cloud network.
+     */
+    private String manifestPath;
+
+    private long size;
+
+    /**
+     * Digests of the chunks in the order of their offsets.
+     */
+    private List<String> chunks;
+
+    /**
+     * Path to the manifest in the staging area while it is being uploaded.
+     */
+    @Nullable
+    private String stagedPath;
+
+    /**
+     * True if the uploads of the manifest and the chunks have been completed.
+     */
+    private boolean uploaded;
+
+    public ChunkedFile() {
+    }
+
+    public ChunkedFile(
+            @NotNull final Path cloudPath, @NotNull final String name, @NotNull final Path manifestPath,
+            final long size, @NotNull final List<String> chunks, @Nullable final Path stagedPath,
+            final boolean uploaded) {
+        this.cloudPath = cloudPath.toString();
+        this.name = name;
+        this.manifestPath = manifestPath.toString();
+        this.size = size;
+        this.chunks = new ArrayList<>(chunks);
+        this.stagedPath = stagedPath != null ? stagedPath.toString() : null;
+        this.uploaded = uploaded;
+    }
+
+    @NotNull
+    public Path getCloudPath() {
+        return Paths.get(cloudPath);
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public Path getManifestPath() {
+        return Paths.get(manifestPath);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @NotNull
+    public List<String> getChunks() {
+        return chunks != null ? Collections.unmodifiableList(chunks) : Collections.emptyList();
+    }
+
+    @NotNull
+    public Optional<Path> getStagedPath() {
+        return Optional.ofNullable(this.stagedPath).map(Paths::get);
+    }
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    void setUploaded() {
+        this.uploaded = true;
+        this.stagedPath = null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChunkedFile that = (ChunkedFile) o;
+        return size == that.size && uploaded == that.uploaded && Objects.equals(cloudPath, that.cloudPath) &&
+                Objects.equals(name, that.name) && Objects.equals(manifestPath, that.manifestPath) &&
+                Objects.equals(chunks, that.chunks) && Objects.equals(stagedPath, that.stagedPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cloudPath, name, manifestPath, size, chunks, stagedPath, uploaded);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("cloudPath", cloudPath)
+                .append("name", name)
+                .append("manifestPath", manifestPath)
+                .append("size", size)
+                .append("chunks", chunks)
+                .append("stagedPath", stagedPath)
+                .append("uploaded", uploaded)
+                .toString();
+    }
+
+}
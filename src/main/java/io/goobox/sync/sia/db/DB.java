@@ -1,20 +1,28 @@
 package io.goobox.sync.sia.db;
 
 import io.goobox.sync.common.Utils;
+import io.goobox.sync.sia.metrics.Histogram;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
 import org.dizitart.no2.Nitrite;
 import org.dizitart.no2.objects.ObjectFilter;
 import org.dizitart.no2.objects.ObjectRepository;
+import org.dizitart.no2.objects.filters.ObjectFilters;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static org.dizitart.no2.objects.filters.ObjectFilters.and;
 import static org.dizitart.no2.objects.filters.ObjectFilters.eq;
 import static org.dizitart.no2.objects.filters.ObjectFilters.not;
 
@@ -24,9 +32,21 @@ public class DB {
     private static final Logger logger = LoggerFactory.getLogger(DB.class);
     public static final String DatabaseFileName = "sync.sia.db";
 
+    /**
+     * Copy of the states stored in the DB; updated in each state transition.
+     */
+    private static final SyncStateCache cache = new SyncStateCache();
+
+    /**
+     * Key: name of an operation, Value: histograms of its lock wait times and durations.
+     */
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
     private static Nitrite db() {
         if (db == null || db.isClosed()) {
             db = open();
+            cache.clear();
+            db.getRepository(SyncFile.class).find().forEach(syncFile -> cache.put(syncFile.getName(), syncFile.getState()));
         }
         return db;
     }
@@ -35,6 +55,30 @@ public class DB {
         return db().getRepository(SyncFile.class);
     }
 
+    private static ObjectRepository<Pack> packs() {
+        return db().getRepository(Pack.class);
+    }
+
+    private static ObjectRepository<PackedFile> packedFiles() {
+        return db().getRepository(PackedFile.class);
+    }
+
+    private static ObjectRepository<Chunk> chunks() {
+        return db().getRepository(Chunk.class);
+    }
+
+    private static ObjectRepository<ChunkedFile> chunkedFiles() {
+        return db().getRepository(ChunkedFile.class);
+    }
+
+    private static ObjectRepository<StoredContent> storedContents() {
+        return db().getRepository(StoredContent.class);
+    }
+
+    private static ObjectRepository<Mount> mounts() {
+        return db().getRepository(Mount.class);
+    }
+
     private static ObjectFilter withName(@NotNull String name) {
         return eq("name", name);
     }
@@ -51,30 +95,37 @@ public class DB {
                 .openOrCreate();
     }
 
-    public synchronized static void clear() {
-        try {
-            Files.deleteIfExists(getDBPath());
-        } catch (IOException e) {
-            logger.error("Failed to clear old database: {}", e.getMessage());
-        }
+    public static void clear() {
+        run("clear", () -> {
+            try {
+                Files.deleteIfExists(getDBPath());
+            } catch (IOException e) {
+                logger.error("Failed to clear old database: {}", e.getMessage());
+            }
+        });
     }
 
-    public synchronized static void close() {
-        db().close();
+    public static void close() {
+        run("close", () -> {
+            db().close();
+            cache.clear();
+        });
     }
 
-    public synchronized static void commit() {
-        db().commit();
+    public static void commit() {
+        run("commit", () -> db().commit());
     }
 
-    public synchronized static Optional<SyncFile> get(@NotNull final CloudFile file) {
+    public static Optional<SyncFile> get(@NotNull final CloudFile file) {
         return get(file.getName());
     }
 
-    public synchronized static Optional<SyncFile> get(@NotNull final String name) {
-        final SyncFile res = repo().find(withName(name)).firstOrDefault();
-        logger.trace("get({}) = {}", name, res);
-        return Optional.ofNullable(res);
+    public static Optional<SyncFile> get(@NotNull final String name) {
+        return call("get", () -> {
+            final SyncFile res = repo().find(withName(name)).firstOrDefault();
+            logger.trace("get({}) = {}", name, res);
+            return Optional.ofNullable(res);
+        });
     }
 
     private synchronized static SyncFile getOrCreate(@NotNull final CloudFile file) {
@@ -86,31 +137,54 @@ public class DB {
             final SyncFile syncFile = new SyncFile();
             syncFile.setName(name);
             repo().insert(syncFile);
+            cache.put(name, syncFile.getState());
             logger.trace("create({})", name);
             return syncFile;
         });
     }
 
-    public synchronized static void remove(@NotNull final CloudFile file) {
+    public static void remove(@NotNull final CloudFile file) {
         remove(file.getName());
     }
 
-    public synchronized static void remove(@NotNull final String name) {
-        logger.trace("remove({})", name);
-        repo().remove(withName(name));
+    public static void remove(@NotNull final String name) {
+        run("remove", () -> {
+            logger.trace("remove({})", name);
+            repo().remove(withName(name));
+            cache.remove(name);
+        });
+    }
+
+    public static long size() {
+        return call("size", () -> repo().size());
     }
 
-    public synchronized static long size() {
-        return repo().size();
+    public static void setSynced(@NotNull final CloudFile cloudFile, @NotNull final Path localPath) throws IOException {
+        run("setSynced", () -> {
+            logger.trace("setSynced({})", cloudFile);
+            SyncFile syncFile = getOrCreate(cloudFile);
+            syncFile.setLocalData(localPath);
+            setSynced(syncFile, cloudFile);
+        });
     }
 
-    public synchronized static void setSynced(@NotNull final CloudFile cloudFile, @NotNull final Path localPath) throws IOException {
-        logger.trace("setSynced({})", cloudFile);
-        SyncFile syncFile = getOrCreate(cloudFile);
+    private static void setSynced(@NotNull final SyncFile syncFile, @NotNull final CloudFile cloudFile) {
         syncFile.setCloudData(cloudFile);
-        syncFile.setLocalData(localPath);
+        syncFile.setTemporaryPath(null);
         syncFile.setState(SyncState.SYNCED);
         repo().update(syncFile);
+        cache.put(syncFile.getName(), syncFile.getState());
+
+        // Cloud paths of packed and chunked files are virtual, and so they cannot be reused.
+        final String cloudPath = cloudFile.getCloudPath().toString();
+        if (packedFiles().find(eq("cloudPath", cloudPath)).size() == 0
+                && chunkedFiles().find(eq("cloudPath", cloudPath)).size() == 0) {
+            syncFile.getLocalDigest().ifPresent(digest -> storedContents().update(
+                    new StoredContent(
+                            cloudFile.getCloudPath(), digest, syncFile.getName(),
+                            syncFile.getLocalSize().orElse(cloudFile.getFileSize())),
+                    true));
+        }
     }
 
     /**
@@ -119,26 +193,36 @@ public class DB {
      * @param localPath of the new file.
      * @throws IOException if fail to access the file.
      */
-    public synchronized static void addNewFile(@NotNull final String name, @NotNull final Path localPath) throws IOException {
-        final SyncFile syncFile = getOrCreate(name);
-        syncFile.setLocalData(localPath);
-        syncFile.setState(SyncState.MODIFIED);
-        repo().update(syncFile);
+    public static void addNewFile(@NotNull final String name, @NotNull final Path localPath) throws IOException {
+        run("addNewFile", () -> {
+            final SyncFile syncFile = getOrCreate(name);
+            releaseMoveSource(syncFile);
+            syncFile.setLocalData(localPath);
+            syncFile.setState(SyncState.MODIFIED);
+            repo().update(syncFile);
+            cache.put(name, syncFile.getState());
+        });
     }
 
     /**
      * Adds a new cloud file to this database and marks it will be downloaded.
      *
-     * @param file      representing a cloud file.
-     * @param localPath where the file to be downloaded to.
+     * @param file          representing a cloud file.
+     * @param localPath     where the file to be downloaded to, which must be the local path of the file given by the
+     *                      context; the record keeps only that it has a local path.
+     * @param temporaryPath where the file is stored until the download is completed.
      */
-    public synchronized static void addForDownload(@NotNull final CloudFile file, @NotNull final Path localPath) throws IOException {
-        SyncFile syncFile = getOrCreate(file);
-        syncFile.setCloudData(file);
-        syncFile.setLocalPath(localPath);
-        syncFile.setTemporaryPath(Files.createTempFile(null, null));
-        syncFile.setState(SyncState.FOR_DOWNLOAD);
-        repo().update(syncFile);
+    public static void addForDownload(
+            @NotNull final CloudFile file, @NotNull final Path localPath, @NotNull final Path temporaryPath) {
+        run("addForDownload", () -> {
+            SyncFile syncFile = getOrCreate(file);
+            syncFile.setCloudData(file);
+            syncFile.setLocalPath(true);
+            syncFile.setTemporaryPath(temporaryPath);
+            syncFile.setState(SyncState.FOR_DOWNLOAD);
+            repo().update(syncFile);
+            cache.put(syncFile.getName(), syncFile.getState());
+        });
     }
 
     /**
@@ -148,7 +232,7 @@ public class DB {
      * @param localPath to the file.
      * @throws IOException if fail to access the file.
      */
-    public synchronized static void setModified(final String name, final Path localPath) throws IOException {
+    public static void setModified(final String name, final Path localPath) throws IOException {
         DB.addNewFile(name, localPath);
     }
 
@@ -160,33 +244,167 @@ public class DB {
      * @param cloudPath where the file will be stored.
      * @throws IOException if fail to access the local file.
      */
-    public synchronized static void setForUpload(
+    public static void setForUpload(
             @NotNull final String name, @NotNull final Path localPath, @NotNull final Path cloudPath) throws IOException {
+        run("setForUpload", () -> {
+
+            final Optional<SyncFile> syncFile = get(name);
+            if (!syncFile.isPresent()) {
+                logger.warn("Update state of {} but it doesn't exist in the sync DB", name);
+                return;
+            }
+
+            final SyncFile file = syncFile.get();
+            logger.trace("state({}): {} -> {}", name, file.getState(), SyncState.FOR_UPLOAD);
+            file.setLocalData(localPath);
+            file.setCloudPath(cloudPath);
+            file.setState(SyncState.FOR_UPLOAD);
+            repo().update(file);
+            cache.put(name, file.getState());
 
-        final Optional<SyncFile> syncFile = get(name);
-        if (!syncFile.isPresent()) {
-            logger.warn("Update state of {} but it doesn't exist in the sync DB", name);
-            return;
-        }
+        });
+    }
+
+    /**
+     * Records that the given file, which is going to be uploaded, is encoded into the given staged file, which will be
+     * uploaded to the given cloud path instead of the local file.
+     *
+     * @param name       of the file.
+     * @param cloudPath  where the file was going to be stored when it was staged.
+     * @param encoded    cloud path where the staged file will be stored.
+     * @param stagedPath to the staged file.
+     * @return false if the file isn't going to be uploaded to the cloud path anymore.
+     */
+    public static boolean setStaged(
+            @NotNull final String name, @NotNull final Path cloudPath, @NotNull final Path encoded,
+            @NotNull final Path stagedPath) {
+        return call("setStaged", () -> {
+
+            final Optional<SyncFile> syncFile = get(name);
+            if (!syncFile.isPresent() || syncFile.get().getState() != SyncState.FOR_UPLOAD
+                    || !syncFile.get().getCloudPath().map(cloudPath::equals).orElse(false)) {
+                return false;
+            }
+
+            final SyncFile file = syncFile.get();
+            file.setCloudPath(encoded);
+            file.setTemporaryPath(stagedPath);
+            repo().update(file);
+            return true;
 
-        final SyncFile file = syncFile.get();
-        logger.trace("state({}): {} -> {}", name, file.getState(), SyncState.FOR_UPLOAD);
-        file.setLocalData(localPath);
-        file.setCloudPath(cloudPath);
-        file.setState(SyncState.FOR_UPLOAD);
-        repo().update(file);
+        });
+    }
+
+    /**
+     * Marks the given file was moved from the given deleted file of the same contents.
+     * <p>
+     * The moved file keeps the cloud path of the deleted file as the source of the move, and the deleted file is
+     * marked as FOR_CLOUD_DELETE so that its cloud file is neither deleted nor reused until the move ends.
+     *
+     * @param from      name of the deleted file.
+     * @param to        name of the moved file.
+     * @param localPath to the moved file.
+     * @param digest    sha512 digest of the moved file, which equals the digest of the deleted file.
+     * @throws IOException if fail to access the moved file.
+     */
+    public static void setForMove(
+            @NotNull final String from, @NotNull final String to, @NotNull final Path localPath,
+            @NotNull final byte[] digest) throws IOException {
+        run("setForMove", () -> {
+
+            final Optional<SyncFile> source = get(from);
+            if (!source.isPresent() || !source.get().getCloudSize().isPresent()) {
+                logger.warn("Move {} to {} but it doesn't have a cloud file", from, to);
+                return;
+            }
+
+            final SyncFile deleted = source.get();
+            logger.trace("state({}): {} -> {}", from, deleted.getState(), SyncState.FOR_CLOUD_DELETE);
+            deleted.setState(SyncState.FOR_CLOUD_DELETE);
+            repo().update(deleted);
+            cache.put(from, deleted.getState());
+
+            final SyncFile moved = getOrCreate(to);
+            logger.trace("state({}): {} -> {}", to, moved.getState(), SyncState.FOR_MOVE);
+            moved.setLocalData(localPath, digest);
+            moved.setCloudPath(deleted.getCloudPath().get());
+            moved.setState(SyncState.FOR_MOVE);
+            repo().update(moved);
+            cache.put(to, moved.getState());
+
+        });
+    }
+
+    /**
+     * Marks the given file was moved to the given cloud file, and the file it was moved from as DELETED so that the
+     * other versions of the file will be deleted from the cloud network.
+     *
+     * @param from      name of the file the given file was moved from.
+     * @param cloudFile representing the moved cloud file.
+     */
+    public static void setMoved(@NotNull final String from, @NotNull final CloudFile cloudFile) {
+        run("setMoved", () -> {
+            final Optional<SyncFile> syncFile = get(cloudFile.getName());
+            if (!syncFile.isPresent()) {
+                logger.warn("Update state of {} but it doesn't exist in the sync DB", cloudFile.getName());
+                return;
+            }
+            syncFile.get().getCloudPath().ifPresent(
+                    source -> storedContents().remove(eq("cloudPath", source.toString())));
+            setSynced(syncFile.get(), cloudFile);
+            setState(from, SyncState.DELETED);
+        });
+    }
 
+    /**
+     * Gives up moving a cloud file between the given files; the moved file is marked as MODIFIED to be uploaded and
+     * the file it was moved from is marked as DELETED.
+     *
+     * @param from name of the file the moved file was moved from.
+     * @param to   name of the moved file.
+     */
+    public static void setMoveFailed(@NotNull final String from, @NotNull final String to) {
+        run("setMoveFailed", () -> {
+            setState(to, SyncState.MODIFIED);
+            setState(from, SyncState.DELETED);
+        });
     }
 
-    private synchronized static void setState(@NotNull final String name, @NotNull final SyncState state) {
-        final Optional<SyncFile> syncFile = get(name);
-        if (!syncFile.isPresent()) {
-            logger.warn("Update state of {} but it doesn't exist in the sync DB", name);
+    /**
+     * Marks the file the given file was going to be moved from as DELETED if the given file is marked as FOR_MOVE,
+     * i.e. the move is cancelled because the given file was modified or deleted, so that the cloud file will be
+     * deleted from the cloud network.
+     */
+    private static void releaseMoveSource(@NotNull final SyncFile syncFile) {
+        if (syncFile.getState() != SyncState.FOR_MOVE) {
+            return;
         }
-        syncFile.ifPresent(file -> {
-            logger.trace("state({}): {} -> {}", name, file.getState(), state);
-            file.setState(state);
-            repo().update(file);
+        syncFile.getCloudPath().ifPresent(source -> {
+            for (final SyncFile deleted : repo().find(
+                    and(eq("cloudPath", source.toString()), eq("state", SyncState.FOR_CLOUD_DELETE)))) {
+                logger.trace("state({}): {} -> {}", deleted.getName(), deleted.getState(), SyncState.DELETED);
+                deleted.setState(SyncState.DELETED);
+                repo().update(deleted);
+                cache.put(deleted.getName(), deleted.getState());
+            }
+        });
+    }
+
+    private static void setState(@NotNull final String name, @NotNull final SyncState state) {
+        run("setState", () -> {
+            final Optional<SyncFile> syncFile = get(name);
+            if (!syncFile.isPresent()) {
+                logger.warn("Update state of {} but it doesn't exist in the sync DB", name);
+            }
+            syncFile.ifPresent(file -> {
+                logger.trace("state({}): {} -> {}", name, file.getState(), state);
+                if (state != SyncState.FOR_MOVE) {
+                    releaseMoveSource(file);
+                }
+                file.setState(state);
+                repo().update(file);
+                cache.put(name, state);
+            });
         });
     }
 
@@ -222,16 +440,358 @@ public class DB {
         setState(name, SyncState.DELETE_FAILED);
     }
 
-    public synchronized static Stream<SyncFile> getFiles(final SyncState state) {
-        return StreamSupport.stream(repo().find(eq("state", state)).spliterator(), false);
+    public static Stream<SyncFile> getFiles(final SyncState state) {
+        return call("getFiles", () -> StreamSupport.stream(repo().find(eq("state", state)).spliterator(), false));
+    }
+
+    public static Stream<SyncFile> getFiles() {
+        return call("getFiles", () -> StreamSupport.stream(repo().find().spliterator(), false));
     }
 
-    public synchronized static Stream<SyncFile> getFiles() {
-        return StreamSupport.stream(repo().find().spliterator(), false);
+    /**
+     * Adds a pack and the files bundled in it.
+     *
+     * @param pack  to be added.
+     * @param files bundled in the pack.
+     */
+    public static void addPack(@NotNull final Pack pack, @NotNull final List<PackedFile> files) {
+        run("addPack", () -> {
+            logger.trace("addPack({}, {} files)", pack.getName(), files.size());
+            packs().update(pack, true);
+            packedFiles().remove(eq("pack", pack.getName()));
+            if (!files.isEmpty()) {
+                packedFiles().insert(files.toArray(new PackedFile[0]));
+            }
+        });
     }
 
-    public synchronized static boolean isSynced() {
-        return repo().find(not(eq("state", SyncState.SYNCED))).size() == 0;
+    public static Optional<Pack> getPack(@NotNull final String name) {
+        return call("getPack", () -> Optional.ofNullable(packs().find(withName(name)).firstOrDefault()));
+    }
+
+    public static List<Pack> getPacks() {
+        return call("getPacks", () -> packs().find().toList());
+    }
+
+    /**
+     * Marks the given pack as uploaded; its staged file is not used anymore.
+     *
+     * @param name of the pack.
+     */
+    public static void setPackUploaded(@NotNull final String name) {
+        run("setPackUploaded", () -> {
+            final Pack pack = packs().find(withName(name)).firstOrDefault();
+            if (pack == null) {
+                logger.warn("Update pack {} but it doesn't exist in the sync DB", name);
+                return;
+            }
+            pack.setUploaded();
+            packs().update(pack);
+        });
+    }
+
+    /**
+     * Removes the given pack and the files bundled in it.
+     *
+     * @param name of the pack.
+     */
+    public static void removePack(@NotNull final String name) {
+        run("removePack", () -> {
+            logger.trace("removePack({})", name);
+            packs().remove(withName(name));
+            packedFiles().remove(eq("pack", name));
+        });
+    }
+
+    public static List<PackedFile> getPackedFiles(@NotNull final String pack) {
+        return call("getPackedFiles", () -> packedFiles().find(eq("pack", pack)).toList());
+    }
+
+    /**
+     * Returns the packed file stored at the given cloud path. If the file is bundled in several packs, e.g. while
+     * a pack is being compacted, the one in an uploaded pack is returned.
+     *
+     * @param cloudPath of the file.
+     * @return the packed file, or empty if no packs have the file.
+     */
+    public static Optional<PackedFile> getPackedFile(@NotNull final Path cloudPath) {
+        return call("getPackedFile", () -> {
+            PackedFile res = null;
+            for (final PackedFile file : packedFiles().find(eq("cloudPath", cloudPath.toString()))) {
+                final Pack pack = packs().find(withName(file.getPack())).firstOrDefault();
+                if (pack != null && pack.isUploaded()) {
+                    return Optional.of(file);
+                }
+                if (res == null) {
+                    res = file;
+                }
+            }
+            return Optional.ofNullable(res);
+        });
+    }
+
+    /**
+     * Marks every version of the given file bundled in packs as deleted.
+     *
+     * @param name of the file.
+     */
+    public static void setPackedFilesDeleted(@NotNull final String name) {
+        run("setPackedFilesDeleted", () -> {
+            for (final PackedFile file : packedFiles().find(withName(name)).toList()) {
+                file.setDeleted();
+                packedFiles().update(and(eq("pack", file.getPack()), eq("cloudPath", file.getCloudPath().toString())), file);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces a chunk.
+     *
+     * @param chunk to be added.
+     */
+    public static void addChunk(@NotNull final Chunk chunk) {
+        run("addChunk", () -> {
+            logger.trace("addChunk({})", chunk);
+            chunks().update(chunk, true);
+        });
+    }
+
+    public static Optional<Chunk> getChunk(@NotNull final String digest) {
+        return call("getChunk", () -> Optional.ofNullable(chunks().find(eq("digest", digest)).firstOrDefault()));
+    }
+
+    public static List<Chunk> getChunks() {
+        return call("getChunks", () -> chunks().find().toList());
+    }
+
+    /**
+     * Marks the given chunk as uploaded; its staged file is not used anymore.
+     *
+     * @param digest of the chunk.
+     */
+    public static void setChunkUploaded(@NotNull final String digest) {
+        run("setChunkUploaded", () -> {
+            final Chunk chunk = chunks().find(eq("digest", digest)).firstOrDefault();
+            if (chunk == null) {
+                logger.warn("Update chunk {} but it doesn't exist in the sync DB", digest);
+                return;
+            }
+            chunk.setUploaded();
+            chunks().update(chunk);
+        });
+    }
+
+    public static void removeChunk(@NotNull final String digest) {
+        run("removeChunk", () -> {
+            logger.trace("removeChunk({})", digest);
+            chunks().remove(eq("digest", digest));
+        });
+    }
+
+    /**
+     * Adds or replaces a version of a file split into chunks.
+     *
+     * @param file to be added.
+     */
+    public static void addChunkedFile(@NotNull final ChunkedFile file) {
+        run("addChunkedFile", () -> {
+            logger.trace("addChunkedFile({}, {} chunks)", file.getCloudPath(), file.getChunks().size());
+            chunkedFiles().update(file, true);
+        });
+    }
+
+    /**
+     * Returns the version of a file split into chunks which is stored at the given cloud path.
+     *
+     * @param cloudPath of the version.
+     * @return the chunked file, or empty if the version isn't split into chunks.
+     */
+    public static Optional<ChunkedFile> getChunkedFile(@NotNull final Path cloudPath) {
+        return call("getChunkedFile", () -> Optional.ofNullable(
+                chunkedFiles().find(eq("cloudPath", cloudPath.toString())).firstOrDefault()));
+    }
+
+    public static List<ChunkedFile> getChunkedFiles() {
+        return call("getChunkedFiles", () -> chunkedFiles().find().toList());
+    }
+
+    /**
+     * Marks the given chunked file as uploaded; its staged manifest is not used anymore.
+     *
+     * @param cloudPath of the version.
+     */
+    public static void setChunkedFileUploaded(@NotNull final Path cloudPath) {
+        run("setChunkedFileUploaded", () -> {
+            final ChunkedFile file = chunkedFiles().find(eq("cloudPath", cloudPath.toString())).firstOrDefault();
+            if (file == null) {
+                logger.warn("Update chunked file {} but it doesn't exist in the sync DB", cloudPath);
+                return;
+            }
+            file.setUploaded();
+            chunkedFiles().update(file);
+        });
+    }
+
+    public static void removeChunkedFile(@NotNull final Path cloudPath) {
+        run("removeChunkedFile", () -> {
+            logger.trace("removeChunkedFile({})", cloudPath);
+            chunkedFiles().remove(eq("cloudPath", cloudPath.toString()));
+        });
+    }
+
+    /**
+     * Removes every version of the given file split into chunks; the chunks are left to the garbage collector.
+     *
+     * @param name of the file, of which manifests were deleted.
+     */
+    public static void removeChunkedFiles(@NotNull final String name) {
+        run("removeChunkedFiles", () -> chunkedFiles().remove(withName(name)));
+    }
+
+    /**
+     * Returns the entries of the content index of which bodies have the given digest.
+     *
+     * @param digest hex string of the sha512 digest.
+     * @return a list of entries, which is empty if no cloud files are known to store the body.
+     */
+    public static List<StoredContent> getStoredContents(@NotNull final String digest) {
+        return call("getStoredContents", () -> storedContents().find(eq("digest", digest)).toList());
+    }
+
+    /**
+     * Removes the entry of the content index for the given cloud file.
+     *
+     * @param cloudPath of the cloud file, which was deleted or moved.
+     */
+    public static void removeStoredContent(@NotNull final Path cloudPath) {
+        run("removeStoredContent", () -> storedContents().remove(eq("cloudPath", cloudPath.toString())));
+    }
+
+    /**
+     * Removes the entries of the content index for every version of the given file.
+     *
+     * @param name of the file, of which cloud files were deleted.
+     */
+    public static void removeStoredContents(@NotNull final String name) {
+        run("removeStoredContents", () -> storedContents().remove(withName(name)));
+    }
+
+    /**
+     * Returns true if the DB has the given file or files in the given folder.
+     *
+     * @param name of a file or a folder.
+     * @return true if the DB has any of such files.
+     */
+    public static boolean hasFiles(@NotNull final String name) {
+        final String prefix = name + File.separator;
+        return call("hasFiles", () -> StreamSupport.stream(repo().find().spliterator(), false)
+                .anyMatch(syncFile -> syncFile.getName().equals(name) || syncFile.getName().startsWith(prefix)));
+    }
+
+    /**
+     * Returns the additional sync directories of which files were stored in the DB.
+     *
+     * @return a list of the directories.
+     */
+    public static List<Mount> getMounts() {
+        return call("getMounts", () -> mounts().find().toList());
+    }
+
+    /**
+     * Replaces the additional sync directories of which files are stored in the DB.
+     *
+     * @param mounts the directories being synchronized.
+     */
+    public static void setMounts(@NotNull final List<Mount> mounts) {
+        run("setMounts", () -> {
+            mounts().remove(ObjectFilters.ALL);
+            mounts.forEach(mount -> mounts().insert(mount));
+        });
+    }
+
+    /**
+     * Returns the cache of the sync states, which can be read without locking the DB.
+     *
+     * @return the cache of the sync states.
+     */
+    @NotNull
+    public static SyncStateCache getStateCache() {
+        return cache;
+    }
+
+    public static boolean isSynced() {
+        return call("isSynced", () -> repo().find(not(eq("state", SyncState.SYNCED))).size() == 0);
+    }
+
+    /**
+     * Runs the given operation holding the DB lock, and records how long it waited for the lock and how long it held
+     * the lock. Operations nested in another operation are accounted for by the outermost one.
+     *
+     * @param name      of the operation, used as a metric label.
+     * @param operation to be run.
+     * @return the result of the operation.
+     * @throws E if the operation throws it.
+     */
+    private static <T, E extends Exception> T call(
+            @NotNull final String name, @NotNull final Operation<T, E> operation) throws E {
+
+        if (Thread.holdsLock(DB.class)) {
+            return operation.call();
+        }
+
+        final long start = System.nanoTime();
+        long acquired = start;
+        try {
+            synchronized (DB.class) {
+                acquired = System.nanoTime();
+                return operation.call();
+            }
+        } finally {
+            final long end = System.nanoTime();
+            final Timer timer = timers.computeIfAbsent(name, Timer::new);
+            timer.lockWait.record(acquired - start);
+            timer.duration.record(end - acquired);
+        }
+
+    }
+
+    private static <E extends Exception> void run(
+            @NotNull final String name, @NotNull final VoidOperation<E> operation) throws E {
+        call(name, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    @FunctionalInterface
+    private interface Operation<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @FunctionalInterface
+    private interface VoidOperation<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Histograms of an operation.
+     */
+    private static final class Timer {
+
+        @NotNull
+        private final Histogram lockWait;
+        @NotNull
+        private final Histogram duration;
+
+        private Timer(@NotNull final String name) {
+            final MetricsRegistry registry = MetricsRegistry.getDefault();
+            this.lockWait = registry.latency(
+                    "goobox_db_lock_wait_seconds", "Time waited for the sync DB lock.", "operation", name);
+            this.duration = registry.latency(
+                    "goobox_db_operation_duration_seconds", "Time sync DB operations held the lock.",
+                    "operation", name);
+        }
+
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.objects.Id;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * Additional sync directory of which files are stored in the DB under a top folder of its name.
+ * <p>
+ * The DB remembers the directories so that it can tell whether files in such a top folder belong to the directory or
+ * to a folder in the sync directory.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Mount implements Serializable {
+
+    /**
+     * Name of the top folder.
+     */
+    @Id
+    private String name;
+
+    /**
+     * Path to the directory; stored as a string for the same reason as SyncFile.cloudPath.
+     */
+    private String path;
+
+    public Mount() {
+    }
+
+    public Mount(@NotNull final String name, @NotNull final Path path) {
+        this.name = name;
+        this.path = path.toString();
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public Path getPath() {
+        return Paths.get(path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Mount that = (Mount) o;
+        return Objects.equals(name, that.name) && Objects.equals(path, that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, path);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("name", name)
+                .append("path", path)
+                .toString();
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.objects.Id;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Record of a pack, which is a cloud file bundling small files.
+ * <p>
+ * Files bundled in a pack are recorded as {@link PackedFile}s.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Pack implements Serializable {
+
+    /**
+     * Identifier of a pack; remote path without prefix and time stamp.
+     */
+    @Id
+    private String name;
+
+    /**
+     * Path to the pack in the cloud network; stored as a string for the same reason as SyncFile.cloudPath.
+     */
+    private String cloudPath;
+
+    /**
+     * Path to the pack in the staging area while it is being uploaded.
+     */
+    @Nullable
+    private String stagedPath;
+
+    /**
+     * Size of the pack in bytes.
+     */
+    private long size;
+
+    /**
+     * True if the upload of this pack has been completed.
+     */
+    private boolean uploaded;
+
+    /**
+     * Name of the pack this pack replaces; the old pack is deleted once this pack is uploaded.
+     */
+    @Nullable
+    private String replaces;
+
+    public Pack() {
+    }
+
+    public Pack(
+            @NotNull final String name, @NotNull final Path cloudPath, @Nullable final Path stagedPath, final long size,
+            final boolean uploaded, @Nullable final String replaces) {
+        this.name = name;
+        this.cloudPath = cloudPath.toString();
+        this.stagedPath = stagedPath != null ? stagedPath.toString() : null;
+        this.size = size;
+        this.uploaded = uploaded;
+        this.replaces = replaces;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public Path getCloudPath() {
+        return Paths.get(cloudPath);
+    }
+
+    @NotNull
+    public Optional<Path> getStagedPath() {
+        return Optional.ofNullable(this.stagedPath).map(Paths::get);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isUploaded() {
+        return uploaded;
+    }
+
+    @NotNull
+    public Optional<String> getReplaces() {
+        return Optional.ofNullable(replaces);
+    }
+
+    void setUploaded() {
+        this.uploaded = true;
+        this.stagedPath = null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Pack pack = (Pack) o;
+        return size == pack.size && uploaded == pack.uploaded && Objects.equals(name, pack.name) &&
+                Objects.equals(cloudPath, pack.cloudPath) && Objects.equals(stagedPath, pack.stagedPath) &&
+                Objects.equals(replaces, pack.replaces);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, cloudPath, stagedPath, size, uploaded, replaces);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("name", name)
+                .append("cloudPath", cloudPath)
+                .append("stagedPath", stagedPath)
+                .append("size", size)
+                .append("uploaded", uploaded)
+                .append("replaces", replaces)
+                .toString();
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.objects.Index;
+import org.dizitart.no2.objects.Indices;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * Record of a file bundled in a pack.
+ * <p>
+ * The file is known to the rest of the sync DB by its cloud path, which is the path the file would have if it were
+ * uploaded alone, and its body is the range of the pack given by the offset and the length.
+ */
+@SuppressWarnings("WeakerAccess")
+@Indices({
+        @Index(value = "pack", type = IndexType.NonUnique),
+        @Index(value = "cloudPath", type = IndexType.NonUnique),
+        @Index(value = "name", type = IndexType.NonUnique)
+})
+public class PackedFile implements Serializable {
+
+    /**
+     * Name of the pack this file is bundled in.
+     */
+    private String pack;
+
+    /**
+     * Cloud path of this file; stored as a string for the same reason as SyncFile.cloudPath.
+     */
+    private String cloudPath;
+
+    /**
+     * Name of this file.
+     */
+    private String name;
+
+    private long offset;
+
+    private long length;
+
+    /**
+     * True if this file has been deleted, i.e. its range of the pack is garbage.
+     */
+    private boolean deleted;
+
+    public PackedFile() {
+    }
+
+    public PackedFile(
+            @NotNull final String pack, @NotNull final Path cloudPath, @NotNull final String name,
+            final long offset, final long length) {
+        this.pack = pack;
+        this.cloudPath = cloudPath.toString();
+        this.name = name;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @NotNull
+    public String getPack() {
+        return pack;
+    }
+
+    @NotNull
+    public Path getCloudPath() {
+        return Paths.get(cloudPath);
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    void setDeleted() {
+        this.deleted = true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PackedFile that = (PackedFile) o;
+        return offset == that.offset && length == that.length && deleted == that.deleted &&
+                Objects.equals(pack, that.pack) && Objects.equals(cloudPath, that.cloudPath) &&
+                Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pack, cloudPath, name, offset, length, deleted);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("pack", pack)
+                .append("cloudPath", cloudPath)
+                .append("name", name)
+                .append("offset", offset)
+                .append("length", length)
+                .append("deleted", deleted)
+                .toString();
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.objects.Id;
+import org.dizitart.no2.objects.Index;
+import org.dizitart.no2.objects.Indices;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * Entry of the content index, which maps the digest of a file body to a cloud file storing it.
+ * <p>
+ * Entries are added when files are synced and removed when their cloud files are deleted. Since other clients can
+ * also delete cloud files, an entry doesn't guarantee the cloud file still exists.
+ */
+@SuppressWarnings("WeakerAccess")
+@Indices({
+        @Index(value = "digest", type = IndexType.NonUnique),
+        @Index(value = "name", type = IndexType.NonUnique)
+})
+public class StoredContent implements Serializable {
+
+    /**
+     * Path to the cloud file; stored as a string for the same reason as SyncFile.cloudPath.
+     */
+    @Id
+    private String cloudPath;
+
+    /**
+     * Hex string of the sha512 digest of the body.
+     */
+    private String digest;
+
+    /**
+     * Name of the file the cloud file was stored for.
+     */
+    private String name;
+
+    /**
+     * Size of the body, which is larger than the cloud file if the cloud file is compressed.
+     */
+    private long size;
+
+    public StoredContent() {
+    }
+
+    public StoredContent(
+            @NotNull final Path cloudPath, @NotNull final String digest, @NotNull final String name, final long size) {
+        this.cloudPath = cloudPath.toString();
+        this.digest = digest;
+        this.name = name;
+        this.size = size;
+    }
+
+    @NotNull
+    public Path getCloudPath() {
+        return Paths.get(cloudPath);
+    }
+
+    @NotNull
+    public String getDigest() {
+        return digest;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StoredContent that = (StoredContent) o;
+        return size == that.size && Objects.equals(cloudPath, that.cloudPath) &&
+                Objects.equals(digest, that.digest) && Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cloudPath, digest, name, size);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("cloudPath", cloudPath)
+                .append("digest", digest)
+                .append("name", name)
+                .append("size", size)
+                .toString();
+    }
+
+}
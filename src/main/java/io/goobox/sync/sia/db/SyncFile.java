@@ -16,22 +16,67 @@
  */
 package io.goobox.sync.sia.db;
 
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.dizitart.no2.Document;
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.mapper.Mappable;
+import org.dizitart.no2.mapper.NitriteMapper;
 import org.dizitart.no2.objects.Id;
+import org.dizitart.no2.objects.Index;
+import org.dizitart.no2.objects.Indices;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Record of a synchronized file.
+ * <p>
+ * The sync DB can have millions of records, and it streams all of them in some operations, so a record keeps only
+ * compact values: the local path isn't stored because it is always the sync folder resolved with the name
+ * (see Context.getLocalPath), sizes and times are primitives with {@link #NoValue} meaning absent, and the digest is
+ * kept in binary. Records are converted from/to documents by {@link #write(NitriteMapper)} and
+ * {@link #read(NitriteMapper, Document)} instead of the reflection based mapper; the reader also accepts documents
+ * written by that mapper.
+ */
 @SuppressWarnings("WeakerAccess")
-public class SyncFile implements Serializable {
+@Indices({
+        // Lets DB.getFiles(state) look up files in a given state without scanning the whole collection.
+        @Index(value = "state", type = IndexType.NonUnique)
+})
+public class SyncFile implements Mappable, Serializable {
+
+    /**
+     * Value of primitive fields meaning the value is absent.
+     */
+    static final long NoValue = -1;
+
+    // Keys of the document representation.
+    private static final String NameKey = "name";
+    private static final String StateKey = "state";
+    private static final String CloudPathKey = "cloudPath";
+    private static final String CloudSizeKey = "cloudSize";
+    private static final String LocalKey = "local";
+    private static final String LocalModificationTimeKey = "localModificationTime";
+    private static final String LocalSizeKey = "localSize";
+    private static final String LocalDigestKey = "localDigest";
+    private static final String TemporaryPathKey = "temporaryPath";
+    /**
+     * Key the reflection based mapper stored the local path with.
+     */
+    private static final String LegacyLocalPathKey = "localPath";
 
     /**
      * Identifier of a file; remote path without prefix and time stamp.
@@ -50,42 +95,44 @@ public class SyncFile implements Serializable {
     private String cloudPath = "";
 
     /**
-     * File size of the cloud file.
+     * Creation time parsed from the cloud path, which is valid if cloudCreationTimeParsed is true.
      */
-    @Nullable
-    private Long cloudSize;
+    private transient long cloudCreationTime;
+    private transient boolean cloudCreationTimeParsed;
 
     /**
-     * Path to the local file. It can be null if the local file doesn't exist.
+     * File size of the cloud file, or NoValue.
      */
-    @Nullable
-    private Path localPath;
+    private long cloudSize = NoValue;
 
     /**
-     * Last modification time of the local file.
+     * True if this file has a local path, i.e. the local file exists or it is going to be downloaded.
      */
-    @Nullable
-    private Long localModificationTime;
+    private boolean local;
 
     /**
-     * File size of the local file.
+     * Last modification time of the local file, or NoValue.
      */
-    @Nullable
-    private Long localSize;
+    private long localModificationTime = NoValue;
+
+    /**
+     * File size of the local file, or NoValue.
+     */
+    private long localSize = NoValue;
 
     /**
-     * Hex string of sha512 digest of the local file body.
+     * Sha512 digest of the local file body.
      * <p>
      * It is used to detect renaming files.
      */
     @Nullable
-    private String localDigest;
+    private byte[] localDigest;
 
     /**
-     * Temporary path to store file during its download.
+     * Temporary path to store file during its download, or to store the encoded file during its upload.
      */
     @Nullable
-    private Path temporaryPath;
+    private String temporaryPath;
 
     /**
      * Sync status of this file.
@@ -111,35 +158,61 @@ public class SyncFile implements Serializable {
     }
 
     public Optional<Long> getCloudCreationTime() {
-        try {
-            return this.getCloudPath().map(cloudPath -> Long.valueOf(cloudPath.getFileName().toString()));
-        } catch (NumberFormatException e) {
+        if (!this.cloudCreationTimeParsed) {
+            this.cloudCreationTime = VersionedSiaPath.NoCreationTime;
+            if (this.cloudPath != null) {
+                this.cloudCreationTime = VersionedSiaPath.getCreationTime(this.cloudPath);
+            }
+            this.cloudCreationTimeParsed = true;
+        }
+        if (this.cloudCreationTime == VersionedSiaPath.NoCreationTime) {
             return Optional.empty();
         }
+        return Optional.of(this.cloudCreationTime);
     }
 
     public Optional<Long> getCloudSize() {
-        return Optional.ofNullable(this.cloudSize);
+        return optionalOf(this.cloudSize);
     }
 
     public Optional<Long> getLocalModificationTime() {
-        return Optional.ofNullable(this.localModificationTime);
+        return optionalOf(this.localModificationTime);
     }
 
-    public Optional<Path> getLocalPath() {
-        return Optional.ofNullable(this.localPath);
+    /**
+     * Returns true if this file has a local path, which is given by Context.getLocalPath.
+     *
+     * @return true if the local file exists or it is going to be downloaded.
+     */
+    public boolean hasLocalPath() {
+        return this.local;
     }
 
     public Optional<Long> getLocalSize() {
-        return Optional.ofNullable(this.localSize);
+        return optionalOf(this.localSize);
     }
 
+    /**
+     * Returns the hex string of the sha512 digest of the local file.
+     *
+     * @return the digest if it's computed.
+     */
     public Optional<String> getLocalDigest() {
-        return Optional.ofNullable(localDigest);
+        return Optional.ofNullable(this.localDigest).map(Hex::encodeHexString);
+    }
+
+    /**
+     * Returns true if the given sha512 digest equals the digest of the local file.
+     *
+     * @param digest to be compared.
+     * @return false if the digests are different or the local digest isn't computed.
+     */
+    public boolean matchesLocalDigest(@NotNull final byte[] digest) {
+        return this.localDigest != null && Arrays.equals(this.localDigest, digest);
     }
 
     public Optional<Path> getTemporaryPath() {
-        return Optional.ofNullable(this.temporaryPath);
+        return Optional.ofNullable(this.temporaryPath).map(Paths::get);
     }
 
     @NotNull
@@ -154,31 +227,32 @@ public class SyncFile implements Serializable {
     public void setCloudPath(@Nullable final Path cloudPath) {
         if (cloudPath != null) {
             this.cloudPath = cloudPath.toString();
+            this.cloudCreationTimeParsed = false;
         }
     }
 
-    private void setCloudSize(@Nullable final Long cloudSize) {
+    private void setCloudSize(final long cloudSize) {
         this.cloudSize = cloudSize;
     }
 
-    public void setLocalPath(@Nullable final Path localPath) {
-        this.localPath = localPath;
+    void setLocalPath(final boolean local) {
+        this.local = local;
     }
 
-    private void setLocalModificationTime(@Nullable final Long localModificationTime) {
+    private void setLocalModificationTime(final long localModificationTime) {
         this.localModificationTime = localModificationTime;
     }
 
-    private void setLocalSize(@Nullable final Long localSize) {
+    private void setLocalSize(final long localSize) {
         this.localSize = localSize;
     }
 
-    private void setLocalDigest(@Nullable String localDigest) {
+    private void setLocalDigest(@Nullable final byte[] localDigest) {
         this.localDigest = localDigest;
     }
 
-    void setTemporaryPath(@Nullable Path temporaryPath) {
-        this.temporaryPath = temporaryPath;
+    void setTemporaryPath(@Nullable final Path temporaryPath) {
+        this.temporaryPath = temporaryPath != null ? temporaryPath.toString() : null;
     }
 
     /**
@@ -196,17 +270,84 @@ public class SyncFile implements Serializable {
     }
 
     void setLocalData(@NotNull final Path localPath) throws IOException {
-        this.setLocalPath(localPath);
+        this.setLocalPath(true);
         this.setLocalModificationTime(Files.getLastModifiedTime(localPath).toMillis());
         this.setLocalSize(Files.size(localPath));
         try (final FileInputStream in = new FileInputStream(localPath.toFile())) {
-            this.setLocalDigest(DigestUtils.sha512Hex(in));
+            this.setLocalDigest(DigestUtils.sha512(in));
         }
     }
 
+    /**
+     * Sets local data of the given file of which sha512 digest has been computed already.
+     */
+    void setLocalData(@NotNull final Path localPath, @NotNull final byte[] digest) throws IOException {
+        this.setLocalPath(true);
+        this.setLocalModificationTime(Files.getLastModifiedTime(localPath).toMillis());
+        this.setLocalSize(Files.size(localPath));
+        this.setLocalDigest(digest);
+    }
+
+    @Override
+    public Document write(final NitriteMapper mapper) {
+        final Document doc = new Document();
+        doc.put(NameKey, this.name);
+        if (this.state != null) {
+            // Filters compare states by their names.
+            doc.put(StateKey, this.state.name());
+        }
+        if (this.cloudPath != null) {
+            doc.put(CloudPathKey, this.cloudPath);
+        }
+        if (this.cloudSize != NoValue) {
+            doc.put(CloudSizeKey, this.cloudSize);
+        }
+        if (this.local) {
+            doc.put(LocalKey, true);
+        }
+        if (this.localModificationTime != NoValue) {
+            doc.put(LocalModificationTimeKey, this.localModificationTime);
+        }
+        if (this.localSize != NoValue) {
+            doc.put(LocalSizeKey, this.localSize);
+        }
+        if (this.localDigest != null) {
+            doc.put(LocalDigestKey, this.localDigest);
+        }
+        if (this.temporaryPath != null) {
+            doc.put(TemporaryPathKey, this.temporaryPath);
+        }
+        return doc;
+    }
+
+    @Override
+    public void read(final NitriteMapper mapper, final Document document) {
+        this.name = document.get(NameKey, String.class);
+        final String state = document.get(StateKey, String.class);
+        this.state = state != null ? SyncState.valueOf(state) : null;
+        this.cloudPath = document.get(CloudPathKey, String.class);
+        this.cloudCreationTimeParsed = false;
+        this.cloudSize = longValue(document.get(CloudSizeKey));
+        this.local = Boolean.TRUE.equals(document.get(LocalKey)) || document.get(LegacyLocalPathKey) != null;
+        this.localModificationTime = longValue(document.get(LocalModificationTimeKey));
+        this.localSize = longValue(document.get(LocalSizeKey));
+        this.localDigest = digestValue(document.get(LocalDigestKey));
+        this.temporaryPath = pathValue(document.get(TemporaryPathKey, String.class));
+    }
+
     @NotNull
     public String toString() {
-        return new ReflectionToStringBuilder(this).toString();
+        return new ToStringBuilder(this)
+                .append("name", this.name)
+                .append("cloudPath", this.cloudPath)
+                .append("cloudSize", this.getCloudSize().orElse(null))
+                .append("local", this.local)
+                .append("localModificationTime", this.getLocalModificationTime().orElse(null))
+                .append("localSize", this.getLocalSize().orElse(null))
+                .append("localDigest", this.getLocalDigest().orElse(null))
+                .append("temporaryPath", this.temporaryPath)
+                .append("state", this.state)
+                .toString();
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -219,15 +360,12 @@ public class SyncFile implements Serializable {
 
         if (!name.equals(syncFile.name)) return false;
         if (cloudPath != null ? !cloudPath.equals(syncFile.cloudPath) : syncFile.cloudPath != null) return false;
-        if (cloudSize != null ? !cloudSize.equals(syncFile.cloudSize) : syncFile.cloudSize != null) return false;
-        if (localPath != null ? !localPath.equals(syncFile.localPath) : syncFile.localPath != null) return false;
-        if (localModificationTime != null ? !localModificationTime.equals(syncFile.localModificationTime) : syncFile.localModificationTime != null)
-            return false;
-        if (localSize != null ? !localSize.equals(syncFile.localSize) : syncFile.localSize != null) return false;
-        if (localDigest != null ? !localDigest.equals(syncFile.localDigest) : syncFile.localDigest != null)
-            return false;
-        if (temporaryPath != null ? !temporaryPath.equals(syncFile.temporaryPath) : syncFile.temporaryPath != null)
-            return false;
+        if (cloudSize != syncFile.cloudSize) return false;
+        if (local != syncFile.local) return false;
+        if (localModificationTime != syncFile.localModificationTime) return false;
+        if (localSize != syncFile.localSize) return false;
+        if (!Arrays.equals(localDigest, syncFile.localDigest)) return false;
+        if (!Objects.equals(temporaryPath, syncFile.temporaryPath)) return false;
         return state == syncFile.state;
     }
 
@@ -235,14 +373,55 @@ public class SyncFile implements Serializable {
     public int hashCode() {
         int result = name.hashCode();
         result = 31 * result + (cloudPath != null ? cloudPath.hashCode() : 0);
-        result = 31 * result + (cloudSize != null ? cloudSize.hashCode() : 0);
-        result = 31 * result + (localPath != null ? localPath.hashCode() : 0);
-        result = 31 * result + (localModificationTime != null ? localModificationTime.hashCode() : 0);
-        result = 31 * result + (localSize != null ? localSize.hashCode() : 0);
-        result = 31 * result + (localDigest != null ? localDigest.hashCode() : 0);
+        result = 31 * result + Long.hashCode(cloudSize);
+        result = 31 * result + Boolean.hashCode(local);
+        result = 31 * result + Long.hashCode(localModificationTime);
+        result = 31 * result + Long.hashCode(localSize);
+        result = 31 * result + Arrays.hashCode(localDigest);
         result = 31 * result + (temporaryPath != null ? temporaryPath.hashCode() : 0);
-        result = 31 * result + state.hashCode();
+        result = 31 * result + (state != null ? state.hashCode() : 0);
         return result;
     }
 
+    @NotNull
+    private static Optional<Long> optionalOf(final long value) {
+        return value == NoValue ? Optional.empty() : Optional.of(value);
+    }
+
+    /**
+     * Reads a number which can be stored as an integer by the reflection based mapper.
+     */
+    private static long longValue(@Nullable final Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : NoValue;
+    }
+
+    /**
+     * Reads a digest which the reflection based mapper stored as a hex string.
+     */
+    @Nullable
+    private static byte[] digestValue(@Nullable final Object value) {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        if (value instanceof String) {
+            try {
+                return Hex.decodeHex(((String) value).toCharArray());
+            } catch (final DecoderException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a path which the reflection based mapper stored as a file URI.
+     */
+    @Nullable
+    private static String pathValue(@Nullable final String value) {
+        if (value != null && value.startsWith("file:")) {
+            return Paths.get(URI.create(value)).toString();
+        }
+        return value;
+    }
+
 }
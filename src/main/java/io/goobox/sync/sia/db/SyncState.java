@@ -38,6 +38,11 @@ public enum SyncState {
     UPLOADING,
     FOR_LOCAL_DELETE,
     FOR_CLOUD_DELETE,
+    /**
+     * Set by FileWatcher to mark this file was moved from a deleted file of the same contents, and the cloud file of
+     * the deleted file will be moved to this file by MoveCloudFileTask.
+     */
+    FOR_MOVE,
     DOWNLOAD_FAILED,
     UPLOAD_FAILED,
     DELETE_FAILED,
@@ -62,6 +67,7 @@ public enum SyncState {
                 || this == UPLOADING
                 || this == FOR_LOCAL_DELETE
                 || this == FOR_CLOUD_DELETE
+                || this == FOR_MOVE
                 || this == MODIFIED;
     }
 
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * In-memory copy of the sync states kept in the sync DB, which can be read without locking the DB.
+ * <p>
+ * It also aggregates states of the files in each directory so that the state of a directory can be obtained without
+ * scanning its children. The name of the sync directory itself is an empty string.
+ * <p>
+ * Updates are expected to be serialized by the DB lock while reads don't need any locks.
+ */
+public final class SyncStateCache {
+
+    /**
+     * Key: name of a file, Value: its state.
+     */
+    private final Map<String, SyncState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Key: name of a directory, Value: summary of the states of files in the directory and its subdirectories.
+     */
+    private final Map<String, Summary> directories = new ConcurrentHashMap<>();
+
+    SyncStateCache() {
+    }
+
+    /**
+     * Returns the state of the given file.
+     *
+     * @param name of the file.
+     * @return the state, or empty if the file isn't in the sync DB.
+     */
+    public Optional<SyncState> getState(@NotNull final String name) {
+        return Optional.ofNullable(this.states.get(name));
+    }
+
+    /**
+     * Returns the summary of the states of files in the given directory.
+     *
+     * @param name of the directory.
+     * @return the summary, or empty if no files have been stored in the directory.
+     */
+    public Optional<Summary> getDirectory(@NotNull final String name) {
+        return Optional.ofNullable(this.directories.get(name));
+    }
+
+    void put(@NotNull final String name, @Nullable final SyncState state) {
+
+        final SyncState prev = state != null ? this.states.put(name, state) : this.states.remove(name);
+        if (prev == state) {
+            return;
+        }
+        this.forEachAncestor(name, summary -> {
+            summary.add(prev, -1);
+            summary.add(state, 1);
+        });
+
+    }
+
+    void remove(@NotNull final String name) {
+        this.put(name, null);
+    }
+
+    void clear() {
+        this.states.clear();
+        this.directories.clear();
+    }
+
+    private void forEachAncestor(@NotNull final String name, @NotNull final Consumer<Summary> consumer) {
+        for (Path dir = Paths.get(name).getParent(); dir != null; dir = dir.getParent()) {
+            consumer.accept(this.directories.computeIfAbsent(dir.toString(), key -> new Summary()));
+        }
+        consumer.accept(this.directories.computeIfAbsent("", key -> new Summary()));
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+    /**
+     * Counts files which are not synced in a directory.
+     */
+    public static final class Summary {
+
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger synchronizing = new AtomicInteger();
+        private final AtomicInteger others = new AtomicInteger();
+
+        private Summary() {
+        }
+
+        /**
+         * @return true if some files failed to be synchronized.
+         */
+        public boolean isFailed() {
+            return this.failed.get() > 0;
+        }
+
+        /**
+         * @return true if some files are being synchronized.
+         */
+        public boolean isSynchronizing() {
+            return this.synchronizing.get() > 0;
+        }
+
+        /**
+         * @return true if all files are synced.
+         */
+        public boolean isSynced() {
+            return this.failed.get() == 0 && this.synchronizing.get() == 0 && this.others.get() == 0;
+        }
+
+        /**
+         * @return the number of files which failed to be synchronized.
+         */
+        public int getFailedFiles() {
+            return this.failed.get();
+        }
+
+        /**
+         * @return the number of files being synchronized.
+         */
+        public int getSynchronizingFiles() {
+            return this.synchronizing.get();
+        }
+
+        /**
+         * @return the number of files which are neither synced, being synchronized, nor failed.
+         */
+        public int getWaitingFiles() {
+            return this.others.get();
+        }
+
+        private void add(@Nullable final SyncState state, final int delta) {
+            if (state == null || state.isSynced()) {
+                return;
+            }
+            if (state.isFailed()) {
+                this.failed.addAndGet(delta);
+            } else if (state.isSynchronizing()) {
+                this.synchronizing.addAndGet(delta);
+            } else {
+                this.others.addAndGet(delta);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new ReflectionToStringBuilder(this).toString();
+        }
+
+    }
+
+}
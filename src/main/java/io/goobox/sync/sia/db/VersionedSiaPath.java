@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+
+/**
+ * VersionedSiaPath parses cloud paths of which the last component is the creation time of the version, such as
+ * {@code user/Goobox/dir/file.txt/1500000000000}.
+ * <p>
+ * Listings mix versioned paths with paths which don't have creation times, and they are parsed every cycle for
+ * every entry, so the parser validates the last component instead of catching {@link NumberFormatException}.
+ * Only non-negative decimal numbers which fit in a long are creation times.
+ */
+public final class VersionedSiaPath {
+
+    /**
+     * Returned if a path doesn't have a creation time.
+     */
+    public static final long NoCreationTime = -1;
+
+    private VersionedSiaPath() {
+    }
+
+    /**
+     * Returns the creation time given as the last component of a cloud path separated by slashes or by the local
+     * file separator.
+     *
+     * @param path a cloud path.
+     * @return the creation time, or {@link #NoCreationTime} if the last component isn't a creation time.
+     */
+    public static long getCreationTime(@NotNull final String path) {
+        final int sep = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar));
+        return parseCreationTime(path, sep + 1, path.length());
+    }
+
+    /**
+     * Parses the given range of a path as a creation time.
+     *
+     * @param path  a cloud path.
+     * @param start index of the first character of the range.
+     * @param end   index after the last character of the range.
+     * @return the creation time, or {@link #NoCreationTime} if the range isn't a non-negative decimal number which
+     * fits in a long.
+     */
+    public static long parseCreationTime(@NotNull final CharSequence path, final int start, final int end) {
+
+        if (start >= end) {
+            return NoCreationTime;
+        }
+        long value = 0;
+        for (int i = start; i != end; i++) {
+            final int digit = path.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return NoCreationTime;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+
+    }
+
+}
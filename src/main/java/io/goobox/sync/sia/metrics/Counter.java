@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing counter which can be incremented from many threads without contention.
+ */
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        this.value.increment();
+    }
+
+    /**
+     * Adds the given amount; negative amounts are ignored so that the counter never decreases.
+     *
+     * @param amount to be added.
+     */
+    public void add(final long amount) {
+        if (amount > 0) {
+            this.value.add(amount);
+        }
+    }
+
+    public long get() {
+        return this.value.sum();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("value", this.get()).toString();
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ * <p>
+ * Values are counted in buckets of powers of two, i.e. bucket i counts values in [2^i, 2^(i+1)), so that recording
+ * a value costs a few atomic operations. Percentiles are approximated by the upper bounds of the buckets.
+ */
+public class Histogram {
+
+    static final int Buckets = Long.SIZE;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Buckets);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value; negative values are recorded as 0.
+     *
+     * @param value to be recorded.
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        this.buckets.incrementAndGet(bucketOf(v));
+        this.count.increment();
+        this.sum.add(v);
+        this.max.accumulate(v);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        final long n = this.getCount();
+        return n == 0 ? 0 : (double) this.getSum() / n;
+    }
+
+    /**
+     * Returns an approximated percentile.
+     *
+     * @param percentile in (0, 100].
+     * @return the upper bound of the bucket where the percentile falls, but no larger than the max value, or 0 if
+     * no values have been recorded.
+     */
+    public long getPercentile(final double percentile) {
+
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException(String.format("invalid percentile: %f", percentile));
+        }
+
+        long total = 0;
+        final long[] counts = new long[Buckets];
+        for (int i = 0; i != Buckets; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i != Buckets; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), this.getMax());
+            }
+        }
+        return this.getMax();
+
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i != Buckets; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+
+    /**
+     * Returns the number of values recorded in the given bucket.
+     *
+     * @param bucket index in [0, {@link #Buckets}).
+     * @return the number of values in [2^bucket, 2^(bucket+1)).
+     */
+    long getBucketCount(final int bucket) {
+        return this.buckets.get(bucket);
+    }
+
+    static int bucketOf(final long value) {
+        return value == 0 ? 0 : Buckets - 1 - Long.numberOfLeadingZeros(value);
+    }
+
+    static long upperBoundOf(final int bucket) {
+        return bucket >= Buckets - 2 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("count", this.getCount())
+                .append("mean", this.getMean())
+                .append("p99", this.getPercentile(99))
+                .append("max", this.getMax())
+                .toString();
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of metrics, which exports them in the Prometheus text format.
+ * <p>
+ * A metric is identified by its name and labels given as key-value pairs, e.g.
+ * {@code counter("goobox_events_total", "...", "type", "create")}. Requesting the same metric twice returns the same
+ * object so that callers don't need to keep references to them, but hot paths should keep them in fields.
+ * <p>
+ * Latency histograms record nanoseconds and are exported in seconds. Gauges and function counters are backed by
+ * suppliers which are evaluated only when metrics are exported; registering one again replaces the old supplier.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry Default = new MetricsRegistry();
+
+    private static final Pattern ValidName = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    /**
+     * Latency histograms are exported with buckets from about 2 microseconds to about 69 seconds; values out of the
+     * range are merged into the first bucket and the +Inf bucket, respectively.
+     */
+    static final int MinLatencyBucket = 10;
+    static final int MaxLatencyBucket = 35;
+
+    private static final double NanosPerSecond = 1e9;
+
+    private enum Type {
+        counter, gauge, histogram
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the registry the app exports.
+     *
+     * @return the default registry.
+     */
+    @NotNull
+    public static MetricsRegistry getDefault() {
+        return Default;
+    }
+
+    /**
+     * Returns a counter, creating it if necessary.
+     *
+     * @param name   of the metric.
+     * @param help   describing the metric.
+     * @param labels key-value pairs.
+     * @return the counter.
+     */
+    @NotNull
+    public Counter counter(@NotNull final String name, @NotNull final String help, @NotNull final String... labels) {
+        final Object metric = this.getFamily(name, help, Type.counter).children.computeIfAbsent(
+                renderLabels(labels), key -> new Counter());
+        if (!(metric instanceof Counter)) {
+            throw new IllegalArgumentException(String.format("%s%s is a function counter", name, renderLabels(labels)));
+        }
+        return (Counter) metric;
+    }
+
+    /**
+     * Registers a counter of which value is computed by the given supplier.
+     *
+     * @param name     of the metric.
+     * @param help     describing the metric.
+     * @param supplier returning the current value, which must not decrease.
+     * @param labels   key-value pairs.
+     */
+    public void counter(
+            @NotNull final String name, @NotNull final String help, @NotNull final LongSupplier supplier,
+            @NotNull final String... labels) {
+        this.getFamily(name, help, Type.counter).children.put(renderLabels(labels), supplier);
+    }
+
+    /**
+     * Registers a gauge of which value is computed by the given supplier.
+     *
+     * @param name     of the metric.
+     * @param help     describing the metric.
+     * @param supplier returning the current value.
+     * @param labels   key-value pairs.
+     */
+    public void gauge(
+            @NotNull final String name, @NotNull final String help, @NotNull final LongSupplier supplier,
+            @NotNull final String... labels) {
+        this.getFamily(name, help, Type.gauge).children.put(renderLabels(labels), supplier);
+    }
+
+    /**
+     * Returns a latency histogram, creating it if necessary.
+     *
+     * @param name   of the metric, which should end with "_seconds".
+     * @param help   describing the metric.
+     * @param labels key-value pairs.
+     * @return the histogram, which records nanoseconds.
+     */
+    @NotNull
+    public Histogram latency(@NotNull final String name, @NotNull final String help, @NotNull final String... labels) {
+        return (Histogram) this.getFamily(name, help, Type.histogram).children.computeIfAbsent(
+                renderLabels(labels), key -> new Histogram());
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param out where the metrics are written to.
+     * @throws IOException if fails to write.
+     */
+    public void write(@NotNull final Writer out) throws IOException {
+
+        for (final Map.Entry<String, Family> entry : this.families.entrySet()) {
+
+            final String name = entry.getKey();
+            final Family family = entry.getValue();
+            out.write(String.format("# HELP %s %s\n", name, escapeHelp(family.help)));
+            out.write(String.format("# TYPE %s %s\n", name, family.type));
+
+            for (final Map.Entry<String, Object> child : family.children.entrySet()) {
+                final String labels = child.getKey();
+                final Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(out, name, labels, String.valueOf(((Counter) metric).get()));
+                } else if (metric instanceof LongSupplier) {
+                    writeSample(out, name, labels, String.valueOf(((LongSupplier) metric).getAsLong()));
+                } else if (metric instanceof Histogram) {
+                    writeLatency(out, name, labels, (Histogram) metric);
+                }
+            }
+
+        }
+        out.flush();
+
+    }
+
+    /**
+     * Removes all metrics.
+     */
+    public void clear() {
+        this.families.clear();
+    }
+
+    @NotNull
+    private Family getFamily(@NotNull final String name, @NotNull final String help, @NotNull final Type type) {
+
+        final Family family = this.families.computeIfAbsent(name, key -> {
+            if (!ValidName.matcher(name).matches()) {
+                throw new IllegalArgumentException(String.format("invalid metric name: %s", name));
+            }
+            return new Family(type, help);
+        });
+        if (family.type != type) {
+            throw new IllegalArgumentException(String.format("%s is already registered as a %s", name, family.type));
+        }
+        return family;
+
+    }
+
+    private static void writeLatency(
+            @NotNull final Writer out, @NotNull final String name, @NotNull final String labels,
+            @NotNull final Histogram histogram) throws IOException {
+
+        long cumulative = 0;
+        for (int i = 0; i != Histogram.Buckets; i++) {
+            cumulative += histogram.getBucketCount(i);
+            if (i >= MinLatencyBucket && i <= MaxLatencyBucket) {
+                final double le = (Histogram.upperBoundOf(i) + 1) / NanosPerSecond;
+                writeSample(out, name + "_bucket", addLabel(labels, "le", String.valueOf(le)), String.valueOf(cumulative));
+            }
+        }
+        writeSample(out, name + "_bucket", addLabel(labels, "le", "+Inf"), String.valueOf(cumulative));
+        writeSample(out, name + "_sum", labels, String.valueOf(histogram.getSum() / NanosPerSecond));
+        writeSample(out, name + "_count", labels, String.valueOf(cumulative));
+
+    }
+
+    private static void writeSample(
+            @NotNull final Writer out, @NotNull final String name, @NotNull final String labels,
+            @NotNull final String value) throws IOException {
+        out.write(name);
+        out.write(labels);
+        out.write(' ');
+        out.write(value);
+        out.write('\n');
+    }
+
+    @NotNull
+    static String renderLabels(@NotNull final String... labels) {
+
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be key-value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+
+        final StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (!ValidName.matcher(labels[i]).matches()) {
+                throw new IllegalArgumentException(String.format("invalid label name: %s", labels[i]));
+            }
+            if (i != 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+        }
+        return builder.append('}').toString();
+
+    }
+
+    @NotNull
+    private static String addLabel(@NotNull final String labels, @NotNull final String key, @NotNull final String value) {
+        final String label = String.format("%s=\"%s\"", key, value);
+        if (labels.isEmpty()) {
+            return String.format("{%s}", label);
+        }
+        return String.format("%s,%s}", labels.substring(0, labels.length() - 1), label);
+    }
+
+    @NotNull
+    private static String escapeHelp(@NotNull final String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    @NotNull
+    private static String escapeLabelValue(@NotNull final String value) {
+        return escapeHelp(value).replace("\"", "\\\"");
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this).toString();
+    }
+
+    private static final class Family {
+
+        @NotNull
+        private final Type type;
+        @NotNull
+        private final String help;
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        private Family(@NotNull final Type type, @NotNull final String help) {
+            this.type = type;
+            this.help = help;
+        }
+
+        @Override
+        public String toString() {
+            return new ReflectionToStringBuilder(this).toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP endpoint serving metrics in the Prometheus text format at {@link #Path}.
+ * <p>
+ * It listens only on the loopback interface so that metrics aren't exposed to other hosts.
+ */
+public class MetricsServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    public static final String Path = "/metrics";
+    static final String ContentType = "text/plain; version=0.0.4; charset=utf-8";
+
+    @NotNull
+    private final MetricsRegistry registry;
+    @NotNull
+    private final HttpServer server;
+
+    /**
+     * Creates a server bound to the given port of the loopback interface; call {@link #start()} to serve metrics.
+     *
+     * @param registry to be exported.
+     * @param port     to listen on; 0 means an ephemeral port.
+     * @throws IOException if fails to bind the port.
+     */
+    public MetricsServer(@NotNull final MetricsRegistry registry, final int port) throws IOException {
+        this.registry = registry;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(Path, this::handle);
+    }
+
+    public void start() {
+        this.server.start();
+        logger.info("Serving metrics at http://{}:{}{}", this.server.getAddress().getHostString(), this.getPort(), Path);
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        logger.info("Stopping the metrics server");
+        this.server.stop(0);
+    }
+
+    private void handle(@NotNull final HttpExchange exchange) throws IOException {
+
+        try {
+
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8)) {
+                this.registry.write(writer);
+            }
+            exchange.getResponseHeaders().set("Content-Type", ContentType);
+            exchange.sendResponseHeaders(200, buffer.size());
+            try (final OutputStream out = exchange.getResponseBody()) {
+                buffer.writeTo(out);
+            }
+
+        } catch (final RuntimeException e) {
+            logger.error("Failed to export metrics: {}", e.getMessage());
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+
+    }
+
+}
@@ -14,74 +14,157 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package io.goobox.sync.sia.model;
 
 import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.db.VersionedSiaPath;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.nio.file.Path;
 import java.util.Optional;
 
+/**
+ * AbstractSiaFile parses a sia path into the name, the creation time, and the cloud and local paths of the file.
+ * <p>
+ * Sia paths managed by Goobox are parsed as strings, and the cloud and local paths are built only when they are
+ * asked for, since most entries of a listing are synced already and only their names and creation times are used.
+ * The folder of the {@link Codec} a file is encoded with isn't a part of its name.
+ */
 public abstract class AbstractSiaFile implements SiaFile {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractSiaFile.class);
 
     @NotNull
-    private final Path name;
+    private final transient Context ctx;
+    @NotNull
+    private final String siaPath;
     @NotNull
-    private final Path cloudPath;
+    private final String name;
     @NotNull
-    private final Path localPath;
+    private final Optional<Long> creationTime;
+    private final boolean managed;
     @Nullable
-    private final Long creationTime;
+    private Path cloudPath;
+    @Nullable
+    private Path localPath;
 
     AbstractSiaFile(@NotNull Context ctx, @NotNull final String cloudPath) {
 
-        this.cloudPath = APIUtils.fromSlash(cloudPath);
-
-        Path withoutTimestamp = this.cloudPath;
-        Long created = null;
-        if (this.cloudPath.getNameCount() - ctx.getPathPrefix().getNameCount() != 1) {
-            try {
-                created = Long.parseLong(this.cloudPath.getFileName().toString());
-                withoutTimestamp = this.cloudPath.getParent();
-            } catch (NumberFormatException e) {
-                logger.debug("cloud path {} doesn't have its creation time", cloudPath);
+        this.ctx = ctx;
+        this.siaPath = cloudPath;
+
+        final String prefix = ctx.getSlashedPathPrefix();
+        final int prefixEnd = prefix.length() + 1;
+        if (cloudPath.length() > prefixEnd && cloudPath.startsWith(prefix)
+                && cloudPath.charAt(prefix.length()) == '/' && isNormalized(cloudPath, prefixEnd)) {
+
+            final int nameStart = prefixEnd + Codec.parse(cloudPath, prefixEnd).getPrefixLength();
+            int nameEnd = cloudPath.length();
+            long created = VersionedSiaPath.NoCreationTime;
+            final int sep = cloudPath.lastIndexOf('/');
+            if (sep >= nameStart) {
+                created = VersionedSiaPath.parseCreationTime(cloudPath, sep + 1, cloudPath.length());
+                if (created != VersionedSiaPath.NoCreationTime) {
+                    nameEnd = sep;
+                } else {
+                    logger.debug("cloud path {} doesn't have its creation time", cloudPath);
+                }
             }
-        }
-        this.creationTime = created;
+            this.creationTime = created != VersionedSiaPath.NoCreationTime ? Optional.of(created) : Optional.empty();
+            this.name = toLocalSeparator(cloudPath.substring(nameStart, nameEnd));
+            this.managed = true;
+
+        } else {
+
+            // Sia paths which aren't managed by Goobox or aren't normalized are parsed as paths.
+            final Path path = this.getCloudPath();
+            Path withoutTimestamp = path;
+            long created = VersionedSiaPath.NoCreationTime;
+            if (path.getNameCount() - ctx.getPathPrefix().getNameCount() != 1 && path.getFileName() != null) {
+                final String fileName = path.getFileName().toString();
+                created = VersionedSiaPath.parseCreationTime(fileName, 0, fileName.length());
+                if (created != VersionedSiaPath.NoCreationTime) {
+                    withoutTimestamp = path.getParent();
+                } else {
+                    logger.debug("cloud path {} doesn't have its creation time", cloudPath);
+                }
+            }
+            this.creationTime = created != VersionedSiaPath.NoCreationTime ? Optional.of(created) : Optional.empty();
+            final Path name = ctx.getPathPrefix().relativize(withoutTimestamp);
+            this.name = (name.getNameCount() > 1 && Codec.of(ctx, withoutTimestamp) != Codec.none
+                    ? name.subpath(1, name.getNameCount()) : name).toString();
+            this.managed = path.startsWith(ctx.getPathPrefix());
 
-        this.name = ctx.getPathPrefix().relativize(withoutTimestamp);
-        this.localPath = ctx.getLocalPath(this.name.toString());
+        }
 
     }
 
     @NotNull
     @Override
     public String getName() {
-        return this.name.toString();
+        return this.name;
     }
 
     @NotNull
     @Override
     public Path getCloudPath() {
+        if (this.cloudPath == null) {
+            this.cloudPath = APIUtils.fromSlash(this.siaPath);
+        }
         return this.cloudPath;
     }
 
     @NotNull
     @Override
     public Path getLocalPath() {
+        if (this.localPath == null) {
+            this.localPath = this.ctx.getLocalPath(this.name);
+        }
         return this.localPath;
     }
 
     @Override
     public Optional<Long> getCreationTime() {
-        return Optional.ofNullable(this.creationTime);
+        return this.creationTime;
+    }
+
+    @Override
+    public boolean isManaged() {
+        return this.managed;
+    }
+
+    /**
+     * Returns true if the part of the given sia path starting at the given index has neither empty components nor
+     * dot components, which the path based parsing would normalize.
+     */
+    private static boolean isNormalized(@NotNull final String path, final int start) {
+
+        int componentStart = start;
+        final int end = path.length();
+        for (int i = start; i <= end; i++) {
+            if (i == end || path.charAt(i) == '/') {
+                final int len = i - componentStart;
+                if (len == 0 || (len == 1 && path.charAt(componentStart) == '.')
+                        || (len == 2 && path.charAt(componentStart) == '.' && path.charAt(componentStart + 1) == '.')) {
+                    return false;
+                }
+                componentStart = i + 1;
+            } else if (path.charAt(i) == '\\') {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    @NotNull
+    private static String toLocalSeparator(@NotNull final String name) {
+        return File.separatorChar == '/' ? name : name.replace('/', File.separatorChar);
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -93,17 +176,17 @@ public abstract class AbstractSiaFile implements SiaFile {
         AbstractSiaFile that = (AbstractSiaFile) o;
 
         if (!name.equals(that.name)) return false;
-        if (!cloudPath.equals(that.cloudPath)) return false;
-        if (!localPath.equals(that.localPath)) return false;
-        return creationTime != null ? creationTime.equals(that.creationTime) : that.creationTime == null;
+        if (!getCloudPath().equals(that.getCloudPath())) return false;
+        if (!getLocalPath().equals(that.getLocalPath())) return false;
+        return creationTime.equals(that.creationTime);
     }
 
     @Override
     public int hashCode() {
         int result = name.hashCode();
-        result = 31 * result + cloudPath.hashCode();
-        result = 31 * result + localPath.hashCode();
-        result = 31 * result + (creationTime != null ? creationTime.hashCode() : 0);
+        result = 31 * result + getCloudPath().hashCode();
+        result = 31 * result + getLocalPath().hashCode();
+        result = 31 * result + creationTime.hashCode();
         return result;
     }
 
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Manifest of a file split into chunks, which are stored as separate cloud files.
+ * <p>
+ * Chunk boundaries are defined by the contents (content-defined chunking with a gear hash), so that inserting or
+ * appending bytes changes only the chunks around the modification and the other chunks keep their digests. A chunk
+ * ends where the top bits of the hash of the last 64 bytes are all zero, but it is at least {@link #MinChunkSize} and
+ * at most {@link #MaxChunkSize} bytes long. The manifest itself is stored in JSON.
+ */
+public final class ChunkManifest {
+
+    /**
+     * The minimum size of a chunk except the last one.
+     */
+    public static final int MinChunkSize = 8 * 1024 * 1024;
+
+    /**
+     * The expected size of a chunk beyond the minimum size; a power of two.
+     */
+    public static final int AverageChunkSize = 32 * 1024 * 1024;
+
+    /**
+     * The maximum size of a chunk.
+     */
+    public static final int MaxChunkSize = 128 * 1024 * 1024;
+
+    /**
+     * Gear table of the rolling hash; fixed so that every client finds the same boundaries.
+     */
+    private static final long[] Gear = new long[256];
+
+    static {
+        final Random random = new Random(0x474f4f42L);
+        for (int i = 0; i != Gear.length; i++) {
+            Gear[i] = random.nextLong();
+        }
+    }
+
+    private static final Gson gson = new Gson();
+
+    private final long size;
+
+    @NotNull
+    private final List<Entry> chunks;
+
+    public ChunkManifest(final long size, @NotNull final List<Entry> chunks) {
+        this.size = size;
+        this.chunks = Collections.unmodifiableList(new ArrayList<>(chunks));
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return the size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the chunks in the order of their offsets.
+     *
+     * @return a list of entries.
+     */
+    @NotNull
+    public List<Entry> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Splits the given file into chunks of the default sizes.
+     *
+     * @param file to be split.
+     * @return the manifest of the file.
+     * @throws IOException if failed to read the file.
+     */
+    @NotNull
+    public static ChunkManifest chunk(@NotNull final Path file) throws IOException {
+        return chunk(file, MinChunkSize, AverageChunkSize, MaxChunkSize);
+    }
+
+    /**
+     * Splits the given file into chunks.
+     *
+     * @param file    to be split.
+     * @param min     size of a chunk except the last one.
+     * @param average size of a chunk beyond the minimum size, which must be a power of two.
+     * @param max     size of a chunk.
+     * @return the manifest of the file.
+     * @throws IOException if failed to read the file.
+     */
+    @NotNull
+    static ChunkManifest chunk(@NotNull final Path file, final int min, final int average, final int max)
+            throws IOException {
+
+        final int bits = Integer.numberOfTrailingZeros(average);
+        final long mask = bits == 0 ? 0 : -1L << (Long.SIZE - bits);
+
+        final List<Entry> entries = new ArrayList<>();
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        final byte[] buffer = new byte[64 * 1024];
+        long offset = 0;
+        long length = 0;
+        long hash = 0;
+        try (final InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+
+                int start = 0;
+                for (int i = 0; i != n; i++) {
+                    hash = (hash << 1) + Gear[buffer[i] & 0xff];
+                    length++;
+                    if (length >= max || (length >= min && (hash & mask) == 0)) {
+                        digest.update(buffer, start, i + 1 - start);
+                        entries.add(new Entry(Hex.encodeHexString(digest.digest()), offset, length));
+                        offset += length;
+                        length = 0;
+                        hash = 0;
+                        start = i + 1;
+                    }
+                }
+                digest.update(buffer, start, n - start);
+
+            }
+
+        }
+        if (length != 0) {
+            entries.add(new Entry(Hex.encodeHexString(digest.digest()), offset, length));
+            offset += length;
+        }
+        return new ChunkManifest(offset, entries);
+
+    }
+
+    /**
+     * Writes this manifest to the given path.
+     *
+     * @param path where the manifest is written.
+     * @throws IOException if failed to write the file.
+     */
+    public void write(@NotNull final Path path) throws IOException {
+        Files.write(path, gson.toJson(this).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a manifest.
+     *
+     * @param manifest contents of a manifest file.
+     * @return the manifest.
+     * @throws IOException if the manifest is invalid.
+     */
+    @NotNull
+    public static ChunkManifest parse(@NotNull final byte[] manifest) throws IOException {
+
+        final ChunkManifest res;
+        try {
+            res = gson.fromJson(new String(manifest, StandardCharsets.UTF_8), ChunkManifest.class);
+        } catch (final JsonParseException e) {
+            throw new IOException(String.format("invalid manifest: %s", e.getMessage()), e);
+        }
+        if (res == null || res.chunks == null) {
+            throw new IOException("manifest doesn't have chunks");
+        }
+        long offset = 0;
+        for (final Entry entry : res.chunks) {
+            if (entry == null || entry.digest == null || entry.digest.isEmpty() || entry.offset != offset
+                    || entry.length <= 0) {
+                throw new IOException(String.format("invalid manifest entry %s", entry));
+            }
+            offset += entry.length;
+        }
+        if (offset != res.size) {
+            throw new IOException(String.format("chunks have %d bytes but the file has %d bytes", offset, res.size));
+        }
+        return res;
+
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChunkManifest that = (ChunkManifest) o;
+        return size == that.size && Objects.equals(chunks, that.chunks);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, chunks);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("size", this.size)
+                .append("chunks", this.chunks)
+                .toString();
+    }
+
+    /**
+     * A chunk of a file.
+     */
+    public static final class Entry {
+
+        /**
+         * Hex string of the sha256 digest of the chunk.
+         */
+        private final String digest;
+        private final long offset;
+        private final long length;
+
+        public Entry(@NotNull final String digest, final long offset, final long length) {
+            this.digest = digest;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @NotNull
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return offset == entry.offset && length == entry.length && Objects.equals(digest, entry.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(digest, offset, length);
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                    .append("digest", this.digest)
+                    .append("offset", this.offset)
+                    .append("length", this.length)
+                    .toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.model;
+
+import io.goobox.sync.sia.Context;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Codec a cloud file is encoded with.
+ * <p>
+ * The codec is a part of the sia path so that every client can decode the file without any other metadata; a file
+ * encoded with a codec is stored at {@code <prefix>/<codec folder>/<name>/<creation time>}. AbstractSiaFile removes
+ * the codec folder from the name, and so the rest of the sync process handles the file as any other version of it.
+ */
+public enum Codec {
+
+    /**
+     * Stored as it is.
+     */
+    none(null),
+
+    /**
+     * Compressed in the gzip format; the fastest level is used since files are compressed on every upload.
+     */
+    gzip(".goobox-gzip") {
+        @NotNull
+        @Override
+        public OutputStream encode(@NotNull final OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BufferSize) {
+                {
+                    this.def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+
+        @NotNull
+        @Override
+        public InputStream decode(@NotNull final InputStream in) throws IOException {
+            return new GZIPInputStream(in, BufferSize);
+        }
+
+        /**
+         * Reads the size stored in the gzip trailer, which is the decoded size modulo 2^32.
+         */
+        @Override
+        public long getDecodedSize(@NotNull final Path file) throws IOException {
+            try (final RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+                final long size = in.length();
+                if (size < TrailerSize) {
+                    return size;
+                }
+                final byte[] trailer = new byte[TrailerSize];
+                in.seek(size - TrailerSize);
+                in.readFully(trailer);
+                long decoded = ByteBuffer.wrap(trailer).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xffffffffL;
+                // Files of 4 GiB or more are compressed to less than their sizes, too.
+                while (decoded < size) {
+                    decoded += 1L << 32;
+                }
+                return decoded;
+            }
+        }
+    };
+
+    private static final int BufferSize = 64 * 1024;
+
+    /**
+     * Length of the size field at the end of a gzip file.
+     */
+    private static final int TrailerSize = 4;
+
+    @Nullable
+    private final String folder;
+
+    Codec(@Nullable final String folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Returns the codec of the given cloud path.
+     *
+     * @param ctx       context.
+     * @param cloudPath of a cloud file.
+     * @return the codec, or none if the path doesn't have any codec folder.
+     */
+    @NotNull
+    public static Codec of(@NotNull final Context ctx, @NotNull final Path cloudPath) {
+        final int index = ctx.getPathPrefix().getNameCount();
+        if (cloudPath.getNameCount() <= index + 1 || !cloudPath.startsWith(ctx.getPathPrefix())) {
+            return none;
+        }
+        final String component = cloudPath.getName(index).toString();
+        for (final Codec codec : values()) {
+            if (codec.folder != null && codec.folder.equals(component)) {
+                return codec;
+            }
+        }
+        return none;
+    }
+
+    /**
+     * Returns the codec of which folder starts at the given index of a slashed sia path and is followed by a name.
+     *
+     * @param siaPath a sia path separated by slashes.
+     * @param start   index of the first character of the name part of the path.
+     * @return the codec, or none if the name part doesn't start with any codec folder.
+     */
+    @NotNull
+    static Codec parse(@NotNull final String siaPath, final int start) {
+        if (start >= siaPath.length() || siaPath.charAt(start) != '.') {
+            return none;
+        }
+        for (final Codec codec : values()) {
+            if (codec.folder != null && siaPath.length() > start + codec.folder.length() + 1
+                    && siaPath.startsWith(codec.folder, start) && siaPath.charAt(start + codec.folder.length()) == '/') {
+                return codec;
+            }
+        }
+        return none;
+    }
+
+    /**
+     * Returns the length of the codec folder and the following separator, which sia paths of this codec have before
+     * names.
+     */
+    int getPrefixLength() {
+        return this.folder != null ? this.folder.length() + 1 : 0;
+    }
+
+    /**
+     * Returns the cloud path of the given version of a file encoded with this codec.
+     *
+     * @param ctx          context.
+     * @param name         of the file.
+     * @param creationTime of the version.
+     * @return the cloud path.
+     */
+    @NotNull
+    public Path resolve(@NotNull final Context ctx, @NotNull final String name, final long creationTime) {
+        final Path prefix = this.folder != null ? ctx.getPathPrefix().resolve(this.folder) : ctx.getPathPrefix();
+        return prefix.resolve(name).resolve(Long.toString(creationTime));
+    }
+
+    /**
+     * Wraps the given stream so that bytes written to the returned stream are encoded with this codec.
+     */
+    @NotNull
+    public OutputStream encode(@NotNull final OutputStream out) throws IOException {
+        return out;
+    }
+
+    /**
+     * Wraps the given stream so that bytes read from the returned stream are decoded.
+     */
+    @NotNull
+    public InputStream decode(@NotNull final InputStream in) throws IOException {
+        return in;
+    }
+
+    /**
+     * Returns the size the given file encoded with this codec will have after being decoded.
+     *
+     * @param file encoded with this codec.
+     * @return the expected size in bytes, which might be wrong if the file is broken.
+     * @throws IOException if failed to read the file.
+     */
+    public long getDecodedSize(@NotNull final Path file) throws IOException {
+        return Files.size(file);
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Index of a pack, which is a cloud file bundling small files.
+ * <p>
+ * A pack consists of the bodies of the bundled files, the index in JSON, and a footer; the footer has the length of
+ * the index and {@link #Magic}, both of which are big-endian 8 byte integers. The index can thus be read by two ranged
+ * reads of the end of a pack without downloading the bodies.
+ */
+public final class PackIndex {
+
+    /**
+     * "GOOBPAK1" in ASCII.
+     */
+    public static final long Magic = 0x474f4f4250414b31L;
+
+    /**
+     * Size of the footer in bytes.
+     */
+    public static final int FooterSize = 16;
+
+    private static final Gson gson = new Gson();
+
+    @NotNull
+    private final List<Entry> files;
+
+    public PackIndex(@NotNull final List<Entry> files) {
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    /**
+     * Returns the bundled files in the order of their offsets.
+     *
+     * @return a list of entries.
+     */
+    @NotNull
+    public List<Entry> getFiles() {
+        return files;
+    }
+
+    /**
+     * Writes a pack bundling the given files.
+     *
+     * @param pack    path to the pack to be written.
+     * @param sources files to be bundled.
+     * @return the index of the written pack.
+     * @throws IOException if failed to read a source file or to write the pack.
+     */
+    @NotNull
+    public static PackIndex write(@NotNull final Path pack, @NotNull final List<Source> sources) throws IOException {
+
+        final List<Entry> entries = new ArrayList<>();
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pack)))) {
+
+            final byte[] buffer = new byte[64 * 1024];
+            long offset = 0;
+            for (final Source source : sources) {
+                long length = 0;
+                try (final InputStream in = Files.newInputStream(source.localPath)) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                        length += n;
+                    }
+                }
+                entries.add(new Entry(source.name, source.creationTime, offset, length));
+                offset += length;
+            }
+
+            final PackIndex index = new PackIndex(entries);
+            final byte[] json = gson.toJson(index).getBytes(StandardCharsets.UTF_8);
+            out.write(json);
+            out.writeLong(json.length);
+            out.writeLong(Magic);
+            return index;
+
+        }
+
+    }
+
+    /**
+     * Reads the index of a local pack.
+     *
+     * @param pack path to the pack.
+     * @return the index.
+     * @throws IOException if failed to read the pack or it isn't a valid pack.
+     */
+    @NotNull
+    public static PackIndex read(@NotNull final Path pack) throws IOException {
+
+        try (final SeekableByteChannel channel = Files.newByteChannel(pack)) {
+
+            if (channel.size() < FooterSize) {
+                throw new IOException(String.format("%s is too short to be a pack", pack));
+            }
+            final ByteBuffer footer = ByteBuffer.allocate(FooterSize);
+            channel.position(channel.size() - FooterSize);
+            readFully(channel, footer);
+            final long length = parseFooter(footer.array());
+            if (length > channel.size() - FooterSize) {
+                throw new IOException(String.format("%s has an index longer than itself", pack));
+            }
+
+            final ByteBuffer index = ByteBuffer.allocate((int) length);
+            channel.position(channel.size() - FooterSize - length);
+            readFully(channel, index);
+            return parse(index.array());
+
+        }
+
+    }
+
+    /**
+     * Parses the footer of a pack.
+     *
+     * @param footer the last {@link #FooterSize} bytes of a pack.
+     * @return the length of the index, which is stored just before the footer.
+     * @throws IOException if the footer is invalid.
+     */
+    public static long parseFooter(@NotNull final byte[] footer) throws IOException {
+
+        if (footer.length != FooterSize) {
+            throw new IOException(String.format("footer must be %d bytes but %d bytes are given", FooterSize, footer.length));
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer));
+        final long length = in.readLong();
+        if (in.readLong() != Magic) {
+            throw new IOException("footer doesn't have the magic number");
+        }
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException(String.format("invalid index length %d", length));
+        }
+        return length;
+
+    }
+
+    /**
+     * Parses the index of a pack.
+     *
+     * @param index the bytes stored just before the footer.
+     * @return the index.
+     * @throws IOException if the index is invalid.
+     */
+    @NotNull
+    public static PackIndex parse(@NotNull final byte[] index) throws IOException {
+
+        final PackIndex res;
+        try {
+            res = gson.fromJson(new String(index, StandardCharsets.UTF_8), PackIndex.class);
+        } catch (final JsonParseException e) {
+            throw new IOException(String.format("invalid index: %s", e.getMessage()), e);
+        }
+        if (res == null || res.files == null) {
+            throw new IOException("index doesn't have files");
+        }
+        for (final Entry entry : res.files) {
+            if (entry == null || entry.name == null || entry.name.isEmpty() || entry.offset < 0 || entry.length < 0) {
+                throw new IOException(String.format("invalid index entry %s", entry));
+            }
+        }
+        return res;
+
+    }
+
+    private static void readFully(@NotNull final SeekableByteChannel channel, @NotNull final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("unexpected end of a pack");
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PackIndex packIndex = (PackIndex) o;
+        return Objects.equals(files, packIndex.files);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(files);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("files", this.files).toString();
+    }
+
+    /**
+     * A file to be bundled into a pack.
+     */
+    public static final class Source {
+
+        @NotNull
+        private final String name;
+        private final long creationTime;
+        @NotNull
+        private final Path localPath;
+
+        /**
+         * @param name         of the file in the slash separated form.
+         * @param creationTime of the version of the file, which is a part of its cloud path.
+         * @param localPath    to the file.
+         */
+        public Source(@NotNull final String name, final long creationTime, @NotNull final Path localPath) {
+            this.name = name;
+            this.creationTime = creationTime;
+            this.localPath = localPath;
+        }
+
+        @NotNull
+        public Path getLocalPath() {
+            return localPath;
+        }
+
+    }
+
+    /**
+     * A file bundled in a pack.
+     */
+    public static final class Entry {
+
+        /**
+         * Name of the file in the slash separated form.
+         */
+        private final String name;
+        private final long creationTime;
+        private final long offset;
+        private final long length;
+
+        public Entry(@NotNull final String name, final long creationTime, final long offset, final long length) {
+            this.name = name;
+            this.creationTime = creationTime;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return creationTime == entry.creationTime && offset == entry.offset && length == entry.length &&
+                    Objects.equals(name, entry.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, creationTime, offset, length);
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                    .append("name", this.name)
+                    .append("creationTime", this.creationTime)
+                    .append("offset", this.offset)
+                    .append("length", this.length)
+                    .toString();
+        }
+
+    }
+
+}
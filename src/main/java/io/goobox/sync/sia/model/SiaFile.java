@@ -52,6 +52,11 @@ public interface SiaFile extends CloudFile {
      */
     Optional<Long> getCreationTime();
 
+    /**
+     * Returns true if this file is stored under the path prefix managed by Goobox.
+     */
+    boolean isManaged();
+
     /**
      * Returns the byte size of this file.
      */
@@ -56,6 +56,11 @@ public class SiaFileFromDownloadsAPI extends AbstractSiaFile {
         return this.rawFile.getError();
     }
 
+    @Nullable
+    public String getStartTime() {
+        return this.rawFile.getStarttime();
+    }
+
     @Override
     public String toString() {
         return new ReflectionToStringBuilder(this).toString();
@@ -20,11 +20,15 @@ import io.goobox.sync.common.Utils;
 import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.TransferMonitor;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.client.api.model.InlineResponse20010Downloads;
 import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.model.Codec;
+import io.goobox.sync.sia.model.SiaFile;
 import io.goobox.sync.sia.model.SiaFileFromDownloadsAPI;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
@@ -44,11 +48,20 @@ import java.nio.file.attribute.FileTime;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 /**
  * Requests current downloading status to siad and prints it.
+ * <p>
+ * Since siad never removes entries from its download history, this task keeps a watermark, which is the start time
+ * of the oldest download not finished yet, and skips entries started before it. Each sia daemon has its own
+ * watermark since their histories are listed one after another and their clocks might differ. Start times of entries
+ * are parsed only once and cached while siad keeps them.
  *
  * @author junpei
  */
@@ -59,22 +72,65 @@ public class CheckDownloadStateTask implements Callable<Void> {
     @NotNull
     private final Context ctx;
 
+    /**
+     * Cache of parsed start times of download entries.
+     * Key: start time string returned by siad, Value: the parsed time in milliseconds, or null if it's invalid.
+     */
+    private final Map<String, Long> startTimes = new HashMap<>();
+
+    /**
+     * Entries started before the watermark of the daemon listing them have been already handled and will be skipped.
+     * Key: API address of a sia daemon, Value: its watermark.
+     */
+    private final Map<String, Long> watermarks = new HashMap<>();
+
+    /**
+     * True if some files are waiting to be downloaded or being downloaded.
+     */
+    private volatile boolean active = true;
+
     public CheckDownloadStateTask(@NotNull final Context ctx) {
         this.ctx = ctx;
     }
 
     @Override
-    public Void call() throws ApiException {
+    public synchronized Void call() throws ApiException {
 
         logger.info("Checking download status");
-        final RenterApi api = new RenterApi(this.ctx.getApiClient());
         try {
-            getRecentDownloads(api.renterDownloadsGet().getDownloads())
-                    .stream()
-                    .map(remoteFile -> new SiaFileFromDownloadsAPI(this.ctx, remoteFile))
-                    .filter(siaFile -> siaFile.getCloudPath().startsWith(this.ctx.getPathPrefix()))
-                    .forEach(this::handleFile);
+            final Map<String, List<InlineResponse20010Downloads>> histories = new LinkedHashMap<>();
+            for (final Context daemon : this.ctx.getDaemonContexts()) {
+                final List<InlineResponse20010Downloads> list =
+                        new RenterApi(daemon.getApiClient()).renterDownloadsGet().getDownloads();
+                histories.put(daemon.getSiadApiAddress(), list != null ? list : Collections.emptyList());
+            }
+
+            // Forget start times of entries siad doesn't return anymore.
+            final Set<String> current = histories.values().stream()
+                    .flatMap(List::stream)
+                    .map(InlineResponse20010Downloads::getStarttime)
+                    .collect(Collectors.toSet());
+            this.startTimes.keySet().retainAll(current);
+            this.watermarks.keySet().retainAll(histories.keySet());
+
+            histories.forEach((address, list) -> {
+                final long watermark = this.watermarks.getOrDefault(address, Long.MIN_VALUE);
+                final Collection<InlineResponse20010Downloads> downloads = this.getRecentDownloads(list, watermark);
+                final List<SiaFileFromDownloadsAPI> files = downloads.stream()
+                        .map(remoteFile -> new SiaFileFromDownloadsAPI(this.ctx, remoteFile))
+                        .filter(SiaFileFromDownloadsAPI::isManaged)
+                        .collect(Collectors.toList());
+                files.forEach(this::handleFile);
+                this.watermarks.put(address, this.nextWatermark(watermark, downloads, files));
+            });
+            this.active = DB.getFiles(SyncState.FOR_DOWNLOAD).findAny().isPresent()
+                    || DB.getFiles(SyncState.DOWNLOADING).findAny().isPresent();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Staging area uses {} bytes", this.ctx.getStagingArea().getUsage());
+            }
         } catch (final ApiException e) {
+            // Back off while the daemon returns errors.
+            this.active = false;
             if (e.getCause() instanceof ConnectException) {
                 throw e;
             }
@@ -87,28 +143,35 @@ public class CheckDownloadStateTask implements Callable<Void> {
     }
 
     /**
-     * Checks the collection has duplicated entries, and returns a list consisting of newer entries. .
+     * Returns true if some files are waiting to be downloaded or being downloaded at the end of the last check.
+     *
+     * @return true if downloads are in progress.
      */
-    @NotNull
-    private Collection<InlineResponse20010Downloads> getRecentDownloads(@Nullable final Collection<InlineResponse20010Downloads> list) {
+    public boolean isActive() {
+        return this.active;
+    }
 
-        if (list == null) {
-            return Collections.emptyList();
-        }
+    /**
+     * Checks the history of a daemon has duplicated entries, and returns a list consisting of newer entries which are
+     * not started before the watermark of the daemon.
+     */
+    @NotNull
+    private Collection<InlineResponse20010Downloads> getRecentDownloads(
+            @NotNull final Collection<InlineResponse20010Downloads> list, final long watermark) {
 
         final Map<String, InlineResponse20010Downloads> map = new HashMap<>();
         list.forEach(file -> {
 
+            final Long curr = this.getStartTime(file.getStarttime());
+            if (curr != null && curr < watermark) {
+                logger.trace("Skip {} started before the watermark", file.getSiapath());
+                return;
+            }
+
             if (map.containsKey(file.getSiapath())) {
 
-                try {
-                    final DateTime prev = parseDateTime(map.get(file.getSiapath()).getStarttime());
-                    final DateTime curr = parseDateTime(file.getStarttime());
-                    if (prev.isBefore(curr)) {
-                        map.put(file.getSiapath(), file);
-                    }
-                } catch (final IllegalArgumentException e) {
-                    logger.error("Failed to parse the start date of {}: {}", file.getSiapath(), e.getMessage());
+                final Long prev = this.getStartTime(map.get(file.getSiapath()).getStarttime());
+                if (prev == null || curr == null || prev < curr) {
                     map.put(file.getSiapath(), file);
                 }
 
@@ -121,6 +184,82 @@ public class CheckDownloadStateTask implements Callable<Void> {
 
     }
 
+    /**
+     * Returns the next watermark of a daemon, which is the start time of the oldest pending download, or the newest
+     * download if none of them are pending.
+     *
+     * @param watermark current watermark of the daemon.
+     * @param downloads returned by the daemon in this round.
+     * @param files     managed by Goobox and handled in this round.
+     * @return the next watermark.
+     */
+    private long nextWatermark(
+            final long watermark, @NotNull final Collection<InlineResponse20010Downloads> downloads,
+            @NotNull final List<SiaFileFromDownloadsAPI> files) {
+
+        long newest = watermark;
+        for (final InlineResponse20010Downloads file : downloads) {
+            final Long startTime = this.getStartTime(file.getStarttime());
+            if (startTime != null) {
+                newest = Math.max(newest, startTime);
+            }
+        }
+
+        long oldestPending = Long.MAX_VALUE;
+        for (final SiaFileFromDownloadsAPI file : files) {
+            final Long startTime = this.getStartTime(file.getStartTime());
+            if (startTime != null && isPending(file)) {
+                oldestPending = Math.min(oldestPending, startTime);
+            }
+        }
+
+        final long next = oldestPending != Long.MAX_VALUE ? oldestPending : newest;
+        logger.trace("Watermark of download entries: {}", next);
+        return next;
+
+    }
+
+    /**
+     * Returns true if the given file is still being downloaded or its post process hasn't been finished.
+     */
+    private static boolean isPending(@NotNull final SiaFileFromDownloadsAPI file) {
+
+        final String err = file.getError();
+        if (err != null && !err.isEmpty()) {
+            return false;
+        }
+        if (!file.isCompleted()) {
+            return true;
+        }
+        return DB.get(file).map(syncFile -> syncFile.getState() == SyncState.DOWNLOADING).orElse(false);
+
+    }
+
+    /**
+     * Returns the given start time in milliseconds, or null if it cannot be parsed.
+     */
+    @Nullable
+    private Long getStartTime(@Nullable final String startTime) {
+
+        if (startTime == null) {
+            return null;
+        }
+        if (this.startTimes.containsKey(startTime)) {
+            return this.startTimes.get(startTime);
+        }
+
+        Long res;
+        try {
+            res = parseDateTime(startTime).getMillis();
+        } catch (final IllegalArgumentException e) {
+            logger.error("Failed to parse the start date {}: {}", startTime, e.getMessage());
+            res = null;
+        }
+        this.startTimes.put(startTime, res);
+        return res;
+
+    }
+
     private void handleFile(@NotNull final SiaFileFromDownloadsAPI file) {
 
         DB.get(file).ifPresent(syncFile -> {
@@ -129,137 +268,171 @@ public class CheckDownloadStateTask implements Callable<Void> {
             if (err != null && !err.isEmpty()) {
                 logger.error("Failed to download {}: {}", file.getName(), err);
                 if (syncFile.getState() == SyncState.DOWNLOADING) {
+                    syncFile.getTemporaryPath().ifPresent(this.ctx.getStagingArea()::release);
                     DB.setDownloadFailed(file.getName());
-                    App.getInstance().ifPresent(app -> syncFile.getLocalPath().ifPresent(app::refreshOverlayIcon));
+                    App.getInstance().ifPresent(app -> {
+                        app.getTransferMonitor().remove(TransferMonitor.Direction.download, file.getName());
+                        this.ctx.getLocalPath(syncFile).ifPresent(app::refreshOverlayIcon);
+                    });
                 }
                 return;
             }
+            if (syncFile.getState() == SyncState.DOWNLOADING) {
+                final long received = file.isCompleted() ? file.getFileSize() : file.getReceived();
+                App.getInstance().ifPresent(app -> app.getTransferMonitor().update(
+                        TransferMonitor.Direction.download, file.getName(), received, file.getFileSize()));
+            }
             if (!file.isCompleted()) {
                 logger.debug("Still downloading {} ({}B / {}B)", file.getName(), file.getReceived(), file.getFileSize());
                 return;
             }
 
-            syncFile.getTemporaryPath().ifPresent(tempPath -> syncFile.getLocalPath().ifPresent(localPath -> {
+            complete(this.ctx, file, syncFile);
 
-                // If temporary path is not set, it means file is not being downloaded.
-                if (!Files.exists(tempPath)) {
-                    logger.trace("Temporal downloaded file {} doesn't exist", tempPath);
-                    return;
-                }
+        });
 
-                try {
+    }
 
-                    final Path parent = localPath.getParent();
-                    if (!Files.exists(parent)) {
-                        logger.debug("Create directories for {}", localPath);
-                        Files.createDirectories(parent);
-                    }
+    /**
+     * Moves a downloaded file from its temporary path to the local path, solving conflicts with the local file, and
+     * marks it as synced.
+     *
+     * @param ctx      context.
+     * @param file     which has been downloaded.
+     * @param syncFile the sync record of the file.
+     */
+    static void complete(@NotNull final Context ctx, @NotNull final SiaFile file, @NotNull final SyncFile syncFile) {
 
-                    // If local file doesn't exist, it means there are no conflict.
-                    if (!Files.exists(localPath)) {
-                        logger.info("New file {} has been downloaded", file.getName());
-                        Files.move(tempPath, localPath, StandardCopyOption.REPLACE_EXISTING);
-                        syncFile.getCloudCreationTime().ifPresent(cloudCreationTime -> {
-                            try {
-                                Files.setLastModifiedTime(localPath, FileTime.fromMillis(cloudCreationTime));
-                            } catch (IOException e) {
-                                logger.error("Failed to set timestamp of {}, expected = {}: {}", file.getName(), cloudCreationTime, e.getMessage());
-                            }
-                        });
-                        DB.setSynced(file, file.getLocalPath());
-                        App.getInstance().ifPresent(app -> app.refreshOverlayIcon(file.getLocalPath()));
-                        return;
-                    }
+        syncFile.getTemporaryPath().ifPresent(tempPath -> ctx.getLocalPath(syncFile).ifPresent(localPath -> {
 
-                    // Both local file and downloaded file exist, and solve the conflict.
-                    final long cloudCreationTime = file.getCreationTime().orElse(0L);
-                    long localCreationTime;
+            // If temporary path is not set, it means file is not being downloaded.
+            if (!Files.exists(tempPath)) {
+                logger.trace("Temporal downloaded file {} doesn't exist", tempPath);
+                return;
+            }
+
+            try {
+
+                final Codec codec = Codec.of(ctx, file.getCloudPath());
+                if (codec != Codec.none) {
                     try {
-                        localCreationTime = Files.getLastModifiedTime(localPath).toMillis();
+                        Compression.decode(ctx, codec, tempPath);
                     } catch (final IOException e) {
-                        logger.error("Failed to get the time stamp of {}: {}", localPath, e.getMessage());
-                        localCreationTime = System.currentTimeMillis();
-                    }
-                    final long syncTime = syncFile.getLocalModificationTime().orElse(localCreationTime);
-                    logger.trace(
-                            "name = {}, cloudCreationTime = {}, localCreationTime = {}, syncTime = {}",
-                            syncFile.getName(), cloudCreationTime, localCreationTime, syncTime);
-
-                    if (cloudCreationTime > localCreationTime) {
-
-                        logger.info("File {} has been downloaded", file.getName());
-                        if (localCreationTime > syncTime) {
-                            final Path conflictedCopy = Utils.conflictedCopyPath(localPath);
-                            Files.move(localPath, conflictedCopy, StandardCopyOption.REPLACE_EXISTING);
-                            logger.debug("Conflicted copy of {} has been created", file.getName());
+                        logger.error("Failed to decode downloaded file {}: {}", file.getName(), e.getMessage());
+                        ctx.getStagingArea().release(tempPath);
+                        if (syncFile.getState() == SyncState.DOWNLOADING) {
+                            DB.setDownloadFailed(file.getName());
+                            App.getInstance().ifPresent(app -> app.refreshOverlayIcon(localPath));
                         }
-                        Files.move(tempPath, localPath, StandardCopyOption.REPLACE_EXISTING);
+                        return;
+                    }
+                }
+
+                final Path parent = localPath.getParent();
+                if (!Files.exists(parent)) {
+                    logger.debug("Create directories for {}", localPath);
+                    Files.createDirectories(parent);
+                }
+
+                // If local file doesn't exist, it means there are no conflict.
+                if (!Files.exists(localPath)) {
+                    logger.info("New file {} has been downloaded", file.getName());
+                    ctx.getStagingArea().commit(tempPath, localPath);
+                    syncFile.getCloudCreationTime().ifPresent(cloudCreationTime -> {
                         try {
                             Files.setLastModifiedTime(localPath, FileTime.fromMillis(cloudCreationTime));
-                        } catch (final IOException e) {
+                        } catch (IOException e) {
                             logger.error("Failed to set timestamp of {}, expected = {}: {}", file.getName(), cloudCreationTime, e.getMessage());
                         }
+                    });
+                    DB.setSynced(file, file.getLocalPath());
+                    App.getInstance().ifPresent(app -> app.refreshOverlayIcon(file.getLocalPath()));
+                    return;
+                }
 
-                    } else if (cloudCreationTime < localCreationTime) {
-
-                        if (cloudCreationTime >= syncTime) {
-                            final Path conflictedCopy = Utils.conflictedCopyPath(localPath);
-                            Files.move(tempPath, conflictedCopy, StandardCopyOption.REPLACE_EXISTING);
-                            logger.info("Conflicted copy of {} has been created", file.getName());
-                            try {
-                                Files.setLastModifiedTime(conflictedCopy, FileTime.fromMillis(cloudCreationTime));
-                            } catch (final IOException e) {
-                                logger.error("Failed to set timestamp of {}, expected = {}: {}", file.getName(), cloudCreationTime, e.getMessage());
-                            }
-                        } else {
-                            logger.trace("Found cloud file was created before last sync time.");
-                        }
+                // Both local file and downloaded file exist, and solve the conflict.
+                final long cloudCreationTime = file.getCreationTime().orElse(0L);
+                long localCreationTime;
+                try {
+                    localCreationTime = Files.getLastModifiedTime(localPath).toMillis();
+                } catch (final IOException e) {
+                    logger.error("Failed to get the time stamp of {}: {}", localPath, e.getMessage());
+                    localCreationTime = System.currentTimeMillis();
+                }
+                final long syncTime = syncFile.getLocalModificationTime().orElse(localCreationTime);
+                logger.trace(
+                        "name = {}, cloudCreationTime = {}, localCreationTime = {}, syncTime = {}",
+                        syncFile.getName(), cloudCreationTime, localCreationTime, syncTime);
+
+                if (cloudCreationTime > localCreationTime) {
+
+                    logger.info("File {} has been downloaded", file.getName());
+                    if (localCreationTime > syncTime) {
+                        final Path conflictedCopy = Utils.conflictedCopyPath(localPath);
+                        Files.move(localPath, conflictedCopy, StandardCopyOption.REPLACE_EXISTING);
+                        logger.debug("Conflicted copy of {} has been created", file.getName());
+                    }
+                    ctx.getStagingArea().commit(tempPath, localPath);
+                    try {
+                        Files.setLastModifiedTime(localPath, FileTime.fromMillis(cloudCreationTime));
+                    } catch (final IOException e) {
+                        logger.error("Failed to set timestamp of {}, expected = {}: {}", file.getName(), cloudCreationTime, e.getMessage());
+                    }
 
-                    } else if (cloudCreationTime > syncTime) {
+                } else if (cloudCreationTime < localCreationTime) {
 
-                        String cloudDigest;
-                        try (final InputStream in = Files.newInputStream(tempPath)) {
-                            cloudDigest = DigestUtils.sha512Hex(in);
-                        }
-                        String localDigest;
-                        try (final InputStream in = Files.newInputStream(localPath)) {
-                            localDigest = DigestUtils.sha512Hex(in);
+                    if (cloudCreationTime >= syncTime) {
+                        final Path conflictedCopy = Utils.conflictedCopyPath(localPath);
+                        ctx.getStagingArea().commit(tempPath, conflictedCopy);
+                        logger.info("Conflicted copy of {} has been created", file.getName());
+                        try {
+                            Files.setLastModifiedTime(conflictedCopy, FileTime.fromMillis(cloudCreationTime));
+                        } catch (final IOException e) {
+                            logger.error("Failed to set timestamp of {}, expected = {}: {}", file.getName(), cloudCreationTime, e.getMessage());
                         }
+                    } else {
+                        logger.trace("Found cloud file was created before last sync time.");
+                    }
 
-                        if (!cloudDigest.equals(localDigest)) {
-                            logger.info("Conflicted copy of {} has been created", file.getName());
-                            final Path conflictedCopy = Utils.conflictedCopyPath(localPath);
-                            Files.move(tempPath, conflictedCopy, StandardCopyOption.REPLACE_EXISTING);
-                            try {
-                                Files.setLastModifiedTime(conflictedCopy, FileTime.fromMillis(cloudCreationTime));
-                            } catch (final IOException e) {
-                                logger.error("Failed to set timestamp of {}: {}", conflictedCopy, e.getMessage());
-                            }
-                        } else {
-                            logger.info("Downloaded cloud file is same as the corresponding local file {}", file.getName());
-                        }
+                } else if (cloudCreationTime > syncTime) {
 
-                    } else {
-                        logger.debug("File {} has not been changed", file.getName());
+                    String cloudDigest;
+                    try (final InputStream in = Files.newInputStream(tempPath)) {
+                        cloudDigest = DigestUtils.sha512Hex(in);
+                    }
+                    String localDigest;
+                    try (final InputStream in = Files.newInputStream(localPath)) {
+                        localDigest = DigestUtils.sha512Hex(in);
                     }
 
-                    Files.deleteIfExists(tempPath);
-                    if (syncFile.getState() == SyncState.DOWNLOADING) {
-                        DB.setSynced(file, file.getLocalPath());
-                        App.getInstance().ifPresent(app -> app.refreshOverlayIcon(file.getLocalPath()));
+                    if (!cloudDigest.equals(localDigest)) {
+                        logger.info("Conflicted copy of {} has been created", file.getName());
+                        final Path conflictedCopy = Utils.conflictedCopyPath(localPath);
+                        ctx.getStagingArea().commit(tempPath, conflictedCopy);
+                        try {
+                            Files.setLastModifiedTime(conflictedCopy, FileTime.fromMillis(cloudCreationTime));
+                        } catch (final IOException e) {
+                            logger.error("Failed to set timestamp of {}: {}", conflictedCopy, e.getMessage());
+                        }
+                    } else {
+                        logger.info("Downloaded cloud file is same as the corresponding local file {}", file.getName());
                     }
 
-                } catch (final IOException e) {
-                    logger.error("Failed post process of downloading {}: {}", file.getName(), e.getLocalizedMessage());
-//                    if (syncFile.getState() == SyncState.DOWNLOADING) {
-//                        DB.setDownloadFailed(file.getName());
-//                        App.getInstance().ifPresent(app -> app.getOverlayHelper().refresh(file.getLocalPath()));
-//                    }
+                } else {
+                    logger.debug("File {} has not been changed", file.getName());
+                }
+
+                ctx.getStagingArea().release(tempPath);
+                if (syncFile.getState() == SyncState.DOWNLOADING) {
+                    DB.setSynced(file, file.getLocalPath());
+                    App.getInstance().ifPresent(app -> app.refreshOverlayIcon(file.getLocalPath()));
                 }
 
-            }));
+            } catch (final IOException e) {
+                logger.error("Failed post process of downloading {}: {}", file.getName(), e.getLocalizedMessage());
+            }
 
-        });
+        }));
 
     }
 
@@ -22,7 +22,6 @@ import io.goobox.sync.sia.Context;
 import io.goobox.sync.sia.RetryableTask;
 import io.goobox.sync.sia.StartSiaDaemonTask;
 import io.goobox.sync.sia.client.ApiException;
-import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.client.api.model.FileInfo;
 import io.goobox.sync.sia.db.DB;
 import io.goobox.sync.sia.db.SyncFile;
@@ -38,9 +37,12 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -62,37 +64,109 @@ public class CheckStateTask implements Callable<Void> {
     @NotNull
     private final Executor executor;
 
+    /**
+     * True if some files were waiting to be synchronized at the end of the last check.
+     */
+    private volatile boolean active = true;
+
+    /**
+     * Files to be bundled into packs, which are uploaded at the end of each check.
+     */
+    private final List<Path> packQueue = new ArrayList<>();
+
     public CheckStateTask(@NotNull final Context ctx, @NotNull final Executor executor) {
         this.ctx = ctx;
         this.executor = executor;
     }
 
     @Override
-    public Void call() throws ApiException {
+    public synchronized Void call() throws ApiException {
 
         logger.info("Checking for changes");
-        final RenterApi api = new RenterApi(this.ctx.getApiClient());
         try {
 
+            this.moveCloudFiles();
+            this.reuseStoredContents();
+
             logger.debug("Processing files found in the cloud network");
-            final Set<String> processedFiles = this.takeNewestFiles(api.renterFilesGet().getFiles())
+            final Set<String> processedFiles = this.takeNewestFiles(Chunks.expand(this.ctx, Packs.expand(
+                    this.ctx, APIUtils.collectFromDaemons(this.ctx, api -> api.renterFilesGet().getFiles()))))
                     .stream()
                     .map(this::processCloudFile)
                     .collect(Collectors.toSet());
             this.processLocalFile(processedFiles);
+            this.active = DB.getFiles().anyMatch(syncFile -> syncFile.getState().isSynchronizing()
+                    || syncFile.getState() == SyncState.MODIFIED || syncFile.getState() == SyncState.DELETED);
 
         } catch (final ApiException e) {
+            // Back off while the daemon returns errors.
+            this.active = false;
             if (e.getCause() instanceof ConnectException) {
                 throw e;
             }
             logger.error("Failed to retrieve files stored in sia network: {}", APIUtils.getErrorMessage(e));
         } finally {
+            if (!this.packQueue.isEmpty()) {
+                UploadPackTask.schedule(this.ctx, this.executor, this.packQueue);
+                this.packQueue.clear();
+            }
             DB.commit();
         }
         return null;
 
     }
 
+    /**
+     * Moves cloud files of deleted files to the files they were renamed or moved to, which FileWatcher marked as
+     * FOR_MOVE.
+     * <p>
+     * This runs before cloud files are listed so that moved cloud files are found under the new names.
+     *
+     * @throws ApiException if failed to connect to the sia daemon.
+     */
+    private void moveCloudFiles() throws ApiException {
+
+        logger.debug("Processing files moved from deleted files");
+        for (final SyncFile syncFile : DB.getFiles(SyncState.FOR_MOVE).collect(Collectors.toList())) {
+            new MoveCloudFileTask(this.ctx, syncFile.getName()).call();
+        }
+
+    }
+
+    /**
+     * Stores modified files by moving cloud files of the same bodies which aren't needed anymore, e.g. the cloud file
+     * of the old name of a renamed file, instead of uploading them.
+     * <p>
+     * This runs before cloud files are processed so that cloud files of deleted files are moved before they are
+     * enqueued to be deleted.
+     *
+     * @throws ApiException if failed to connect to the sia daemon.
+     */
+    private void reuseStoredContents() throws ApiException {
+
+        logger.debug("Processing modified files of which bodies are stored in the cloud network");
+        for (final SyncFile syncFile : DB.getFiles(SyncState.MODIFIED).collect(Collectors.toList())) {
+            final Path localPath = this.ctx.getLocalPath(syncFile.getName());
+            try {
+                if (StoredContents.reuse(this.ctx, syncFile, localPath)) {
+                    App.getInstance().ifPresent(app -> app.refreshOverlayIcon(localPath));
+                }
+            } catch (final IOException e) {
+                logger.debug("Failed to access {}: {}", localPath, e.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * Returns true if some files were waiting to be synchronized at the end of the last check.
+     *
+     * @return true if synchronization is in progress.
+     */
+    public boolean isActive() {
+        return this.active;
+    }
+
     /**
      * Takes only newest files managed by Goobox from a given file collection.
      *
@@ -100,7 +174,7 @@ public class CheckStateTask implements Callable<Void> {
      * @return a collection of SiaFile instances.
      */
     @NotNull
-    private Collection<SiaFileFromFilesAPI> takeNewestFiles(@Nullable final Collection<FileInfo> files) {
+    Collection<SiaFileFromFilesAPI> takeNewestFiles(@Nullable final Collection<FileInfo> files) {
 
         if (files == null) {
             return Collections.emptyList();
@@ -111,7 +185,7 @@ public class CheckStateTask implements Callable<Void> {
         files.stream().filter(FileInfo::isAvailable).forEach(file -> {
 
             final SiaFileFromFilesAPI siaFile = new SiaFileFromFilesAPI(this.ctx, file);
-            if (!siaFile.getCloudPath().startsWith(this.ctx.getPathPrefix())) {
+            if (!siaFile.isManaged()) {
                 // This file isn't managed by Goobox.
                 logger.trace(
                         "Found remote file {} but it's not managed by Goobox (not starts with {})",
@@ -124,11 +198,11 @@ public class CheckStateTask implements Callable<Void> {
 
                 final SiaFile prev = fileMap.get(siaFile.getName());
                 if (siaFile.getCreationTime().orElse(0L) > prev.getCreationTime().orElse(0L)) {
-                    logger.debug("Found newer version of remote file {} created at {}", siaFile.getName(),
+                    logger.trace("Found newer version of remote file {} created at {}", siaFile.getName(),
                             siaFile.getCreationTime());
                     fileMap.put(siaFile.getName(), siaFile);
                 } else {
-                    logger.debug("Found older version of remote file {} created at {} but ignored",
+                    logger.trace("Found older version of remote file {} created at {} but ignored",
                             siaFile.getName(), siaFile.getCreationTime());
                 }
 
@@ -150,7 +224,7 @@ public class CheckStateTask implements Callable<Void> {
      * @return the name of the processed file
      */
     @NotNull
-    private String processCloudFile(@NotNull SiaFileFromFilesAPI file) {
+    String processCloudFile(@NotNull SiaFileFromFilesAPI file) {
 
         try {
 
@@ -283,7 +357,7 @@ public class CheckStateTask implements Callable<Void> {
      */
     private void enqueueForUpload(@NotNull final Path localPath) throws IOException {
 
-        final Path name = this.ctx.getConfig().getSyncDir().relativize(localPath);
+        final Path name = Paths.get(this.ctx.getName(localPath));
 
         long lastModifiedTime;
         try {
@@ -295,7 +369,13 @@ public class CheckStateTask implements Callable<Void> {
         final Path cloudPath = this.ctx.getPathPrefix().resolve(name).resolve(Long.toString(lastModifiedTime));
         try {
             DB.setForUpload(this.ctx.getName(localPath), localPath, cloudPath);
-            executor.execute(new RetryableTask(new UploadLocalFileTask(ctx, localPath), new StartSiaDaemonTask()));
+            if (Packs.isPackable(this.ctx, localPath)) {
+                this.packQueue.add(localPath);
+            } else if (Chunks.isChunkable(this.ctx, localPath)) {
+                executor.execute(new RetryableTask(new UploadChunkedFileTask(ctx, localPath), new StartSiaDaemonTask()));
+            } else {
+                executor.execute(new RetryableTask(new UploadLocalFileTask(ctx, localPath), new StartSiaDaemonTask()));
+            }
         } catch (final IOException e) {
             if (Files.exists(localPath)) {
                 throw e;
@@ -311,10 +391,11 @@ public class CheckStateTask implements Callable<Void> {
      * Enqueue a file represented by the given SiaFile object to be download.
      *
      * @param file to be downloaded.
+     * @throws IOException if failed to allocate a temporary file in the staging area.
      */
     private void enqueueForDownload(@NotNull final SiaFile file) throws IOException {
 
-        DB.addForDownload(file, file.getLocalPath());
+        DB.addForDownload(file, file.getLocalPath(), this.ctx.getStagingArea().allocate(file.getFileSize()));
         App.getInstance().ifPresent(app -> app.refreshOverlayIcon(file.getLocalPath()));
         this.executor.execute(new RetryableTask(new DownloadCloudFileTask(this.ctx, file.getName()), new StartSiaDaemonTask()));
 
@@ -355,7 +436,7 @@ public class CheckStateTask implements Callable<Void> {
                     // It should be uploaded.
                     try {
                         logger.info("Local file {} is going to be uploaded", syncFile.getName());
-                        this.enqueueForUpload(this.ctx.getConfig().getSyncDir().resolve(syncFile.getName()));
+                        this.enqueueForUpload(this.ctx.getLocalPath(syncFile.getName()));
                     } catch (final IOException e) {
                         logger.error("Failed to upload {}: {}", syncFile.getName(), e.getMessage());
                         DB.setUploadFailed(syncFile.getName());
@@ -372,7 +453,7 @@ public class CheckStateTask implements Callable<Void> {
                     // It should be deleted from the DB.
                     logger.debug("Remove deleted file {} from the sync DB", syncFile.getName());
                     DB.remove(syncFile.getName());
-                    App.getInstance().ifPresent(app -> syncFile.getLocalPath().ifPresent(app::refreshOverlayIcon));
+                    App.getInstance().ifPresent(app -> this.ctx.getLocalPath(syncFile).ifPresent(app::refreshOverlayIcon));
                     return syncFile.getName();
                 })
                 .forEach(processedFiles::add);
@@ -385,7 +466,7 @@ public class CheckStateTask implements Callable<Void> {
                     // It means this file was deleted from the cloud network by another client.
                     // This file should be deleted from the local directory, too.
                     logger.info("Local file {} is going to be deleted since it was deleted from the cloud storage", syncFile.getName());
-                    this.enqueueForLocalDelete(this.ctx.getConfig().getSyncDir().resolve(syncFile.getName()));
+                    this.enqueueForLocalDelete(this.ctx.getLocalPath(syncFile.getName()));
                     return syncFile.getName();
                 })
                 .forEach(processedFiles::add);
@@ -398,8 +479,8 @@ public class CheckStateTask implements Callable<Void> {
                     // This file should be uploaded again.
                     try {
                         logger.info("Retry to upload file {}", syncFile.getName());
-                        this.enqueueForUpload(this.ctx.getConfig().getSyncDir().resolve(syncFile.getName()));
-                        App.getInstance().ifPresent(app -> syncFile.getLocalPath().ifPresent(app::refreshOverlayIcon));
+                        this.enqueueForUpload(this.ctx.getLocalPath(syncFile.getName()));
+                        App.getInstance().ifPresent(app -> this.ctx.getLocalPath(syncFile).ifPresent(app::refreshOverlayIcon));
                     } catch (final IOException e) {
                         logger.error("Failed to upload {}: {}", syncFile.getName(), e.getMessage());
                     }
@@ -20,10 +20,15 @@ package io.goobox.sync.sia.task;
 import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.TransferMonitor;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
-import io.goobox.sync.sia.client.api.model.InlineResponse20012;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
 import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
 import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
@@ -35,85 +40,84 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.ConnectException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+/**
+ * Checks states of files being uploaded and marks them as synced once their uploads are completed.
+ * <p>
+ * Files being uploaded are looked up from the sync DB, and only those siapaths are checked. If many files are being
+ * uploaded, they are checked against one listing of cloud files instead of querying each of them. The listing is also
+ * used in the first round and every {@link #FullCheckInterval} rounds.
+ * <p>
+ * Uploads of files which have been modified or deleted are cancelled by {@link CollectGarbageTask}.
+ * <p>
+ * Files bundled in a pack are marked as synced once the upload of the pack is completed; the staged pack is deleted
+ * then, and so is the pack it replaces if it is a result of {@link CompactPacksTask}. Similarly, files split into
+ * chunks are marked as synced once the uploads of their manifests and new chunks are completed. Compressed files
+ * staged for uploads are deleted once the uploads are completed.
+ */
 public class CheckUploadStateTask implements Callable<Void> {
 
     private static final Logger logger = LoggerFactory.getLogger(CheckUploadStateTask.class);
     private static final BigDecimal Completed = new BigDecimal(100);
 
+    /**
+     * Checks uploading files against a listing of cloud files once every this number of rounds.
+     */
+    static final int FullCheckInterval = 10;
+
+    /**
+     * If more files than this number are being uploaded, one listing of cloud files is used instead of querying each.
+     */
+    static final int MaxFileQueries = 10;
+
     @NotNull
     private final Context ctx;
 
+    /**
+     * True if some files were waiting to be uploaded or being uploaded at the end of the last check.
+     */
+    private volatile boolean active = true;
+
+    /**
+     * The number of rounds executed so far.
+     */
+    private int round;
+
     public CheckUploadStateTask(@NotNull final Context ctx) {
         this.ctx = ctx;
     }
 
     @Override
-    public Void call() throws ApiException {
+    public synchronized Void call() throws ApiException {
 
         logger.info("Checking upload status");
-        final RenterApi api = new RenterApi(this.ctx.getApiClient());
         try {
 
-            final InlineResponse20012 res = api.renterFilesGet();
-            if (res.getFiles() == null) {
-                return null;
+            final Map<String, SyncFile> uploading = DB.getFiles(SyncState.UPLOADING)
+                    .collect(Collectors.toMap(SyncFile::getName, Function.identity()));
+            if (this.round++ % FullCheckInterval == 0 || uploading.size() > MaxFileQueries) {
+                this.checkListedFiles(uploading);
+            } else {
+                this.checkEachFile(uploading);
             }
-
-            res.getFiles()
-                    .stream()
-                    .map(file -> new SiaFileFromFilesAPI(this.ctx, file))
-                    .filter(siaFile -> siaFile.getCloudPath().startsWith(this.ctx.getPathPrefix()))
-                    .forEach(siaFile -> {
-
-                        final Optional<SyncFile> syncFileOpt = DB.get(siaFile);
-                        if (syncFileOpt.isPresent()) {
-
-                            final SyncFile syncFile = syncFileOpt.get();
-                            if (syncFile.getState() == SyncState.SYNCED) {
-                                logger.trace("Skip processing {} because it has been already synced", syncFile.getName());
-                                return;
-                            } else if (syncFile.getState() != SyncState.UPLOADING) {
-                                logger.debug("Cancel uploading {} because it's not marked as UPLOADING: {}", syncFile.getName(), syncFile.getState());
-                                try {
-                                    api.renterDeleteSiapathPost(APIUtils.toSlash(siaFile.getCloudPath()));
-                                } catch (final ApiException e) {
-                                    logger.error("Failed to delete {}: {}", syncFile.getName(), APIUtils.getErrorMessage(e));
-                                }
-                                return;
-                            }
-
-                            if (siaFile.getUploadProgress().compareTo(Completed) >= 0) {
-                                logger.info("File {} has been uploaded", siaFile.getLocalPath());
-                                try {
-                                    DB.setSynced(siaFile, siaFile.getLocalPath());
-                                } catch (final IOException e) {
-                                    logger.error("Failed to update the sync db: {}", e.getMessage());
-                                    DB.setUploadFailed(this.ctx.getName(siaFile.getLocalPath()));
-                                }
-                                App.getInstance().ifPresent(app -> app.refreshOverlayIcon(siaFile.getLocalPath()));
-                            } else {
-                                final BigDecimal progress = siaFile.getUploadProgress().setScale(3, RoundingMode.HALF_UP);
-                                logger.info("File {} is now being uploaded ({}%)", siaFile.getName(), progress);
-                            }
-
-                        } else {
-
-                            logger.debug("Cancel uploading {} because it's deleted from the sync DB", siaFile.getName());
-                            try {
-                                api.renterDeleteSiapathPost(APIUtils.toSlash(siaFile.getCloudPath()));
-                            } catch (final ApiException e) {
-                                logger.error("Failed to delete {}: {}", siaFile.getName(), APIUtils.getErrorMessage(e));
-                            }
-
-                        }
-
-                    });
+            this.checkPacks();
+            this.checkChunkedFiles();
+            this.active = DB.getFiles(SyncState.FOR_UPLOAD).findAny().isPresent()
+                    || DB.getFiles(SyncState.UPLOADING).findAny().isPresent()
+                    || DB.getPacks().stream().anyMatch(pack -> !pack.isUploaded())
+                    || DB.getChunkedFiles().stream().anyMatch(file -> !file.isUploaded());
 
         } catch (final ApiException e) {
+            // Back off while the daemon returns errors.
+            this.active = false;
             if (e.getCause() instanceof ConnectException) {
                 throw e;
             }
@@ -125,6 +129,282 @@ public class CheckUploadStateTask implements Callable<Void> {
 
     }
 
+    /**
+     * Checks the given files being uploaded against one listing of cloud files.
+     */
+    private void checkListedFiles(@NotNull final Map<String, SyncFile> uploading) throws ApiException {
+
+        APIUtils.collectFromDaemons(this.ctx, api -> api.renterFilesGet().getFiles())
+                .stream()
+                .map(file -> new SiaFileFromFilesAPI(this.ctx, file))
+                .filter(SiaFileFromFilesAPI::isManaged)
+                .filter(siaFile -> {
+                    final SyncFile syncFile = uploading.get(siaFile.getName());
+                    return syncFile != null && isSameVersion(syncFile, siaFile);
+                })
+                .forEach(this::updateState);
+
+    }
+
+    /**
+     * Queries each of the given files being uploaded to the sia daemon it is assigned to.
+     */
+    private void checkEachFile(@NotNull final Map<String, SyncFile> uploading) throws ApiException {
+
+        for (final SyncFile syncFile : uploading.values()) {
+
+            final Optional<Path> cloudPath = getCloudPath(syncFile);
+            if (!cloudPath.isPresent()) {
+                logger.warn("File {} is marked as UPLOADING but doesn't have the cloud path", syncFile.getName());
+                continue;
+            }
+            if (DB.getPackedFile(cloudPath.get()).isPresent() || DB.getChunkedFile(cloudPath.get()).isPresent()) {
+                // checkPacks and checkChunkedFiles handle it.
+                continue;
+            }
+
+            try {
+                final RenterApi api = new RenterApi(this.ctx.getDaemonContext(syncFile.getName()).getApiClient());
+                final FileInfo file = api.renterFileSiapathGet(APIUtils.toSlash(cloudPath.get())).getFile();
+                if (file != null) {
+                    this.updateState(new SiaFileFromFilesAPI(this.ctx, file));
+                }
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException) {
+                    throw e;
+                }
+                logger.error("Failed to retrieve uploading status of {}: {}", syncFile.getName(), APIUtils.getErrorMessage(e));
+            }
+
+        }
+
+    }
+
+    /**
+     * Queries each pack being uploaded, and marks the files bundled in it as synced once its upload is completed.
+     */
+    private void checkPacks() throws ApiException {
+
+        for (final Pack pack : DB.getPacks()) {
+
+            if (pack.isUploaded()) {
+                continue;
+            }
+
+            final List<PackedFile> packedFiles = DB.getPackedFiles(pack.getName());
+            try {
+
+                final RenterApi api = new RenterApi(this.ctx.getDaemonContext(pack.getName()).getApiClient());
+                final FileInfo file = api.renterFileSiapathGet(APIUtils.toSlash(pack.getCloudPath())).getFile();
+                if (file == null || file.getUploadprogress() == null || file.getUploadprogress().compareTo(Completed) < 0) {
+                    logger.debug("Pack {} is now being uploaded", pack.getName());
+                    continue;
+                }
+
+                logger.info("Pack {} has been uploaded", pack.getName());
+                for (final PackedFile packedFile : packedFiles) {
+                    if (isUploading(packedFile)) {
+                        this.updateState(new SiaFileFromFilesAPI(this.ctx, Packs.toFileInfo(packedFile)));
+                    }
+                }
+                pack.getReplaces().ifPresent(replaced -> CompactPacksTask.deletePack(this.ctx, replaced));
+                DB.setPackUploaded(pack.getName());
+                pack.getStagedPath().ifPresent(this.ctx.getStagingArea()::release);
+
+            } catch (final ApiException e) {
+
+                if (e.getCause() instanceof ConnectException) {
+                    throw e;
+                }
+                if (e.getCode() >= 500) {
+                    logger.error("Failed to retrieve uploading status of pack {}: {}", pack.getName(), APIUtils.getErrorMessage(e));
+                    continue;
+                }
+                logger.error("Failed to upload pack {}: {}", pack.getName(), APIUtils.getErrorMessage(e));
+                try {
+                    new RenterApi(this.ctx.getDaemonContext(pack.getName()).getApiClient())
+                            .renterDeleteSiapathPost(APIUtils.toSlash(pack.getCloudPath()));
+                } catch (final ApiException e1) {
+                    if (e1.getCause() instanceof ConnectException) {
+                        throw e1;
+                    }
+                    logger.debug("Failed to delete pack {}: {}", pack.getName(), APIUtils.getErrorMessage(e1));
+                }
+                for (final PackedFile packedFile : packedFiles) {
+                    if (isUploading(packedFile)) {
+                        DB.setUploadFailed(packedFile.getName());
+                        App.getInstance().ifPresent(app -> app.refreshOverlayIcon(this.ctx.getLocalPath(packedFile.getName())));
+                    }
+                }
+                DB.removePack(pack.getName());
+                pack.getStagedPath().ifPresent(this.ctx.getStagingArea()::release);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Checks chunks and manifests being uploaded against one listing of cloud files, and marks files split into
+     * chunks as synced once the uploads of their manifests and chunks are completed.
+     * <p>
+     * Chunks are checked by themselves because a chunk may be shared by several files or left by a failed upload,
+     * which will reuse it when the file is uploaded again. Chunks missing in the listing are dropped, and so are
+     * the files referring to them.
+     */
+    private void checkChunkedFiles() throws ApiException {
+
+        final List<Chunk> chunks = DB.getChunks().stream().filter(chunk -> !chunk.isUploaded()).collect(Collectors.toList());
+        final List<ChunkedFile> files = DB.getChunkedFiles().stream()
+                .filter(file -> !file.isUploaded())
+                .collect(Collectors.toList());
+        if (chunks.isEmpty() && files.isEmpty()) {
+            return;
+        }
+
+        final Map<String, FileInfo> listed = APIUtils.collectFromDaemons(this.ctx, api -> api.renterFilesGet().getFiles())
+                .stream()
+                .collect(Collectors.toMap(FileInfo::getSiapath, Function.identity(), (lhs, rhs) -> lhs));
+        for (final Chunk chunk : chunks) {
+            final FileInfo file = listed.get(APIUtils.toSlash(chunk.getCloudPath()));
+            if (file == null) {
+                logger.error("Failed to upload chunk {}", chunk.getDigest());
+                DB.removeChunk(chunk.getDigest());
+                chunk.getStagedPath().ifPresent(this.ctx.getStagingArea()::release);
+            } else if (isCompleted(file)) {
+                logger.debug("Chunk {} has been uploaded", chunk.getDigest());
+                DB.setChunkUploaded(chunk.getDigest());
+                chunk.getStagedPath().ifPresent(this.ctx.getStagingArea()::release);
+            }
+        }
+
+        for (final ChunkedFile file : files) {
+
+            final FileInfo manifest = listed.get(APIUtils.toSlash(file.getManifestPath()));
+            boolean failed = manifest == null;
+            boolean completed = !failed && isCompleted(manifest);
+            for (final String digest : file.getChunks()) {
+                final Optional<Chunk> chunk = DB.getChunk(digest);
+                failed = failed || !chunk.isPresent();
+                completed = completed && chunk.map(Chunk::isUploaded).orElse(false);
+            }
+
+            if (failed) {
+                logger.error("Failed to upload {}", file.getCloudPath());
+                if (manifest != null) {
+                    try {
+                        new RenterApi(this.ctx.getDaemonContext(Chunks.manifestName(file.getName())).getApiClient())
+                                .renterDeleteSiapathPost(APIUtils.toSlash(file.getManifestPath()));
+                    } catch (final ApiException e) {
+                        if (e.getCause() instanceof ConnectException) {
+                            throw e;
+                        }
+                        logger.debug("Failed to delete manifest {}: {}", file.getManifestPath(), APIUtils.getErrorMessage(e));
+                    }
+                }
+                if (isUploading(file.getName(), file.getCloudPath())) {
+                    DB.setUploadFailed(file.getName());
+                    App.getInstance().ifPresent(app -> app.refreshOverlayIcon(this.ctx.getLocalPath(file.getName())));
+                }
+                DB.removeChunkedFile(file.getCloudPath());
+                file.getStagedPath().ifPresent(this.ctx.getStagingArea()::release);
+            } else if (completed) {
+                logger.info("Manifest and chunks of {} have been uploaded", file.getCloudPath());
+                if (isUploading(file.getName(), file.getCloudPath())) {
+                    this.updateState(new SiaFileFromFilesAPI(this.ctx, Chunks.toFileInfo(file)));
+                }
+                DB.setChunkedFileUploaded(file.getCloudPath());
+                file.getStagedPath().ifPresent(this.ctx.getStagingArea()::release);
+            } else {
+                logger.debug("File {} is now being uploaded in chunks", file.getName());
+            }
+
+        }
+
+    }
+
+    private static boolean isCompleted(@NotNull final FileInfo file) {
+        return file.getUploadprogress() != null && file.getUploadprogress().compareTo(Completed) >= 0;
+    }
+
+    /**
+     * Returns true if the given packed file is the version being uploaded for its sync file.
+     */
+    private static boolean isUploading(@NotNull final PackedFile packedFile) {
+        return isUploading(packedFile.getName(), packedFile.getCloudPath());
+    }
+
+    /**
+     * Returns true if the version at the given cloud path is being uploaded for the sync file of the given name.
+     */
+    private static boolean isUploading(@NotNull final String name, @NotNull final Path cloudPath) {
+        return DB.get(name)
+                .filter(syncFile -> syncFile.getState() == SyncState.UPLOADING)
+                .flatMap(CheckUploadStateTask::getCloudPath)
+                .map(cloudPath::equals)
+                .orElse(false);
+    }
+
+    /**
+     * Marks the given file as synced if its upload is completed.
+     */
+    private void updateState(@NotNull final SiaFileFromFilesAPI siaFile) {
+
+        if (siaFile.getUploadProgress().compareTo(Completed) >= 0) {
+            logger.info("File {} has been uploaded", siaFile.getLocalPath());
+            App.getInstance().ifPresent(app -> app.getTransferMonitor().update(
+                    TransferMonitor.Direction.upload, siaFile.getName(), siaFile.getFileSize(), siaFile.getFileSize()));
+            // The compressed file uploaded instead of the local file isn't needed anymore.
+            DB.get(siaFile).flatMap(SyncFile::getTemporaryPath)
+                    .filter(this.ctx.getStagingArea()::contains)
+                    .ifPresent(this.ctx.getStagingArea()::release);
+            try {
+                DB.setSynced(siaFile, siaFile.getLocalPath());
+            } catch (final IOException e) {
+                logger.error("Failed to update the sync db: {}", e.getMessage());
+                DB.setUploadFailed(this.ctx.getName(siaFile.getLocalPath()));
+            }
+            App.getInstance().ifPresent(app -> app.refreshOverlayIcon(siaFile.getLocalPath()));
+        } else {
+            final long uploaded = siaFile.getUploadProgress()
+                    .multiply(BigDecimal.valueOf(siaFile.getFileSize()))
+                    .divide(Completed, 0, RoundingMode.DOWN)
+                    .longValue();
+            App.getInstance().ifPresent(app -> app.getTransferMonitor().update(
+                    TransferMonitor.Direction.upload, siaFile.getName(), uploaded, siaFile.getFileSize()));
+            if (logger.isInfoEnabled()) {
+                final BigDecimal progress = siaFile.getUploadProgress().setScale(3, RoundingMode.HALF_UP);
+                logger.info("File {} is now being uploaded ({}%)", siaFile.getName(), progress);
+            }
+        }
+
+    }
+
+    /**
+     * Returns true if the given cloud file is the version being uploaded for the sync file.
+     */
+    private static boolean isSameVersion(@NotNull final SyncFile syncFile, @NotNull final SiaFileFromFilesAPI siaFile) {
+        return getCloudPath(syncFile).map(siaFile.getCloudPath()::equals).orElse(true);
+    }
+
+    /**
+     * Returns the cloud path of the given file; SyncFile returns an empty path if it hasn't been set.
+     */
+    @NotNull
+    private static Optional<Path> getCloudPath(@NotNull final SyncFile syncFile) {
+        return syncFile.getCloudPath().filter(path -> !path.toString().isEmpty());
+    }
+
+    /**
+     * Returns true if some files were waiting to be uploaded or being uploaded at the end of the last check.
+     *
+     * @return true if uploads are in progress.
+     */
+    public boolean isActive() {
+        return this.active;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
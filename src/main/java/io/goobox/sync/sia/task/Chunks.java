@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.model.ChunkManifest;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers of chunked files, which are split into chunks by their contents so that only the chunks changed by a
+ * modification are uploaded.
+ * <p>
+ * A chunk is stored at {@code <prefix>/.goobox-chunks/<sha256 digest>/<creation time>} and shared by every file and
+ * version having the same chunk. A version of a chunked file is stored as a manifest, written in the format of
+ * {@link ChunkManifest}, at {@code <prefix>/.goobox-manifests/<name>/<creation time>}. As files bundled in packs, the
+ * version keeps the cloud path it would have if it were uploaded as one cloud file, and listings of cloud files are
+ * expanded so that the rest of the sync process handles it as any other cloud file. Its body is assembled from the
+ * chunks, reusing the chunks found in the local file it replaces.
+ */
+public final class Chunks {
+
+    private static final Logger logger = LoggerFactory.getLogger(Chunks.class);
+
+    /**
+     * Folder under the path prefix where chunks are stored.
+     */
+    public static final String ChunkFolder = ".goobox-chunks";
+
+    /**
+     * Folder under the path prefix where manifests are stored.
+     */
+    public static final String ManifestFolder = ".goobox-manifests";
+
+    public static final String UploadedBytesMetric = "goobox_chunk_uploaded_bytes_total";
+    public static final String SkippedBytesMetric = "goobox_chunk_skipped_bytes_total";
+    public static final String LocalBytesMetric = "goobox_chunk_local_bytes_total";
+
+    private static final BigDecimal Completed = new BigDecimal(100);
+
+    private Chunks() {
+    }
+
+    /**
+     * Returns true if the given name is the name of a chunk.
+     *
+     * @param name of a cloud file.
+     * @return true if it is a chunk.
+     */
+    public static boolean isChunk(@NotNull final String name) {
+        return name.startsWith(ChunkFolder + File.separator);
+    }
+
+    /**
+     * Returns true if the given name is the name of a manifest.
+     *
+     * @param name of a cloud file.
+     * @return true if it is a manifest.
+     */
+    public static boolean isManifest(@NotNull final String name) {
+        return name.startsWith(ManifestFolder + File.separator);
+    }
+
+    /**
+     * Returns true if the given local file is large enough to be split into chunks.
+     *
+     * @param ctx       context.
+     * @param localPath to the file.
+     * @return true if the file should be split.
+     */
+    public static boolean isChunkable(@NotNull final Context ctx, @NotNull final Path localPath) {
+
+        final long threshold = ctx.getConfig().getChunkThreshold();
+        if (threshold <= 0) {
+            return false;
+        }
+        try {
+            return Files.size(localPath) >= threshold;
+        } catch (final IOException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Returns the name of the chunk of the given digest.
+     */
+    @NotNull
+    static String chunkName(@NotNull final String digest) {
+        return Paths.get(ChunkFolder, digest).toString();
+    }
+
+    /**
+     * Returns the digest of the given chunk.
+     */
+    @NotNull
+    static String getDigest(@NotNull final String chunkName) {
+        return chunkName.substring(ChunkFolder.length() + 1);
+    }
+
+    /**
+     * Returns the name of the manifests of the given file.
+     */
+    @NotNull
+    static String manifestName(@NotNull final String name) {
+        return Paths.get(ManifestFolder).resolve(name).toString();
+    }
+
+    /**
+     * Returns the name of the file the given cloud file stores; manifests store the files they are named after and
+     * other cloud files store themselves.
+     *
+     * @param name of a cloud file.
+     * @return the name of the file.
+     */
+    @NotNull
+    static String getFileName(@NotNull final String name) {
+        return isManifest(name) ? name.substring(ManifestFolder.length() + 1) : name;
+    }
+
+    /**
+     * Returns the cloud path of the version of the file the given manifest stores.
+     *
+     * @param ctx      context.
+     * @param manifest a cloud file in the manifest folder.
+     * @return the cloud path the version would have if it were uploaded as one cloud file.
+     */
+    @NotNull
+    static Path toFilePath(@NotNull final Context ctx, @NotNull final SiaFileFromFilesAPI manifest) {
+        return ctx.getPathPrefix()
+                .resolve(getFileName(manifest.getName()))
+                .resolve(Long.toString(manifest.getCreationTime().orElse(0L)));
+    }
+
+    /**
+     * Returns a cloud file entry representing the given chunked file.
+     */
+    @NotNull
+    static FileInfo toFileInfo(@NotNull final ChunkedFile file) {
+        return new FileInfo()
+                .siapath(APIUtils.toSlash(file.getCloudPath()))
+                .filesize(file.getSize())
+                .available(true)
+                .uploadprogress(Completed);
+    }
+
+    /**
+     * Replaces the manifests in the given listing of cloud files with the versions they store, and drops chunks.
+     * <p>
+     * Listed chunks are recorded in the sync DB so that they are reused by uploads and downloads, and manifests
+     * uploaded by other clients are read and recorded, too. A version is listed only once its manifest and all of
+     * its chunks are available. Records of chunks and manifests which aren't listed anymore are removed except the
+     * ones this client is uploading.
+     *
+     * @param ctx   context.
+     * @param files returned by renterFilesGet.
+     * @return the listing where manifests are replaced with the versions they store.
+     * @throws ApiException if failed to connect to a sia daemon.
+     */
+    @NotNull
+    static List<FileInfo> expand(@NotNull final Context ctx, @NotNull final Collection<FileInfo> files) throws ApiException {
+
+        final Map<String, Chunk> knownChunks = DB.getChunks().stream()
+                .collect(Collectors.toMap(Chunk::getDigest, Function.identity()));
+        final Map<Path, ChunkedFile> knownFiles = DB.getChunkedFiles().stream()
+                .collect(Collectors.toMap(ChunkedFile::getManifestPath, Function.identity()));
+
+        final List<FileInfo> res = new ArrayList<>(files.size());
+        final Map<String, SiaFileFromFilesAPI> availableChunks = new HashMap<>();
+        final List<SiaFileFromFilesAPI> manifests = new ArrayList<>();
+        final Set<Path> listedManifests = new HashSet<>();
+        for (final FileInfo file : files) {
+
+            final SiaFileFromFilesAPI siaFile = new SiaFileFromFilesAPI(ctx, file);
+            if (!siaFile.isManaged()) {
+                res.add(file);
+            } else if (isChunk(siaFile.getName())) {
+                if (file.isAvailable()) {
+                    // Prefer the copy the sync DB refers to if the chunk was uploaded more than once.
+                    final String digest = getDigest(siaFile.getName());
+                    final Chunk known = knownChunks.get(digest);
+                    if (known != null && known.getCloudPath().equals(siaFile.getCloudPath())) {
+                        availableChunks.put(digest, siaFile);
+                    } else {
+                        availableChunks.putIfAbsent(digest, siaFile);
+                    }
+                }
+            } else if (isManifest(siaFile.getName())) {
+                listedManifests.add(siaFile.getCloudPath());
+                if (file.isAvailable()) {
+                    manifests.add(siaFile);
+                }
+            } else {
+                res.add(file);
+            }
+
+        }
+
+        availableChunks.forEach((digest, siaFile) -> {
+            final Chunk known = knownChunks.get(digest);
+            if (known == null || known.isUploaded() && !known.getCloudPath().equals(siaFile.getCloudPath())) {
+                DB.addChunk(new Chunk(digest, siaFile.getCloudPath(), siaFile.getFileSize(), null, true));
+            }
+        });
+        for (final Chunk chunk : knownChunks.values()) {
+            if (chunk.isUploaded() && !availableChunks.containsKey(chunk.getDigest())) {
+                logger.debug("Chunk {} has been deleted from the cloud network", chunk.getDigest());
+                DB.removeChunk(chunk.getDigest());
+            }
+        }
+
+        for (final SiaFileFromFilesAPI manifest : manifests) {
+
+            ChunkedFile chunkedFile = knownFiles.get(manifest.getCloudPath());
+            if (chunkedFile == null) {
+                try {
+                    final ChunkManifest index = readManifest(ctx, manifest);
+                    logger.info("Found manifest {} of {} chunks", manifest.getCloudPath(), index.getChunks().size());
+                    chunkedFile = new ChunkedFile(
+                            toFilePath(ctx, manifest), getFileName(manifest.getName()), manifest.getCloudPath(),
+                            index.getSize(),
+                            index.getChunks().stream().map(ChunkManifest.Entry::getDigest).collect(Collectors.toList()),
+                            null, true);
+                    DB.addChunkedFile(chunkedFile);
+                } catch (final ApiException e) {
+                    if (e.getCause() instanceof ConnectException) {
+                        throw e;
+                    }
+                    logger.error("Failed to read manifest {}: {}", manifest.getCloudPath(), APIUtils.getErrorMessage(e));
+                    continue;
+                } catch (final IOException e) {
+                    logger.error("Failed to read manifest {}: {}", manifest.getCloudPath(), e.getMessage());
+                    continue;
+                }
+            }
+
+            if (availableChunks.keySet().containsAll(chunkedFile.getChunks())) {
+                res.add(toFileInfo(chunkedFile));
+            } else {
+                logger.debug("Some chunks of {} are not available yet", chunkedFile.getCloudPath());
+            }
+
+        }
+
+        for (final ChunkedFile chunkedFile : knownFiles.values()) {
+            if (chunkedFile.isUploaded() && !listedManifests.contains(chunkedFile.getManifestPath())) {
+                logger.debug("Manifest {} has been deleted from the cloud network", chunkedFile.getManifestPath());
+                DB.removeChunkedFile(chunkedFile.getCloudPath());
+            }
+        }
+        return res;
+
+    }
+
+    /**
+     * Reads the given manifest through a file in the staging area.
+     */
+    @NotNull
+    private static ChunkManifest readManifest(@NotNull final Context ctx, @NotNull final SiaFileFromFilesAPI manifest)
+            throws ApiException, IOException {
+
+        final Path tempPath = ctx.getStagingArea().allocate(manifest.getFileSize());
+        try {
+            Packs.download(ctx, manifest.getName(), manifest.getCloudPath(), 0, manifest.getFileSize(), tempPath);
+            return ChunkManifest.parse(Files.readAllBytes(tempPath));
+        } finally {
+            ctx.getStagingArea().release(tempPath);
+        }
+
+    }
+
+    /**
+     * Assembles the body of the given chunked file at the destination. Chunks found in the given local file, which
+     * is usually the older version of the file, are copied from it, and the others are downloaded.
+     *
+     * @param ctx         context.
+     * @param file        to be downloaded.
+     * @param destination where the body is written.
+     * @param localPath   to the local file of which chunks are reused; it may not exist.
+     * @throws ApiException if no sia daemons can download a chunk.
+     * @throws IOException  if failed to access the local files or a downloaded chunk is broken.
+     */
+    static void download(
+            @NotNull final Context ctx, @NotNull final ChunkedFile file, @NotNull final Path destination,
+            @NotNull final Path localPath) throws ApiException, IOException {
+
+        final Map<String, ChunkManifest.Entry> localChunks = new HashMap<>();
+        if (Files.isRegularFile(localPath)) {
+            try {
+                ChunkManifest.chunk(localPath).getChunks().forEach(entry -> localChunks.putIfAbsent(entry.getDigest(), entry));
+            } catch (final IOException e) {
+                logger.debug("Failed to read chunks of {}: {}", localPath, e.getMessage());
+            }
+        }
+
+        long reused = 0;
+        try (final FileChannel out = FileChannel.open(
+                destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            for (final String digest : file.getChunks()) {
+
+                final ChunkManifest.Entry local = localChunks.get(digest);
+                if (local != null) {
+                    final long position = out.position();
+                    if (digest.equals(append(localPath, local.getOffset(), local.getLength(), out))) {
+                        reused += local.getLength();
+                        continue;
+                    }
+                    // The local file has been modified since it was split.
+                    logger.debug("Chunk {} of {} was modified", digest, localPath);
+                    out.truncate(position);
+                    out.position(position);
+                }
+
+                final Chunk chunk = DB.getChunk(digest).orElseThrow(
+                        () -> new ApiException(String.format("chunk %s is not found", digest)));
+                final Path tempPath = ctx.getStagingArea().allocate(chunk.getLength());
+                try {
+                    Packs.download(ctx, chunkName(digest), chunk.getCloudPath(), 0, chunk.getLength(), tempPath);
+                    if (!digest.equals(append(tempPath, 0, chunk.getLength(), out))) {
+                        throw new IOException(String.format("downloaded chunk %s is broken", digest));
+                    }
+                } finally {
+                    ctx.getStagingArea().release(tempPath);
+                }
+
+            }
+
+        }
+        logger.debug("Reused {} bytes of {} to assemble {}", reused, localPath, file.getCloudPath());
+        MetricsRegistry.getDefault().counter(
+                LocalBytesMetric, "Bytes of chunks copied from local files instead of downloading them.").add(reused);
+
+    }
+
+    /**
+     * Copies the given range of the source to the destination and returns the digest of the copied bytes.
+     *
+     * @param source      file.
+     * @param offset      of the range.
+     * @param length      of the range.
+     * @param destination where the range is written at the current position.
+     * @return hex string of the sha256 digest.
+     * @throws IOException if failed to read or to write a file.
+     */
+    @NotNull
+    static String append(
+            @NotNull final Path source, final long offset, final long length, @NotNull final FileChannel destination)
+            throws IOException {
+
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (final FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+
+            in.position(offset);
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                final int n = in.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer.array(), 0, n);
+                while (buffer.hasRemaining()) {
+                    destination.write(buffer);
+                }
+                remaining -= n;
+            }
+
+        }
+        return Hex.encodeHexString(digest.digest());
+
+    }
+
+}
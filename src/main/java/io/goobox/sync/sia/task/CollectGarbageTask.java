@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes stale files under the path prefix from the cloud network.
+ * <p>
+ * The following files are stale:
+ * <ul>
+ * <li>superseded versions, which are older than the newest available version of the same file,</li>
+ * <li>abandoned uploads, which are not available and are not being uploaded according to the sync DB,</li>
+ * <li>unused chunks, which no manifests in the sync DB refer to, and extra copies of chunks.</li>
+ * </ul>
+ * The version the sync DB refers to is never deleted. Available files which aren't in the sync DB are also kept
+ * because CheckStateTask will download them. Packs are left to {@link CompactPacksTask}. Manifests are handled as
+ * versions of the files they store, and chunks younger than {@link #ChunkGracePeriod} are kept because other clients
+ * may be uploading manifests referring to them.
+ * <p>
+ * This task runs with the lowest thread priority and deletes at most {@link #BatchSize} files per run with an
+ * interval between deletions; remaining files will be deleted in the next runs. In dry-run mode, it only reports
+ * stale files.
+ */
+public class CollectGarbageTask implements Callable<Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectGarbageTask.class);
+
+    /**
+     * The maximum number of files deleted in one run.
+     */
+    static final int BatchSize = 20;
+
+    /**
+     * Default interval in milliseconds between deletions.
+     */
+    static final long DefaultDeleteInterval = 1000;
+
+    /**
+     * Chunks created within this period in milliseconds are never deleted.
+     */
+    static final long ChunkGracePeriod = 24 * 60 * 60 * 1000L;
+
+    @NotNull
+    private final Context ctx;
+
+    private final boolean dryRun;
+
+    private long deleteInterval = DefaultDeleteInterval;
+
+    /**
+     * The number of stale files and their total size collected so far. In dry-run mode, they count files which
+     * would have been deleted.
+     */
+    private final AtomicLong collectedFiles = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    public CollectGarbageTask(@NotNull final Context ctx) {
+        this.ctx = ctx;
+        this.dryRun = ctx.getConfig().isGCDryRun();
+    }
+
+    @Override
+    public Void call() throws ApiException {
+
+        logger.info("Collecting stale files in the cloud network{}", this.dryRun ? " (dry run)" : "");
+        final Thread current = Thread.currentThread();
+        final int priority = current.getPriority();
+        current.setPriority(Thread.MIN_PRIORITY);
+
+        try {
+
+            final List<FileInfo> files = APIUtils.collectFromDaemons(this.ctx, api -> api.renterFilesGet().getFiles());
+            if (files.isEmpty()) {
+                return null;
+            }
+
+            final List<SiaFileFromFilesAPI> garbage = this.findGarbage(files);
+            int collected = 0;
+            for (final SiaFileFromFilesAPI siaFile : garbage) {
+
+                if (this.dryRun) {
+                    logger.info("Found stale file {} ({} bytes)", siaFile.getCloudPath(), siaFile.getFileSize());
+                    this.count(siaFile);
+                    continue;
+                }
+
+                if (collected >= BatchSize) {
+                    logger.debug("{} stale files remain and will be deleted later", garbage.size() - collected);
+                    break;
+                }
+                if (collected != 0) {
+                    try {
+                        Thread.sleep(this.deleteInterval);
+                    } catch (final InterruptedException e) {
+                        logger.warn("Interrupted while collecting stale files: {}", e.getMessage());
+                        break;
+                    }
+                }
+
+                try {
+                    this.delete(siaFile);
+                    DB.removeStoredContent(siaFile.getCloudPath());
+                    if (Chunks.isChunk(siaFile.getName())) {
+                        removeChunk(siaFile);
+                    }
+                    logger.info("Deleted stale file {} ({} bytes)", siaFile.getCloudPath(), siaFile.getFileSize());
+                    this.count(siaFile);
+                    collected++;
+                } catch (final ApiException e) {
+                    if (e.getCause() instanceof ConnectException) {
+                        throw e;
+                    }
+                    logger.error("Failed to delete stale file {}: {}", siaFile.getCloudPath(), APIUtils.getErrorMessage(e));
+                }
+
+            }
+            logger.info(
+                    "Collected {} stale files ({} bytes) so far{}",
+                    this.collectedFiles.get(), this.reclaimedBytes.get(), this.dryRun ? " (dry run)" : "");
+
+        } catch (final ApiException e) {
+            if (e.getCause() instanceof ConnectException) {
+                throw e;
+            }
+            logger.error("Failed to retrieve files stored in sia network: {}", APIUtils.getErrorMessage(e));
+        } finally {
+            current.setPriority(priority);
+        }
+        return null;
+
+    }
+
+    /**
+     * Deletes the given file from the sia daemon it is assigned to, or from the next daemons in the preference list
+     * if the set of daemons has changed since it was uploaded.
+     */
+    private void delete(@NotNull final SiaFileFromFilesAPI siaFile) throws ApiException {
+
+        final String slashedCloudPath = APIUtils.toSlash(siaFile.getCloudPath());
+        final Iterator<Context> daemons = this.ctx.getDaemonContexts(siaFile.getName()).iterator();
+        while (true) {
+            try {
+                new RenterApi(daemons.next().getApiClient()).renterDeleteSiapathPost(slashedCloudPath);
+                return;
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException || !daemons.hasNext()) {
+                    throw e;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Returns the number of stale files collected so far.
+     *
+     * @return the number of deleted files, or files which would have been deleted in dry-run mode.
+     */
+    public long getCollectedFiles() {
+        return this.collectedFiles.get();
+    }
+
+    /**
+     * Returns the total size of stale files collected so far.
+     *
+     * @return the reclaimed bytes, or bytes which would have been reclaimed in dry-run mode.
+     */
+    public long getReclaimedBytes() {
+        return this.reclaimedBytes.get();
+    }
+
+    /**
+     * Finds stale files from the given cloud files.
+     *
+     * @param files returned by renterFilesGet.
+     * @return a list of stale files; superseded versions come first, older ones first.
+     */
+    @NotNull
+    private List<SiaFileFromFilesAPI> findGarbage(@NotNull final Collection<FileInfo> files) {
+
+        final List<SiaFileFromFilesAPI> managed = files.stream()
+                .map(file -> new SiaFileFromFilesAPI(this.ctx, file))
+                .filter(SiaFileFromFilesAPI::isManaged)
+                .filter(siaFile -> !Packs.isPack(siaFile.getName()))
+                .collect(Collectors.toList());
+        final Map<String, List<SiaFileFromFilesAPI>> versions = managed.stream()
+                .filter(siaFile -> !Chunks.isChunk(siaFile.getName()))
+                .collect(Collectors.groupingBy(siaFile -> Chunks.getFileName(siaFile.getName())));
+
+        final List<SiaFileFromFilesAPI> superseded = new ArrayList<>();
+        final List<SiaFileFromFilesAPI> abandoned = new ArrayList<>();
+        versions.forEach((name, siaFiles) -> {
+
+            final Optional<SyncFile> syncFile = DB.get(name);
+            final Optional<Path> referenced = syncFile.flatMap(SyncFile::getCloudPath);
+            final long newest = siaFiles.stream()
+                    .filter(SiaFileFromFilesAPI::isAvailable)
+                    .mapToLong(CollectGarbageTask::getCreationTime)
+                    .max()
+                    .orElse(Long.MAX_VALUE);
+
+            for (final SiaFileFromFilesAPI siaFile : siaFiles) {
+                final Path cloudPath = Chunks.isManifest(siaFile.getName())
+                        ? Chunks.toFilePath(this.ctx, siaFile) : siaFile.getCloudPath();
+                if (referenced.map(cloudPath::equals).orElse(false)) {
+                    continue;
+                }
+                if (siaFile.isAvailable()) {
+                    if (getCreationTime(siaFile) < newest) {
+                        logger.debug("{} is superseded by a newer version", siaFile.getCloudPath());
+                        superseded.add(siaFile);
+                    }
+                } else if (!syncFile.map(CollectGarbageTask::isUploading).orElse(false) || referenced.isPresent()) {
+                    logger.debug("{} is an abandoned upload", siaFile.getCloudPath());
+                    abandoned.add(siaFile);
+                }
+            }
+
+        });
+
+        superseded.sort((lhs, rhs) -> Long.compare(getCreationTime(lhs), getCreationTime(rhs)));
+        superseded.addAll(abandoned);
+        superseded.addAll(this.findStaleChunks(managed));
+        return superseded;
+
+    }
+
+    /**
+     * Finds chunks which no manifests refer to and copies of chunks other than the ones the sync DB refers to,
+     * except the ones created within the grace period.
+     */
+    @NotNull
+    private List<SiaFileFromFilesAPI> findStaleChunks(@NotNull final List<SiaFileFromFilesAPI> siaFiles) {
+
+        final Set<String> referenced = DB.getChunkedFiles().stream()
+                .flatMap(file -> file.getChunks().stream())
+                .collect(Collectors.toSet());
+        final long deadline = System.currentTimeMillis() - ChunkGracePeriod;
+
+        final List<SiaFileFromFilesAPI> res = new ArrayList<>();
+        for (final SiaFileFromFilesAPI siaFile : siaFiles) {
+
+            if (!Chunks.isChunk(siaFile.getName())) {
+                continue;
+            }
+            final String digest = Chunks.getDigest(siaFile.getName());
+            final Optional<Chunk> chunk = DB.getChunk(digest);
+            if (chunk.map(c -> c.getCloudPath().equals(siaFile.getCloudPath())
+                    && (referenced.contains(digest) || !c.isUploaded())).orElse(false)) {
+                continue;
+            }
+            if (getCreationTime(siaFile) > deadline) {
+                continue;
+            }
+            logger.debug("{} is an unused chunk", siaFile.getCloudPath());
+            res.add(siaFile);
+
+        }
+        return res;
+
+    }
+
+    /**
+     * Removes the record of the given chunk if it refers to the deleted copy.
+     */
+    private static void removeChunk(@NotNull final SiaFileFromFilesAPI siaFile) {
+        final String digest = Chunks.getDigest(siaFile.getName());
+        DB.getChunk(digest)
+                .filter(chunk -> chunk.getCloudPath().equals(siaFile.getCloudPath()))
+                .ifPresent(chunk -> DB.removeChunk(digest));
+    }
+
+    private void count(@NotNull final SiaFileFromFilesAPI siaFile) {
+        this.collectedFiles.incrementAndGet();
+        this.reclaimedBytes.addAndGet(siaFile.getFileSize());
+    }
+
+    private static long getCreationTime(@NotNull final SiaFileFromFilesAPI siaFile) {
+        return siaFile.getCreationTime().orElse(Long.MIN_VALUE);
+    }
+
+    private static boolean isUploading(@NotNull final SyncFile syncFile) {
+        return syncFile.getState() == SyncState.FOR_UPLOAD || syncFile.getState() == SyncState.UPLOADING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CollectGarbageTask that = (CollectGarbageTask) o;
+        return dryRun == that.dryRun && Objects.equals(ctx, that.ctx);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ctx, dryRun);
+    }
+
+}
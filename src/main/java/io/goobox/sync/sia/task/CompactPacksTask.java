@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.model.PackIndex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * Compacts packs which have garbage.
+ * <p>
+ * A file bundled in a pack is garbage if it has been deleted or superseded by another version. A pack is compacted
+ * if more than {@link #MaxGarbageRatio} of its bytes are garbage, which is decided from the sync DB alone. Live files
+ * are bundled into a new pack from the local files, and the old pack is deleted once the new one is uploaded; a pack
+ * without live files is deleted right away. Packs having files which are still being synchronized are compacted in a
+ * later run.
+ * <p>
+ * Deleted files are marked in the sync DB and hidden from listings of this client, but other clients see them until
+ * their pack is compacted since a pack cannot be changed without uploading it again.
+ */
+public class CompactPacksTask implements Callable<Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompactPacksTask.class);
+
+    /**
+     * Packs are compacted if more than this ratio of the bytes of their files are garbage.
+     */
+    static final double MaxGarbageRatio = 0.5;
+
+    @NotNull
+    private final Context ctx;
+
+    public CompactPacksTask(@NotNull final Context ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public Void call() throws ApiException {
+
+        logger.debug("Compacting packs");
+        try {
+
+            final List<Pack> packs = DB.getPacks();
+            final Set<String> replaced = packs.stream()
+                    .map(Pack::getReplaces)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .collect(Collectors.toSet());
+            for (final Pack pack : packs) {
+
+                if (!pack.isUploaded()) {
+                    continue;
+                }
+                if (replaced.contains(pack.getName())) {
+                    // The pack is being replaced, or its deletion failed after it was replaced.
+                    if (packs.stream().anyMatch(p -> p.isUploaded() && p.getReplaces().map(pack.getName()::equals).orElse(false))) {
+                        deletePack(this.ctx, pack.getName());
+                    }
+                    continue;
+                }
+                this.compact(pack);
+
+            }
+
+        } finally {
+            DB.commit();
+        }
+        return null;
+
+    }
+
+    /**
+     * Compacts the given pack if it has enough garbage and none of its files are being synchronized.
+     */
+    private void compact(@NotNull final Pack pack) throws ApiException {
+
+        final List<PackedFile> live = new ArrayList<>();
+        long totalBytes = 0;
+        long liveBytes = 0;
+        for (final PackedFile packedFile : DB.getPackedFiles(pack.getName())) {
+            totalBytes += packedFile.getLength();
+            if (packedFile.isDeleted()) {
+                continue;
+            }
+            final boolean current = DB.get(packedFile.getName())
+                    .map(file -> file.getCloudPath().map(packedFile.getCloudPath()::equals).orElse(false))
+                    .orElse(false);
+            if (current) {
+                // Files superseded by another version are garbage.
+                live.add(packedFile);
+                liveBytes += packedFile.getLength();
+            }
+        }
+
+        final long garbage = totalBytes - liveBytes;
+        if (garbage == 0 || garbage <= totalBytes * MaxGarbageRatio) {
+            return;
+        }
+        if (live.isEmpty()) {
+            logger.info("Deleting pack {} since it has no live files", pack.getName());
+            deletePack(this.ctx, pack.getName());
+            return;
+        }
+
+        // Live files are read from the local files, and so they must have the synced bodies.
+        final List<PackIndex.Source> sources = new ArrayList<>();
+        for (final PackedFile packedFile : live) {
+            final Optional<SyncFile> syncFile = DB.get(packedFile.getName());
+            final Path localPath = this.ctx.getLocalPath(packedFile.getName());
+            if (!syncFile.isPresent() || syncFile.get().getState() != SyncState.SYNCED
+                    || !matchesLocalFile(syncFile.get(), localPath)) {
+                logger.debug("Pack {} has file {} being synchronized, compacting it later", pack.getName(), packedFile.getName());
+                return;
+            }
+            sources.add(new PackIndex.Source(
+                    APIUtils.toSlash(Paths.get(packedFile.getName())),
+                    syncFile.get().getCloudCreationTime().orElse(0L),
+                    localPath));
+        }
+        if (UploadPackTask.upload(this.ctx, sources, pack.getName())) {
+            logger.info("Compacting pack {} having {} live files ({} bytes of garbage)", pack.getName(), sources.size(), garbage);
+        }
+
+    }
+
+    /**
+     * Deletes the given pack from the cloud network and the sync DB.
+     *
+     * @param ctx  context.
+     * @param name of the pack.
+     */
+    static void deletePack(@NotNull final Context ctx, @NotNull final String name) {
+
+        final Optional<Pack> pack = DB.getPack(name);
+        if (!pack.isPresent()) {
+            return;
+        }
+
+        final String slashedCloudPath = APIUtils.toSlash(pack.get().getCloudPath());
+        final Iterator<Context> daemons = ctx.getDaemonContexts(name).iterator();
+        while (true) {
+            try {
+                new RenterApi(daemons.next().getApiClient()).renterDeleteSiapathPost(slashedCloudPath);
+                break;
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException || !daemons.hasNext()) {
+                    // The deletion will be retried in the next run of CompactPacksTask.
+                    logger.error("Failed to delete pack {}: {}", name, APIUtils.getErrorMessage(e));
+                    return;
+                }
+            }
+        }
+        logger.info("Deleted pack {}", name);
+        DB.removePack(name);
+
+    }
+
+    /**
+     * Returns true if the local file has the same body as the synced version.
+     */
+    private static boolean matchesLocalFile(@NotNull final SyncFile syncFile, @NotNull final Path localPath) {
+        try (final InputStream in = Files.newInputStream(localPath)) {
+            return syncFile.matchesLocalDigest(DigestUtils.sha512(in));
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CompactPacksTask that = (CompactPacksTask) o;
+        return Objects.equals(ctx, that.ctx);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ctx);
+    }
+
+}
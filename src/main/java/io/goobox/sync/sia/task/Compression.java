@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.model.Codec;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Helpers of compressed files, which are encoded with {@link Codec#gzip} into the staging area and uploaded from
+ * there so that fewer bytes are uploaded and stored.
+ * <p>
+ * Sia stores files in chunks of a fixed size, and so only files much larger than a chunk are compressed. Files which
+ * look compressed already, judged by their extensions and by compressing a sample of their beginning, are uploaded
+ * as they are.
+ */
+public final class Compression {
+
+    private static final Logger logger = LoggerFactory.getLogger(Compression.class);
+
+    public static final String CompressedFilesMetric = "goobox_compressed_files_total";
+    public static final String SavedBytesMetric = "goobox_compression_saved_bytes_total";
+
+    /**
+     * Files are uploaded as they are unless they are compressed to this ratio of their sizes or less.
+     */
+    static final double MaxRatio = 0.9;
+
+    /**
+     * Number of bytes at the beginning of a file compressed to estimate its compression ratio.
+     */
+    static final int SampleSize = 64 * 1024;
+
+    private static final int BufferSize = 64 * 1024;
+
+    /**
+     * Extensions of files of which formats are compressed already.
+     */
+    private static final Set<String> CompressedExtensions = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "7z", "aac", "apk", "avi", "br", "bz2", "cab", "deb", "dmg", "docx", "epub", "flac", "flv", "gif", "gz",
+            "heic", "iso", "jar", "jpeg", "jpg", "lz", "lz4", "lzma", "m4a", "m4v", "mkv", "mov", "mp3", "mp4", "mpeg",
+            "mpg", "odp", "ods", "odt", "ogg", "opus", "pdf", "png", "pptx", "rar", "rpm", "tgz", "txz", "webm", "webp",
+            "whl", "wma", "wmv", "xlsx", "xz", "z", "zip", "zst")));
+
+    private Compression() {
+    }
+
+    /**
+     * Returns true if the given local file is large enough to be compressed and doesn't look compressed already.
+     *
+     * @param ctx       context.
+     * @param localPath to the file.
+     * @return true if the file should be compressed.
+     */
+    static boolean isCompressible(@NotNull final Context ctx, @NotNull final Path localPath) {
+
+        final long threshold = ctx.getConfig().getCompressionThreshold();
+        if (threshold <= 0) {
+            return false;
+        }
+        final Path fileName = localPath.getFileName();
+        if (fileName != null
+                && CompressedExtensions.contains(FilenameUtils.getExtension(fileName.toString()).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        try {
+            return Files.size(localPath) >= threshold && sampleRatio(localPath) <= MaxRatio;
+        } catch (final IOException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Compresses the given local file into the staging area.
+     *
+     * @param ctx       context.
+     * @param localPath to the file.
+     * @return the path to the compressed file in the staging area, or empty if the file isn't compressed enough and
+     * should be uploaded as it is.
+     * @throws IOException if failed to read the file or to write the compressed file.
+     */
+    @NotNull
+    static Optional<Path> compress(@NotNull final Context ctx, @NotNull final Path localPath) throws IOException {
+
+        final long size = Files.size(localPath);
+        final Path stagedPath = ctx.getStagingArea().allocate(size);
+        boolean staged = false;
+        try {
+
+            try (final InputStream in = Files.newInputStream(localPath);
+                 final OutputStream out = Codec.gzip.encode(Files.newOutputStream(stagedPath))) {
+                IOUtils.copy(in, out, BufferSize);
+            }
+            final long compressed = Files.size(stagedPath);
+            if (compressed > size * MaxRatio) {
+                logger.debug("{} is compressed only to {} of {} bytes, and uploaded as it is", localPath, compressed, size);
+                return Optional.empty();
+            }
+            ctx.getStagingArea().trim(stagedPath);
+            staged = true;
+            return Optional.of(stagedPath);
+
+        } finally {
+            if (!staged) {
+                ctx.getStagingArea().release(stagedPath);
+            }
+        }
+
+    }
+
+    /**
+     * Decodes the given downloaded file encoded with the given codec in place.
+     *
+     * @param ctx      context.
+     * @param codec    the file is encoded with.
+     * @param tempPath to the downloaded file in the staging area.
+     * @throws IOException if failed to decode the file.
+     */
+    static void decode(@NotNull final Context ctx, @NotNull final Codec codec, @NotNull final Path tempPath) throws IOException {
+
+        final Path decodedPath = ctx.getStagingArea().allocate(codec.getDecodedSize(tempPath));
+        try {
+            try (final InputStream in = codec.decode(Files.newInputStream(tempPath));
+                 final OutputStream out = Files.newOutputStream(decodedPath)) {
+                IOUtils.copy(in, out, BufferSize);
+            }
+            Files.move(decodedPath, tempPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            ctx.getStagingArea().release(decodedPath);
+        }
+
+    }
+
+    /**
+     * Counts a file whose compressed copy started being uploaded.
+     *
+     * @param size       of the file.
+     * @param compressed size of the compressed copy.
+     */
+    static void count(final long size, final long compressed) {
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        registry.counter(CompressedFilesMetric, "Files uploaded after being compressed.").increment();
+        registry.counter(SavedBytesMetric, "Bytes not uploaded because files were compressed.").add(size - compressed);
+    }
+
+    /**
+     * Returns the ratio of the compressed size of the beginning of the given file to its original size.
+     */
+    private static double sampleRatio(@NotNull final Path localPath) throws IOException {
+
+        final byte[] sample = new byte[SampleSize];
+        final int read;
+        try (final InputStream in = Files.newInputStream(localPath)) {
+            read = IOUtils.read(in, sample);
+        }
+        if (read == 0) {
+            return 1;
+        }
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, read);
+            deflater.finish();
+            final byte[] buf = new byte[BufferSize];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buf);
+            }
+            return (double) compressed / read;
+        } finally {
+            deflater.end();
+        }
+
+    }
+
+}
@@ -68,40 +68,22 @@ public class DeleteCloudFileTask implements Callable<Void> {
             return null;
         }
 
-        final RenterApi api = new RenterApi(this.ctx.getApiClient());
         try {
 
-            final InlineResponse20012 files = api.renterFilesGet();
-            if (files.getFiles() == null) {
-
-                logger.warn("No files exist in the cloud storage");
+            // Versions of the file may remain in a daemon it was assigned to before the set of daemons changed.
+            boolean success = true;
+            for (final Context daemon : this.ctx.getDaemonContexts(this.name)) {
+                success = this.delete(new RenterApi(daemon.getApiClient())) && success;
+            }
+            if (success) {
+                // Versions bundled in packs are dropped when the packs are compacted, and chunks of versions split
+                // into chunks are left to the garbage collector.
+                DB.setPackedFilesDeleted(this.name);
+                DB.removeChunkedFiles(this.name);
+                DB.removeStoredContents(this.name);
                 DB.remove(this.name);
-
             } else {
-
-                final boolean success = files.getFiles().stream()
-                        .map(file -> new SiaFileFromFilesAPI(this.ctx, file))
-                        .filter(siaFile -> siaFile.getCloudPath().startsWith(this.ctx.getPathPrefix()))
-                        .filter(siaFile -> siaFile.getName().equals(this.name))
-                        .allMatch(siaFile -> {
-                            logger.info("Delete file {}", siaFile.getCloudPath());
-                            try {
-                                api.renterDeleteSiapathPost(APIUtils.toSlash(siaFile.getCloudPath()));
-                            } catch (final ApiException e) {
-                                logger.error(
-                                        "Failed to delete remote file {}: {}",
-                                        siaFile.getCloudPath(), APIUtils.getErrorMessage(e));
-                                return false;
-                            }
-                            return true;
-                        });
-
-                if (success) {
-                    DB.remove(this.name);
-                } else {
-                    DB.setDeleteFailed(this.name);
-                }
-
+                DB.setDeleteFailed(this.name);
             }
             DB.commit();
 
@@ -115,4 +97,37 @@ public class DeleteCloudFileTask implements Callable<Void> {
 
     }
 
+    /**
+     * Deletes all versions of the file stored in the daemon of the given api, including manifests of versions split
+     * into chunks.
+     *
+     * @return true if all of them are deleted.
+     */
+    private boolean delete(@NotNull final RenterApi api) throws ApiException {
+
+        final InlineResponse20012 files = api.renterFilesGet();
+        if (files.getFiles() == null) {
+            logger.warn("No files exist in the cloud storage");
+            return true;
+        }
+
+        return files.getFiles().stream()
+                .map(file -> new SiaFileFromFilesAPI(this.ctx, file))
+                .filter(SiaFileFromFilesAPI::isManaged)
+                .filter(siaFile -> Chunks.getFileName(siaFile.getName()).equals(this.name))
+                .allMatch(siaFile -> {
+                    logger.info("Delete file {}", siaFile.getCloudPath());
+                    try {
+                        api.renterDeleteSiapathPost(APIUtils.toSlash(siaFile.getCloudPath()));
+                    } catch (final ApiException e) {
+                        logger.error(
+                                "Failed to delete remote file {}: {}",
+                                siaFile.getCloudPath(), APIUtils.getErrorMessage(e));
+                        return false;
+                    }
+                    return true;
+                });
+
+    }
+
 }
@@ -22,15 +22,20 @@ import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Context;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.db.ChunkedFile;
 import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.PackedFile;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.ConnectException;
 import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 
@@ -74,12 +79,28 @@ public class DownloadCloudFileTask implements Callable<Void> {
         }
         final Path cloudPath = syncFile.getCloudPath().get();
         final Path temporaryPath = syncFile.getTemporaryPath().get();
-        final RenterApi api = new RenterApi(this.ctx.getApiClient());
         try {
 
-            logger.info("Downloading {} to {}", cloudPath, syncFile.getLocalPath().orElse(temporaryPath));
-            api.renterDownloadasyncSiapathGet(APIUtils.toSlash(cloudPath), APIUtils.toSlash(temporaryPath));
-            DB.setDownloading(this.name);
+            logger.info("Downloading {} to {}", cloudPath, this.ctx.getLocalPath(syncFile).orElse(temporaryPath));
+            final Optional<PackedFile> packedFile = DB.getPackedFile(cloudPath);
+            final Optional<ChunkedFile> chunkedFile = DB.getChunkedFile(cloudPath);
+            if (packedFile.isPresent()) {
+                // Files bundled in a pack are small and read from the pack synchronously.
+                Packs.download(this.ctx, packedFile.get(), temporaryPath);
+                DB.setDownloading(this.name);
+                DB.get(this.name).ifPresent(downloaded -> CheckDownloadStateTask.complete(
+                        this.ctx, new SiaFileFromFilesAPI(this.ctx, Packs.toFileInfo(packedFile.get())), downloaded));
+            } else if (chunkedFile.isPresent()) {
+                // Chunked files are assembled synchronously, copying the chunks the local file already has.
+                Chunks.download(this.ctx, chunkedFile.get(), temporaryPath, this.ctx.getLocalPath(this.name));
+                DB.setDownloading(this.name);
+                DB.get(this.name).ifPresent(downloaded -> CheckDownloadStateTask.complete(
+                        this.ctx, new SiaFileFromFilesAPI(this.ctx, Chunks.toFileInfo(chunkedFile.get())), downloaded));
+            } else {
+                this.startDownload(APIUtils.toSlash(cloudPath), APIUtils.toSlash(temporaryPath));
+                DB.setDownloading(this.name);
+                App.getInstance().ifPresent(App::wakeUpDownloadTracker);
+            }
 
         } catch (final ApiException e) {
 
@@ -89,15 +110,50 @@ public class DownloadCloudFileTask implements Callable<Void> {
 
             logger.error(
                     "Cannot start downloading name {} to {}: {}",
-                    cloudPath, syncFile.getLocalPath().orElse(temporaryPath), APIUtils.getErrorMessage(e));
+                    cloudPath, this.ctx.getLocalPath(syncFile).orElse(temporaryPath), APIUtils.getErrorMessage(e));
+            this.ctx.getStagingArea().release(temporaryPath);
+            DB.setDownloadFailed(this.name);
+
+        } catch (final IOException e) {
+
+            logger.error(
+                    "Cannot assemble {} at {}: {}",
+                    cloudPath, this.ctx.getLocalPath(syncFile).orElse(temporaryPath), e.getMessage());
+            this.ctx.getStagingArea().release(temporaryPath);
             DB.setDownloadFailed(this.name);
 
         } finally {
-            App.getInstance().ifPresent(app -> syncFile.getLocalPath().ifPresent(app::refreshOverlayIcon));
+            App.getInstance().ifPresent(app -> this.ctx.getLocalPath(syncFile).ifPresent(app::refreshOverlayIcon));
             DB.commit();
         }
         return null;
 
     }
 
+    /**
+     * Asks the sia daemon the file is assigned to for downloading it. If that daemon cannot, e.g. because the set of
+     * daemons has changed since the file was uploaded, asks the other daemons in the order of the preference list.
+     */
+    private void startDownload(@NotNull final String cloudPath, @NotNull final String temporaryPath) throws ApiException {
+
+        final Iterator<Context> daemons = this.ctx.getDaemonContexts(this.name).iterator();
+        while (true) {
+
+            final Context daemon = daemons.next();
+            try {
+                new RenterApi(daemon.getApiClient()).renterDownloadasyncSiapathGet(cloudPath, temporaryPath);
+                return;
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException || !daemons.hasNext()) {
+                    throw e;
+                }
+                logger.debug(
+                        "Sia daemon at {} cannot download {}: {}",
+                        daemon.getSiadApiAddress(), cloudPath, APIUtils.getErrorMessage(e));
+            }
+
+        }
+
+    }
+
 }
@@ -100,6 +100,14 @@ public class GetWalletInfoTask implements Callable<GetWalletInfoTask.InfoPair> {
                 if (e.getCause() instanceof ConnectException) {
                     throw e;
                 }
+                if (!this.ctx.isPrimaryDaemon()) {
+                    // Wallets of additional daemons are managed by the user.
+                    logger.error(
+                            "Cannot unlock the wallet of the sia daemon at {}: {}",
+                            this.ctx.getSiadApiAddress(), APIUtils.getErrorMessage(e));
+                    throw new WalletException(String.format(
+                            "Cannot unlock the wallet of the sia daemon at %s", this.ctx.getSiadApiAddress()));
+                }
 
                 logger.debug("No wallet seems to be initialized: {}", APIUtils.getErrorMessage(e));
                 if (this.ctx.getConfig().getPrimarySeed().isEmpty()) {
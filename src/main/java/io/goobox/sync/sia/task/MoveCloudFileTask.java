@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.model.Codec;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+/**
+ * Moves the cloud file of a deleted file to a file marked as FOR_MOVE, i.e. a renamed or moved file, instead of
+ * uploading the file again. CheckStateTask runs this task before it lists cloud files.
+ * <p>
+ * If the cloud file cannot be moved, e.g. the files are assigned to different sia daemons or the cloud file is bundled
+ * in a pack, the moved file is marked as MODIFIED and the deleted file is marked as DELETED as if they were not paired.
+ * A file split into chunks isn't moved either, but uploading it again uploads only its manifest.
+ */
+public class MoveCloudFileTask implements Callable<Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MoveCloudFileTask.class);
+
+    public static final String MovedFilesMetric = "goobox_moved_files_total";
+    public static final String MovedBytesMetric = "goobox_moved_bytes_total";
+
+    private static final BigDecimal Completed = new BigDecimal(100);
+
+    @NotNull
+    private final Context ctx;
+
+    @NotNull
+    private final String name;
+
+    public MoveCloudFileTask(@NotNull final Context ctx, @NotNull final String name) {
+        this.ctx = ctx;
+        this.name = name;
+    }
+
+    @Override
+    public Void call() throws ApiException {
+        logger.trace("Enter call");
+
+        final Optional<SyncFile> syncFileOpt = DB.get(this.name);
+        if (!syncFileOpt.isPresent()) {
+            logger.warn("File {} was deleted from SyncDB", this.name);
+            return null;
+        }
+
+        final SyncFile syncFile = syncFileOpt.get();
+        if (syncFile.getState() != SyncState.FOR_MOVE) {
+            logger.debug("File {} was enqueued to be moved but its status was changed, skipped", this.name);
+            return null;
+        }
+        final Optional<Path> source = syncFile.getCloudPath();
+        if (!source.isPresent()) {
+            logger.debug("File {} was enqueued but it doesn't have the cloud path", this.name);
+            return null;
+        }
+        final String from = new SiaFileFromFilesAPI(
+                this.ctx, new FileInfo().siapath(APIUtils.toSlash(source.get()))).getName();
+
+        try {
+
+            final Context daemon = this.ctx.getDaemonContext(this.name);
+            if (!daemon.getSiadApiAddress().equals(this.ctx.getDaemonContext(from).getSiadApiAddress())
+                    || DB.getPackedFile(source.get()).isPresent() || DB.getChunkedFile(source.get()).isPresent()) {
+                logger.info("Cloud file {} cannot be moved to {}, which is going to be uploaded", source.get(), this.name);
+                DB.setMoveFailed(from, this.name);
+                return null;
+            }
+
+            final Path cloudPath = Codec.of(this.ctx, source.get())
+                    .resolve(this.ctx, this.name, syncFile.getLocalModificationTime().orElse(0L));
+            try {
+                new RenterApi(daemon.getApiClient()).renterRenameSiapathPost(
+                        APIUtils.toSlash(source.get()), APIUtils.toSlash(cloudPath));
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException) {
+                    throw e;
+                }
+                logger.error("Failed to move {} to {}: {}", source.get(), cloudPath, APIUtils.getErrorMessage(e));
+                DB.setMoveFailed(from, this.name);
+                return null;
+            }
+
+            final long size = syncFile.getLocalSize().orElse(0L);
+            logger.info("Moved cloud file {} to {}", source.get(), cloudPath);
+            DB.setMoved(from, new SiaFileFromFilesAPI(this.ctx, new FileInfo()
+                    .siapath(APIUtils.toSlash(cloudPath))
+                    .filesize(size)
+                    .available(true)
+                    .uploadprogress(Completed)));
+
+            final MetricsRegistry registry = MetricsRegistry.getDefault();
+            registry.counter(MovedFilesMetric, "Files moved in the cloud network instead of uploading them.").increment();
+            registry.counter(MovedBytesMetric, "Bytes not uploaded because cloud files were moved.").add(size);
+
+        } finally {
+            DB.commit();
+            App.getInstance().ifPresent(app -> app.refreshOverlayIcon(this.ctx.getLocalPath(this.name)));
+        }
+        return null;
+
+    }
+
+}
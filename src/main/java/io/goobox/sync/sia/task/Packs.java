@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
+import io.goobox.sync.sia.model.PackIndex;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers of packs, which bundle small files into one cloud file.
+ * <p>
+ * A pack is stored at {@code <prefix>/.goobox-packs/<uuid>/<creation time>}, and is written in the format of
+ * {@link PackIndex}. A file bundled in a pack keeps the cloud path it would have if it were uploaded alone, and
+ * listings of cloud files are expanded so that the rest of the sync process handles it as any other cloud file.
+ * Its body is read from the pack by a ranged download.
+ */
+public final class Packs {
+
+    private static final Logger logger = LoggerFactory.getLogger(Packs.class);
+
+    /**
+     * Folder under the path prefix where packs are stored.
+     */
+    public static final String PackFolder = ".goobox-packs";
+
+    /**
+     * The maximum size of a pack in bytes.
+     */
+    static final long MaxPackSize = 64L * 1024 * 1024;
+
+    /**
+     * The maximum number of files bundled in a pack.
+     */
+    static final int MaxPackFiles = 1000;
+
+    private static final BigDecimal Completed = new BigDecimal(100);
+
+    private Packs() {
+    }
+
+    /**
+     * Returns true if the given name is the name of a pack.
+     *
+     * @param name of a cloud file.
+     * @return true if it is a pack.
+     */
+    public static boolean isPack(@NotNull final String name) {
+        return name.startsWith(PackFolder + File.separator);
+    }
+
+    /**
+     * Returns true if the given local file is small enough to be bundled into a pack.
+     *
+     * @param ctx       context.
+     * @param localPath to the file.
+     * @return true if the file should be bundled.
+     */
+    static boolean isPackable(@NotNull final Context ctx, @NotNull final Path localPath) {
+
+        final long threshold = ctx.getConfig().getPackThreshold();
+        if (threshold <= 0) {
+            return false;
+        }
+        try {
+            return Files.size(localPath) < threshold;
+        } catch (final IOException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Returns a name for a new pack.
+     */
+    @NotNull
+    static String newPackName() {
+        return Paths.get(PackFolder, UUID.randomUUID().toString()).toString();
+    }
+
+    /**
+     * Replaces the packs in the given listing of cloud files with the files bundled in them.
+     * <p>
+     * Indexes of packs uploaded by other clients are read and recorded in the sync DB, and records of uploaded packs
+     * which aren't listed anymore are removed. As other cloud files, packs which aren't available yet are dropped
+     * from the listing, but packs this client is uploading are expanded once they are available so that their files
+     * aren't taken as deleted from the cloud network when CheckUploadStateTask marks them as synced.
+     *
+     * @param ctx   context.
+     * @param files returned by renterFilesGet.
+     * @return the listing where packs are replaced with their files.
+     * @throws ApiException if failed to connect to a sia daemon.
+     */
+    @NotNull
+    static List<FileInfo> expand(@NotNull final Context ctx, @NotNull final Collection<FileInfo> files) throws ApiException {
+
+        final Map<String, Pack> known = DB.getPacks().stream().collect(Collectors.toMap(Pack::getName, Function.identity()));
+        final List<FileInfo> res = new ArrayList<>(files.size());
+        final Set<String> listed = new HashSet<>();
+        for (final FileInfo file : files) {
+
+            final SiaFileFromFilesAPI siaFile = new SiaFileFromFilesAPI(ctx, file);
+            if (!siaFile.isManaged() || !isPack(siaFile.getName())) {
+                res.add(file);
+                continue;
+            }
+            listed.add(siaFile.getName());
+            if (!file.isAvailable()) {
+                continue;
+            }
+
+            final Pack pack = known.get(siaFile.getName());
+            if (pack == null) {
+                try {
+                    final PackIndex index = readIndex(ctx, siaFile.getName(), siaFile.getCloudPath(), siaFile.getFileSize());
+                    logger.info("Found pack {} bundling {} files", siaFile.getName(), index.getFiles().size());
+                    DB.addPack(
+                            new Pack(siaFile.getName(), siaFile.getCloudPath(), null, siaFile.getFileSize(), true, null),
+                            toPackedFiles(ctx, siaFile.getName(), index));
+                } catch (final ApiException e) {
+                    if (e.getCause() instanceof ConnectException) {
+                        throw e;
+                    }
+                    logger.error("Failed to read the index of pack {}: {}", siaFile.getName(), APIUtils.getErrorMessage(e));
+                    continue;
+                } catch (final IOException e) {
+                    logger.error("Failed to read the index of pack {}: {}", siaFile.getName(), e.getMessage());
+                    continue;
+                }
+            }
+
+            for (final PackedFile packedFile : DB.getPackedFiles(siaFile.getName())) {
+                if (!packedFile.isDeleted()) {
+                    res.add(toFileInfo(packedFile));
+                }
+            }
+
+        }
+
+        for (final Pack pack : known.values()) {
+            if (pack.isUploaded() && !listed.contains(pack.getName())) {
+                logger.debug("Pack {} has been deleted from the cloud network", pack.getName());
+                DB.removePack(pack.getName());
+            }
+        }
+        return res;
+
+    }
+
+    /**
+     * Converts the given index to records of the files bundled in the pack.
+     */
+    @NotNull
+    static List<PackedFile> toPackedFiles(
+            @NotNull final Context ctx, @NotNull final String pack, @NotNull final PackIndex index) {
+        return index.getFiles().stream()
+                .map(entry -> {
+                    final Path name = APIUtils.fromSlash(entry.getName());
+                    return new PackedFile(
+                            pack,
+                            ctx.getPathPrefix().resolve(name).resolve(Long.toString(entry.getCreationTime())),
+                            name.toString(),
+                            entry.getOffset(),
+                            entry.getLength());
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a cloud file entry representing the given packed file.
+     */
+    @NotNull
+    static FileInfo toFileInfo(@NotNull final PackedFile file) {
+        return new FileInfo()
+                .siapath(APIUtils.toSlash(file.getCloudPath()))
+                .filesize(file.getLength())
+                .available(true)
+                .uploadprogress(Completed);
+    }
+
+    /**
+     * Reads the index of the given pack by downloading the end of it.
+     */
+    @NotNull
+    private static PackIndex readIndex(
+            @NotNull final Context ctx, @NotNull final String pack, @NotNull final Path cloudPath, final long size)
+            throws ApiException, IOException {
+
+        if (size < PackIndex.FooterSize) {
+            throw new IOException(String.format("pack %s is too short", pack));
+        }
+        final long length = PackIndex.parseFooter(
+                readRange(ctx, pack, cloudPath, size - PackIndex.FooterSize, PackIndex.FooterSize));
+        if (length > size - PackIndex.FooterSize) {
+            throw new IOException(String.format("pack %s has an index longer than itself", pack));
+        }
+        return PackIndex.parse(readRange(ctx, pack, cloudPath, size - PackIndex.FooterSize - length, length));
+
+    }
+
+    /**
+     * Reads a range of the given pack into memory through a file in the staging area.
+     */
+    @NotNull
+    private static byte[] readRange(
+            @NotNull final Context ctx, @NotNull final String pack, @NotNull final Path cloudPath,
+            final long offset, final long length) throws ApiException, IOException {
+
+        final Path tempPath = ctx.getStagingArea().allocate(length);
+        try {
+            download(ctx, pack, cloudPath, offset, length, tempPath);
+            return Files.readAllBytes(tempPath);
+        } finally {
+            ctx.getStagingArea().release(tempPath);
+        }
+
+    }
+
+    /**
+     * Downloads the body of the given packed file to the destination.
+     *
+     * @param ctx         context.
+     * @param file        to be downloaded.
+     * @param destination where the body is written.
+     * @throws ApiException if no sia daemons can download the pack.
+     */
+    static void download(
+            @NotNull final Context ctx, @NotNull final PackedFile file, @NotNull final Path destination)
+            throws ApiException {
+
+        final Pack pack = DB.getPack(file.getPack()).orElseThrow(
+                () -> new ApiException(String.format("pack %s is not found", file.getPack())));
+        download(ctx, pack.getName(), pack.getCloudPath(), file.getOffset(), file.getLength(), destination);
+
+    }
+
+    /**
+     * Downloads a range of the given cloud file, e.g. a pack or a chunk, synchronously, asking the sia daemons in the
+     * order of the preference list of the cloud file.
+     */
+    static void download(
+            @NotNull final Context ctx, @NotNull final String name, @NotNull final Path cloudPath,
+            final long offset, final long length, @NotNull final Path destination) throws ApiException {
+
+        final String slashedCloudPath = APIUtils.toSlash(cloudPath);
+        final String slashedDestination = APIUtils.toSlash(destination);
+        final Iterator<Context> daemons = ctx.getDaemonContexts(name).iterator();
+        while (true) {
+
+            final Context daemon = daemons.next();
+            try {
+                new RenterApi(daemon.getApiClient()).renterDownloadSiapathGet(
+                        slashedCloudPath, slashedDestination, false, false, length, offset);
+                return;
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException || !daemons.hasNext()) {
+                    throw e;
+                }
+                logger.debug(
+                        "Sia daemon at {} cannot download {}: {}",
+                        daemon.getSiadApiAddress(), cloudPath, APIUtils.getErrorMessage(e));
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.StoredContent;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.model.Codec;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Helpers of the content index, which lets files be stored by moving cloud files of the same bodies instead of
+ * uploading them.
+ * <p>
+ * The sia renter has no way to copy a file or to share a body between files, and so only cloud files which aren't
+ * needed anymore are reused: older versions of the same file, e.g. one only touched or reverted, and cloud files of
+ * files which have been deleted locally, e.g. the old name of a renamed file. Other duplicates are uploaded as usual.
+ */
+public final class StoredContents {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoredContents.class);
+
+    public static final String ReusedFilesMetric = "goobox_dedup_reused_files_total";
+    public static final String SavedBytesMetric = "goobox_dedup_saved_bytes_total";
+
+    private static final BigDecimal Completed = new BigDecimal(100);
+
+    private StoredContents() {
+    }
+
+    /**
+     * Stores the given modified file by moving a reusable cloud file of the same body to the cloud path the file
+     * would be uploaded to, and marks the file as synced.
+     *
+     * @param ctx       context.
+     * @param syncFile  record of the file, of which digest was computed when it was marked as modified.
+     * @param localPath to the file.
+     * @return true if a cloud file was moved and the file doesn't need to be uploaded.
+     * @throws ApiException if failed to connect to the sia daemon.
+     * @throws IOException  if failed to access the local file.
+     */
+    static boolean reuse(
+            @NotNull final Context ctx, @NotNull final SyncFile syncFile, @NotNull final Path localPath)
+            throws ApiException, IOException {
+
+        final Optional<String> digest = syncFile.getLocalDigest();
+        final Optional<Long> size = syncFile.getLocalSize();
+        if (!digest.isPresent() || !size.isPresent()) {
+            return false;
+        }
+
+        // The digest is of the body at the recorded modification time; the file may have been modified since then.
+        final long lastModifiedTime = Files.getLastModifiedTime(localPath).toMillis();
+        if (syncFile.getLocalModificationTime().orElse(-1L) != lastModifiedTime) {
+            return false;
+        }
+
+        final String name = syncFile.getName();
+        final Context daemon = ctx.getDaemonContext(name);
+        final RenterApi api = new RenterApi(daemon.getApiClient());
+        for (final StoredContent content : DB.getStoredContents(digest.get())) {
+
+            // A compressed cloud file is moved to the path of the same codec.
+            final Path cloudPath = Codec.of(ctx, content.getCloudPath()).resolve(ctx, name, lastModifiedTime);
+            if (content.getSize() != size.get() || content.getCloudPath().equals(cloudPath)
+                    || !isReusable(ctx, content, name, daemon)) {
+                continue;
+            }
+
+            try {
+                api.renterRenameSiapathPost(APIUtils.toSlash(content.getCloudPath()), APIUtils.toSlash(cloudPath));
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException) {
+                    throw e;
+                }
+                // The cloud file may have been deleted by another client or the garbage collector.
+                logger.debug("Failed to move {} to {}: {}", content.getCloudPath(), cloudPath, APIUtils.getErrorMessage(e));
+                DB.removeStoredContent(content.getCloudPath());
+                continue;
+            }
+
+            logger.info("Moved cloud file {} to {} instead of uploading {}", content.getCloudPath(), cloudPath, name);
+            DB.removeStoredContent(content.getCloudPath());
+            DB.setSynced(new SiaFileFromFilesAPI(ctx, new FileInfo()
+                    .siapath(APIUtils.toSlash(cloudPath))
+                    .filesize(content.getSize())
+                    .available(true)
+                    .uploadprogress(Completed)), localPath);
+
+            final MetricsRegistry registry = MetricsRegistry.getDefault();
+            registry.counter(ReusedFilesMetric, "Files stored by moving cloud files instead of uploading them.").increment();
+            registry.counter(SavedBytesMetric, "Bytes not uploaded because cloud files were moved.").add(content.getSize());
+            return true;
+
+        }
+        return false;
+
+    }
+
+    /**
+     * Returns true if the given cloud file isn't needed anymore and can be moved to the given file.
+     * <p>
+     * Cloud files of deleted files are reused only before they are enqueued to be deleted from the cloud network.
+     * Since files are assigned to sia daemons by their names, the cloud file must be in the daemon of the given file.
+     */
+    private static boolean isReusable(
+            @NotNull final Context ctx, @NotNull final StoredContent content, @NotNull final String name,
+            @NotNull final Context daemon) {
+
+        if (!ctx.getDaemonContext(content.getName()).getSiadApiAddress().equals(daemon.getSiadApiAddress())) {
+            return false;
+        }
+        if (content.getName().equals(name)) {
+            return true;
+        }
+        return DB.get(content.getName()).map(owner -> owner.getState() == SyncState.DELETED).orElse(false);
+
+    }
+
+}
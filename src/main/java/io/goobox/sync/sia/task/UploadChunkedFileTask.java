@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.StartupTimeline;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.model.ChunkManifest;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * Splits a given local file into chunks, and uploads the chunks which aren't stored in the cloud network yet and the
+ * manifest of the file.
+ * <p>
+ * New chunks and the manifest are written to the staging area, and kept there until CheckUploadStateTask finds their
+ * uploads are completed.
+ */
+public class UploadChunkedFileTask implements Callable<Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadChunkedFileTask.class);
+
+    @NotNull
+    private final Context ctx;
+
+    @NotNull
+    private final Path localPath;
+
+    public UploadChunkedFileTask(@NotNull final Context ctx, @NotNull final Path localPath) {
+        this.ctx = ctx;
+        this.localPath = localPath;
+    }
+
+    @Override
+    public Void call() throws ApiException {
+        logger.trace("Enter call");
+
+        final String name = this.ctx.getName(this.localPath);
+        final Optional<SyncFile> syncFileOpt = DB.get(name);
+        if (!syncFileOpt.isPresent()) {
+            logger.warn("File {} was deleted from SyncDB", this.localPath);
+            return null;
+        }
+
+        final SyncFile syncFile = syncFileOpt.get();
+        if (syncFile.getState() != SyncState.FOR_UPLOAD) {
+            logger.debug("File {} was enqueued to be uploaded but its status was changed, skipped", name);
+            return null;
+        }
+        final Optional<Long> creationTime = syncFile.getCloudCreationTime();
+        if (!syncFile.getCloudPath().isPresent() || !creationTime.isPresent()) {
+            logger.debug("File {} was enqueued but it doesn't have the cloud path", name);
+            return null;
+        }
+
+        try {
+
+            final ChunkManifest manifest = ChunkManifest.chunk(this.localPath);
+            final Set<String> uploaded = new HashSet<>();
+            long uploadedBytes = 0;
+            long skippedBytes = 0;
+            for (final ChunkManifest.Entry entry : manifest.getChunks()) {
+                if (uploaded.contains(entry.getDigest()) || DB.getChunk(entry.getDigest()).isPresent()) {
+                    skippedBytes += entry.getLength();
+                    continue;
+                }
+                if (!this.uploadChunk(entry)) {
+                    this.fail(name);
+                    return null;
+                }
+                uploaded.add(entry.getDigest());
+                uploadedBytes += entry.getLength();
+            }
+
+            final Path manifestPath = this.ctx.getPathPrefix()
+                    .resolve(Chunks.manifestName(name))
+                    .resolve(Long.toString(creationTime.get()));
+            final Path stagedPath = this.ctx.getStagingArea().allocate(0);
+            boolean started = false;
+            try {
+                manifest.write(stagedPath);
+                if (upload(this.ctx, Chunks.manifestName(name), manifestPath, stagedPath)) {
+                    DB.addChunkedFile(new ChunkedFile(
+                            syncFile.getCloudPath().get(), name, manifestPath, manifest.getSize(),
+                            manifest.getChunks().stream().map(ChunkManifest.Entry::getDigest).collect(Collectors.toList()),
+                            stagedPath, false));
+                    started = true;
+                }
+            } finally {
+                if (!started) {
+                    this.ctx.getStagingArea().release(stagedPath);
+                }
+            }
+            if (!started) {
+                this.fail(name);
+                return null;
+            }
+
+            logger.info(
+                    "Uploading {} split into {} chunks; {} bytes are uploaded and {} bytes are already stored",
+                    name, manifest.getChunks().size(), uploadedBytes, skippedBytes);
+            final MetricsRegistry registry = MetricsRegistry.getDefault();
+            registry.counter(Chunks.UploadedBytesMetric, "Bytes of new chunks uploaded.").add(uploadedBytes);
+            registry.counter(Chunks.SkippedBytesMetric, "Bytes of chunks not uploaded because they were stored.")
+                    .add(skippedBytes);
+            DB.setUploading(name);
+            App.getInstance().ifPresent(app -> {
+                app.getStartupTimeline().reached(StartupTimeline.Milestone.firstUpload);
+                app.wakeUpUploadTracker();
+            });
+
+        } catch (final IOException e) {
+            logger.error("Failed to split {} into chunks: {}", this.localPath, e.getMessage());
+            this.fail(name);
+        } finally {
+            DB.commit();
+        }
+        return null;
+
+    }
+
+    /**
+     * Copies the given chunk to the staging area and starts uploading it. If the upload is started, the chunk is
+     * recorded in the sync DB.
+     *
+     * @return true if the upload is started.
+     */
+    private boolean uploadChunk(@NotNull final ChunkManifest.Entry entry) throws ApiException, IOException {
+
+        final String chunkName = Chunks.chunkName(entry.getDigest());
+        final Path cloudPath = this.ctx.getPathPrefix().resolve(chunkName).resolve(Long.toString(System.currentTimeMillis()));
+        final Path stagedPath = this.ctx.getStagingArea().allocate(entry.getLength());
+        boolean started = false;
+        try {
+
+            try (final FileChannel out = FileChannel.open(stagedPath, StandardOpenOption.WRITE)) {
+                if (!entry.getDigest().equals(Chunks.append(this.localPath, entry.getOffset(), entry.getLength(), out))) {
+                    throw new IOException(String.format("%s was modified while it was uploaded", this.localPath));
+                }
+            }
+            if (upload(this.ctx, chunkName, cloudPath, stagedPath)) {
+                DB.addChunk(new Chunk(entry.getDigest(), cloudPath, entry.getLength(), stagedPath, false));
+                started = true;
+            }
+            return started;
+
+        } finally {
+            if (!started) {
+                this.ctx.getStagingArea().release(stagedPath);
+            }
+        }
+
+    }
+
+    /**
+     * Starts uploading the given staged file, retrying as UploadLocalFileTask does.
+     *
+     * @return true if the upload is started.
+     */
+    private static boolean upload(
+            @NotNull final Context ctx, @NotNull final String name, @NotNull final Path cloudPath,
+            @NotNull final Path stagedPath) throws ApiException {
+
+        final RenterApi api = new RenterApi(ctx.getDaemonContext(name).getApiClient());
+        final String slashedCloudPath = APIUtils.toSlash(cloudPath);
+        for (int i = 0; i != UploadLocalFileTask.MaxRetry; i++) {
+
+            try {
+                api.renterUploadSiapathPost(
+                        slashedCloudPath,
+                        APIUtils.toSlash(stagedPath),
+                        ctx.getConfig().getDataPieces(),
+                        ctx.getConfig().getParityPieces());
+                return true;
+            } catch (final ApiException e) {
+                if (e.getCause() instanceof ConnectException) {
+                    throw e;
+                }
+                logger.error("Failed to upload {}: {}", cloudPath, APIUtils.getErrorMessage(e));
+            }
+
+            try {
+                api.renterDeleteSiapathPost(slashedCloudPath);
+            } catch (final ApiException e) {
+                logger.error("Failed to delete {}: {}", slashedCloudPath, APIUtils.getErrorMessage(e));
+            }
+
+        }
+        return false;
+
+    }
+
+    /**
+     * Marks the file as failed to be uploaded. Chunks whose uploads were started are kept, and they will be reused
+     * when the file is uploaded again.
+     */
+    private void fail(@NotNull final String name) {
+        DB.setUploadFailed(name);
+        App.getInstance().ifPresent(app -> app.refreshOverlayIcon(this.localPath));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UploadChunkedFileTask that = (UploadChunkedFileTask) o;
+        return Objects.equals(ctx, that.ctx) && Objects.equals(localPath, that.localPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ctx, localPath);
+    }
+
+}
@@ -20,15 +20,18 @@ package io.goobox.sync.sia.task;
 import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.StartupTimeline;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.db.DB;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.model.Codec;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.ConnectException;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -36,6 +39,10 @@ import java.util.concurrent.Callable;
 
 /**
  * Uploads a given local file to cloud storage with a given remote path.
+ * <p>
+ * If the file is compressible, it is compressed into the staging area and the compressed file is uploaded to the
+ * path of {@link Codec#gzip} instead. The compressed file is kept until CheckUploadStateTask finds the upload is
+ * completed.
  */
 public class UploadLocalFileTask implements Callable<Void> {
 
@@ -75,9 +82,30 @@ public class UploadLocalFileTask implements Callable<Void> {
             return null;
         }
 
-        final RenterApi api = new RenterApi(this.ctx.getApiClient());
-        final String slashedCloudPath = APIUtils.toSlash(syncFile.getCloudPath().get());
-        final String slashedLocalPath = APIUtils.toSlash(this.localPath);
+        // A compressed file staged for an abandoned upload isn't used anymore.
+        syncFile.getTemporaryPath()
+                .filter(this.ctx.getStagingArea()::contains)
+                .ifPresent(this.ctx.getStagingArea()::release);
+
+        Path cloudPath = syncFile.getCloudPath().get();
+        Path source = this.localPath;
+        final Optional<Path> stagedPath = this.compress(syncFile);
+        if (stagedPath.isPresent()) {
+            final Path compressedPath = Codec.gzip.resolve(
+                    this.ctx, syncFile.getName(), syncFile.getCloudCreationTime().orElse(0L));
+            if (!DB.setStaged(syncFile.getName(), cloudPath, compressedPath, stagedPath.get())) {
+                logger.debug("File {} was modified while it was compressed, skipped", syncFile.getName());
+                this.ctx.getStagingArea().release(stagedPath.get());
+                return null;
+            }
+            cloudPath = compressedPath;
+            source = stagedPath.get();
+        }
+
+        final RenterApi api = new RenterApi(this.ctx.getDaemonContext(syncFile.getName()).getApiClient());
+        final String slashedCloudPath = APIUtils.toSlash(cloudPath);
+        final String slashedLocalPath = APIUtils.toSlash(source);
+        boolean started = false;
         try {
 
             for (int i = 0; i != MaxRetry; i++) {
@@ -89,7 +117,14 @@ public class UploadLocalFileTask implements Callable<Void> {
                             slashedLocalPath,
                             this.ctx.getConfig().getDataPieces(),
                             this.ctx.getConfig().getParityPieces());
+                    started = true;
                     DB.setUploading(this.ctx.getName(this.localPath));
+                    stagedPath.ifPresent(compressed -> Compression.count(
+                            syncFile.getLocalSize().orElse(0L), compressed.toFile().length()));
+                    App.getInstance().ifPresent(app -> {
+                        app.getStartupTimeline().reached(StartupTimeline.Milestone.firstUpload);
+                        app.wakeUpUploadTracker();
+                    });
                     return null;
 
                 } catch (final ApiException e) {
@@ -113,10 +148,35 @@ public class UploadLocalFileTask implements Callable<Void> {
             App.getInstance().ifPresent(app -> app.refreshOverlayIcon(this.localPath));
 
         } finally {
+            if (!started) {
+                stagedPath.ifPresent(this.ctx.getStagingArea()::release);
+            }
             DB.commit();
         }
         return null;
 
     }
 
+    /**
+     * Compresses the file into the staging area if it is compressible.
+     *
+     * @return the path to the compressed file, or empty if the file should be uploaded as it is.
+     */
+    @NotNull
+    private Optional<Path> compress(@NotNull final SyncFile syncFile) {
+
+        if (!syncFile.getCloudCreationTime().isPresent() || !Compression.isCompressible(this.ctx, this.localPath)) {
+            return Optional.empty();
+        }
+        try {
+            final Optional<Path> stagedPath = Compression.compress(this.ctx, this.localPath);
+            stagedPath.ifPresent(path -> logger.debug("Compressed {} to {}", this.localPath, path));
+            return stagedPath;
+        } catch (final IOException e) {
+            logger.warn("Failed to compress {}, uploading it as it is: {}", this.localPath, e.getMessage());
+            return Optional.empty();
+        }
+
+    }
+
 }
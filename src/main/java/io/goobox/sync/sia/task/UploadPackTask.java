@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.RetryableTask;
+import io.goobox.sync.sia.StartSiaDaemonTask;
+import io.goobox.sync.sia.StartupTimeline;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.model.PackIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Bundles given local files into a pack and uploads it.
+ * <p>
+ * The pack is written to the staging area, and kept there until CheckUploadStateTask finds its upload is completed.
+ */
+public class UploadPackTask implements Callable<Void> {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadPackTask.class);
+
+    @NotNull
+    private final Context ctx;
+
+    @NotNull
+    private final List<Path> localPaths;
+
+    public UploadPackTask(@NotNull final Context ctx, @NotNull final List<Path> localPaths) {
+        this.ctx = ctx;
+        this.localPaths = Collections.unmodifiableList(new ArrayList<>(localPaths));
+    }
+
+    /**
+     * Splits the given files into packs of at most {@link Packs#MaxPackSize} bytes and {@link Packs#MaxPackFiles}
+     * files, and enqueues a task uploading each of them.
+     *
+     * @param ctx        context.
+     * @param executor   where the tasks are enqueued.
+     * @param localPaths to files to be bundled.
+     */
+    static void schedule(@NotNull final Context ctx, @NotNull final Executor executor, @NotNull final List<Path> localPaths) {
+
+        List<Path> batch = new ArrayList<>();
+        long size = 0;
+        for (final Path localPath : localPaths) {
+
+            long fileSize;
+            try {
+                fileSize = Files.size(localPath);
+            } catch (final IOException e) {
+                fileSize = 0;
+            }
+            if (!batch.isEmpty() && (batch.size() >= Packs.MaxPackFiles || size + fileSize > Packs.MaxPackSize)) {
+                executor.execute(new RetryableTask(new UploadPackTask(ctx, batch), new StartSiaDaemonTask()));
+                batch = new ArrayList<>();
+                size = 0;
+            }
+            batch.add(localPath);
+            size += fileSize;
+
+        }
+        if (!batch.isEmpty()) {
+            executor.execute(new RetryableTask(new UploadPackTask(ctx, batch), new StartSiaDaemonTask()));
+        }
+
+    }
+
+    @Override
+    public Void call() throws ApiException {
+        logger.trace("Enter call");
+
+        final List<String> names = new ArrayList<>();
+        final List<PackIndex.Source> sources = new ArrayList<>();
+        for (final Path localPath : this.localPaths) {
+
+            final String name = this.ctx.getName(localPath);
+            final Optional<SyncFile> syncFileOpt = DB.get(name);
+            if (!syncFileOpt.isPresent()) {
+                logger.warn("File {} was deleted from SyncDB", localPath);
+                continue;
+            }
+
+            final SyncFile syncFile = syncFileOpt.get();
+            if (syncFile.getState() != SyncState.FOR_UPLOAD) {
+                logger.debug("File {} was enqueued to be uploaded but its status was changed, skipped", name);
+                continue;
+            }
+            final Optional<Long> creationTime = syncFile.getCloudCreationTime();
+            if (!creationTime.isPresent()) {
+                logger.debug("File {} was enqueued but it doesn't have the cloud path", name);
+                continue;
+            }
+
+            names.add(name);
+            sources.add(new PackIndex.Source(APIUtils.toSlash(Paths.get(syncFile.getName())), creationTime.get(), localPath));
+
+        }
+        if (sources.isEmpty()) {
+            return null;
+        }
+
+        try {
+            if (upload(this.ctx, sources, null)) {
+                names.forEach(DB::setUploading);
+                App.getInstance().ifPresent(app -> {
+                    app.getStartupTimeline().reached(StartupTimeline.Milestone.firstUpload);
+                    app.wakeUpUploadTracker();
+                });
+            } else {
+                names.forEach(DB::setUploadFailed);
+                App.getInstance().ifPresent(app -> names.forEach(name -> app.refreshOverlayIcon(this.ctx.getLocalPath(name))));
+            }
+        } finally {
+            DB.commit();
+        }
+        return null;
+
+    }
+
+    /**
+     * Writes a pack bundling the given files to the staging area, and starts uploading it. If the upload is
+     * started, the pack and its files are recorded in the sync DB.
+     *
+     * @param ctx      context.
+     * @param sources  files to be bundled.
+     * @param replaces name of the pack which will be deleted once the new pack is uploaded, or null.
+     * @return true if the upload is started.
+     * @throws ApiException if failed to connect to the sia daemon.
+     */
+    static boolean upload(
+            @NotNull final Context ctx, @NotNull final List<PackIndex.Source> sources, @Nullable final String replaces)
+            throws ApiException {
+
+        final String name = Packs.newPackName();
+        final Path cloudPath = ctx.getPathPrefix().resolve(name).resolve(Long.toString(System.currentTimeMillis()));
+
+        long expected = PackIndex.FooterSize;
+        for (final PackIndex.Source source : sources) {
+            try {
+                expected += Files.size(source.getLocalPath());
+            } catch (final IOException e) {
+                logger.debug("Failed to get the size of {}: {}", source.getLocalPath(), e.getMessage());
+            }
+        }
+
+        final Path stagedPath;
+        final PackIndex index;
+        try {
+            stagedPath = ctx.getStagingArea().allocate(expected);
+        } catch (final IOException e) {
+            logger.error("Failed to allocate pack {}: {}", name, e.getMessage());
+            return false;
+        }
+        final long size;
+        try {
+            index = PackIndex.write(stagedPath, sources);
+            size = Files.size(stagedPath);
+        } catch (final IOException e) {
+            logger.error("Failed to write pack {}: {}", name, e.getMessage());
+            ctx.getStagingArea().release(stagedPath);
+            return false;
+        }
+
+        final RenterApi api = new RenterApi(ctx.getDaemonContext(name).getApiClient());
+        final String slashedCloudPath = APIUtils.toSlash(cloudPath);
+        boolean started = false;
+        try {
+
+            for (int i = 0; i != UploadLocalFileTask.MaxRetry; i++) {
+
+                try {
+
+                    api.renterUploadSiapathPost(
+                            slashedCloudPath,
+                            APIUtils.toSlash(stagedPath),
+                            ctx.getConfig().getDataPieces(),
+                            ctx.getConfig().getParityPieces());
+                    logger.info("Uploading pack {} bundling {} files ({} bytes)", name, sources.size(), size);
+                    DB.addPack(
+                            new Pack(name, cloudPath, stagedPath, size, false, replaces),
+                            Packs.toPackedFiles(ctx, name, index));
+                    started = true;
+                    return true;
+
+                } catch (final ApiException e) {
+
+                    if (e.getCause() instanceof ConnectException) {
+                        throw e;
+                    }
+                    logger.error("Failed to upload pack {}: {}", name, APIUtils.getErrorMessage(e));
+
+                }
+
+                try {
+                    api.renterDeleteSiapathPost(slashedCloudPath);
+                } catch (final ApiException e) {
+                    logger.error("Failed to delete {}: {}", slashedCloudPath, APIUtils.getErrorMessage(e));
+                }
+
+            }
+            return false;
+
+        } finally {
+            if (!started) {
+                ctx.getStagingArea().release(stagedPath);
+            }
+        }
+
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UploadPackTask that = (UploadPackTask) o;
+        return Objects.equals(ctx, that.ctx) && Objects.equals(localPaths, that.localPaths);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ctx, localPaths);
+    }
+
+}
@@ -18,6 +18,7 @@
 package io.goobox.sync.sia.task;
 
 import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Backoff;
 import io.goobox.sync.sia.Context;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
@@ -42,6 +43,7 @@ public class WaitContractsTask implements Callable<Void> {
     public Void call() throws ApiException {
         logger.info("Checking contracts");
         final RenterApi api = new RenterApi(this.ctx.getApiClient());
+        final Backoff backoff = new Backoff(App.MinSleepTime, App.DefaultSleepTime);
         while (true) {
 
             final int contracts = api.renterContractsGet().getContracts().size();
@@ -52,9 +54,11 @@ public class WaitContractsTask implements Callable<Void> {
 
             } else {
 
-                logger.info("Signed contracts aren't enough ({} / {}), wait a minute", contracts, App.MinContracts);
+                final long sleepTime = backoff.next();
+                logger.info("Signed contracts aren't enough ({} / {}), wait {} seconds",
+                        contracts, App.MinContracts, sleepTime / 1000);
                 try {
-                    Thread.sleep(App.DefaultSleepTime);
+                    Thread.sleep(sleepTime);
                 } catch (InterruptedException e) {
                     logger.trace("Thread {} was interrupted until waiting contracts: {}", Thread.currentThread().getName(), e.getMessage());
                 }
@@ -18,6 +18,7 @@
 package io.goobox.sync.sia.task;
 
 import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Backoff;
 import io.goobox.sync.sia.Context;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.ConsensusApi;
@@ -44,6 +45,7 @@ public class WaitSynchronizationTask implements Callable<Void> {
 
         logger.info("Checking consensus DB");
         final ConsensusApi api = new ConsensusApi(this.ctx.getApiClient());
+        final Backoff backoff = new Backoff(App.MinSleepTime, App.DefaultSleepTime);
         while (true) {
 
             final InlineResponse200 res = api.consensusGet();
@@ -54,9 +56,11 @@ public class WaitSynchronizationTask implements Callable<Void> {
 
             } else {
 
-                logger.info("Consensus DB isn't synchronized (block height: {}), wait a minute", res.getHeight());
+                final long sleepTime = backoff.next();
+                logger.info("Consensus DB isn't synchronized (block height: {}), wait {} seconds",
+                        res.getHeight(), sleepTime / 1000);
                 try {
-                    Thread.sleep(App.DefaultSleepTime);
+                    Thread.sleep(sleepTime);
                 } catch (final InterruptedException e) {
                     logger.trace("Thread was interrupted until waiting synchronization: {}", e.getMessage());
                 }
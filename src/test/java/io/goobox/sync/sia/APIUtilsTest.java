@@ -18,9 +18,12 @@
 package io.goobox.sync.sia;
 
 import com.google.gson.Gson;
+import com.squareup.okhttp.OkHttpClient;
 import io.goobox.sync.sia.client.ApiClient;
 import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.model.FileInfo;
 import io.goobox.sync.sia.client.api.model.StandardError;
+import io.goobox.sync.sia.mocks.SiadSimulator;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
@@ -35,8 +38,11 @@ import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeFalse;
 
 @RunWith(JMockit.class)
@@ -98,6 +104,7 @@ public class APIUtilsTest {
         final String siadAddress = "192.168.0.1:9985";
         final Config cfg = new Config(cfgPath);
         cfg.setSiadApiAddress(siadAddress);
+        final OkHttpClient httpClient = new OkHttpClient();
         new Expectations() {{
             new ApiClient();
             result = apiClient;
@@ -105,12 +112,43 @@ public class APIUtilsTest {
             apiClient.setConnectTimeout(0);
             apiClient.setReadTimeout(0);
             apiClient.setPassword(cfg.getSiaApiPassword());
+            apiClient.getHttpClient();
+            result = httpClient;
         }};
         APIUtils.getApiClient(cfg);
+        assertEquals(1, httpClient.interceptors().size());
+        assertTrue(httpClient.interceptors().get(0) instanceof ApiMetricsInterceptor);
 //        assertEquals(apiClient, APIUtils.getApiClient(cfg));
 
     }
 
+    @Test
+    public void collectFromDaemons() throws IOException, ApiException {
+
+        final String userName = "test-user";
+        try (final SiadSimulator primary = new SiadSimulator(userName, 0);
+             final SiadSimulator additional = new SiadSimulator(userName, 0)) {
+
+            primary.addCloudFiles(3, 1024);
+            primary.start();
+            additional.addCloudFiles(2, 1024);
+            additional.start();
+
+            final Config cfg = new Config(this.cfgPath);
+            cfg.setUserName(userName);
+            cfg.setSiadApiAddress(primary.getAddress());
+            cfg.setAdditionalSiadApiAddresses(Collections.singletonList(additional.getAddress()));
+            final Context ctx = new Context(cfg);
+
+            final List<FileInfo> files = APIUtils.collectFromDaemons(ctx, api -> api.renterFilesGet().getFiles());
+            assertEquals(5, files.size());
+            assertEquals(1, primary.getRequestCount());
+            assertEquals(1, additional.getRequestCount());
+
+        }
+
+    }
+
     @Test
     public void testGetErrorMessage() {
 
@@ -159,6 +197,7 @@ public class APIUtilsTest {
     public void fromSlash() {
         assertEquals(Paths.get("path"), APIUtils.fromSlash("path"));
         assertEquals(Paths.get("path", "to", "somefile"), APIUtils.fromSlash("path/to/somefile"));
+        assertEquals(Paths.get("path", "to", "somefile"), APIUtils.fromSlash("path//to/somefile/"));
     }
 
     @Test
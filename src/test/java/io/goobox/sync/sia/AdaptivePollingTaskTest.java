@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptivePollingTaskTest {
+
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void backOffWhileIdle() {
+
+        final AtomicBoolean active = new AtomicBoolean(true);
+        final AdaptivePollingTask task = new AdaptivePollingTask(
+                "test", this.executor, () -> true, active::get, 1, 8, TimeUnit.HOURS);
+
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(1), task.getCurrentInterval());
+
+        active.set(false);
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(2), task.getCurrentInterval());
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(4), task.getCurrentInterval());
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(8), task.getCurrentInterval());
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(8), task.getCurrentInterval());
+
+        active.set(true);
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(1), task.getCurrentInterval());
+
+    }
+
+    @Test
+    public void wakeUp() throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AdaptivePollingTask task = new AdaptivePollingTask(
+                "test", this.executor, () -> {
+                    latch.countDown();
+                    return true;
+                }, () -> false, 10, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+        task.start(1, TimeUnit.HOURS);
+
+        task.wakeUp();
+        assertEquals(10, task.getCurrentInterval());
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    }
+
+    @Test
+    public void wakeUpWhileRunning() {
+
+        final AdaptivePollingTask[] task = new AdaptivePollingTask[1];
+        task[0] = new AdaptivePollingTask(
+                "test", this.executor, () -> {
+                    task[0].wakeUp();
+                    return true;
+                }, () -> false, 1, 8, TimeUnit.HOURS);
+
+        task[0].run();
+        assertEquals(TimeUnit.HOURS.toMillis(1), task[0].getCurrentInterval());
+
+    }
+
+    @Test
+    public void rescheduleAfterFailure() throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AdaptivePollingTask task = new AdaptivePollingTask("test", this.executor, () -> {
+            latch.countDown();
+            throw new RuntimeException("expected exception");
+        }, () -> false, 10, 10, TimeUnit.MILLISECONDS);
+        task.start(0, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    }
+
+    @Test
+    public void backOffAfterFailure() {
+
+        final AdaptivePollingTask task = new AdaptivePollingTask("test", this.executor, () -> {
+            throw new RuntimeException("expected exception");
+        }, () -> true, 1, 8, TimeUnit.HOURS);
+        task.wakeUp();
+
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(2), task.getCurrentInterval());
+        assertEquals(1, task.getConsecutiveFailures());
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(4), task.getCurrentInterval());
+        assertEquals(2, task.getConsecutiveFailures());
+
+    }
+
+    @Test
+    public void backOffAfterRetryableTaskFailure() {
+
+        final AtomicBoolean recovered = new AtomicBoolean(false);
+        final RetryableTask retryable = new RetryableTask(() -> {
+            throw new IOException("expected exception");
+        }, e -> false);
+        final AdaptivePollingTask task = new AdaptivePollingTask(
+                "test", this.executor, retryable::execute, () -> true, 1, 8, TimeUnit.HOURS);
+        task.wakeUp();
+
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(2), task.getCurrentInterval());
+        assertEquals(1, task.getConsecutiveFailures());
+        task.run();
+        assertEquals(TimeUnit.HOURS.toMillis(4), task.getCurrentInterval());
+        assertEquals(2, task.getConsecutiveFailures());
+
+        // A run recovered by the recovery task succeeds.
+        final RetryableTask recovering = new RetryableTask(() -> {
+            if (recovered.compareAndSet(false, true)) {
+                throw new IOException("expected exception");
+            }
+            return null;
+        }, e -> true);
+        final AdaptivePollingTask task2 = new AdaptivePollingTask(
+                "test", this.executor, recovering::execute, () -> true, 1, 8, TimeUnit.HOURS);
+        task2.run();
+        assertEquals(TimeUnit.HOURS.toMillis(1), task2.getCurrentInterval());
+        assertEquals(0, task2.getConsecutiveFailures());
+
+    }
+
+    @Test
+    public void lastCycleDuration() {
+
+        final AdaptivePollingTask task = new AdaptivePollingTask("test", this.executor, () -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }, () -> true, 1, 8, TimeUnit.HOURS);
+
+        task.run();
+        assertTrue(task.getLastCycleDuration() >= 50);
+        assertEquals(0, task.getConsecutiveFailures());
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIntervals() {
+        new AdaptivePollingTask("test", this.executor, () -> true, () -> false, 10, 5, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApiMetricsInterceptorTest {
+
+    @Test
+    public void getEndpoint() {
+        assertEquals("/renter/upload", ApiMetricsInterceptor.getEndpoint(
+                Arrays.asList("renter", "upload", "user", "Goobox", "file")));
+        assertEquals("/consensus", ApiMetricsInterceptor.getEndpoint(Collections.singletonList("consensus")));
+        assertEquals("/", ApiMetricsInterceptor.getEndpoint(Collections.emptyList()));
+    }
+
+}
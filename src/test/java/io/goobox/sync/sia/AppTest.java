@@ -19,6 +19,7 @@ package io.goobox.sync.sia;
 
 import io.goobox.sync.common.Utils;
 import io.goobox.sync.common.overlay.OverlayHelper;
+import io.goobox.sync.common.overlay.OverlayIcon;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.command.CreateAllowance;
 import io.goobox.sync.sia.command.DumpDB;
@@ -28,6 +29,7 @@ import io.goobox.sync.sia.db.CloudFile;
 import io.goobox.sync.sia.db.DB;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
 import io.goobox.sync.sia.mocks.DBMock;
 import io.goobox.sync.sia.mocks.ExecutorMock;
 import io.goobox.sync.sia.mocks.UtilsMock;
@@ -51,6 +53,7 @@ import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.dizitart.no2.objects.ObjectRepository;
 import org.jetbrains.annotations.NotNull;
@@ -63,6 +66,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
@@ -70,6 +74,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -316,6 +321,45 @@ public class AppTest {
         assertEquals(this.ctx.getConfig().getSyncDir(), Deencapsulation.getField(overlayHelper, "syncDir"));
     }
 
+    @Test
+    public void testCheckAdditionalSyncDirs() throws IOException {
+
+        final Path photos = Files.createTempDirectory("photos");
+        final Path music = Files.createTempDirectory("music");
+        try {
+            final Config cfg = this.ctx.getConfig();
+            cfg.setAdditionalSyncDirs(Arrays.asList(photos, music));
+            new Expectations(APIUtils.class) {{
+                APIUtils.loadConfig(Utils.getDataDir().resolve(App.ConfigFileName));
+                result = cfg;
+            }};
+
+            // Files of the sync directory are stored under the name of the music directory.
+            final Path localPath = this.tmpDir.resolve("file");
+            Files.write(localPath, new byte[]{1});
+            DB.addNewFile(Paths.get(music.getFileName().toString(), "file").toString(), localPath);
+
+            // The constructor doesn't open the sync DB.
+            final App app = new App();
+            assertEquals(Arrays.asList(photos, music), cfg.getAdditionalSyncDirs());
+
+            app.checkAdditionalSyncDirs();
+            assertEquals(Collections.singletonList(photos), cfg.getAdditionalSyncDirs());
+            assertEquals(photos, app.getContext().getLocalPath(photos.getFileName().toString()));
+            assertEquals(this.tmpDir.resolve(music.getFileName()), app.getContext().getLocalPath(music.getFileName().toString()));
+
+            // Files of an accepted directory don't make it rejected.
+            DB.addNewFile(Paths.get(photos.getFileName().toString(), "file").toString(), localPath);
+            cfg.setAdditionalSyncDirs(Collections.singletonList(photos));
+            app.checkAdditionalSyncDirs();
+            assertEquals(Collections.singletonList(photos), cfg.getAdditionalSyncDirs());
+        } finally {
+            FileUtils.deleteDirectory(photos.toFile());
+            FileUtils.deleteDirectory(music.toFile());
+        }
+
+    }
+
     @Test
     public void testConstructorWithSyncDir() {
         new Expectations(APIUtils.class) {{
@@ -352,6 +396,8 @@ public class AppTest {
             result = true;
             app.checkAndCreateDataDir();
             result = true;
+            app.prepareStagingArea();
+            result = true;
         }};
 
         new Expectations(GetWalletInfoTask.class, WaitSynchronizationTask.class, NotifyEmptyFundTask.class, WaitContractsTask.class) {{
@@ -395,19 +441,22 @@ public class AppTest {
             new CheckStateTask(ctx, executor);
             result = checkStateTask;
             new RetryableTask(checkStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 0, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 0, TimeUnit.SECONDS);
 
             new CheckDownloadStateTask(ctx);
             result = checkDownloadStateTask;
             new RetryableTask(checkDownloadStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 30, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 30, TimeUnit.SECONDS);
 
             new CheckUploadStateTask(ctx);
             result = checkUploadStateTask;
             new RetryableTask(checkUploadStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 45, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 45, TimeUnit.SECONDS);
 
-            new FileWatcher(ctx.getConfig().getSyncDir(), executor);
+            executor.scheduleWithFixedDelay((RetryableTask) any, 10, 60, TimeUnit.MINUTES);
+            executor.scheduleWithFixedDelay((RetryableTask) any, 10, 10, TimeUnit.MINUTES);
+
+            new FileWatcher(ctx, executor);
 
             app.refreshOverlayIcon(ctx.getConfig().getSyncDir());
             times = 2;
@@ -435,6 +484,8 @@ public class AppTest {
             result = true;
             app.checkAndCreateDataDir();
             result = true;
+            app.prepareStagingArea();
+            result = true;
         }};
 
         new Expectations(GetWalletInfoTask.class, WaitSynchronizationTask.class, NotifyEmptyFundTask.class, WaitContractsTask.class) {{
@@ -482,29 +533,32 @@ public class AppTest {
             new CheckStateTask(ctx, executor);
             result = checkStateTask;
             new RetryableTask(checkStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 0, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 0, TimeUnit.SECONDS);
 
             new CheckDownloadStateTask(ctx);
             result = checkDownloadStateTask;
             new RetryableTask(checkDownloadStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 30, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 30, TimeUnit.SECONDS);
 
             new CheckUploadStateTask(ctx);
             result = checkUploadStateTask;
             new RetryableTask(checkUploadStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 45, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 45, TimeUnit.SECONDS);
+
+            executor.scheduleWithFixedDelay((RetryableTask) any, 10, 60, TimeUnit.MINUTES);
+            executor.scheduleWithFixedDelay((RetryableTask) any, 10, 10, TimeUnit.MINUTES);
 
             new NotifyFundInfoTask(ctx, true);
             executor.scheduleWithFixedDelay((Runnable) any, 0, 1, TimeUnit.HOURS);
 
-            new FileWatcher(ctx.getConfig().getSyncDir(), executor);
+            new FileWatcher(ctx, executor);
 
             app.refreshOverlayIcon(ctx.getConfig().getSyncDir());
             times = 2;
         }};
 
-        new Expectations(System.out) {{
-            System.out.println(SyncStateEvent.startSynchronization.toJson());
+        new Expectations(app) {{
+            app.notifyEvent(SyncStateEvent.startSynchronization);
         }};
 
         app.call();
@@ -524,6 +578,8 @@ public class AppTest {
             result = true;
             app.checkAndCreateDataDir();
             result = true;
+            app.prepareStagingArea();
+            result = true;
         }};
 
         new Expectations(GetWalletInfoTask.class, WaitSynchronizationTask.class, NotifyEmptyFundTask.class, WaitContractsTask.class) {{
@@ -571,22 +627,25 @@ public class AppTest {
             new CheckStateTask(ctx, executor);
             result = checkStateTask;
             new RetryableTask(checkStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 0, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 0, TimeUnit.SECONDS);
 
             new CheckDownloadStateTask(ctx);
             result = checkDownloadStateTask;
             new RetryableTask(checkDownloadStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 30, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 30, TimeUnit.SECONDS);
 
             new CheckUploadStateTask(ctx);
             result = checkUploadStateTask;
             new RetryableTask(checkUploadStateTask, startSiaDaemonTask);
-            executor.scheduleWithFixedDelay((RetryableTask) any, 45, 60, TimeUnit.SECONDS);
+            executor.schedule((AdaptivePollingTask) any, 45, TimeUnit.SECONDS);
+
+            executor.scheduleWithFixedDelay((RetryableTask) any, 10, 60, TimeUnit.MINUTES);
+            executor.scheduleWithFixedDelay((RetryableTask) any, 10, 10, TimeUnit.MINUTES);
 
             new NotifyFundInfoTask(ctx, false);
             executor.scheduleWithFixedDelay((Runnable) any, 0, 1, TimeUnit.HOURS);
 
-            new FileWatcher(ctx.getConfig().getSyncDir(), executor);
+            new FileWatcher(ctx, executor);
 
             app.refreshOverlayIcon(ctx.getConfig().getSyncDir());
             times = 2;
@@ -600,7 +659,8 @@ public class AppTest {
      * This test simulates the scenario that trying to start a sia daemon couple of times but finally cannot do it.
      */
     @Test
-    public void testCallWithApiException(@SuppressWarnings("unused") @Mocked Thread thread)
+    public void testCallWithApiException(
+            @SuppressWarnings("unused") @Mocked Thread thread, @SuppressWarnings("unused") @Mocked FileWatcher watcher)
             throws GetWalletInfoTask.WalletException, ApiException, IOException, InterruptedException {
 
         final App app = new App();
@@ -611,6 +671,8 @@ public class AppTest {
             result = true;
             app.checkAndCreateDataDir();
             result = true;
+            app.prepareStagingArea();
+            result = true;
         }};
 
         new Expectations(GetWalletInfoTask.class, WaitSynchronizationTask.class, NotifyEmptyFundTask.class, WaitContractsTask.class) {{
@@ -619,7 +681,7 @@ public class AppTest {
             getWalletInfoTask.call();
             result = new ApiException();
             times = App.MaxRetry + 1;
-            Thread.sleep(App.DefaultSleepTime);
+            Thread.sleep(anyLong);
             times = App.MaxRetry;
         }};
 
@@ -631,7 +693,7 @@ public class AppTest {
      * This test simulates the scenario that GetWalletInfoTask throws a WalletException.
      */
     @Test
-    public void testCallWithWalletException() throws GetWalletInfoTask.WalletException, ApiException, IOException {
+    public void testCallWithWalletException(@SuppressWarnings("unused") @Mocked FileWatcher watcher) throws GetWalletInfoTask.WalletException, ApiException, IOException {
 
         final App app = new App();
         Deencapsulation.setField(app, "ctx", this.ctx);
@@ -641,6 +703,8 @@ public class AppTest {
             result = true;
             app.checkAndCreateDataDir();
             result = true;
+            app.prepareStagingArea();
+            result = true;
         }};
 
         new Expectations(GetWalletInfoTask.class, WaitSynchronizationTask.class, NotifyEmptyFundTask.class, WaitContractsTask.class) {{
@@ -891,6 +955,44 @@ public class AppTest {
         this.checkResumeTasks(SyncState.FOR_CLOUD_DELETE, DeleteCloudFileTask.class);
     }
 
+    /**
+     * The cloud file of a file another file was moved from, which is marked as FOR_CLOUD_DELETE, must not be deleted
+     * before the state checker moves it.
+     */
+    @Test
+    public void notResumeDeleteOfMovedFile() throws IOException {
+
+        final Path oldPath = this.tmpDir.resolve("old-name");
+        Files.write(oldPath, "some body".getBytes());
+        DB.setSynced(new CloudFile() {
+            @NotNull
+            @Override
+            public String getName() {
+                return "old-name";
+            }
+
+            @NotNull
+            @Override
+            public Path getCloudPath() {
+                return ctx.getPathPrefix().resolve("old-name");
+            }
+
+            @Override
+            public long getFileSize() {
+                return 9;
+            }
+        }, oldPath);
+        final Path newPath = Files.move(oldPath, this.tmpDir.resolve("new-name"));
+        DB.setForMove("old-name", "new-name", newPath, DigestUtils.sha512("some body"));
+
+        final ExecutorMock executor = new ExecutorMock();
+        new App().resumeTasks(this.ctx, executor);
+
+        assertEquals(SyncState.FOR_CLOUD_DELETE, DB.get("old-name").get().getState());
+        assertTrue(executor.queue.isEmpty());
+
+    }
+
     @Test
     public void resumeToBeLocalDeletedFile() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException, IOException {
         this.checkResumeTasks(SyncState.FOR_LOCAL_DELETE, DeleteLocalFileTask.class);
@@ -958,52 +1060,14 @@ public class AppTest {
     }
 
     @Test
-    public void startSiaDaemon(@Mocked SiaDaemon daemon) throws IOException {
-
-        final Config cfg = ctx.getConfig();
-        new Expectations() {{
-            new SiaDaemon(cfg);
-            result = daemon;
-            daemon.checkAndDownloadConsensusDB();
-            daemon.start();
-        }};
-
-        final App app = new App();
-        assertEquals(null, (SiaDaemon) Deencapsulation.getField(app, "daemon"));
-        app.startSiaDaemon();
-
-    }
-
-    @Test
-    public void restartSiaDaemon(@Mocked SiaDaemon daemon) throws IOException {
-
-        new Expectations() {{
-            daemon.isClosed();
-            result = true;
-            daemon.checkAndDownloadConsensusDB();
-            daemon.start();
-        }};
+    public void startSiaDaemon() {
 
         final App app = new App();
-        Deencapsulation.setField(app, "daemon", daemon);
-        app.startSiaDaemon();
-
-    }
-
-    @Test
-    public void notStartSiaDaemon(@Mocked SiaDaemon daemon) throws IOException {
-
-        new Expectations() {{
-            daemon.isClosed();
-            result = false;
-            daemon.checkAndDownloadConsensusDB();
-            times = 0;
-            daemon.start();
-            times = 0;
+        final SiaDaemonSupervisor supervisor = Deencapsulation.getField(app, "supervisor");
+        new Expectations(supervisor) {{
+            supervisor.start();
+            times = 1;
         }};
-
-        final App app = new App();
-        Deencapsulation.setField(app, "daemon", daemon);
         app.startSiaDaemon();
 
     }
@@ -1013,12 +1077,14 @@ public class AppTest {
 
         final App app = new App();
         final OverlayHelper overlayHelper = Deencapsulation.getField(app, "overlayHelper");
+        final OverlayRefresher refresher = app.getOverlayRefresher();
+        Deencapsulation.setField(refresher, "debounce", 0L);
         Deencapsulation.setField(app, "synchronizing", true);
         new Expectations(app, overlayHelper) {{
             overlayHelper.refresh(tmpDir);
+            times = 1;
             DB.isSynced();
             result = true;
-            times = 2;
 
             overlayHelper.setOK();
             times = 1;
@@ -1026,8 +1092,11 @@ public class AppTest {
             times = 1;
         }};
         app.refreshOverlayIcon(tmpDir);
-        assertFalse(Deencapsulation.getField(app, "synchronizing"));
         app.refreshOverlayIcon(tmpDir);
+        refresher.flush();
+        assertFalse(Deencapsulation.getField(app, "synchronizing"));
+        refresher.flush();
+        assertEquals(1, refresher.getCoalesced());
 
     }
 
@@ -1036,12 +1105,15 @@ public class AppTest {
 
         final App app = new App();
         final OverlayHelper overlayHelper = Deencapsulation.getField(app, "overlayHelper");
+        final OverlayRefresher refresher = app.getOverlayRefresher();
+        Deencapsulation.setField(refresher, "debounce", 0L);
+        Deencapsulation.setField(refresher, "lastSynced", true);
         Deencapsulation.setField(app, "synchronizing", false);
         new Expectations(app, overlayHelper) {{
             overlayHelper.refresh(tmpDir);
+            times = 1;
             DB.isSynced();
             result = false;
-            times = 2;
 
             overlayHelper.setSynchronizing();
             times = 1;
@@ -1049,8 +1121,62 @@ public class AppTest {
             times = 1;
         }};
         app.refreshOverlayIcon(tmpDir);
+        refresher.flush();
         assertTrue(Deencapsulation.getField(app, "synchronizing"));
-        app.refreshOverlayIcon(tmpDir);
+        refresher.flush();
+
+    }
+
+    @Test
+    public void getIconOfFiles() throws IOException {
+
+        final Path dir = Files.createDirectories(this.tmpDir.resolve("dir"));
+        final Path synced = Files.createFile(dir.resolve("synced"));
+        final Path uploading = Files.createFile(dir.resolve("uploading"));
+        final Path failed = Files.createFile(this.tmpDir.resolve("failed"));
+        final Path unknown = Files.createFile(this.tmpDir.resolve("unknown"));
+
+        DB.addNewFile("dir/synced", synced);
+        DB.setSynced(this.createCloudFile("dir/synced"), synced);
+        DB.addNewFile("dir/uploading", uploading);
+        DB.setForUpload("dir/uploading", uploading, Paths.get("cloud", "dir", "uploading"));
+        DB.setUploading("dir/uploading");
+        DB.addNewFile("failed", failed);
+        DB.setForUpload("failed", failed, Paths.get("cloud", "failed"));
+        DB.setUploadFailed("failed");
+
+        final App app = new App();
+        assertEquals(OverlayIcon.OK, app.getIcon(synced));
+        assertEquals(OverlayIcon.SYNCING, app.getIcon(uploading));
+        assertEquals(OverlayIcon.ERROR, app.getIcon(failed));
+        assertEquals(OverlayIcon.NONE, app.getIcon(unknown));
+        assertEquals(4, app.getIconLookupLatency().getCount());
+
+    }
+
+    @Test
+    public void getIconOfDirectories() throws IOException {
+
+        final Path dir = Files.createDirectories(this.tmpDir.resolve("dir"));
+        final Path sub = Files.createDirectories(dir.resolve("sub"));
+        final Path empty = Files.createDirectories(this.tmpDir.resolve("empty"));
+        final Path file = Files.createFile(sub.resolve("file"));
+
+        final App app = new App();
+        assertEquals(OverlayIcon.OK, app.getIcon(empty));
+
+        DB.addNewFile("dir/sub/file", file);
+        DB.setForUpload("dir/sub/file", file, Paths.get("cloud", "dir", "sub", "file"));
+        DB.setUploading("dir/sub/file");
+        assertEquals(OverlayIcon.SYNCING, app.getIcon(dir));
+        assertEquals(OverlayIcon.SYNCING, app.getIcon(sub));
+
+        DB.setUploadFailed("dir/sub/file");
+        assertEquals(OverlayIcon.ERROR, app.getIcon(dir));
+
+        DB.setSynced(this.createCloudFile("dir/sub/file"), file);
+        assertEquals(OverlayIcon.OK, app.getIcon(dir));
+        assertEquals(OverlayIcon.OK, app.getIcon(empty));
 
     }
 
@@ -1058,13 +1184,16 @@ public class AppTest {
     public void notifyEvent() {
 
         final Event e = SyncStateEvent.synchronizing;
-        new Expectations(System.out) {{
-            System.out.println(e.toJson());
-        }};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         final App app = new App();
-        app.enableOutputEvents();
+        app.enableOutputEvents(out);
         app.notifyEvent(e);
+        final EventBus eventBus = app.getEventBus().get();
+        eventBus.close();
+
+        assertEquals(e.toJson() + System.lineSeparator(), out.toString());
+        assertEquals(1, eventBus.getWritten());
 
     }
 
@@ -1079,7 +1208,56 @@ public class AppTest {
 
         final App app = new App();
         app.notifyEvent(e);
+        assertFalse(app.getEventBus().isPresent());
+
+    }
+
+    @Test
+    public void consecutiveFailuresOfChecker() throws IOException {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final RetryableTask task = new RetryableTask(() -> {
+                throw new ApiException("expected exception");
+            }, e -> false);
+            final AdaptivePollingTask checker = new AdaptivePollingTask(
+                    "test checker", executor, task::execute, () -> true, 1, 8, TimeUnit.HOURS);
+            final MetricsRegistry registry = new MetricsRegistry();
+            App.registerMetrics(registry, checker);
+
+            checker.run();
+            checker.run();
+
+            final StringWriter out = new StringWriter();
+            registry.write(out);
+            final String res = out.toString();
+            assertTrue(res, res.contains("goobox_checker_consecutive_failures{checker=\"test checker\"} 2\n"));
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
 
+    @NotNull
+    private CloudFile createCloudFile(@NotNull final String name) {
+        return new CloudFile() {
+            @NotNull
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @NotNull
+            @Override
+            public Path getCloudPath() {
+                return Paths.get("cloud", name);
+            }
+
+            @Override
+            public long getFileSize() {
+                return 0;
+            }
+        };
     }
 
-}
\ No newline at end of file
+}
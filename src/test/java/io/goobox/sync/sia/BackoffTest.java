@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackoffTest {
+
+    @Test
+    public void doubleUpToMax() {
+        final Backoff backoff = new Backoff(1000, 5000);
+        assertEquals(1000, backoff.next());
+        assertEquals(2000, backoff.next());
+        assertEquals(4000, backoff.next());
+        assertEquals(5000, backoff.next());
+        assertEquals(5000, backoff.next());
+    }
+
+    @Test
+    public void initialLargerThanMax() {
+        final Backoff backoff = new Backoff(10000, 5000);
+        assertEquals(5000, backoff.next());
+        assertEquals(5000, backoff.next());
+    }
+
+}
@@ -19,6 +19,7 @@ package io.goobox.sync.sia;
 import io.goobox.sync.common.Utils;
 import mockit.Deencapsulation;
 import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -30,10 +31,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -302,4 +307,208 @@ public class ConfigTest {
 
     }
 
+    @Test
+    public void stagingDir() throws IOException {
+
+        final Path syncDir = Paths.get("sync-dir");
+        final Config cfg = new Config(tmpPath);
+        cfg.setSyncDir(syncDir);
+        assertEquals(syncDir.toAbsolutePath().resolve(Config.DefaultStagingDirName), cfg.getStagingDir());
+
+        final Path stagingDir = Paths.get("staging-dir");
+        cfg.setStagingDir(stagingDir);
+        assertEquals(stagingDir.toAbsolutePath(), cfg.getStagingDir());
+
+        cfg.save();
+        final Config res = Config.load(tmpPath);
+        assertEquals(cfg, res);
+        assertEquals(stagingDir.toAbsolutePath(), res.getStagingDir());
+
+    }
+
+    @Test
+    public void checkIntervals() throws IOException {
+
+        final Config cfg = new Config(tmpPath);
+        assertEquals(Config.DefaultMinCheckInterval, cfg.getMinCheckInterval());
+        assertEquals(Config.DefaultMaxCheckInterval, cfg.getMaxCheckInterval());
+
+        cfg.setMinCheckInterval(1);
+        cfg.setMaxCheckInterval(10);
+        cfg.save();
+        final Config res = Config.load(tmpPath);
+        assertEquals(cfg, res);
+        assertEquals(1, res.getMinCheckInterval());
+        assertEquals(10, res.getMaxCheckInterval());
+
+    }
+
+    @Test
+    public void invalidCheckIntervals() throws IOException {
+
+        final Config cfg = new Config(tmpPath);
+        cfg.setMinCheckInterval(10);
+        cfg.setMaxCheckInterval(1);
+        cfg.save();
+
+        final Config res = Config.load(tmpPath);
+        assertEquals(Config.DefaultMinCheckInterval, res.getMinCheckInterval());
+        assertEquals(Config.DefaultMaxCheckInterval, res.getMaxCheckInterval());
+
+    }
+
+    @Test
+    public void metricsPort() throws IOException {
+
+        final Config cfg = new Config(tmpPath);
+        assertEquals(0, cfg.getMetricsPort());
+
+        cfg.setMetricsPort(9090);
+        cfg.save();
+        final Config res = Config.load(tmpPath);
+        assertEquals(cfg, res);
+        assertEquals(9090, res.getMetricsPort());
+
+    }
+
+    @Test
+    public void additionalSiadApiAddresses() throws IOException {
+
+        final Properties props = new Properties();
+        props.setProperty(Config.SiadApiAddress, "127.0.0.1:10000");
+        props.setProperty(Config.AdditionalSiadApiAddresses, "127.0.0.1:10001, 127.0.0.1:10002,,127.0.0.1:10000,127.0.0.1:10001");
+        try (final OutputStream out = Files.newOutputStream(tmpPath)) {
+            props.store(out, "");
+        }
+
+        final Config cfg = Config.load(tmpPath);
+        assertEquals(Arrays.asList("127.0.0.1:10001", "127.0.0.1:10002"), cfg.getAdditionalSiadApiAddresses());
+
+        cfg.save();
+        assertEquals(cfg, Config.load(tmpPath));
+
+    }
+
+    @Test
+    public void additionalSyncDirs() throws IOException {
+
+        final Path syncDir = Paths.get("sync").toAbsolutePath();
+        final Path photos = Paths.get("photos").toAbsolutePath();
+        final Path documents = Paths.get("other", "documents").toAbsolutePath();
+        final Properties props = new Properties();
+        props.setProperty(Config.SyncDir, syncDir.toString());
+        props.setProperty(Config.AdditionalSyncDirs, String.join(",",
+                photos.toString(), " " + documents.toString(), "",
+                syncDir.resolve("inner").toString(), syncDir.getParent().toString(),
+                Paths.get("another", "photos").toAbsolutePath().toString()));
+        try (final OutputStream out = Files.newOutputStream(tmpPath)) {
+            props.store(out, "");
+        }
+
+        final Config cfg = Config.load(tmpPath);
+        assertEquals(Arrays.asList(photos, documents), cfg.getAdditionalSyncDirs());
+
+        cfg.save();
+        assertEquals(cfg, Config.load(tmpPath));
+
+    }
+
+    @Test
+    public void additionalSyncDirsShadowingFolders() throws IOException {
+
+        final Path syncDir = Files.createTempDirectory(null);
+        try {
+            Files.createDirectory(syncDir.resolve("photos"));
+            final Path photos = Paths.get("photos").toAbsolutePath();
+            final Path documents = Paths.get("other", "documents").toAbsolutePath();
+            final Path music = Paths.get("other", "music").toAbsolutePath();
+            final Properties props = new Properties();
+            props.setProperty(Config.SyncDir, syncDir.toString());
+            props.setProperty(Config.AdditionalSyncDirs, String.join(",",
+                    photos.toString(), documents.toString(), music.toString()));
+            try (final OutputStream out = Files.newOutputStream(tmpPath)) {
+                props.store(out, "");
+            }
+
+            // Folders existing in the sync directory aren't hidden.
+            final Config cfg = Config.load(tmpPath);
+            assertEquals(Arrays.asList(documents, music), cfg.getAdditionalSyncDirs());
+
+            // Neither are folders of which files are in the sync DB.
+            cfg.checkAdditionalSyncDirs(music::equals);
+            assertEquals(Collections.singletonList(documents), cfg.getAdditionalSyncDirs());
+
+            // The check is done against the new sync directory after it's changed.
+            cfg.setSyncDir(documents.getParent());
+            cfg.checkAdditionalSyncDirs(dir -> false);
+            assertEquals(Collections.emptyList(), cfg.getAdditionalSyncDirs());
+        } finally {
+            FileUtils.deleteDirectory(syncDir.toFile());
+        }
+
+    }
+
+    @Test
+    public void packThreshold() throws IOException {
+
+        final Config cfg = new Config(tmpPath);
+        assertEquals(0, cfg.getPackThreshold());
+
+        cfg.setPackThreshold(4096);
+        cfg.save();
+        final Config res = Config.load(tmpPath);
+        assertEquals(cfg, res);
+        assertEquals(4096, res.getPackThreshold());
+
+        final Properties props = new Properties();
+        props.setProperty(Config.PackThreshold, "-1");
+        try (final OutputStream out = Files.newOutputStream(tmpPath)) {
+            props.store(out, "");
+        }
+        assertEquals(0, Config.load(tmpPath).getPackThreshold());
+
+    }
+
+    @Test
+    public void chunkThreshold() throws IOException {
+
+        final Config cfg = new Config(tmpPath);
+        assertEquals(0, cfg.getChunkThreshold());
+
+        cfg.setChunkThreshold(256L * 1024 * 1024);
+        cfg.save();
+        final Config res = Config.load(tmpPath);
+        assertEquals(cfg, res);
+        assertEquals(256L * 1024 * 1024, res.getChunkThreshold());
+
+        final Properties props = new Properties();
+        props.setProperty(Config.ChunkThreshold, "abc");
+        try (final OutputStream out = Files.newOutputStream(tmpPath)) {
+            props.store(out, "");
+        }
+        assertEquals(0, Config.load(tmpPath).getChunkThreshold());
+
+    }
+
+    @Test
+    public void compressionThreshold() throws IOException {
+
+        final Config cfg = new Config(tmpPath);
+        assertEquals(0, cfg.getCompressionThreshold());
+
+        cfg.setCompressionThreshold(16L * 1024 * 1024);
+        cfg.save();
+        final Config res = Config.load(tmpPath);
+        assertEquals(cfg, res);
+        assertEquals(16L * 1024 * 1024, res.getCompressionThreshold());
+
+        final Properties props = new Properties();
+        props.setProperty(Config.CompressionThreshold, "-1");
+        try (final OutputStream out = Files.newOutputStream(tmpPath)) {
+            props.store(out, "");
+        }
+        assertEquals(0, Config.load(tmpPath).getCompressionThreshold());
+
+    }
+
 }
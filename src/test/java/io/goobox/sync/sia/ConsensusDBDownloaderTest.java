@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConsensusDBDownloaderTest {
+
+    private static final int SegmentSize = 64 * 1024;
+    private static final int Connections = 3;
+    private static final int MaxRetry = 2;
+
+    private Path tempDir;
+    private Path partFile;
+    private Path progressFile;
+    private Path output;
+    private byte[] data;
+    private byte[] gzipped;
+    private RangeDispatcher dispatcher;
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+
+        this.tempDir = Files.createTempDirectory(null);
+        this.partFile = this.tempDir.resolve("consensus.db.gz.part");
+        this.progressFile = this.tempDir.resolve("consensus.db.gz.part.progress");
+        this.output = this.tempDir.resolve("consensus.db");
+
+        this.data = new byte[8 * SegmentSize];
+        new Random(0).nextBytes(this.data);
+        this.gzipped = gzip(this.data);
+
+        this.dispatcher = new RangeDispatcher(this.gzipped, "\"v1\"");
+        this.server = new MockWebServer();
+        this.server.setDispatcher(this.dispatcher);
+        this.server.start();
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.shutdown();
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    @Test
+    public void downloadInSegments() throws IOException {
+
+        final ConsensusDBDownloader downloader = this.newDownloader();
+        assertEquals(DigestUtils.sha256Hex(this.gzipped), downloader.download(this.output));
+        assertArrayEquals(this.data, Files.readAllBytes(this.output));
+
+        // The probe and a request per segment.
+        final int segments = (this.gzipped.length + SegmentSize - 1) / SegmentSize;
+        assertEquals(segments + 1, this.dispatcher.ranges.size());
+        assertEquals("bytes=0-0", this.dispatcher.ranges.get(0));
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i != segments; i++) {
+            expected.add(String.format("bytes=%d-%d",
+                    (long) i * SegmentSize, Math.min((long) (i + 1) * SegmentSize, this.gzipped.length) - 1));
+        }
+        assertEquals(expected, new HashSet<>(this.dispatcher.ranges.subList(1, this.dispatcher.ranges.size())));
+        assertTrue(this.dispatcher.ifRanges.stream().allMatch("\"v1\""::equals));
+
+        assertTrue(Files.exists(this.partFile));
+        downloader.discard();
+        assertFalse(Files.exists(this.partFile));
+        assertFalse(Files.exists(this.progressFile));
+
+    }
+
+    @Test
+    public void retryInterruptedSegmentFromWhereItStopped() throws IOException {
+
+        final long start = 2 * SegmentSize;
+        this.dispatcher.disconnectOnce.add(start);
+
+        assertEquals(DigestUtils.sha256Hex(this.gzipped), this.newDownloader().download(this.output));
+        assertArrayEquals(this.data, Files.readAllBytes(this.output));
+
+        final List<Long> starts = this.dispatcher.getStarts();
+        assertEquals(2, starts.stream().filter(s -> s >= start && s < start + SegmentSize).count());
+        assertTrue(starts.stream().anyMatch(s -> s > start && s < start + SegmentSize));
+
+    }
+
+    @Test
+    public void resumeAfterFailedDownload() throws IOException {
+
+        final long lastSegment = (this.gzipped.length - 1) / SegmentSize * SegmentSize;
+        this.dispatcher.failFrom = lastSegment;
+        try {
+            this.newDownloader().download(this.output);
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+        assertEquals(MaxRetry, this.dispatcher.getStarts().stream().filter(s -> s == lastSegment).count());
+
+        final Properties progress = new Properties();
+        try (final InputStream in = Files.newInputStream(this.progressFile)) {
+            progress.load(in);
+        }
+        long downloaded = 0;
+        for (final String key : progress.stringPropertyNames()) {
+            if (key.startsWith("segment.")) {
+                downloaded += Long.parseLong(progress.getProperty(key));
+            }
+        }
+        assertTrue(downloaded >= 5 * SegmentSize);
+
+        // Another downloader, as after restarting the app, requests only the remaining bytes.
+        this.dispatcher.failFrom = Long.MAX_VALUE;
+        this.dispatcher.ranges.clear();
+        assertEquals(DigestUtils.sha256Hex(this.gzipped), this.newDownloader().download(this.output));
+        assertArrayEquals(this.data, Files.readAllBytes(this.output));
+        assertEquals(this.gzipped.length - downloaded, this.dispatcher.getRequestedBytes());
+
+    }
+
+    @Test
+    public void restartWhenTheFileHasBeenUpdated() throws IOException {
+
+        this.dispatcher.failFrom = 4 * SegmentSize;
+        try {
+            this.newDownloader().download(this.output);
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+        assertTrue(Files.exists(this.progressFile));
+
+        final byte[] updated = Arrays.copyOf(this.data, this.data.length);
+        updated[0]++;
+        final byte[] updatedGzip = gzip(updated);
+        this.server.setDispatcher(this.dispatcher = new RangeDispatcher(updatedGzip, "\"v2\""));
+
+        assertEquals(DigestUtils.sha256Hex(updatedGzip), this.newDownloader().download(this.output));
+        assertArrayEquals(updated, Files.readAllBytes(this.output));
+        assertEquals(updatedGzip.length, this.dispatcher.getRequestedBytes());
+
+    }
+
+    @Test
+    public void downloadInOneStreamIfRangesAreNotSupported() throws IOException {
+
+        this.dispatcher.rangeSupported = false;
+        assertEquals(DigestUtils.sha256Hex(this.gzipped), this.newDownloader().download(this.output));
+        assertArrayEquals(this.data, Files.readAllBytes(this.output));
+        assertEquals(1, this.dispatcher.ranges.size());
+        assertFalse(Files.exists(this.partFile));
+
+    }
+
+    @NotNull
+    private ConsensusDBDownloader newDownloader() {
+        final URL url = this.server.url("/consensus.db.gz").url();
+        return new ConsensusDBDownloader(url, "test-agent", this.partFile, Connections, SegmentSize, MaxRetry);
+    }
+
+    @NotNull
+    private static byte[] gzip(@NotNull final byte[] data) throws IOException {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (final OutputStream out = new GZIPOutputStream(buf)) {
+            out.write(data);
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * Serves a file supporting range requests, as the bootstrap DB server does.
+     */
+    private static class RangeDispatcher extends Dispatcher {
+
+        private final byte[] body;
+        private final String etag;
+        private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> ifRanges = Collections.synchronizedList(new ArrayList<>());
+        private final Set<Long> disconnectOnce = Collections.synchronizedSet(new HashSet<>());
+        private volatile boolean rangeSupported = true;
+        private volatile long failFrom = Long.MAX_VALUE;
+
+        RangeDispatcher(@NotNull final byte[] body, @NotNull final String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+
+        @Override
+        public MockResponse dispatch(final RecordedRequest request) {
+
+            final String range = request.getHeader("Range");
+            this.ranges.add(range);
+            final String ifRange = request.getHeader("If-Range");
+            if (ifRange != null) {
+                this.ifRanges.add(ifRange);
+            }
+            if (!this.rangeSupported || range == null || (ifRange != null && !ifRange.equals(this.etag))) {
+                return new MockResponse().setHeader("ETag", this.etag).setBody(new Buffer().write(this.body));
+            }
+
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            final long start = Long.parseLong(bounds[0]);
+            final long end = Math.min(Long.parseLong(bounds[1]), this.body.length - 1);
+            if (start >= this.failFrom) {
+                return new MockResponse().setResponseCode(500);
+            }
+
+            final MockResponse res = new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader("ETag", this.etag)
+                    .setHeader("Content-Range", String.format("bytes %d-%d/%d", start, end, this.body.length))
+                    .setBody(new Buffer().write(this.body, (int) start, (int) (end - start + 1)));
+            if (this.disconnectOnce.remove(start)) {
+                res.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+            }
+            return res;
+
+        }
+
+        /**
+         * Returns the first bytes requested by range requests except the probe.
+         */
+        List<Long> getStarts() {
+            final List<Long> starts = new ArrayList<>();
+            synchronized (this.ranges) {
+                for (final String range : this.ranges) {
+                    if (range != null && !range.equals("bytes=0-0")) {
+                        starts.add(Long.parseLong(range.substring("bytes=".length()).split("-")[0]));
+                    }
+                }
+            }
+            return starts;
+        }
+
+        /**
+         * Returns the number of bytes requested by range requests except the probe.
+         */
+        long getRequestedBytes() {
+            long sum = 0;
+            synchronized (this.ranges) {
+                for (final String range : this.ranges) {
+                    if (range != null && !range.equals("bytes=0-0")) {
+                        final String[] bounds = range.substring("bytes=".length()).split("-");
+                        sum += Long.parseLong(bounds[1]) - Long.parseLong(bounds[0]) + 1;
+                    }
+                }
+            }
+            return sum;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistentHashRingTest {
+
+    private static final int Keys = 10000;
+
+    @Test
+    public void balance() {
+
+        final List<String> nodes = Arrays.asList("127.0.0.1:9980", "127.0.0.1:9981", "127.0.0.1:9982", "127.0.0.1:9983");
+        final ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes, Function.identity());
+
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i != Keys; i++) {
+            counts.merge(ring.get(String.format("dir-%d/file-%d", i / 100, i)), 1, Integer::sum);
+        }
+        assertEquals(nodes.size(), counts.size());
+        for (final int count : counts.values()) {
+            // Each node should take roughly a quarter of keys.
+            assertTrue(String.valueOf(counts), count > Keys / nodes.size() / 2 && count < Keys / nodes.size() * 2);
+        }
+
+    }
+
+    @Test
+    public void addNodeMovesOnlyItsKeys() {
+
+        final List<String> nodes = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        final ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes, Function.identity());
+        nodes.add("d");
+        final ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes, Function.identity());
+
+        int moved = 0;
+        for (int i = 0; i != Keys; i++) {
+            final String key = String.format("file-%d", i);
+            final String owner = after.get(key);
+            if (!owner.equals(before.get(key))) {
+                assertEquals("d", owner);
+                moved++;
+            }
+            // The node which had the key before comes next in the preference list.
+            assertEquals(before.get(key), after.getPreferenceList(key).get(owner.equals("d") ? 1 : 0));
+        }
+        assertTrue(String.valueOf(moved), moved > 0 && moved < Keys / 2);
+
+    }
+
+    @Test
+    public void preferenceList() {
+
+        final ConsistentHashRing<String> ring = new ConsistentHashRing<>(Arrays.asList("a", "b", "c"), Function.identity());
+        for (int i = 0; i != 100; i++) {
+            final String key = String.format("file-%d", i);
+            final List<String> list = ring.getPreferenceList(key);
+            assertEquals(ring.get(key), list.get(0));
+            final List<String> sorted = new ArrayList<>(list);
+            Collections.sort(sorted);
+            assertEquals(Arrays.asList("a", "b", "c"), sorted);
+        }
+
+    }
+
+    @Test
+    public void singleNode() {
+        final ConsistentHashRing<String> ring = new ConsistentHashRing<>(Collections.singletonList("a"), Function.identity());
+        assertEquals("a", ring.get("file"));
+        assertEquals(Collections.singletonList("a"), ring.getPreferenceList("file"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noNodes() {
+        new ConsistentHashRing<>(Collections.<String>emptyList(), Function.identity());
+    }
+
+}
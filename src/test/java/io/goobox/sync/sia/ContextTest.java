@@ -16,6 +16,9 @@
  */
 package io.goobox.sync.sia;
 
+import io.goobox.sync.sia.db.SyncFile;
+import mockit.Expectations;
+import mockit.Mocked;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,8 +27,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ContextTest {
 
@@ -51,6 +63,50 @@ public class ContextTest {
         assertEquals(ctx.getConfig(), cfg);
         assertEquals(ctx.getApiClient().getBasePath(), APIUtils.getApiClient(cfg).getBasePath());
         assertEquals(ctx.getPathPrefix(), Paths.get(cfg.getUserName(), "Goobox"));
+        assertEquals(ctx.getSlashedPathPrefix(), APIUtils.toSlash(ctx.getPathPrefix()));
+
+    }
+
+    @Test
+    public void daemonContexts() {
+
+        final Config cfg = new Config(this.configPath.resolve(App.ConfigFileName));
+        cfg.setUserName("test-user");
+        cfg.setSiadApiAddress("127.0.0.1:10000");
+        cfg.setAdditionalSiadApiAddresses(Arrays.asList("127.0.0.1:10001", "127.0.0.1:10002"));
+        final Context ctx = new Context(cfg);
+
+        final List<Context> daemons = ctx.getDaemonContexts();
+        assertEquals(3, daemons.size());
+        assertSame(ctx, daemons.get(0));
+        assertTrue(ctx.isPrimaryDaemon());
+        assertEquals("http://127.0.0.1:10001", daemons.get(1).getApiClient().getBasePath());
+        assertFalse(daemons.get(1).isPrimaryDaemon());
+        assertSame(ctx.getStagingArea(), daemons.get(2).getStagingArea());
+        assertEquals(ctx.getSlashedPathPrefix(), daemons.get(2).getSlashedPathPrefix());
+
+        // Every daemon gets some of the files, and a file always goes to the same daemon.
+        final Set<Context> assigned = new HashSet<>();
+        for (int i = 0; i != 100; i++) {
+            final String name = String.format("dir/file-%d", i);
+            final Context daemon = ctx.getDaemonContext(name);
+            assertSame(daemon, ctx.getDaemonContext(name));
+            assertSame(daemon, ctx.getDaemonContexts(name).get(0));
+            assertEquals(new HashSet<>(daemons), new HashSet<>(ctx.getDaemonContexts(name)));
+            assigned.add(daemon);
+        }
+        assertEquals(3, assigned.size());
+
+    }
+
+    @Test
+    public void singleDaemonContext() {
+
+        final Config cfg = new Config(this.configPath.resolve(App.ConfigFileName));
+        final Context ctx = new Context(cfg);
+        assertEquals(Collections.singletonList(ctx), ctx.getDaemonContexts());
+        assertSame(ctx, ctx.getDaemonContext("some-file"));
+        assertEquals(Collections.singletonList(ctx), ctx.getDaemonContexts("some-file"));
 
     }
 
@@ -82,4 +138,61 @@ public class ContextTest {
 
     }
 
+    @Test
+    public void getLocalPathOfSyncFile(@Mocked final SyncFile syncFile, @Mocked final SyncFile remoteFile) {
+
+        final Path wd = Paths.get(".").toAbsolutePath();
+        final Config cfg = new Config(this.configPath.resolve(App.ConfigFileName));
+        cfg.setSyncDir(wd);
+
+        final Context ctx = new Context(cfg);
+
+        final Path name = Paths.get("sub-dir", "some-file");
+        new Expectations() {{
+            syncFile.hasLocalPath();
+            result = true;
+            syncFile.getName();
+            result = name.toString();
+            remoteFile.hasLocalPath();
+            result = false;
+        }};
+        assertEquals(wd.resolve(name), ctx.getLocalPath(syncFile).get());
+        assertFalse(ctx.getLocalPath(remoteFile).isPresent());
+
+    }
+
+    @Test
+    public void additionalSyncDirs() {
+
+        final Path wd = Paths.get("sync").toAbsolutePath();
+        final Path photos = Paths.get("other", "photos").toAbsolutePath();
+        final Config cfg = new Config(this.configPath.resolve(App.ConfigFileName));
+        cfg.setSyncDir(wd);
+        cfg.setAdditionalSyncDirs(Collections.singletonList(photos));
+
+        final Context ctx = new Context(cfg);
+        assertEquals(Arrays.asList("", "photos"), new ArrayList<>(ctx.getSyncDirs().keySet()));
+        assertEquals(Arrays.asList(wd, photos), new ArrayList<>(ctx.getSyncDirs().values()));
+
+        final Path name = Paths.get("photos", "sub-dir", "some-file");
+        assertEquals(name.toString(), ctx.getName(photos.resolve(Paths.get("sub-dir", "some-file"))));
+        assertEquals(photos.resolve(Paths.get("sub-dir", "some-file")), ctx.getLocalPath(name.toString()));
+        assertEquals("photos", ctx.getName(photos));
+        assertEquals(photos, ctx.getLocalPath("photos"));
+
+        final Path other = Paths.get("sub-dir", "some-file");
+        assertEquals(other.toString(), ctx.getName(wd.resolve(other)));
+        assertEquals(wd.resolve(other), ctx.getLocalPath(other.toString()));
+
+        assertTrue(ctx.isShadowed(wd.resolve(name)));
+        assertTrue(ctx.isShadowed(wd.resolve("photos")));
+        assertFalse(ctx.isShadowed(wd.resolve(other)));
+        assertFalse(ctx.isShadowed(photos.resolve("some-file")));
+        assertFalse(ctx.isShadowed(wd));
+
+        // Daemon contexts share the sync directories.
+        assertEquals(ctx.getSyncDirs(), ctx.getDaemonContexts().get(0).getSyncDirs());
+
+    }
+
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventBusTest {
+
+    /**
+     * Progress event for tests.
+     */
+    private static class ProgressEvent implements Event {
+
+        @NotNull
+        private final String name;
+        private final int progress;
+
+        ProgressEvent(@NotNull final String name, final int progress) {
+            this.name = name;
+            this.progress = progress;
+        }
+
+        @NotNull
+        @Override
+        public String toJson() {
+            return String.format("{\"name\":\"%s\",\"progress\":%d}", this.name, this.progress);
+        }
+
+        @Nullable
+        @Override
+        public String getCoalesceKey() {
+            return this.name;
+        }
+
+    }
+
+    /**
+     * Output stream which blocks until the latch is released.
+     */
+    private static class BlockingOutputStream extends OutputStream {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            this.await();
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+            this.await();
+            this.out.write(b, off, len);
+        }
+
+        private void await() {
+            try {
+                this.latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    @Test
+    public void writeEvents() {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventBus bus = new EventBus(out);
+        bus.start();
+        bus.publish(SyncStateEvent.synchronizing);
+        bus.publish(SyncStateEvent.idle);
+        bus.close();
+
+        assertEquals(
+                SyncStateEvent.synchronizing.toJson() + System.lineSeparator() + SyncStateEvent.idle.toJson() + System.lineSeparator(),
+                out.toString());
+        assertEquals(2, bus.getPublished());
+        assertEquals(2, bus.getWritten());
+        assertEquals(0, bus.getDropped());
+
+    }
+
+    @Test
+    public void coalesceProgressEvents() {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventBus bus = new EventBus(out);
+        bus.publish(new ProgressEvent("a", 1));
+        bus.publish(new ProgressEvent("b", 1));
+        bus.publish(new ProgressEvent("a", 2));
+        bus.start();
+        bus.close();
+
+        final List<String> lines = Arrays.asList(out.toString().split(System.lineSeparator()));
+        assertEquals(Arrays.asList(new ProgressEvent("a", 2).toJson(), new ProgressEvent("b", 1).toJson()), lines);
+        assertEquals(1, bus.getCoalesced());
+        assertEquals(2, bus.getWritten());
+
+    }
+
+    @Test
+    public void dropProgressEventsWhenFull() {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EventBus bus = new EventBus(out, 2);
+        bus.publish(new ProgressEvent("a", 1));
+        bus.publish(new ProgressEvent("b", 1));
+        bus.publish(new ProgressEvent("c", 1));
+        assertEquals(1, bus.getDropped());
+
+        // State events push out pending progress events.
+        bus.publish(SyncStateEvent.synchronizing);
+        bus.publish(SyncStateEvent.idle);
+        assertEquals(3, bus.getDropped());
+
+        bus.start();
+        bus.close();
+        assertEquals(
+                SyncStateEvent.synchronizing.toJson() + System.lineSeparator() + SyncStateEvent.idle.toJson() + System.lineSeparator(),
+                out.toString());
+
+    }
+
+    @Test
+    public void publishDoesNotWaitForWriter() throws InterruptedException {
+
+        final BlockingOutputStream out = new BlockingOutputStream();
+        final EventBus bus = new EventBus(out, 4);
+        bus.start();
+
+        final Thread publisher = new Thread(() -> {
+            for (int i = 0; i != 100; i++) {
+                bus.publish(new ProgressEvent("file", i));
+            }
+            bus.publish(SyncStateEvent.idle);
+        });
+        publisher.start();
+        publisher.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(!publisher.isAlive());
+
+        out.latch.countDown();
+        bus.close();
+        assertTrue(out.out.toString().endsWith(SyncStateEvent.idle.toJson() + System.lineSeparator()));
+        assertEquals(101, bus.getPublished());
+
+    }
+
+    @Test
+    public void dropEventsAfterClose() {
+
+        final EventBus bus = new EventBus(new ByteArrayOutputStream());
+        bus.start();
+        bus.close();
+        bus.publish(SyncStateEvent.idle);
+        assertEquals(0, bus.getPublished());
+        assertEquals(1, bus.getDropped());
+
+    }
+
+}
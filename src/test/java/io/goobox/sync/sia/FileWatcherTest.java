@@ -18,6 +18,7 @@
 package io.goobox.sync.sia;
 
 import io.goobox.sync.common.Utils;
+import io.goobox.sync.sia.db.CloudFile;
 import io.goobox.sync.sia.db.DB;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
@@ -31,6 +32,7 @@ import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
 import org.apache.commons.io.FileUtils;
 import org.dizitart.no2.objects.ObjectRepository;
+import org.jetbrains.annotations.NotNull;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -41,7 +43,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Executors;
@@ -98,7 +102,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         Files.createFile(localPath);
 
         new SystemMock();
@@ -125,6 +129,61 @@ public class FileWatcherTest {
 
     }
 
+    /**
+     * Test one FileWatcher tracks files in additional sync directories and names them after the directories while
+     * files in the sync directory hidden by an additional sync directory are ignored.
+     */
+    @Test
+    public void watchAdditionalSyncDirs() throws IOException {
+
+        final Path otherDir = Files.createTempDirectory(null);
+        try {
+
+            final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+            cfg.setSyncDir(this.tmpDir);
+            cfg.setAdditionalSyncDirs(Collections.singletonList(otherDir));
+            final Context ctx = new Context(cfg);
+
+            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+            new Expectations(executor) {{
+                executor.scheduleAtFixedRate(withNotNull(), 0, FileWatcher.MinElapsedTime, TimeUnit.MILLISECONDS);
+            }};
+            new Expectations() {{
+                watchService.watchAsync(executor);
+            }};
+
+            final FileWatcher watcher = new FileWatcher(ctx, executor);
+            final Path localPath = otherDir.resolve(this.name);
+            Files.createFile(localPath);
+            final Path shadowedPath = this.tmpDir.resolve(otherDir.getFileName()).resolve(this.name);
+            Files.createDirectories(shadowedPath.getParent());
+            Files.createFile(shadowedPath);
+
+            new SystemMock();
+            SystemMock.currentTime = now;
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, localPath, 0));
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, shadowedPath, 1));
+
+            final Map<Path, Long> trackingFiles = Deencapsulation.getField(watcher, "trackingFiles");
+            assertEquals(Collections.singleton(localPath), trackingFiles.keySet());
+
+            SystemMock.currentTime = now + 2 * FileWatcher.MinElapsedTime;
+            watcher.run();
+
+            final String name = otherDir.getFileName().resolve(this.name).toString();
+            assertEquals(SyncState.MODIFIED, DB.get(name).get().getState());
+            assertFalse(DB.get(this.name).isPresent());
+
+            Files.delete(localPath);
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.DELETE, localPath, 2));
+            assertEquals(SyncState.DELETED, DB.get(name).get().getState());
+
+        } finally {
+            FileUtils.deleteDirectory(otherDir.toFile());
+        }
+
+    }
+
     /**
      * Create event occurs if a directory is created but such event should be ignored because directories are not
      * maintained in this app.
@@ -140,7 +199,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         Files.createDirectory(localPath);
 
         new SystemMock();
@@ -167,7 +226,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         Files.createDirectory(localPath);
 
         new SystemMock();
@@ -198,7 +257,7 @@ public class FileWatcherTest {
             app.refreshOverlayIcon(localPath);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         Files.createFile(localPath);
 
         new SystemMock();
@@ -307,7 +366,7 @@ public class FileWatcherTest {
         };
         for (DirectoryChangeEvent.EventType event : events) {
 
-            try (final FileWatcher watcher = new FileWatcher(this.tmpDir, executor)) {
+            try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
 
                 final String name = String.format("test-%s-%x", event, System.currentTimeMillis());
                 final Path localPath = this.tmpDir.resolve(name);
@@ -361,7 +420,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         new SystemMock();
 
         SystemMock.currentTime = now;
@@ -421,6 +480,156 @@ public class FileWatcherTest {
         this.checkStatusAfterDeleteEvent(SyncState.DOWNLOADING, SyncState.DELETED);
     }
 
+    /**
+     * When a synced file is renamed or moved, the deleted file is paired with the created file of the same contents,
+     * and the cloud file of the deleted file is going to be moved.
+     */
+    @Test
+    public void syncedFileMoved() throws IOException {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        new Expectations(executor) {{
+            executor.scheduleAtFixedRate(withNotNull(), 0, FileWatcher.MinElapsedTime, TimeUnit.MILLISECONDS);
+            watchService.watchAsync(executor);
+        }};
+
+        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
+
+            final Path cloudPath = this.addSyncedFile(this.name, this.localPath, "some body");
+            final Path dir = Files.createDirectories(this.tmpDir.resolve("sub-directory"));
+            final Path movedPath = Files.move(this.localPath, dir.resolve(this.name));
+            final String movedName = this.tmpDir.relativize(movedPath).toString();
+
+            new SystemMock();
+
+            SystemMock.currentTime = now;
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.DELETE, this.localPath, 0));
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, dir, 1));
+            assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+
+            SystemMock.currentTime = now + FileWatcher.MinElapsedTime;
+            watcher.run();
+
+            final SyncFile moved = DB.get(movedName).get();
+            assertEquals(SyncState.FOR_MOVE, moved.getState());
+            assertEquals(cloudPath, moved.getCloudPath().get());
+            assertEquals(SyncState.FOR_CLOUD_DELETE, DB.get(this.name).get().getState());
+            final Map<Path, Long> deletedFiles = Deencapsulation.getField(watcher, "deletedFiles");
+            assertTrue(deletedFiles.isEmpty());
+
+            SystemMock.currentTime = now + FileWatcher.MoveWindow;
+            watcher.run();
+            assertEquals(SyncState.FOR_CLOUD_DELETE, DB.get(this.name).get().getState());
+            assertTrue(DBMock.committed);
+
+        }
+
+    }
+
+    /**
+     * A deleted synced file which isn't paired with a created file in MoveWindow is marked as DELETED.
+     */
+    @Test
+    public void syncedFileDeletedAfterMoveWindow() throws IOException {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        new Expectations(executor) {{
+            executor.scheduleAtFixedRate(withNotNull(), 0, FileWatcher.MinElapsedTime, TimeUnit.MILLISECONDS);
+            watchService.watchAsync(executor);
+        }};
+
+        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
+
+            this.addSyncedFile(this.name, this.localPath, "some body");
+            Files.delete(this.localPath);
+
+            // A file of the same size but different contents.
+            final String otherName = "other-file";
+            final Path otherPath = this.tmpDir.resolve(otherName);
+            Files.write(otherPath, "any body!".getBytes());
+
+            new SystemMock();
+
+            SystemMock.currentTime = now;
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.DELETE, this.localPath, 0));
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, otherPath, 1));
+
+            SystemMock.currentTime = now + FileWatcher.MinElapsedTime;
+            watcher.run();
+            assertEquals(SyncState.MODIFIED, DB.get(otherName).get().getState());
+            assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+
+            SystemMock.currentTime = now + FileWatcher.MoveWindow;
+            watcher.run();
+            assertEquals(SyncState.DELETED, DB.get(this.name).get().getState());
+            final Map<Path, Long> deletedFiles = Deencapsulation.getField(watcher, "deletedFiles");
+            assertTrue(deletedFiles.isEmpty());
+
+        }
+
+    }
+
+    /**
+     * A synced file deleted and created again, e.g. saved by an editor which replaces files, is kept synced.
+     */
+    @Test
+    public void syncedFileReplaced() throws IOException {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        new Expectations(executor) {{
+            executor.scheduleAtFixedRate(withNotNull(), 0, FileWatcher.MinElapsedTime, TimeUnit.MILLISECONDS);
+            watchService.watchAsync(executor);
+        }};
+
+        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
+
+            this.addSyncedFile(this.name, this.localPath, "some body");
+
+            new SystemMock();
+
+            SystemMock.currentTime = now;
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.DELETE, this.localPath, 0));
+            watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, this.localPath, 1));
+
+            SystemMock.currentTime = now + FileWatcher.MoveWindow;
+            watcher.run();
+            assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+
+        }
+
+    }
+
+    /**
+     * Creates the given file and marks it as synced with a cloud file.
+     *
+     * @return the cloud path of the file.
+     */
+    private Path addSyncedFile(final String name, final Path localPath, final String body) throws IOException {
+
+        Files.write(localPath, body.getBytes());
+        final Path cloudPath = Paths.get("test-user", "Goobox", name, Long.toString(this.now));
+        DB.setSynced(new CloudFile() {
+            @NotNull
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @NotNull
+            @Override
+            public Path getCloudPath() {
+                return cloudPath;
+            }
+
+            @Override
+            public long getFileSize() {
+                return body.length();
+            }
+        }, localPath);
+        return cloudPath;
+
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     private void checkStatusAfterDeleteEvent(final SyncState before, final SyncState expected)
             throws IOException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
@@ -432,7 +641,7 @@ public class FileWatcherTest {
         }};
 
         // Directory deleted.
-        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, executor)) {
+        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
 
             Files.createFile(localPath);
             DB.addNewFile(name, localPath);
@@ -449,7 +658,7 @@ public class FileWatcherTest {
         DBMock.committed = false;
 
         // Modified and deleted.
-        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, executor)) {
+        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
 
             final String name = String.format("test-file-2-%x", System.currentTimeMillis());
             final Path localPath = this.tmpDir.resolve(name);
@@ -493,7 +702,7 @@ public class FileWatcherTest {
 
         for (DirectoryChangeEvent.EventType event : new DirectoryChangeEvent.EventType[]{DirectoryChangeEvent.EventType.CREATE, DirectoryChangeEvent.EventType.MODIFY}) {
 
-            try (final FileWatcher watcher = new FileWatcher(this.tmpDir, executor)) {
+            try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
 
                 final String name = String.format("test-%s-%x", event, System.currentTimeMillis());
                 final Path localPath = this.tmpDir.resolve(name);
@@ -534,8 +743,10 @@ public class FileWatcherTest {
             result = true;
         }};
         final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, executor)) {
+        try (final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor)) {
             watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, target, 2));
+        } finally {
+            executor.shutdownNow();
         }
 
     }
@@ -551,7 +762,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
 
         new SystemMock();
 
@@ -592,7 +803,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.CREATE, dir, 0));
 
         final Map<Path, Long> trackingFiles = Deencapsulation.getField(watcher, "trackingFiles");
@@ -628,7 +839,7 @@ public class FileWatcherTest {
             watchService.watchAsync(executor);
         }};
 
-        final FileWatcher watcher = new FileWatcher(this.tmpDir, executor);
+        final FileWatcher watcher = new FileWatcher(this.tmpDir, this.tmpDir.resolve(Config.DefaultStagingDirName), executor);
         watcher.onEvent(new DirectoryChangeEvent(DirectoryChangeEvent.EventType.DELETE, dir, 0));
 
         final Map<Path, Long> trackingFiles = Deencapsulation.getField(watcher, "trackingFiles");
@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import com.google.gson.Gson;
+import io.goobox.sync.common.Utils;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.mocks.SiadSimulator;
+import io.goobox.sync.sia.task.Chunks;
+import io.goobox.sync.sia.task.Compression;
+import io.goobox.sync.sia.task.MoveCloudFileTask;
+import io.goobox.sync.sia.task.StoredContents;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the app against a {@link SiadSimulator} and a generated sync folder, and reports how long it takes until all
+ * files are synchronized, how many API calls it makes per file, and the peak heap usage.
+ * <p>
+ * With --daemons, the app shards files over several simulators; files only in the cloud are stored in the first one.
+ * With --roots, the local files are spread over the sync folder and additional sync folders.
+ * With --reverted-files, files in the sync folder are modified after convergence and, once the modifications are
+ * synchronized, reverted to their original contents; the report shows the uploads caused by the reverts.
+ * With --rename-folder, the first folder of generated files is renamed after convergence; the report shows the uploads
+ * caused by the rename.
+ * With --appended-bytes, bytes are appended to the files in the sync folder after convergence; the report shows the
+ * bytes uploaded to store the appended files.
+ * With --compressible, the generated files are text-like instead of random bytes; with --compression-threshold, the
+ * report shows the effect of compressing them on the uploaded bytes and the upload cost at the simulated prices.
+ * <p>
+ * The driver overwrites the config file and deletes the sync DB in the data directory, so it refuses to run unless
+ * the goobox.loadtest system property is true; ./gradlew loadTest runs it with an isolated home directory.
+ * The report is printed to stdout as a JSON line, and appended to the file given by --output.
+ */
+public class LoadDriver {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+    private static final String UserName = "load-test-user";
+    private static final int FilesPerDirectory = 1000;
+    private static final long PollInterval = 500;
+    private static final String[] Words = {
+            "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliett", "kilo",
+            "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango", "uniform", "victor",
+            "whiskey", "xray", "yankee", "zulu", "INFO", "DEBUG", "WARN", "ERROR", "sync", "upload", "download"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        final Options opts = new Options();
+        opts.addOption(null, "local-files", true, "number of files in the sync folder (default: 1000)");
+        opts.addOption(null, "cloud-files", true, "number of files only in the cloud (default: 0)");
+        opts.addOption(null, "file-size", true, "size of each file in bytes (default: 1024)");
+        opts.addOption(null, "latency", true, "latency of each API call in milliseconds (default: 0)");
+        opts.addOption(null, "failure-rate", true, "rate of failing renter API calls in [0, 1] (default: 0)");
+        opts.addOption(null, "upload-duration", true, "time each upload takes in milliseconds (default: 0)");
+        opts.addOption(null, "download-duration", true, "time each download takes in milliseconds (default: 0)");
+        opts.addOption(null, "daemons", true, "number of simulated sia daemons (default: 1)");
+        opts.addOption(null, "roots", true, "number of sync folders the local files are spread over (default: 1)");
+        opts.addOption(null, "pack-threshold", true, "bundle files smaller than this number of bytes into packs (default: 0)");
+        opts.addOption(null, "chunk-threshold", true, "split files of at least this number of bytes into chunks (default: 0)");
+        opts.addOption(null, "compression-threshold", true, "compress files of at least this number of bytes (default: 0)");
+        opts.addOption(null, "compressible", false, "generate text-like files instead of random bytes");
+        opts.addOption(null, "reverted-files", true, "number of local files modified and reverted after convergence (default: 0)");
+        opts.addOption(null, "rename-folder", false, "rename a folder of local files after convergence");
+        opts.addOption(null, "appended-bytes", true, "number of bytes appended to each local file after convergence (default: 0)");
+        opts.addOption(null, "seed", true, "seed of failure injection (default: 0)");
+        opts.addOption(null, "timeout", true, "seconds to wait for convergence (default: 3600)");
+        opts.addOption(null, "output", true, "file the report is appended to");
+        opts.addOption("h", "help", false, "show this help");
+
+        final CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(opts, args);
+        } catch (final ParseException e) {
+            logger.error("Failed to parse command line options: {}", e.getMessage());
+            new HelpFormatter().printHelp("LoadDriver", opts, true);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("LoadDriver", opts, true);
+            return;
+        }
+        if (!Boolean.getBoolean("goobox.loadtest")) {
+            logger.error("Set -Dgoobox.loadtest=true with an isolated user.home; the driver overwrites the data folder");
+            System.exit(1);
+        }
+
+        final int localFiles = Integer.parseInt(cmd.getOptionValue("local-files", "1000"));
+        final int cloudFiles = Integer.parseInt(cmd.getOptionValue("cloud-files", "0"));
+        final long fileSize = Long.parseLong(cmd.getOptionValue("file-size", "1024"));
+        final boolean compressible = cmd.hasOption("compressible");
+        final long timeout = Long.parseLong(cmd.getOptionValue("timeout", "3600"));
+
+        final int daemons = Integer.parseInt(cmd.getOptionValue("daemons", "1"));
+
+        final List<SiadSimulator> sims = new ArrayList<>();
+        for (int i = 0; i != daemons; i++) {
+            final SiadSimulator siad = new SiadSimulator(UserName, Long.parseLong(cmd.getOptionValue("seed", "0")) + i);
+            siad.setLatency(Long.parseLong(cmd.getOptionValue("latency", "0")), TimeUnit.MILLISECONDS);
+            siad.setFailureRate(Double.parseDouble(cmd.getOptionValue("failure-rate", "0")));
+            siad.setUploadDuration(Long.parseLong(cmd.getOptionValue("upload-duration", "0")), TimeUnit.MILLISECONDS);
+            siad.setDownloadDuration(Long.parseLong(cmd.getOptionValue("download-duration", "0")), TimeUnit.MILLISECONDS);
+            if (i == 0) {
+                siad.addCloudFiles(cloudFiles, fileSize);
+            }
+            siad.start();
+            sims.add(siad);
+        }
+
+        final int roots = Integer.parseInt(cmd.getOptionValue("roots", "1"));
+        final List<Path> syncDirs = new ArrayList<>();
+        for (int i = 0; i != roots; i++) {
+            final Path dir = Files.createTempDirectory("goobox-load-test");
+            final int first = (int) ((long) localFiles * i / roots);
+            final int count = (int) ((long) localFiles * (i + 1) / roots) - first;
+            logger.info("Generating {} files in {}", count, dir);
+            generateFiles(dir, first, count, fileSize, compressible);
+            syncDirs.add(dir);
+        }
+        final Path syncDir = syncDirs.get(0);
+        final long packThreshold = Long.parseLong(cmd.getOptionValue("pack-threshold", "0"));
+        final long chunkThreshold = Long.parseLong(cmd.getOptionValue("chunk-threshold", "0"));
+        final long compressionThreshold = Long.parseLong(cmd.getOptionValue("compression-threshold", "0"));
+        prepareDataDir(
+                sims.stream().map(SiadSimulator::getAddress).collect(Collectors.toList()),
+                syncDirs.subList(1, syncDirs.size()),
+                packThreshold, chunkThreshold, compressionThreshold);
+        // Packed and chunked files aren't listed by the simulators one by one.
+        final boolean virtual = packThreshold > 0 || chunkThreshold > 0;
+
+        final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        final long start = System.nanoTime();
+        App.main(new String[]{"--sync-dir", syncDir.toString()});
+
+        final int total = localFiles + cloudFiles;
+        final long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+        boolean converged = awaitConvergence(sims, total, virtual, 0, 0, deadline);
+        final long elapsed = System.nanoTime() - start;
+
+        // Reverted files can be stored by moving their older versions instead of uploading them.
+        final int revertedFiles = Math.min(
+                Integer.parseInt(cmd.getOptionValue("reverted-files", "0")), (int) ((long) localFiles / roots));
+        long uploadsBeforeRevert = 0;
+        long revertElapsed = 0;
+        if (converged && revertedFiles != 0) {
+            final long modifiedTime = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+            rewriteFiles(syncDir, revertedFiles, fileSize, compressible, false, modifiedTime);
+            converged = awaitConvergence(sims, total, virtual, modifiedTime, revertedFiles, deadline);
+
+            final long revertedTime = modifiedTime + TimeUnit.SECONDS.toMillis(1);
+            uploadsBeforeRevert = countUploads(sims);
+            final long revertStart = System.nanoTime();
+            rewriteFiles(syncDir, revertedFiles, fileSize, compressible, true, revertedTime);
+            converged = converged
+                    && awaitConvergence(sims, total, virtual, revertedTime, revertedFiles, deadline);
+            revertElapsed = System.nanoTime() - revertStart;
+        }
+
+        // Renamed files are stored by moving their cloud files instead of uploading them.
+        final int renamedFiles = cmd.hasOption("rename-folder")
+                ? Math.min((int) ((long) localFiles / roots), FilesPerDirectory) : 0;
+        long uploadsBeforeRename = 0;
+        long renameElapsed = 0;
+        if (converged && renamedFiles != 0) {
+            uploadsBeforeRename = countUploads(sims);
+            final long renameStart = System.nanoTime();
+            Files.move(syncDir.resolve("dir-0"), syncDir.resolve("renamed-dir-0"));
+            logger.info("Renamed a folder of {} files", renamedFiles);
+            converged = awaitRename(deadline)
+                    && awaitConvergence(sims, total, virtual, 0, 0, deadline);
+            renameElapsed = System.nanoTime() - renameStart;
+        }
+
+        // Appended files can be stored by uploading only their last chunks.
+        final long appendedBytes = Long.parseLong(cmd.getOptionValue("appended-bytes", "0"));
+        final int appendedFiles = appendedBytes > 0 ? (int) ((long) localFiles / roots) : 0;
+        long uploadedBytesBeforeAppend = 0;
+        long appendElapsed = 0;
+        if (converged && appendedFiles != 0) {
+            final long appendedTime = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+            uploadedBytesBeforeAppend = countUploadedBytes(sims);
+            final long appendStart = System.nanoTime();
+            appendFiles(syncDir, appendedFiles, appendedBytes, appendedTime);
+            converged = awaitConvergence(sims, total, virtual, appendedTime, appendedFiles, deadline);
+            appendElapsed = System.nanoTime() - appendStart;
+        }
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("localFiles", localFiles);
+        report.put("cloudFiles", cloudFiles);
+        report.put("fileSize", fileSize);
+        report.put("converged", converged);
+        report.put("timeToConvergeMillis", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        report.put("timeToFirstUploadMillis", App.getInstance()
+                .map(app -> app.getStartupTimeline().getElapsedMillis(StartupTimeline.Milestone.firstUpload).orElse(-1))
+                .orElse(-1L));
+        final long apiCalls = sims.stream().mapToLong(SiadSimulator::getRequestCount).sum();
+        final Map<String, Long> requests = new TreeMap<>();
+        sims.forEach(siad -> siad.getRequestCounts().forEach((endpoint, count) -> requests.merge(endpoint, count, Long::sum)));
+        report.put("daemons", daemons);
+        report.put("roots", roots);
+        report.put("packThreshold", packThreshold);
+        report.put("chunkThreshold", chunkThreshold);
+        report.put("compressionThreshold", compressionThreshold);
+        report.put("compressible", compressible);
+        report.put("apiCalls", apiCalls);
+        report.put("apiCallsPerFile", total == 0 ? 0 : (double) apiCalls / total);
+        report.put("injectedFailures", sims.stream().mapToLong(SiadSimulator::getFailureCount).sum());
+        report.put("peakHeapBytes", heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum());
+        report.put("peakThreads", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        report.put("requests", requests);
+        report.put("revertedFiles", revertedFiles);
+        if (revertedFiles != 0) {
+            report.put("timeToConvergeAfterRevertMillis", TimeUnit.NANOSECONDS.toMillis(revertElapsed));
+            report.put("uploadsAfterRevert", countUploads(sims) - uploadsBeforeRevert);
+        }
+        report.put("renamedFiles", renamedFiles);
+        if (renamedFiles != 0) {
+            report.put("timeToConvergeAfterRenameMillis", TimeUnit.NANOSECONDS.toMillis(renameElapsed));
+            report.put("uploadsAfterRename", countUploads(sims) - uploadsBeforeRename);
+        }
+        report.put("appendedFiles", appendedFiles);
+        if (appendedFiles != 0) {
+            report.put("appendedBytes", appendedBytes);
+            report.put("timeToConvergeAfterAppendMillis", TimeUnit.NANOSECONDS.toMillis(appendElapsed));
+            report.put("uploadedBytesAfterAppend", countUploadedBytes(sims) - uploadedBytesBeforeAppend);
+        }
+        report.put("uploadedBytes", countUploadedBytes(sims));
+        // Prices are in hastings per terabyte.
+        report.put("uploadCostSiacoin", APIUtils.toSiacoin(new BigDecimal(SiadSimulator.getUploadPrice())
+                .multiply(BigDecimal.valueOf(countUploadedBytes(sims)))
+                .divide(BigDecimal.valueOf(1000L * 1000 * 1000 * 1000))
+                .toBigInteger()));
+        report.put("compressedFiles", MetricsRegistry.getDefault().counter(
+                Compression.CompressedFilesMetric, "Files uploaded after being compressed.").get());
+        report.put("compressionSavedBytes", MetricsRegistry.getDefault().counter(
+                Compression.SavedBytesMetric, "Bytes not uploaded because files were compressed.").get());
+        report.put("chunkSkippedBytes", MetricsRegistry.getDefault().counter(
+                Chunks.SkippedBytesMetric, "Bytes of chunks not uploaded because they were stored.").get());
+        report.put("movedBytes", MetricsRegistry.getDefault().counter(
+                MoveCloudFileTask.MovedBytesMetric, "Bytes not uploaded because cloud files were moved.").get());
+        report.put("dedupSavedBytes", MetricsRegistry.getDefault().counter(
+                StoredContents.SavedBytesMetric, "Bytes not uploaded because cloud files were moved.").get());
+        report.put("uploadsPerDaemon", sims.stream()
+                .map(siad -> siad.getRequestCounts().getOrDefault("POST /renter/upload", 0L))
+                .collect(Collectors.toList()));
+
+        final String line = new Gson().toJson(report);
+        System.out.println(line);
+        if (cmd.hasOption("output")) {
+            try (final OutputStream out = Files.newOutputStream(
+                    Paths.get(cmd.getOptionValue("output")),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        for (final SiadSimulator siad : sims) {
+            siad.close();
+        }
+        // The app doesn't stop its worker threads; shutdown hooks close the DB and the file watcher.
+        System.exit(converged ? 0 : 1);
+
+    }
+
+    /**
+     * Waits until every file is synced and, unless files are packed or chunked, available in the simulators, and at
+     * least the given number of files are synced with cloud files created at the given time.
+     *
+     * @return false if the deadline passed.
+     */
+    private static boolean awaitConvergence(
+            @NotNull final List<SiadSimulator> sims, final int total, final boolean virtual,
+            final long creationTime, final int created, final long deadline) throws InterruptedException {
+
+        while (System.nanoTime() < deadline) {
+            // Streams of the sync DB are read lazily, and so they must be read holding the DB lock.
+            synchronized (DB.class) {
+                // Packed and chunked files aren't listed by the simulators one by one, and older versions of files
+                // may remain.
+                if (DB.size() == total && DB.isSynced()
+                        && (virtual || sims.stream().mapToLong(siad -> siad.getAvailableFiles().stream()
+                        .map(siaPath -> siaPath.substring(0, siaPath.lastIndexOf('/')))
+                        .distinct().count()).sum() == total)
+                        && DB.getFiles().filter(
+                        syncFile -> syncFile.getCloudCreationTime().orElse(0L) == creationTime).count() >= created) {
+                    return true;
+                }
+            }
+            Thread.sleep(PollInterval);
+        }
+        return false;
+
+    }
+
+    /**
+     * Waits until no files remain in the renamed folder in the sync DB, holding the DB lock while reading it.
+     *
+     * @return false if the deadline passed.
+     */
+    private static boolean awaitRename(final long deadline) throws InterruptedException {
+
+        while (System.nanoTime() < deadline) {
+            synchronized (DB.class) {
+                if (DB.getFiles().noneMatch(syncFile -> syncFile.getName().startsWith("dir-0" + File.separator))) {
+                    return true;
+                }
+            }
+            Thread.sleep(PollInterval);
+        }
+        return false;
+
+    }
+
+    /**
+     * Rewrites the given number of generated files in the given sync folder with modified or original contents, and
+     * sets their modification times.
+     */
+    private static void rewriteFiles(
+            @NotNull final Path syncDir, final int count, final long size, final boolean compressible,
+            final boolean original, final long time) throws IOException {
+
+        for (int i = 0; i != count; i++) {
+            final Path file = syncDir
+                    .resolve(String.format("dir-%d", i / FilesPerDirectory))
+                    .resolve(String.format("local-file-%d.dat", i));
+            writeFile(file, original ? Integer.toString(i) : String.format("modified-%d", i), size, compressible);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+        }
+        logger.info("Rewrote {} files with {} contents", count, original ? "original" : "modified");
+
+    }
+
+    /**
+     * Appends the given number of random bytes to the given number of generated files in the given sync folder, and
+     * sets their modification times.
+     */
+    private static void appendFiles(
+            @NotNull final Path syncDir, final int count, final long size, final long time) throws IOException {
+
+        final Random random = new Random(time);
+        for (int i = 0; i != count; i++) {
+            final Path file = syncDir
+                    .resolve(String.format("dir-%d", i / FilesPerDirectory))
+                    .resolve(String.format("local-file-%d.dat", i));
+            try (final OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+                writeRandomBytes(out, random, size);
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+        }
+        logger.info("Appended {} bytes to {} files", size, count);
+
+    }
+
+    private static long countUploadedBytes(@NotNull final List<SiadSimulator> sims) {
+        return sims.stream().mapToLong(SiadSimulator::getUploadedBytes).sum();
+    }
+
+    private static long countUploads(@NotNull final List<SiadSimulator> sims) {
+        return sims.stream().mapToLong(siad -> siad.getRequestCounts().getOrDefault("POST /renter/upload", 0L)).sum();
+    }
+
+    /**
+     * Creates files which have distinct contents, at most FilesPerDirectory files in each sub directory.
+     */
+    private static void generateFiles(
+            @NotNull final Path syncDir, final int first, final int count, final long size, final boolean compressible)
+            throws IOException {
+
+        for (int i = first; i != first + count; i++) {
+            final Path dir = syncDir.resolve(String.format("dir-%d", i / FilesPerDirectory));
+            if (i == first || i % FilesPerDirectory == 0) {
+                Files.createDirectories(dir);
+            }
+            writeFile(dir.resolve(String.format("local-file-%d.dat", i)), Integer.toString(i), size, compressible);
+        }
+
+    }
+
+    /**
+     * Writes a file of the given size which starts with the given id and is padded with pseudo random bytes, or
+     * pseudo random lines of words if compressible, derived from the id, so that no parts of different files are the
+     * same.
+     */
+    private static void writeFile(
+            @NotNull final Path file, @NotNull final String id, final long size, final boolean compressible)
+            throws IOException {
+
+        final byte[] head = id.getBytes(StandardCharsets.UTF_8);
+        try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            out.write(head, 0, (int) Math.min(head.length, size));
+            final long rest = size - Math.min(head.length, size);
+            if (compressible) {
+                writeText(out, new Random(id.hashCode()), rest);
+            } else {
+                writeRandomBytes(out, new Random(id.hashCode()), rest);
+            }
+        }
+
+    }
+
+    private static void writeText(
+            @NotNull final OutputStream out, @NotNull final Random random, final long size) throws IOException {
+
+        final StringBuilder line = new StringBuilder();
+        for (long written = 0; written < size; ) {
+            line.setLength(0);
+            line.append(random.nextInt(1000000));
+            for (int i = 0; i != 10; i++) {
+                line.append(' ').append(Words[random.nextInt(Words.length)]);
+            }
+            line.append('\n');
+            final byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            final int len = (int) Math.min(bytes.length, size - written);
+            out.write(bytes, 0, len);
+            written += len;
+        }
+
+    }
+
+    private static void writeRandomBytes(
+            @NotNull final OutputStream out, @NotNull final Random random, final long size) throws IOException {
+
+        final byte[] buffer = new byte[(int) Math.min(size, 64 * 1024)];
+        for (long written = 0; written < size; written += buffer.length) {
+            random.nextBytes(buffer);
+            out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+        }
+
+    }
+
+    /**
+     * Writes a config file pointing at the simulators and the additional sync folders, and deletes the sync DB left by a previous run.
+     */
+    private static void prepareDataDir(
+            @NotNull final List<String> apiAddresses, @NotNull final List<Path> additionalSyncDirs,
+            final long packThreshold, final long chunkThreshold, final long compressionThreshold) throws IOException {
+
+        final Path dataDir = Utils.getDataDir();
+        Files.createDirectories(dataDir);
+        Files.deleteIfExists(dataDir.resolve(DB.DatabaseFileName));
+
+        final Properties props = new Properties();
+        props.setProperty(Config.UserName, UserName);
+        props.setProperty(Config.SiadApiAddress, apiAddresses.get(0));
+        if (apiAddresses.size() > 1) {
+            props.setProperty(
+                    Config.AdditionalSiadApiAddresses, String.join(",", apiAddresses.subList(1, apiAddresses.size())));
+        }
+        if (!additionalSyncDirs.isEmpty()) {
+            props.setProperty(Config.AdditionalSyncDirs,
+                    additionalSyncDirs.stream().map(Path::toString).collect(Collectors.joining(",")));
+        }
+        if (packThreshold > 0) {
+            props.setProperty(Config.PackThreshold, Long.toString(packThreshold));
+        }
+        if (chunkThreshold > 0) {
+            props.setProperty(Config.ChunkThreshold, Long.toString(chunkThreshold));
+        }
+        if (compressionThreshold > 0) {
+            props.setProperty(Config.CompressionThreshold, Long.toString(compressionThreshold));
+        }
+        props.setProperty(Config.MinCheckInterval, "1");
+        props.setProperty(Config.MaxCheckInterval, "5");
+        try (final OutputStream out = Files.newOutputStream(dataDir.resolve(App.ConfigFileName))) {
+            props.store(out, "load test");
+        }
+
+    }
+
+}
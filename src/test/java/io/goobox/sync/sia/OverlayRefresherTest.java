@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OverlayRefresherTest {
+
+    private ScheduledExecutorService executor;
+    private List<Path> refreshed;
+    private List<Boolean> notified;
+    private AtomicBoolean synced;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.refreshed = Collections.synchronizedList(new ArrayList<>());
+        this.notified = Collections.synchronizedList(new ArrayList<>());
+        this.synced = new AtomicBoolean();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void deduplicateRequests() {
+
+        final OverlayRefresher refresher = this.createRefresher(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        refresher.request(Paths.get("dir", "a"));
+        refresher.request(Paths.get("dir", "b"));
+        refresher.request(Paths.get("dir", "a"));
+        refresher.flush();
+
+        assertEquals(2, this.refreshed.size());
+        assertTrue(this.refreshed.contains(Paths.get("dir", "a")));
+        assertTrue(this.refreshed.contains(Paths.get("dir", "b")));
+        assertEquals(3, refresher.getRequests());
+        assertEquals(1, refresher.getCoalesced());
+
+    }
+
+    @Test
+    public void refreshDirectoryInsteadOfManyFiles() {
+
+        final OverlayRefresher refresher = this.createRefresher(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i <= OverlayRefresher.MaxFilesPerDirectory; i++) {
+            refresher.request(Paths.get("dir", String.valueOf(i)));
+        }
+        refresher.request(Paths.get("other", "file"));
+        refresher.flush();
+
+        assertEquals(2, this.refreshed.size());
+        assertTrue(this.refreshed.contains(Paths.get("dir")));
+        assertTrue(this.refreshed.contains(Paths.get("other", "file")));
+        assertEquals(OverlayRefresher.MaxFilesPerDirectory, refresher.getCoalesced());
+
+    }
+
+    @Test
+    public void flushAfterWindow() throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final OverlayRefresher refresher = new OverlayRefresher(
+                path -> latch.countDown(), this.synced::get, this.notified::add, false, 10, 0, TimeUnit.MILLISECONDS);
+        refresher.request(Paths.get("file"));
+        refresher.start(this.executor);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    }
+
+    @Test
+    public void notifyStateChanges() {
+
+        final OverlayRefresher refresher = this.createRefresher(TimeUnit.HOURS.toMillis(1), 0);
+        refresher.flush();
+        assertTrue(this.notified.isEmpty());
+
+        this.synced.set(true);
+        refresher.flush();
+        refresher.flush();
+        assertEquals(Collections.singletonList(true), this.notified);
+
+        this.synced.set(false);
+        refresher.flush();
+        assertEquals(2, this.notified.size());
+        assertEquals(false, this.notified.get(1));
+
+    }
+
+    @Test
+    public void debounceStateChanges() {
+
+        final OverlayRefresher refresher = this.createRefresher(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        this.synced.set(true);
+        refresher.flush();
+        this.synced.set(false);
+        refresher.flush();
+        this.synced.set(true);
+        refresher.flush();
+
+        assertTrue(this.notified.isEmpty());
+
+    }
+
+    @Test
+    public void notifyStateChangeAfterDebounce() throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final OverlayRefresher refresher = new OverlayRefresher(
+                this.refreshed::add, this.synced::get, synced -> latch.countDown(), false,
+                TimeUnit.HOURS.toMillis(1), 10, TimeUnit.MILLISECONDS);
+        refresher.start(this.executor);
+        this.synced.set(true);
+        refresher.flush();
+
+        // The refresher checks the state again by itself after the debounce period.
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    }
+
+    private OverlayRefresher createRefresher(final long window, final long debounce) {
+        final OverlayRefresher refresher = new OverlayRefresher(
+                this.refreshed::add, this.synced::get, this.notified::add, false, window, debounce, TimeUnit.MILLISECONDS);
+        refresher.start(this.executor);
+        return refresher;
+    }
+
+}
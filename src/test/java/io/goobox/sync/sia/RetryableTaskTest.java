@@ -71,6 +71,9 @@ public class RetryableTaskTest {
         assertEquals(2, task.counter);
         assertTrue(task.success);
 
+        final TestTask task2 = new TestTask();
+        assertTrue(new RetryableTask(task2, e -> true).execute());
+
     }
 
     @Test
@@ -85,6 +88,8 @@ public class RetryableTaskTest {
         assertEquals(1, task.counter);
         assertFalse(task.success);
 
+        assertFalse(new RetryableTask(new TestTask(), e -> false).execute());
+
 
     }
 
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import io.goobox.sync.sia.client.ApiException;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("unused")
+@RunWith(JMockit.class)
+public class SiaDaemonSupervisorTest {
+
+    @Mocked
+    private SiaDaemon daemon;
+
+    private Config cfg;
+    private AtomicLong now;
+    private AtomicInteger healthChecks;
+    private boolean responding;
+    private SiaDaemonSupervisor supervisor;
+
+    @Before
+    public void setUp() throws IOException {
+        this.cfg = new Config(Files.createTempFile(null, null));
+        this.now = new AtomicLong(1000);
+        this.healthChecks = new AtomicInteger();
+        this.responding = true;
+        this.supervisor = new SiaDaemonSupervisor(this.cfg, () -> {
+            this.healthChecks.incrementAndGet();
+            if (!this.responding) {
+                throw new ApiException(new ConnectException());
+            }
+        }, this.now::get, Runnable::run);
+    }
+
+    @Test
+    public void start() throws IOException {
+
+        new Expectations() {{
+            new SiaDaemon(cfg);
+            result = daemon;
+            daemon.checkAndDownloadConsensusDB();
+            daemon.start();
+            times = 1;
+            daemon.isClosed();
+            result = false;
+        }};
+
+        this.supervisor.start();
+        this.supervisor.start();
+        assertEquals(0, this.supervisor.getRestartCount());
+
+    }
+
+    @Test
+    public void startAfterClosed() throws IOException {
+
+        new Expectations() {{
+            daemon.isClosed();
+            result = true;
+            daemon.checkAndDownloadConsensusDB();
+            daemon.start();
+            times = 2;
+        }};
+
+        this.supervisor.start();
+        this.supervisor.start();
+        assertEquals(1, this.supervisor.getRestartCount());
+
+    }
+
+    @Test
+    public void startOnStarter() throws IOException {
+
+        final List<Runnable> starter = new ArrayList<>();
+        this.supervisor = new SiaDaemonSupervisor(this.cfg, this.healthChecks::incrementAndGet, this.now::get, starter::add);
+
+        new Expectations() {{
+            daemon.isClosed();
+            result = false;
+            daemon.getFatalError();
+            result = Optional.empty();
+        }};
+
+        // The daemon is prepared by the starter, and starting it again meanwhile doesn't prepare another one.
+        this.supervisor.start();
+        this.supervisor.start();
+        assertEquals(1, starter.size());
+        new Verifications() {{
+            daemon.checkAndDownloadConsensusDB();
+            times = 0;
+            daemon.start();
+            times = 0;
+        }};
+
+        // Health checks and getters don't wait for the daemon being prepared.
+        this.supervisor.run();
+        assertEquals(0, this.healthChecks.get());
+        assertEquals(0, this.supervisor.getUptimeMillis());
+        assertFalse(this.supervisor.isHealthy());
+
+        starter.remove(0).run();
+        this.supervisor.start();
+        assertTrue(starter.isEmpty());
+        this.supervisor.run();
+        assertEquals(1, this.healthChecks.get());
+        assertTrue(this.supervisor.isHealthy());
+        assertEquals(0, this.supervisor.getRestartCount());
+
+        new Verifications() {{
+            daemon.checkAndDownloadConsensusDB();
+            times = 1;
+            daemon.start();
+            times = 1;
+        }};
+
+    }
+
+    @Test
+    public void runWithoutDaemon() {
+        this.supervisor.run();
+        assertEquals(0, this.healthChecks.get());
+    }
+
+    @Test
+    public void healthy() {
+
+        new Expectations() {{
+            daemon.isClosed();
+            result = false;
+            daemon.getFatalError();
+            result = Optional.empty();
+        }};
+
+        this.supervisor.start();
+        this.now.addAndGet(5000);
+        this.supervisor.run();
+        assertEquals(1, this.healthChecks.get());
+        assertTrue(this.supervisor.isHealthy());
+        assertEquals(5000, this.supervisor.getUptimeMillis());
+
+    }
+
+    @Test
+    public void restartAfterFailedHealthChecks() throws IOException {
+
+        new Expectations() {{
+            daemon.isClosed();
+            returns(false, false, false, true, true, false);
+            daemon.isReady();
+            result = true;
+            daemon.getFatalError();
+            result = Optional.empty();
+        }};
+
+        this.supervisor.start();
+        this.responding = false;
+        for (int i = 0; i != SiaDaemonSupervisor.MaxHealthCheckFailures; i++) {
+            this.supervisor.run();
+        }
+        assertFalse(this.supervisor.isHealthy());
+        assertEquals(0, this.supervisor.getUptimeMillis());
+
+        // Starting a daemon is deferred until the restart delay elapses.
+        this.supervisor.start();
+        assertEquals(0, this.supervisor.getRestartCount());
+
+        this.now.addAndGet(App.MinSleepTime);
+        this.responding = true;
+        this.supervisor.run();
+        assertEquals(1, this.supervisor.getRestartCount());
+        assertTrue(this.supervisor.isHealthy());
+
+        new Verifications() {{
+            daemon.close();
+            times = 1;
+            daemon.start();
+            times = 2;
+        }};
+
+    }
+
+    @Test
+    public void notRestartWhileLoading() {
+
+        new Expectations() {{
+            daemon.isClosed();
+            result = false;
+            daemon.isReady();
+            result = false;
+            daemon.getFatalError();
+            result = Optional.empty();
+        }};
+
+        this.supervisor.start();
+        this.responding = false;
+        for (int i = 0; i != SiaDaemonSupervisor.MaxHealthCheckFailures * 2; i++) {
+            this.supervisor.run();
+        }
+        assertEquals(0, (int) Deencapsulation.getField(this.supervisor, "consecutiveFailures"));
+
+        this.now.addAndGet(SiaDaemonSupervisor.StartupGracePeriod);
+        this.supervisor.run();
+        assertEquals(1, (int) Deencapsulation.getField(this.supervisor, "consecutiveFailures"));
+
+        new Verifications() {{
+            daemon.close();
+            times = 0;
+        }};
+
+    }
+
+    @Test
+    public void restartAfterExitWithBackoff() {
+
+        new Expectations() {{
+            daemon.isClosed();
+            returns(true, true, true, true, true, false);
+            daemon.getFatalError();
+            result = Optional.empty();
+        }};
+
+        this.supervisor.start();
+        this.supervisor.run();
+        this.now.addAndGet(App.MinSleepTime);
+        this.supervisor.run();
+        assertEquals(1, this.supervisor.getRestartCount());
+
+        // The daemon has exited again, and the second restart waits twice as long as the first one.
+        this.now.addAndGet(App.MinSleepTime);
+        this.supervisor.run();
+        assertEquals(1, this.supervisor.getRestartCount());
+        this.now.addAndGet(App.MinSleepTime);
+        this.supervisor.run();
+        assertEquals(2, this.supervisor.getRestartCount());
+
+    }
+
+    @Test
+    public void restartAfterFatalError() {
+
+        new Expectations() {{
+            daemon.isClosed();
+            returns(false, true, false);
+            daemon.getFatalError();
+            returns(Optional.of("panic: test"), Optional.empty());
+        }};
+
+        this.supervisor.start();
+        this.supervisor.run();
+        assertEquals(0, this.healthChecks.get());
+        this.now.addAndGet(App.MinSleepTime);
+        this.supervisor.run();
+        assertEquals(1, this.supervisor.getRestartCount());
+
+        new Verifications() {{
+            daemon.close();
+            times = 1;
+        }};
+
+    }
+
+    @Test
+    public void close() {
+
+        this.supervisor.start();
+        this.supervisor.close();
+        this.supervisor.run();
+        assertEquals(0, this.healthChecks.get());
+
+        new Verifications() {{
+            daemon.close();
+            times = 1;
+        }};
+
+    }
+
+}
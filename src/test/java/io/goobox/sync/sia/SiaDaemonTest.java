@@ -369,6 +369,24 @@ public class SiaDaemonTest {
 
     }
 
+    @Test
+    public void parseOutput() {
+
+        daemon.parseOutput("Loading...");
+        assertFalse(daemon.isReady());
+        assertFalse(daemon.getFatalError().isPresent());
+
+        daemon.parseOutput("Finished loading in 3.2 seconds");
+        assertTrue(daemon.isReady());
+
+        daemon.parseOutput("panic: runtime error: invalid memory address or nil pointer dereference");
+        daemon.parseOutput("fatal error: out of memory");
+        assertEquals(
+                Optional.of("panic: runtime error: invalid memory address or nil pointer dereference"),
+                daemon.getFatalError());
+
+    }
+
     @SuppressWarnings({"ConstantConditions", "unchecked"})
     @Test
     public void getCheckSum() throws IOException {
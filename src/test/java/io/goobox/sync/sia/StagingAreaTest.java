@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import io.goobox.sync.sia.db.CloudFile;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.mocks.DBMock;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JMockit.class)
+public class StagingAreaTest {
+
+    private Path tmpDir;
+    private Config cfg;
+    private StagingArea staging;
+
+    @Before
+    public void setUp() throws IOException {
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        this.cfg.setSyncDir(this.tmpDir);
+        this.staging = new StagingArea(this.cfg);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Test
+    public void defaultDirectory() {
+        assertEquals(this.tmpDir.resolve(Config.DefaultStagingDirName), this.staging.getDirectory());
+        assertTrue(this.staging.contains(this.staging.getDirectory().resolve("some-file")));
+        assertFalse(this.staging.contains(this.tmpDir.resolve("some-file")));
+    }
+
+    @Test
+    public void configuredDirectory() throws IOException {
+        final Path dir = this.tmpDir.resolve("staging");
+        this.cfg.setStagingDir(dir);
+
+        final Path tempPath = this.staging.allocate(0);
+        assertEquals(dir, tempPath.getParent());
+    }
+
+    @Test
+    public void allocate() throws IOException {
+        final Path tempPath = this.staging.allocate(1234L);
+        assertTrue(Files.exists(tempPath));
+        assertEquals(this.staging.getDirectory(), tempPath.getParent());
+    }
+
+    @Test(expected = IOException.class)
+    public void allocateTooLargeFile() throws IOException {
+        this.staging.allocate(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void allocateConsidersReservedSpace() throws IOException {
+        this.staging.allocate(0);
+        final long usable = Files.getFileStore(this.staging.getDirectory()).getUsableSpace();
+        this.staging.allocate(usable / 2);
+        try {
+            this.staging.allocate(usable / 2 + usable / 4);
+            throw new AssertionError("allocate didn't throw any exceptions");
+        } catch (final IOException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void reservedBytes() throws IOException {
+        final Path committed = this.staging.allocate(10);
+        final Path released = this.staging.allocate(20);
+        final Path trimmed = this.staging.allocate(30);
+        assertEquals(60, this.staging.getReservedBytes());
+
+        this.staging.commit(committed, this.tmpDir.resolve("file"));
+        assertEquals(50, this.staging.getReservedBytes());
+        this.staging.release(released);
+        assertEquals(30, this.staging.getReservedBytes());
+        this.staging.release(released);
+        assertEquals(30, this.staging.getReservedBytes());
+
+        Files.write(trimmed, new byte[5]);
+        this.staging.trim(trimmed);
+        assertEquals(5, this.staging.getReservedBytes());
+        this.staging.release(trimmed);
+        assertEquals(0, this.staging.getReservedBytes());
+    }
+
+    @Test
+    public void commit() throws IOException {
+        final byte[] data = "test data".getBytes();
+        final Path tempPath = this.staging.allocate(data.length);
+        Files.write(tempPath, data);
+
+        final Path localPath = this.tmpDir.resolve("file");
+        this.staging.commit(tempPath, localPath);
+        assertFalse(Files.exists(tempPath));
+        assertArrayEquals(data, Files.readAllBytes(localPath));
+    }
+
+    @Test
+    public void commitReplacesExistingFile() throws IOException {
+        final byte[] data = "test data".getBytes();
+        final Path tempPath = this.staging.allocate(data.length);
+        Files.write(tempPath, data);
+
+        final Path localPath = this.tmpDir.resolve("file");
+        Files.write(localPath, "old data".getBytes());
+        this.staging.commit(tempPath, localPath);
+        assertArrayEquals(data, Files.readAllBytes(localPath));
+    }
+
+    @Test
+    public void release() throws IOException {
+        final Path tempPath = this.staging.allocate(1234L);
+        this.staging.release(tempPath);
+        assertFalse(Files.exists(tempPath));
+    }
+
+    @Test
+    public void cleanUp() throws IOException {
+
+        final Path orphan = this.staging.allocate(10);
+        Files.write(orphan, "orphan".getBytes());
+
+        final Path downloading = this.staging.allocate(10);
+        final Path cloudPath = Paths.get("test-user", "Goobox", "file");
+        DB.addForDownload(new CloudFile() {
+            @NotNull
+            @Override
+            public String getName() {
+                return "file";
+            }
+
+            @NotNull
+            @Override
+            public Path getCloudPath() {
+                return cloudPath;
+            }
+
+            @Override
+            public long getFileSize() {
+                return 10;
+            }
+        }, this.tmpDir.resolve("file"), downloading);
+        DB.setDownloading("file");
+
+        assertEquals(1, this.staging.cleanUp());
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(downloading));
+
+    }
+
+    @Test
+    public void cleanUpCreatesDirectory() throws IOException {
+        assertEquals(0, this.staging.cleanUp());
+        assertTrue(Files.isDirectory(this.staging.getDirectory()));
+    }
+
+    @Test
+    public void getUsage() throws IOException {
+        assertEquals(0, this.staging.getUsage());
+        Files.write(this.staging.allocate(3), new byte[3]);
+        Files.write(this.staging.allocate(5), new byte[5]);
+        assertEquals(8, this.staging.getUsage());
+    }
+
+}
@@ -58,7 +58,7 @@ public class StartSiaDaemonTaskTest {
     @Mocked
     private WaitContractsTask waitContractsTask;
 
-    private final long DefaultSleepTime = App.DefaultSleepTime;
+    private final long MinSleepTime = App.MinSleepTime;
     private final int MaxRetry = App.MaxRetry;
 
     @Before
@@ -89,7 +89,7 @@ public class StartSiaDaemonTaskTest {
 
             app.startSiaDaemon();
 
-            Thread.sleep(DefaultSleepTime);
+            Thread.sleep(MinSleepTime);
 
             final GetWalletInfoTask getWalletInfoTask = new GetWalletInfoTask(ctx);
             result = getWalletInfoTask;
@@ -127,7 +127,7 @@ public class StartSiaDaemonTaskTest {
             app.startSiaDaemon();
             times = MaxRetry + 1;
 
-            Thread.sleep(DefaultSleepTime);
+            Thread.sleep(anyLong);
             times = MaxRetry + 1;
 
             final GetWalletInfoTask getWalletInfoTask = new GetWalletInfoTask(ctx);
@@ -157,7 +157,7 @@ public class StartSiaDaemonTaskTest {
             result = ctx;
 
             app.startSiaDaemon();
-            Thread.sleep(DefaultSleepTime);
+            Thread.sleep(MinSleepTime);
 
             final GetWalletInfoTask getWalletInfoTask = new GetWalletInfoTask(ctx);
             result = getWalletInfoTask;
@@ -177,7 +177,7 @@ public class StartSiaDaemonTaskTest {
         final Context ctx = app.getContext();
         new Expectations() {{
 
-            Thread.sleep(DefaultSleepTime);
+            Thread.sleep(MinSleepTime);
 
             App.getInstance();
             result = Optional.of(app);
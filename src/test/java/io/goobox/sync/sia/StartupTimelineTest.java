@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import org.junit.Test;
+
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void reached() {
+
+        final AtomicLong now = new AtomicLong(1500);
+        final StartupTimeline timeline = new StartupTimeline(1000, now::get);
+        assertEquals(OptionalLong.empty(), timeline.getElapsedMillis(StartupTimeline.Milestone.firstUpload));
+
+        timeline.reached(StartupTimeline.Milestone.localScan);
+        now.set(3000);
+        timeline.reached(StartupTimeline.Milestone.firstUpload);
+        now.set(5000);
+        timeline.reached(StartupTimeline.Milestone.firstUpload);
+
+        assertEquals(OptionalLong.of(500), timeline.getElapsedMillis(StartupTimeline.Milestone.localScan));
+        assertEquals(OptionalLong.empty(), timeline.getElapsedMillis(StartupTimeline.Milestone.daemonReady));
+        assertEquals(OptionalLong.of(2000), timeline.getElapsedMillis(StartupTimeline.Milestone.firstUpload));
+
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransferMonitorTest {
+
+    private static final long Second = TimeUnit.SECONDS.toNanos(1);
+
+    private List<Event> events;
+    private TransferMonitor monitor;
+
+    @Before
+    public void setUp() {
+        this.events = new ArrayList<>();
+        this.monitor = new TransferMonitor(this.events::add, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void reportProgress() {
+
+        this.monitor.update(TransferMonitor.Direction.upload, "file", 0, 1000, 0);
+        this.monitor.update(TransferMonitor.Direction.upload, "file", 100, 1000, Second);
+
+        final List<JsonObject> progress = this.argsOf("transferProgress");
+        assertEquals(2, progress.size());
+        final JsonObject last = progress.get(1);
+        assertEquals("upload", last.get("direction").getAsString());
+        assertEquals("file", last.get("name").getAsString());
+        assertEquals(100, last.get("bytesDone").getAsLong());
+        assertEquals(1000, last.get("bytesTotal").getAsLong());
+        assertEquals(100, last.get("rate").getAsLong());
+        assertEquals(9, last.get("eta").getAsLong());
+
+        assertEquals(-1, progress.get(0).get("eta").getAsLong());
+        assertEquals(100, this.monitor.getTransferredBytes(TransferMonitor.Direction.upload));
+        assertEquals(1, this.monitor.getActiveTransfers(TransferMonitor.Direction.upload));
+
+    }
+
+    @Test
+    public void sampleProgress() {
+
+        this.monitor.update(TransferMonitor.Direction.download, "file", 0, 1000, 0);
+        this.monitor.update(TransferMonitor.Direction.download, "file", 10, 1000, Second / 2);
+        this.monitor.update(TransferMonitor.Direction.download, "file", 20, 1000, Second);
+
+        final List<JsonObject> progress = this.argsOf("transferProgress");
+        assertEquals(2, progress.size());
+        assertEquals(20, progress.get(1).get("bytesDone").getAsLong());
+        assertEquals(20, this.monitor.getTransferredBytes(TransferMonitor.Direction.download));
+
+    }
+
+    @Test
+    public void alwaysReportCompletion() {
+
+        this.monitor.update(TransferMonitor.Direction.download, "file", 0, 1000, 0);
+        this.monitor.update(TransferMonitor.Direction.download, "file", 1000, 1000, 1);
+
+        final List<JsonObject> progress = this.argsOf("transferProgress");
+        assertEquals(2, progress.size());
+        assertEquals(1000, progress.get(1).get("bytesDone").getAsLong());
+        assertEquals(0, progress.get(1).get("eta").getAsLong());
+        assertEquals(0, this.monitor.getActiveTransfers(TransferMonitor.Direction.download));
+
+    }
+
+    @Test
+    public void limitEventsPerInterval() {
+
+        for (int i = 0; i <= TransferMonitor.MaxEventsPerInterval; i++) {
+            this.monitor.update(TransferMonitor.Direction.upload, String.valueOf(i), 0, 1000, 0);
+        }
+        assertEquals(TransferMonitor.MaxEventsPerInterval, this.argsOf("transferProgress").size());
+
+        // The skipped file is reported in the next interval.
+        this.monitor.update(TransferMonitor.Direction.upload, String.valueOf(TransferMonitor.MaxEventsPerInterval), 10, 1000, Second);
+        assertEquals(TransferMonitor.MaxEventsPerInterval + 1, this.argsOf("transferProgress").size());
+
+    }
+
+    @Test
+    public void reportThroughput() {
+
+        this.monitor.update(TransferMonitor.Direction.upload, "a", 0, 1000, 0);
+        this.monitor.update(TransferMonitor.Direction.download, "b", 0, 1000, 0);
+        this.monitor.update(TransferMonitor.Direction.upload, "a", 200, 1000, Second);
+        this.monitor.update(TransferMonitor.Direction.download, "b", 300, 1000, Second);
+
+        final List<JsonObject> throughput = this.argsOf("throughput");
+        assertEquals(2, throughput.size());
+        final JsonObject last = throughput.get(1);
+        assertEquals(200, last.get("uploadRate").getAsLong());
+        assertEquals(0, last.get("downloadRate").getAsLong());
+        assertEquals(1, last.get("uploads").getAsInt());
+        assertEquals(1, last.get("downloads").getAsInt());
+
+    }
+
+    @Test
+    public void removeStaleTransfers() {
+
+        this.monitor.update(TransferMonitor.Direction.upload, "stale", 0, 1000, 0);
+        this.monitor.update(
+                TransferMonitor.Direction.upload, "file", 0, 1000,
+                TimeUnit.MILLISECONDS.toNanos(TransferMonitor.StaleTimeout) + Second);
+        assertEquals(1, this.monitor.getActiveTransfers(TransferMonitor.Direction.upload));
+
+    }
+
+    @Test
+    public void remove() {
+        this.monitor.update(TransferMonitor.Direction.download, "file", 0, 1000, 0);
+        this.monitor.remove(TransferMonitor.Direction.download, "file");
+        assertEquals(0, this.monitor.getActiveTransfers(TransferMonitor.Direction.download));
+    }
+
+    @Test
+    public void coalesceKeys() {
+
+        final TransferEvent upload = new TransferEvent(TransferMonitor.Direction.upload, "file", 0, 0, 0, 0);
+        final TransferEvent download = new TransferEvent(TransferMonitor.Direction.download, "file", 0, 0, 0, 0);
+        assertTrue(!upload.getCoalesceKey().equals(download.getCoalesceKey()));
+        assertEquals(upload.getCoalesceKey(), new TransferEvent(TransferMonitor.Direction.upload, "file", 1, 1, 1, 1).getCoalesceKey());
+        assertEquals("throughput", new ThroughputEvent(0, 0, 0, 0).getCoalesceKey());
+
+    }
+
+    private List<JsonObject> argsOf(final String method) {
+        final Gson gson = new Gson();
+        return this.events.stream()
+                .map(e -> gson.fromJson(e.toJson(), JsonObject.class))
+                .filter(json -> json.get("method").getAsString().equals(method))
+                .map(json -> json.getAsJsonObject("args"))
+                .collect(Collectors.toList());
+    }
+
+}
@@ -18,7 +18,9 @@
 package io.goobox.sync.sia.db;
 
 import mockit.Deencapsulation;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.dizitart.no2.Document;
 import org.dizitart.no2.Nitrite;
 import org.dizitart.no2.objects.ObjectRepository;
 import org.jetbrains.annotations.NotNull;
@@ -43,11 +45,10 @@ public class SyncFileTest {
 
     private String name;
     private Path cloudPath;
-    private Long cloudSize;
-    private Path localPath;
-    private Long localModificationTime;
-    private Long localSize;
-    private String localDigest;
+    private long cloudSize;
+    private long localModificationTime;
+    private long localSize;
+    private byte[] localDigest;
     private Path temporaryPath;
     private SyncState state;
 
@@ -56,10 +57,9 @@ public class SyncFileTest {
         name = String.format("file-%x", System.currentTimeMillis());
         cloudPath = Paths.get(String.format("cloud-%x", System.currentTimeMillis()));
         cloudSize = System.currentTimeMillis();
-        localPath = Paths.get(String.format("local-%x", System.currentTimeMillis())).toAbsolutePath();
         localModificationTime = System.currentTimeMillis();
         localSize = System.currentTimeMillis();
-        localDigest = String.format("%x", System.currentTimeMillis());
+        localDigest = DigestUtils.sha512(name);
         temporaryPath = Paths.get(String.format("temp-%x", System.currentTimeMillis())).toAbsolutePath();
         state = SyncState.SYNCED;
     }
@@ -71,7 +71,7 @@ public class SyncFileTest {
         syncFile.setName(name);
         syncFile.setCloudPath(cloudPath);
         Deencapsulation.setField(syncFile, "cloudSize", cloudSize);
-        syncFile.setLocalPath(localPath);
+        syncFile.setLocalPath(true);
         Deencapsulation.setField(syncFile, "localModificationTime", localModificationTime);
         Deencapsulation.setField(syncFile, "localSize", localSize);
         Deencapsulation.setField(syncFile, "localDigest", localDigest);
@@ -92,6 +92,52 @@ public class SyncFileTest {
 
     }
 
+    @Test
+    public void writeOmitsAbsentValues() {
+
+        final SyncFile syncFile = new SyncFile();
+        syncFile.setName(name);
+        syncFile.setState(state);
+
+        final Document doc = syncFile.write(null);
+        assertEquals(name, doc.get("name"));
+        assertEquals(state.name(), doc.get("state"));
+        assertEquals("", doc.get("cloudPath"));
+        assertEquals(3, doc.size());
+
+    }
+
+    @Test
+    public void readDocumentOfReflectionBasedMapper() {
+
+        // Document the reflection based mapper created from a SyncFile which had a Path localPath,
+        // boxed numbers, and a hex digest.
+        final Document doc = new Document();
+        doc.put("name", name);
+        doc.put("cloudPath", cloudPath.toString());
+        doc.put("cloudSize", 1234);
+        doc.put("localPath", Paths.get(name).toAbsolutePath().toUri().toString());
+        doc.put("localModificationTime", localModificationTime);
+        doc.put("localSize", localSize);
+        doc.put("localDigest", Hex.encodeHexString(localDigest));
+        doc.put("temporaryPath", temporaryPath.toUri().toString());
+        doc.put("state", state.name());
+
+        final SyncFile syncFile = new SyncFile();
+        syncFile.read(null, doc);
+
+        assertEquals(name, syncFile.getName());
+        assertEquals(cloudPath, syncFile.getCloudPath().get());
+        assertEquals(1234L, (long) syncFile.getCloudSize().get());
+        assertTrue(syncFile.hasLocalPath());
+        assertEquals(localModificationTime, (long) syncFile.getLocalModificationTime().get());
+        assertEquals(localSize, (long) syncFile.getLocalSize().get());
+        assertTrue(syncFile.matchesLocalDigest(localDigest));
+        assertEquals(temporaryPath, syncFile.getTemporaryPath().get());
+        assertEquals(state, syncFile.getState());
+
+    }
+
     private void checkDeserializeFile(final SyncFile syncFile) throws IOException {
 
         final File tmpFile = Files.createTempFile(null, null).toFile();
@@ -146,6 +192,24 @@ public class SyncFileTest {
 
     }
 
+    @Test
+    public void getCloudCreationTimeAfterSettingCloudPath() {
+
+        final SyncFile syncFile = new SyncFile();
+        syncFile.setCloudPath(Paths.get("cloud", "file"));
+        assertFalse(syncFile.getCloudCreationTime().isPresent());
+
+        syncFile.setCloudPath(Paths.get("cloud", "file", "1234"));
+        assertEquals((Long) 1234L, syncFile.getCloudCreationTime().get());
+
+        final SyncFile read = new SyncFile();
+        read.read(null, syncFile.write(null));
+        assertEquals((Long) 1234L, read.getCloudCreationTime().get());
+        read.read(null, new SyncFile().write(null));
+        assertFalse(read.getCloudCreationTime().isPresent());
+
+    }
+
     @Test
     public void setCloudData() {
 
@@ -174,7 +238,7 @@ public class SyncFileTest {
 
         assertEquals(cloudPath, syncFile.getCloudPath().get());
         assertEquals(now, syncFile.getCloudCreationTime().get());
-        assertEquals(cloudSize, syncFile.getCloudSize().get());
+        assertEquals(cloudSize, (long) syncFile.getCloudSize().get());
 
     }
 
@@ -189,12 +253,14 @@ public class SyncFileTest {
             final SyncFile syncFile = new SyncFile();
             syncFile.setLocalData(localPath);
 
-            assertEquals(localPath, syncFile.getLocalPath().get());
+            assertTrue(syncFile.hasLocalPath());
             assertEquals((Long) Files.getLastModifiedTime(localPath).toMillis(), syncFile.getLocalModificationTime().get());
             assertEquals((Long) Files.size(localPath), syncFile.getLocalSize().get());
             try (final InputStream in = new FileInputStream(localPath.toFile())) {
-                final String digest = DigestUtils.sha512Hex(in);
-                assertEquals(digest, syncFile.getLocalDigest().get());
+                final byte[] digest = DigestUtils.sha512(in);
+                assertEquals(Hex.encodeHexString(digest), syncFile.getLocalDigest().get());
+                assertTrue(syncFile.matchesLocalDigest(digest));
+                assertFalse(syncFile.matchesLocalDigest(DigestUtils.sha512("")));
             }
         } finally {
             Files.deleteIfExists(localPath);
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import io.goobox.sync.sia.mocks.DBMock;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JMockit.class)
+public class SyncStateCacheTest {
+
+    private Path tmpDir;
+    private String name;
+    private Path localPath;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.name = Paths.get("foo", "bar", "file").toString();
+        this.localPath = this.tmpDir.resolve(this.name);
+        Files.createDirectories(this.localPath.getParent());
+        Files.createFile(this.localPath);
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Test
+    public void stateOfFile() throws IOException {
+
+        final SyncStateCache cache = DB.getStateCache();
+        assertFalse(cache.getState(this.name).isPresent());
+
+        DB.addNewFile(this.name, this.localPath);
+        assertEquals(SyncState.MODIFIED, cache.getState(this.name).get());
+
+        DB.setForUpload(this.name, this.localPath, Paths.get("cloud", this.name));
+        DB.setUploading(this.name);
+        assertEquals(SyncState.UPLOADING, cache.getState(this.name).get());
+
+        DB.setUploadFailed(this.name);
+        assertEquals(SyncState.UPLOAD_FAILED, cache.getState(this.name).get());
+
+        DB.remove(this.name);
+        assertFalse(cache.getState(this.name).isPresent());
+
+    }
+
+    @Test
+    public void summaryOfDirectories() throws IOException {
+
+        final SyncStateCache cache = DB.getStateCache();
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, Paths.get("cloud", this.name));
+        DB.setUploading(this.name);
+
+        for (final String dir : new String[]{"", "foo", Paths.get("foo", "bar").toString()}) {
+            final SyncStateCache.Summary summary = cache.getDirectory(dir).get();
+            assertTrue(dir, summary.isSynchronizing());
+            assertFalse(dir, summary.isFailed());
+            assertFalse(dir, summary.isSynced());
+        }
+        assertFalse(cache.getDirectory("bar").isPresent());
+
+        DB.setUploadFailed(this.name);
+        assertTrue(cache.getDirectory("foo").get().isFailed());
+        assertFalse(cache.getDirectory("foo").get().isSynchronizing());
+
+        DB.remove(this.name);
+        assertTrue(cache.getDirectory("").get().isSynced());
+        assertTrue(cache.getDirectory("foo").get().isSynced());
+
+    }
+
+    @Test
+    public void summaryOfDirectoryWithSeveralFiles() throws IOException {
+
+        final String other = Paths.get("foo", "other").toString();
+        final Path otherPath = this.tmpDir.resolve(other);
+        Files.createFile(otherPath);
+
+        final SyncStateCache cache = DB.getStateCache();
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, Paths.get("cloud", this.name));
+        DB.setUploadFailed(this.name);
+        DB.addNewFile(other, otherPath);
+        DB.setForUpload(other, otherPath, Paths.get("cloud", other));
+        DB.setUploading(other);
+
+        final SyncStateCache.Summary foo = cache.getDirectory("foo").get();
+        assertTrue(foo.isFailed());
+        assertTrue(foo.isSynchronizing());
+        assertFalse(cache.getDirectory(Paths.get("foo", "bar").toString()).get().isSynchronizing());
+
+        DB.remove(other);
+        assertTrue(foo.isFailed());
+        assertFalse(foo.isSynchronizing());
+        assertFalse(foo.isSynced());
+
+    }
+
+    @Test
+    public void reloadWhenDBIsOpened() throws IOException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.close();
+        // DBMock opens a new empty DB, and the cache is reloaded from it.
+        assertEquals(0, DB.size());
+        assertFalse(DB.getStateCache().getState(this.name).isPresent());
+
+    }
+
+}
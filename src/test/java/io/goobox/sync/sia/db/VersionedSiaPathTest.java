@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.db;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+public class VersionedSiaPathTest {
+
+    @Test
+    public void getCreationTime() {
+        assertEquals(1234567890L, VersionedSiaPath.getCreationTime("user/Goobox/foo/bar.txt/1234567890"));
+        assertEquals(1234567890L, VersionedSiaPath.getCreationTime(Paths.get("user", "foo", "1234567890").toString()));
+        assertEquals(0L, VersionedSiaPath.getCreationTime("user/Goobox/foo/0"));
+        assertEquals(Long.MAX_VALUE, VersionedSiaPath.getCreationTime("foo/" + Long.MAX_VALUE));
+        assertEquals(1234L, VersionedSiaPath.getCreationTime("1234"));
+    }
+
+    @Test
+    public void getCreationTimeOfPathsWithoutCreationTime() {
+        for (final String path : new String[]{
+                "", "user/Goobox/foo/bar.txt", "user/Goobox/foo/", "user/Goobox/foo/12a4", "user/Goobox/foo/+1234",
+                "user/Goobox/foo/-1234", "user/Goobox/foo/ 1234", "user/Goobox/foo/99999999999999999999",
+                "user/Goobox/foo/9223372036854775808"}) {
+            assertEquals(path, VersionedSiaPath.NoCreationTime, VersionedSiaPath.getCreationTime(path));
+        }
+    }
+
+    @Test
+    public void parseCreationTime() {
+        final String path = "user/Goobox/foo/1234/bar";
+        assertEquals(1234L, VersionedSiaPath.parseCreationTime(path, 16, 20));
+        assertEquals(VersionedSiaPath.NoCreationTime, VersionedSiaPath.parseCreationTime(path, 16, 16));
+        assertEquals(VersionedSiaPath.NoCreationTime, VersionedSiaPath.parseCreationTime(path, 16, 21));
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+
+    @Test
+    public void record() {
+
+        final Histogram histogram = new Histogram();
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        histogram.record(10);
+
+        assertEquals(4, histogram.getCount());
+        assertEquals(16, histogram.getSum());
+        assertEquals(10, histogram.getMax());
+        assertEquals(4.0, histogram.getMean(), 0);
+
+    }
+
+    @Test
+    public void recordNegativeValue() {
+
+        final Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+
+    }
+
+    @Test
+    public void getPercentile() {
+
+        final Histogram histogram = new Histogram();
+        for (int i = 0; i != 99; i++) {
+            histogram.record(5);
+        }
+        histogram.record(1000);
+
+        // 5 falls in [4, 8).
+        assertEquals(7, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+
+    }
+
+    @Test
+    public void getPercentileOfEmptyHistogram() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getInvalidPercentile() {
+        new Histogram().getPercentile(0);
+    }
+
+    @Test
+    public void reset() {
+
+        final Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+
+    }
+
+    @Test
+    public void bucketOf() {
+        assertEquals(0, Histogram.bucketOf(0));
+        assertEquals(0, Histogram.bucketOf(1));
+        assertEquals(1, Histogram.bucketOf(2));
+        assertEquals(1, Histogram.bucketOf(3));
+        assertEquals(10, Histogram.bucketOf(1024));
+        assertEquals(62, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void counter() throws IOException {
+
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Counter counter = registry.counter("test_total", "test counter", "type", "a");
+        counter.increment();
+        counter.add(2);
+        counter.add(-1);
+        assertSame(counter, registry.counter("test_total", "test counter", "type", "a"));
+        registry.counter("test_total", "test counter", "type", "b").increment();
+
+        assertEquals("# HELP test_total test counter\n" +
+                "# TYPE test_total counter\n" +
+                "test_total{type=\"a\"} 3\n" +
+                "test_total{type=\"b\"} 1\n", write(registry));
+
+    }
+
+    @Test
+    public void functionCounterAndGauge() throws IOException {
+
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("bytes_total", "bytes", () -> 100, "direction", "upload");
+        registry.gauge("queue_depth", "queue", () -> 5);
+        registry.gauge("queue_depth", "queue", () -> 7);
+
+        assertEquals("# HELP bytes_total bytes\n" +
+                "# TYPE bytes_total counter\n" +
+                "bytes_total{direction=\"upload\"} 100\n" +
+                "# HELP queue_depth queue\n" +
+                "# TYPE queue_depth gauge\n" +
+                "queue_depth 7\n", write(registry));
+
+    }
+
+    @Test
+    public void latency() throws IOException {
+
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Histogram histogram = registry.latency("latency_seconds", "latency", "op", "get");
+        histogram.record(100);
+        histogram.record(1500);
+        histogram.record(1L << 40);
+
+        final String res = write(registry);
+        assertTrue(res, res.contains("# TYPE latency_seconds histogram\n"));
+        // 100 ns is merged into the first bucket with 1500 ns, and 2^40 ns only falls in the +Inf bucket.
+        assertTrue(res, res.contains("latency_seconds_bucket{op=\"get\",le=\"2.048E-6\"} 2\n"));
+        assertTrue(res, res.contains("latency_seconds_bucket{op=\"get\",le=\"4.096E-6\"} 2\n"));
+        assertTrue(res, res.contains("latency_seconds_bucket{op=\"get\",le=\"68.719476736\"} 2\n"));
+        assertTrue(res, res.contains("latency_seconds_bucket{op=\"get\",le=\"+Inf\"} 3\n"));
+        assertTrue(res, res.contains("latency_seconds_count{op=\"get\"} 3\n"));
+        assertTrue(res, res.contains(String.format("latency_seconds_sum{op=\"get\"} %s\n", ((1L << 40) + 1600) / 1e9)));
+        assertEquals(
+                MetricsRegistry.MaxLatencyBucket - MetricsRegistry.MinLatencyBucket + 2,
+                res.split("latency_seconds_bucket", -1).length - 1);
+
+    }
+
+    @Test
+    public void escapeLabelValues() {
+        assertEquals("{path=\"a\\\\b\\\"c\\nd\"}", MetricsRegistry.renderLabels("path", "a\\b\"c\nd"));
+        assertEquals("", MetricsRegistry.renderLabels());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddLabels() {
+        new MetricsRegistry().counter("test_total", "test", "type");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidName() {
+        new MetricsRegistry().counter("test-total", "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void conflictingTypes() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test", "test");
+        registry.gauge("test", "test", () -> 0);
+    }
+
+    private static String write(final MetricsRegistry registry) throws IOException {
+        final StringWriter writer = new StringWriter();
+        registry.write(writer);
+        return writer.toString();
+    }
+
+}
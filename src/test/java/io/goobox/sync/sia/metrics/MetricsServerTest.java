@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.metrics;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricsServerTest {
+
+    private MetricsRegistry registry;
+    private MetricsServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.registry = new MetricsRegistry();
+        this.server = new MetricsServer(this.registry, 0);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    @Test
+    public void serveMetrics() throws IOException {
+
+        this.registry.counter("test_total", "test").add(12);
+
+        final HttpURLConnection conn = this.open(MetricsServer.Path);
+        assertEquals(200, conn.getResponseCode());
+        assertEquals(MetricsServer.ContentType, conn.getContentType());
+        try (final InputStream in = conn.getInputStream()) {
+            assertEquals(
+                    "# HELP test_total test\n# TYPE test_total counter\ntest_total 12\n",
+                    IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+
+    }
+
+    @Test
+    public void rejectOtherMethods() throws IOException {
+
+        final HttpURLConnection conn = this.open(MetricsServer.Path);
+        conn.setRequestMethod("POST");
+        assertEquals(405, conn.getResponseCode());
+
+    }
+
+    @Test
+    public void notFound() throws IOException {
+        assertEquals(404, this.open("/").getResponseCode());
+    }
+
+    private HttpURLConnection open(final String path) throws IOException {
+        final URL url = new URL(String.format("http://127.0.0.1:%d%s", this.server.getPort(), path));
+        return (HttpURLConnection) url.openConnection();
+    }
+
+}
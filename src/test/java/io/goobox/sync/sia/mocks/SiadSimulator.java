@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.mocks;
+
+import io.goobox.sync.sia.client.JSON;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.client.api.model.InlineResponse200;
+import io.goobox.sync.sia.client.api.model.InlineResponse20010;
+import io.goobox.sync.sia.client.api.model.InlineResponse20010Downloads;
+import io.goobox.sync.sia.client.api.model.InlineResponse20011;
+import io.goobox.sync.sia.client.api.model.InlineResponse20012;
+import io.goobox.sync.sia.client.api.model.InlineResponse20013;
+import io.goobox.sync.sia.client.api.model.InlineResponse20014;
+import io.goobox.sync.sia.client.api.model.InlineResponse20015;
+import io.goobox.sync.sia.client.api.model.InlineResponse2008;
+import io.goobox.sync.sia.client.api.model.InlineResponse2008Financialmetrics;
+import io.goobox.sync.sia.client.api.model.InlineResponse2008Settings;
+import io.goobox.sync.sia.client.api.model.InlineResponse2008SettingsAllowance;
+import io.goobox.sync.sia.client.api.model.InlineResponse2009;
+import io.goobox.sync.sia.client.api.model.InlineResponse2009Contracts;
+import io.goobox.sync.sia.client.api.model.StandardError;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Simulated sia daemon serving the endpoints the app uses.
+ * <p>
+ * Wallet, renter settings, consensus and contracts endpoints report a ready daemon, i.e. an unlocked wallet, a synced
+ * consensus DB and enough contracts. Files endpoints keep an in-memory list of cloud files: uploads and downloads
+ * progress linearly over the configured durations according to the given clock, and downloads write the contents to
+ * their destinations when they are requested. The contents of uploaded files are kept so that they are downloaded
+ * as uploaded, and preloaded files consist of zeros; synchronous downloads can read a range of a file. Files can be
+ * renamed.
+ * <p>
+ * Each request is delayed by the configured latency, and requests to files endpoints fail with status 500 at the
+ * configured rate. Failures are drawn from a random generator with the given seed so that runs with the same seed and
+ * the same request order are reproducible.
+ */
+public class SiadSimulator extends Dispatcher implements Closeable {
+
+    /**
+     * The number of contracts the simulated renter has.
+     */
+    public static final int Contracts = 50;
+
+    /**
+     * Creation time of preloaded cloud files.
+     */
+    public static final long PreloadedCreationTime = 1500000000000L;
+
+    private static final String Hastings = "1000000000000000000000000000";
+
+    @NotNull
+    private final MockWebServer server = new MockWebServer();
+    @NotNull
+    private final JSON json = new JSON();
+    @NotNull
+    private final String userName;
+    @NotNull
+    private final LongSupplier clock;
+    @NotNull
+    private final Random random;
+
+    private volatile long latency;
+    private volatile double failureRate;
+    private volatile long uploadDuration;
+    private volatile long downloadDuration;
+
+    /**
+     * Key: sia path, Value: the file.
+     */
+    private final Map<String, CloudFile> files = new ConcurrentSkipListMap<>();
+    private final List<Download> downloads = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Key: method and endpoint, e.g. "GET /renter/files", Value: the number of requests.
+     */
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
+    /**
+     * Creates a simulator which uses the system clock.
+     *
+     * @param userName of the app, which is the first component of sia paths of preloaded files.
+     * @param seed     of failure injection.
+     */
+    public SiadSimulator(@NotNull final String userName, final long seed) {
+        this(userName, seed, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a simulator.
+     *
+     * @param userName of the app, which is the first component of sia paths of preloaded files.
+     * @param seed     of failure injection.
+     * @param clock    returning the current time in milliseconds, which drives uploads and downloads.
+     */
+    public SiadSimulator(@NotNull final String userName, final long seed, @NotNull final LongSupplier clock) {
+        this.userName = userName;
+        this.random = new Random(seed);
+        this.clock = clock;
+        this.server.setDispatcher(this);
+    }
+
+    public void start() throws IOException {
+        this.server.start();
+    }
+
+    /**
+     * Returns the address the simulator listens on, which can be set to siad-api-address.
+     *
+     * @return host:port.
+     */
+    @NotNull
+    public String getAddress() {
+        return String.format("%s:%d", this.server.getHostName(), this.server.getPort());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.server.shutdown();
+    }
+
+    public void setLatency(final long latency, @NotNull final TimeUnit unit) {
+        this.latency = unit.toMillis(latency);
+    }
+
+    /**
+     * Sets the rate of requests to files endpoints which fail.
+     *
+     * @param failureRate in [0, 1].
+     */
+    public void setFailureRate(final double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException(String.format("invalid failure rate: %f", failureRate));
+        }
+        this.failureRate = failureRate;
+    }
+
+    public void setUploadDuration(final long duration, @NotNull final TimeUnit unit) {
+        this.uploadDuration = unit.toMillis(duration);
+    }
+
+    public void setDownloadDuration(final long duration, @NotNull final TimeUnit unit) {
+        this.downloadDuration = unit.toMillis(duration);
+    }
+
+    /**
+     * Adds available files to the cloud; they are named cloud-file-i.dat.
+     *
+     * @param count the number of files.
+     * @param size  of each file.
+     */
+    public void addCloudFiles(final int count, final long size) {
+        for (int i = 0; i != count; i++) {
+            final String siaPath = String.format("%s/Goobox/cloud-file-%d.dat/%d", this.userName, i, PreloadedCreationTime);
+            this.files.put(siaPath, new CloudFile(siaPath, "", size, Long.MIN_VALUE));
+        }
+    }
+
+    /**
+     * Returns sia paths of files which are available.
+     *
+     * @return a list of sia paths.
+     */
+    @NotNull
+    public List<String> getAvailableFiles() {
+        final long now = this.clock.getAsLong();
+        return this.files.values().stream()
+                .filter(file -> file.isAvailable(now, this.uploadDuration))
+                .map(file -> file.siaPath)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the number of requests per endpoint.
+     *
+     * @return a map of which keys are methods and endpoints, e.g. "GET /renter/files".
+     */
+    @NotNull
+    public Map<String, Long> getRequestCounts() {
+        return this.requests.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get()));
+    }
+
+    public long getRequestCount() {
+        return this.requests.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    public long getFailureCount() {
+        return this.failures.get();
+    }
+
+    /**
+     * Returns the price of uploading a terabyte which renter/prices returns.
+     *
+     * @return the price in hastings.
+     */
+    @NotNull
+    public static BigInteger getUploadPrice() {
+        return new BigInteger(Hastings);
+    }
+
+    /**
+     * Returns the total size of the files uploaded to this simulator.
+     *
+     * @return the number of bytes.
+     */
+    public long getUploadedBytes() {
+        return this.uploadedBytes.get();
+    }
+
+    @Override
+    public MockResponse dispatch(@NotNull final RecordedRequest request) {
+
+        final HttpUrl url = request.getRequestUrl();
+        final List<String> segments = url.pathSegments();
+        final String endpoint = String.format(
+                "%s /%s", request.getMethod(), String.join("/", segments.subList(0, Math.min(2, segments.size()))));
+        this.requests.computeIfAbsent(endpoint, key -> new AtomicLong()).incrementAndGet();
+
+        MockResponse res;
+        if (!segments.isEmpty() && "renter".equals(segments.get(0)) && segments.size() >= 2 && this.shouldFail()) {
+            this.failures.incrementAndGet();
+            res = this.error(500, "simulated failure");
+        } else {
+            try {
+                res = this.handle(request.getMethod(), segments, url);
+            } catch (final IOException e) {
+                res = this.error(500, e.getMessage());
+            }
+        }
+        if (this.latency > 0) {
+            res.setHeadersDelay(this.latency, TimeUnit.MILLISECONDS);
+        }
+        return res;
+
+    }
+
+    @NotNull
+    private MockResponse handle(
+            @NotNull final String method, @NotNull final List<String> segments, @NotNull final HttpUrl url)
+            throws IOException {
+
+        final String resource = String.join("/", segments.subList(0, Math.min(2, segments.size())));
+        final String siaPath = segments.size() > 2 ? String.join("/", segments.subList(2, segments.size())) : "";
+        switch (method + " " + resource) {
+            case "GET consensus":
+                return this.ok(new InlineResponse200().currentblock("0").height(150000).synced(true));
+            case "GET wallet":
+                return this.ok(this.wallet());
+            case "POST wallet/unlock":
+                return new MockResponse().setResponseCode(204);
+            case "GET wallet/address":
+                return this.ok(new InlineResponse20015().address("simulated-address"));
+            case "GET renter":
+                return this.ok(this.renter());
+            case "GET renter/prices":
+                return this.ok(new InlineResponse20013()
+                        .downloadterabyte(Hastings).uploadterabyte(Hastings)
+                        .storageterabytemonth(Hastings).formcontracts(Hastings));
+            case "GET renter/contracts":
+                final InlineResponse2009 contracts = new InlineResponse2009();
+                for (int i = 0; i != Contracts; i++) {
+                    contracts.addContractsItem(new InlineResponse2009Contracts());
+                }
+                return this.ok(contracts);
+            case "GET renter/files":
+                return this.ok(this.listFiles());
+            case "GET renter/file":
+                return this.getFile(siaPath);
+            case "POST renter/upload":
+                return this.upload(siaPath, url.queryParameter("source"));
+            case "GET renter/downloadasync":
+                return this.download(siaPath, url.queryParameter("destination"));
+            case "GET renter/download":
+                return this.downloadRange(
+                        siaPath, url.queryParameter("destination"),
+                        url.queryParameter("offset"), url.queryParameter("length"));
+            case "GET renter/downloads":
+                return this.ok(this.listDownloads());
+            case "POST renter/rename":
+                return this.rename(siaPath, url.queryParameter("newsiapath"));
+            case "POST renter/delete":
+                if (this.files.remove(siaPath) == null) {
+                    return this.error(400, String.format("no file known by that path: %s", siaPath));
+                }
+                return new MockResponse().setResponseCode(204);
+            default:
+                return this.error(404, String.format("unsupported endpoint: %s /%s", method, String.join("/", segments)));
+        }
+
+    }
+
+    @NotNull
+    private InlineResponse20014 wallet() {
+        final InlineResponse20014 wallet = new InlineResponse20014();
+        wallet.setEncrypted(true);
+        wallet.setUnlocked(true);
+        wallet.setRescanning(false);
+        wallet.setConfirmedsiacoinbalance(Hastings);
+        wallet.setUnconfirmedincomingsiacoins("0");
+        wallet.setUnconfirmedoutgoingsiacoins("0");
+        wallet.setSiacoinclaimbalance("0");
+        wallet.setSiafundbalance("0");
+        wallet.setDustthreshold("0");
+        return wallet;
+    }
+
+    @NotNull
+    private InlineResponse2008 renter() {
+        final InlineResponse2008SettingsAllowance allowance = new InlineResponse2008SettingsAllowance()
+                .funds(Hastings).hosts((long) Contracts).period(12960L).renewwindow(4320L);
+        final InlineResponse2008Financialmetrics metrics = new InlineResponse2008Financialmetrics()
+                .contractfees("0").contractspending("0").downloadspending("0").storagespending("0")
+                .totalallocated("0").unspent(Hastings).uploadspending("0");
+        return new InlineResponse2008()
+                .currentperiod(100000L)
+                .settings(new InlineResponse2008Settings().allowance(allowance))
+                .financialmetrics(metrics);
+    }
+
+    @NotNull
+    private InlineResponse20012 listFiles() {
+        final long now = this.clock.getAsLong();
+        final InlineResponse20012 res = new InlineResponse20012();
+        res.setFiles(this.files.values().stream()
+                .map(file -> file.toFileInfo(now, this.uploadDuration))
+                .collect(Collectors.toList()));
+        return res;
+    }
+
+    @NotNull
+    private MockResponse getFile(@NotNull final String siaPath) {
+        final CloudFile file = this.files.get(siaPath);
+        if (file == null) {
+            return this.error(400, String.format("no file known by that path: %s", siaPath));
+        }
+        return this.ok(new InlineResponse20011().file(file.toFileInfo(this.clock.getAsLong(), this.uploadDuration)));
+    }
+
+    @NotNull
+    private MockResponse upload(@NotNull final String siaPath, @Nullable final String source) throws IOException {
+        if (source == null || !Files.exists(Paths.get(source))) {
+            return this.error(400, String.format("source file doesn't exist: %s", source));
+        }
+        final CloudFile file = new CloudFile(siaPath, source, Files.readAllBytes(Paths.get(source)), this.clock.getAsLong());
+        if (this.files.putIfAbsent(siaPath, file) != null) {
+            return this.error(400, String.format("a file already exists at %s", siaPath));
+        }
+        this.uploadedBytes.addAndGet(file.size);
+        return new MockResponse().setResponseCode(204);
+    }
+
+    @NotNull
+    private MockResponse download(@NotNull final String siaPath, @Nullable final String destination) throws IOException {
+
+        final CloudFile file = this.files.get(siaPath);
+        final long now = this.clock.getAsLong();
+        if (file == null || !file.isAvailable(now, this.uploadDuration)) {
+            return this.error(400, String.format("download failed: no file available at %s", siaPath));
+        }
+        if (destination == null) {
+            return this.error(400, "destination is required");
+        }
+
+        file.write(Paths.get(destination), 0, file.size);
+        this.downloads.add(new Download(siaPath, destination, file.size, now));
+        return new MockResponse().setResponseCode(204);
+
+    }
+
+    @NotNull
+    private MockResponse downloadRange(
+            @NotNull final String siaPath, @Nullable final String destination,
+            @Nullable final String offset, @Nullable final String length) throws IOException {
+
+        final CloudFile file = this.files.get(siaPath);
+        if (file == null || !file.isAvailable(this.clock.getAsLong(), this.uploadDuration)) {
+            return this.error(400, String.format("download failed: no file available at %s", siaPath));
+        }
+        if (destination == null) {
+            return this.error(400, "destination is required");
+        }
+
+        final long start = offset != null ? Long.parseLong(offset) : 0;
+        final long size = length != null ? Long.parseLong(length) : file.size - start;
+        if (start < 0 || size < 0 || start + size > file.size) {
+            return this.error(400, String.format("download failed: range %d+%d is out of %s", start, size, siaPath));
+        }
+        file.write(Paths.get(destination), start, size);
+        return new MockResponse().setResponseCode(204);
+
+    }
+
+    @NotNull
+    private InlineResponse20010 listDownloads() {
+        final long now = this.clock.getAsLong();
+        final InlineResponse20010 res = new InlineResponse20010();
+        synchronized (this.downloads) {
+            res.setDownloads(this.downloads.stream()
+                    .map(download -> download.toDownloads(now, this.downloadDuration))
+                    .collect(Collectors.toList()));
+        }
+        return res;
+    }
+
+    private boolean shouldFail() {
+        if (this.failureRate == 0) {
+            return false;
+        }
+        synchronized (this.random) {
+            return this.random.nextDouble() < this.failureRate;
+        }
+    }
+
+    @NotNull
+    private MockResponse ok(@NotNull final Object body) {
+        return new MockResponse()
+                .setResponseCode(200)
+                .setHeader("Content-Type", "application/json")
+                .setBody(this.json.serialize(body));
+    }
+
+    @NotNull
+    private MockResponse error(final int code, @NotNull final String message) {
+        final StandardError err = new StandardError();
+        err.setMessage(message);
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody(this.json.serialize(err));
+    }
+
+    /**
+     * Returns the progress in percent of a transfer which started at the given time.
+     */
+    private static double progress(final long start, final long now, final long duration) {
+        if (duration <= 0 || now - start >= duration) {
+            return 100;
+        }
+        return Math.max(0, 100.0 * (now - start) / duration);
+    }
+
+    /**
+     * Moves the given file to the new path, keeping its contents and upload progress.
+     */
+    @NotNull
+    private MockResponse rename(@NotNull final String siaPath, @Nullable final String newSiaPath) {
+
+        if (newSiaPath == null || this.files.containsKey(newSiaPath)) {
+            return this.error(400, String.format("invalid new path: %s", newSiaPath));
+        }
+        final CloudFile file = this.files.remove(siaPath);
+        if (file == null) {
+            return this.error(400, String.format("no file known by that path: %s", siaPath));
+        }
+        this.files.put(newSiaPath, new CloudFile(newSiaPath, file));
+        return new MockResponse().setResponseCode(204);
+
+    }
+
+    private static final class CloudFile {
+
+        @NotNull
+        private final String siaPath;
+        @NotNull
+        private final String localPath;
+        private final long size;
+        /**
+         * Contents of an uploaded file, or null for preloaded files, which consist of zeros.
+         */
+        @Nullable
+        private final byte[] contents;
+        /**
+         * Time the upload started, or Long.MIN_VALUE for preloaded files.
+         */
+        private final long uploadStart;
+
+        private CloudFile(@NotNull final String siaPath, @NotNull final String localPath, final long size, final long uploadStart) {
+            this.siaPath = siaPath;
+            this.localPath = localPath;
+            this.size = size;
+            this.contents = null;
+            this.uploadStart = uploadStart;
+        }
+
+        private CloudFile(
+                @NotNull final String siaPath, @NotNull final String localPath, @NotNull final byte[] contents,
+                final long uploadStart) {
+            this.siaPath = siaPath;
+            this.localPath = localPath;
+            this.size = contents.length;
+            this.contents = contents;
+            this.uploadStart = uploadStart;
+        }
+
+        private CloudFile(@NotNull final String siaPath, @NotNull final CloudFile file) {
+            this.siaPath = siaPath;
+            this.localPath = file.localPath;
+            this.size = file.size;
+            this.contents = file.contents;
+            this.uploadStart = file.uploadStart;
+        }
+
+        /**
+         * Writes the given range of this file to the destination.
+         */
+        private void write(@NotNull final Path destination, final long offset, final long length) throws IOException {
+            Files.createDirectories(destination.getParent());
+            try (final OutputStream out = Files.newOutputStream(destination)) {
+                if (this.contents != null) {
+                    out.write(this.contents, (int) offset, (int) length);
+                    return;
+                }
+                final byte[] buffer = new byte[(int) Math.min(length, 64 * 1024)];
+                for (long written = 0; written < length; written += buffer.length) {
+                    out.write(buffer, 0, (int) Math.min(buffer.length, length - written));
+                }
+            }
+        }
+
+        private boolean isAvailable(final long now, final long uploadDuration) {
+            return progress(this.uploadStart, now, uploadDuration) >= 100;
+        }
+
+        @NotNull
+        private FileInfo toFileInfo(final long now, final long uploadDuration) {
+            final double progress = this.uploadStart == Long.MIN_VALUE ? 100 : progress(this.uploadStart, now, uploadDuration);
+            final FileInfo file = new FileInfo();
+            file.setSiapath(this.siaPath);
+            file.setLocalpath(this.localPath);
+            file.setFilesize(this.size);
+            file.setAvailable(progress >= 100);
+            file.setRenewing(true);
+            file.setRedundancy(new BigDecimal(progress >= 100 ? "3" : "0"));
+            file.setUploadedbytes((long) (this.size * progress / 100) * 3);
+            file.setUploadprogress(BigDecimal.valueOf(progress));
+            file.setExpiration(200000L);
+            return file;
+        }
+
+    }
+
+    private static final class Download {
+
+        @NotNull
+        private final String siaPath;
+        @NotNull
+        private final String destination;
+        private final long size;
+        private final long start;
+
+        private Download(@NotNull final String siaPath, @NotNull final String destination, final long size, final long start) {
+            this.siaPath = siaPath;
+            this.destination = destination;
+            this.size = size;
+            this.start = start;
+        }
+
+        @NotNull
+        private InlineResponse20010Downloads toDownloads(final long now, final long downloadDuration) {
+            final double progress = progress(this.start, now, downloadDuration);
+            final InlineResponse20010Downloads res = new InlineResponse20010Downloads();
+            res.setSiapath(this.siaPath);
+            res.setDestination(this.destination);
+            res.setDestinationtype("file");
+            res.setLength(this.size);
+            res.setOffset(0L);
+            res.setReceived((long) (this.size * progress / 100));
+            res.setTotaldatatransfered((long) (this.size * progress / 100));
+            res.setCompleted(progress >= 100);
+            res.setError("");
+            res.setStarttime(ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC).print(this.start));
+            if (progress >= 100) {
+                res.setEndtime(ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC).print(this.start + downloadDuration));
+            }
+            return res;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.mocks;
+
+import io.goobox.sync.sia.client.ApiClient;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.ConsensusApi;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.WalletApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.client.api.model.InlineResponse20010Downloads;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SiadSimulatorTest {
+
+    private static final String UserName = "test-user";
+
+    private final AtomicLong clock = new AtomicLong(1000000L);
+    private SiadSimulator siad;
+    private ApiClient apiClient;
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.siad = new SiadSimulator(UserName, 0, this.clock::get);
+        this.siad.start();
+        this.apiClient = new ApiClient();
+        this.apiClient.setBasePath(String.format("http://%s", this.siad.getAddress()));
+        this.tempDir = Files.createTempDirectory(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.siad.close();
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    @Test
+    public void readyDaemon() throws ApiException {
+
+        assertTrue(new WalletApi(this.apiClient).walletGet().isUnlocked());
+        assertTrue(new ConsensusApi(this.apiClient).consensusGet().isSynced());
+        final RenterApi renter = new RenterApi(this.apiClient);
+        assertEquals(SiadSimulator.Contracts, renter.renterContractsGet().getContracts().size());
+        assertEquals(SiadSimulator.Contracts, (long) renter.renterGet().getSettings().getAllowance().getHosts());
+
+        assertEquals(4, this.siad.getRequestCount());
+        assertEquals(1, (long) this.siad.getRequestCounts().get("GET /wallet"));
+        assertEquals(1, (long) this.siad.getRequestCounts().get("GET /renter/contracts"));
+
+    }
+
+    @Test
+    public void listPreloadedFiles() throws ApiException {
+
+        this.siad.addCloudFiles(3, 1024);
+        final List<FileInfo> files = new RenterApi(this.apiClient).renterFilesGet().getFiles();
+        assertEquals(3, files.size());
+        for (final FileInfo file : files) {
+            assertTrue(file.getSiapath().startsWith(UserName + "/Goobox/cloud-file-"));
+            assertEquals(1024, (long) file.getFilesize());
+            assertTrue(file.isAvailable());
+        }
+
+    }
+
+    @Test
+    public void uploadProgressesWithClock() throws ApiException, IOException {
+
+        this.siad.setUploadDuration(10, TimeUnit.SECONDS);
+        final Path source = this.tempDir.resolve("a.dat");
+        Files.write(source, new byte[100]);
+
+        final RenterApi renter = new RenterApi(this.apiClient);
+        final String siaPath = UserName + "/Goobox/a.dat/1";
+        renter.renterUploadSiapathPost(siaPath, source.toString(), 10L, 20L);
+
+        FileInfo file = renter.renterFileSiapathGet(siaPath).getFile();
+        assertFalse(file.isAvailable());
+        assertEquals(0, file.getUploadprogress().doubleValue(), 0);
+
+        this.clock.addAndGet(5000);
+        file = renter.renterFileSiapathGet(siaPath).getFile();
+        assertFalse(file.isAvailable());
+        assertEquals(50, file.getUploadprogress().doubleValue(), 0.01);
+
+        this.clock.addAndGet(5000);
+        file = renter.renterFileSiapathGet(siaPath).getFile();
+        assertTrue(file.isAvailable());
+        assertEquals(source.toString(), file.getLocalpath());
+        assertEquals(1, this.siad.getAvailableFiles().size());
+
+    }
+
+    @Test
+    public void downloadWritesDestination() throws ApiException, IOException {
+
+        this.siad.setDownloadDuration(10, TimeUnit.SECONDS);
+        this.siad.addCloudFiles(1, 1234);
+        final RenterApi renter = new RenterApi(this.apiClient);
+        final String siaPath = this.siad.getAvailableFiles().get(0);
+        final Path dest = this.tempDir.resolve("sub").resolve("b.dat");
+        renter.renterDownloadasyncSiapathGet(siaPath, dest.toString());
+
+        assertEquals(1234, Files.size(dest));
+        InlineResponse20010Downloads download = renter.renterDownloadsGet().getDownloads().get(0);
+        assertEquals(siaPath, download.getSiapath());
+        assertFalse(download.isCompleted());
+
+        this.clock.addAndGet(10000);
+        download = renter.renterDownloadsGet().getDownloads().get(0);
+        assertTrue(download.isCompleted());
+        assertEquals(1234, (long) download.getReceived());
+
+    }
+
+    @Test
+    public void deleteFile() throws ApiException {
+
+        this.siad.addCloudFiles(2, 10);
+        final RenterApi renter = new RenterApi(this.apiClient);
+        renter.renterDeleteSiapathPost(this.siad.getAvailableFiles().get(0));
+        assertEquals(1, renter.renterFilesGet().getFiles().size());
+
+        try {
+            renter.renterDeleteSiapathPost(UserName + "/Goobox/missing/1");
+            fail();
+        } catch (final ApiException e) {
+            assertEquals(400, e.getCode());
+        }
+
+    }
+
+    @Test
+    public void injectFailures() throws ApiException {
+
+        this.siad.setFailureRate(1);
+        try {
+            new RenterApi(this.apiClient).renterFilesGet();
+            fail();
+        } catch (final ApiException e) {
+            assertEquals(500, e.getCode());
+        }
+        // Daemon status endpoints never fail so that the app can start.
+        assertTrue(new WalletApi(this.apiClient).walletGet().isUnlocked());
+        assertEquals(1, this.siad.getFailureCount());
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFailureRate() {
+        this.siad.setFailureRate(1.5);
+    }
+
+}
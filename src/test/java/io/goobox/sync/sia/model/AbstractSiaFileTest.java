@@ -17,6 +17,7 @@
 
 package io.goobox.sync.sia.model;
 
+import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Config;
 import io.goobox.sync.sia.Context;
@@ -33,9 +34,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(JMockit.class)
 public class AbstractSiaFileTest {
@@ -133,4 +136,91 @@ public class AbstractSiaFileTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void cloudAndLocalPathsAreCreatedOnDemand() {
+
+        final Path inPath = Paths.get(this.user, "Goobox", this.path, String.valueOf(this.created));
+        final SiaFile siaFile = this.newSiaFile(APIUtils.toSlash(inPath));
+
+        assertEquals(this.path, siaFile.getName());
+        assertTrue(siaFile.isManaged());
+        assertEquals(0, APIUtilsMock.fromSlashPaths.size());
+
+        assertEquals(inPath, siaFile.getCloudPath());
+        assertEquals(inPath, siaFile.getCloudPath());
+        assertEquals(1, APIUtilsMock.fromSlashPaths.size());
+
+    }
+
+    @Test
+    public void invalidTimestamps() {
+
+        for (final String suffix : new String[]{"+1234", "-1234", "12a34", "99999999999999999999"}) {
+            final SiaFile siaFile = this.newSiaFile(String.format("%s/Goobox/foo/%s", this.user, suffix));
+            assertEquals(Paths.get("foo", suffix).toString(), siaFile.getName());
+            assertFalse(siaFile.getCreationTime().isPresent());
+        }
+
+        final SiaFile siaFile = this.newSiaFile(String.format("%s/Goobox/foo/%d", this.user, Long.MAX_VALUE));
+        assertEquals("foo", siaFile.getName());
+        assertEquals(Optional.of(Long.MAX_VALUE), siaFile.getCreationTime());
+
+    }
+
+    @Test
+    public void cloudPathWithRedundantSlashes() {
+
+        final SiaFile siaFile = this.newSiaFile(String.format("%s/Goobox//foo//bar.txt/%d", this.user, this.created));
+        assertEquals(this.path, siaFile.getName());
+        assertEquals(Paths.get(this.user, "Goobox", this.path, String.valueOf(this.created)), siaFile.getCloudPath());
+        assertEquals(this.tmpDir.resolve(this.path), siaFile.getLocalPath());
+        assertEquals(Optional.of(this.created), siaFile.getCreationTime());
+        assertTrue(siaFile.isManaged());
+
+    }
+
+    @Test
+    public void cloudPathNotManagedByGoobox() {
+
+        final SiaFile siaFile = this.newSiaFile(String.format("%sx/Goobox/%s/%d", this.user, "bar.txt", this.created));
+        assertFalse(siaFile.isManaged());
+        assertEquals(Optional.of(this.created), siaFile.getCreationTime());
+
+        assertFalse(this.newSiaFile("other-file").isManaged());
+
+    }
+
+    @Test
+    public void compressedCloudPath() {
+
+        final String cloudPath = String.format("%s/Goobox/.goobox-gzip/foo/bar.txt/%d", this.user, this.created);
+        final SiaFile siaFile = this.newSiaFile(cloudPath);
+        assertEquals(this.path, siaFile.getName());
+        assertEquals(APIUtils.fromSlash(cloudPath), siaFile.getCloudPath());
+        assertEquals(this.tmpDir.resolve(this.path), siaFile.getLocalPath());
+        assertEquals(Optional.of(this.created), siaFile.getCreationTime());
+        assertTrue(siaFile.isManaged());
+
+        // Paths which aren't normalized are parsed the same way.
+        final SiaFile notNormalized = this.newSiaFile(
+                String.format("%s/Goobox//.goobox-gzip/foo/bar.txt/%d", this.user, this.created));
+        assertEquals(this.path, notNormalized.getName());
+        assertEquals(Optional.of(this.created), notNormalized.getCreationTime());
+
+        // A file of which name starts with the codec folder isn't compressed.
+        assertEquals(
+                Paths.get(".goobox-gzipped", "bar.txt").toString(),
+                this.newSiaFile(String.format("%s/Goobox/.goobox-gzipped/bar.txt/%d", this.user, this.created)).getName());
+
+    }
+
+    private SiaFile newSiaFile(final String cloudPath) {
+        return new AbstractSiaFile(this.ctx, cloudPath) {
+            @Override
+            public long getFileSize() {
+                return 0;
+            }
+        };
+    }
+
+}
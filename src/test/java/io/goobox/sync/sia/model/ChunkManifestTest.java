@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.model;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkManifestTest {
+
+    private static final int Min = 1024;
+    private static final int Average = 4096;
+    private static final int Max = 16 * 1024;
+
+    private Path tmpDir;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        this.tmpDir = Files.createTempDirectory(null);
+        this.data = new byte[256 * 1024];
+        new Random(1).nextBytes(this.data);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Test
+    public void chunk() throws IOException {
+
+        final Path file = this.tmpDir.resolve("file");
+        Files.write(file, this.data);
+
+        final ChunkManifest manifest = ChunkManifest.chunk(file, Min, Average, Max);
+        assertEquals(this.data.length, manifest.getSize());
+        assertTrue(manifest.getChunks().size() > 1);
+
+        long offset = 0;
+        for (int i = 0; i != manifest.getChunks().size(); i++) {
+            final ChunkManifest.Entry entry = manifest.getChunks().get(i);
+            assertEquals(offset, entry.getOffset());
+            assertTrue(entry.getLength() <= Max);
+            if (i != manifest.getChunks().size() - 1) {
+                assertTrue(entry.getLength() >= Min);
+            }
+            assertEquals(
+                    DigestUtils.sha256Hex(Arrays.copyOfRange(this.data, (int) offset, (int) (offset + entry.getLength()))),
+                    entry.getDigest());
+            offset += entry.getLength();
+        }
+        assertEquals(this.data.length, offset);
+
+    }
+
+    @Test
+    public void chunkSmallFile() throws IOException {
+
+        final byte[] contents = "small file".getBytes(StandardCharsets.UTF_8);
+        final Path file = this.tmpDir.resolve("file");
+        Files.write(file, contents);
+
+        final ChunkManifest manifest = ChunkManifest.chunk(file);
+        assertEquals(new ChunkManifest(
+                contents.length,
+                Collections.singletonList(new ChunkManifest.Entry(DigestUtils.sha256Hex(contents), 0, contents.length))
+        ), manifest);
+
+    }
+
+    @Test
+    public void chunkEmptyFile() throws IOException {
+
+        final Path file = this.tmpDir.resolve("file");
+        Files.write(file, new byte[0]);
+
+        assertEquals(new ChunkManifest(0, Collections.emptyList()), ChunkManifest.chunk(file));
+
+    }
+
+    /**
+     * Inserting bytes in the middle of a file changes only the chunks around the insertion.
+     */
+    @Test
+    public void insertionKeepsOtherChunks() throws IOException {
+
+        final Path original = this.tmpDir.resolve("original");
+        Files.write(original, this.data);
+
+        final int pos = this.data.length / 2;
+        final byte[] inserted = new byte[this.data.length + 100];
+        System.arraycopy(this.data, 0, inserted, 0, pos);
+        Arrays.fill(inserted, pos, pos + 100, (byte) 0x55);
+        System.arraycopy(this.data, pos, inserted, pos + 100, this.data.length - pos);
+        final Path modified = this.tmpDir.resolve("modified");
+        Files.write(modified, inserted);
+
+        final Set<String> before = digests(ChunkManifest.chunk(original, Min, Average, Max));
+        final ChunkManifest after = ChunkManifest.chunk(modified, Min, Average, Max);
+        final long changed = after.getChunks().stream()
+                .filter(entry -> !before.contains(entry.getDigest()))
+                .count();
+        assertTrue(String.format("%d of %d chunks are changed", changed, after.getChunks().size()), changed <= 2);
+
+    }
+
+    /**
+     * Appending bytes to a file changes only its last chunk.
+     */
+    @Test
+    public void appendKeepsOtherChunks() throws IOException {
+
+        final Path original = this.tmpDir.resolve("original");
+        Files.write(original, this.data);
+
+        final byte[] suffix = new byte[5000];
+        new Random(2).nextBytes(suffix);
+        final byte[] appended = new byte[this.data.length + suffix.length];
+        System.arraycopy(this.data, 0, appended, 0, this.data.length);
+        System.arraycopy(suffix, 0, appended, this.data.length, suffix.length);
+        final Path modified = this.tmpDir.resolve("modified");
+        Files.write(modified, appended);
+
+        final ChunkManifest before = ChunkManifest.chunk(original, Min, Average, Max);
+        final ChunkManifest after = ChunkManifest.chunk(modified, Min, Average, Max);
+        final int kept = before.getChunks().size() - 1;
+        assertEquals(before.getChunks().subList(0, kept), after.getChunks().subList(0, kept));
+
+    }
+
+    @Test
+    public void writeAndParse() throws IOException {
+
+        final Path file = this.tmpDir.resolve("file");
+        Files.write(file, this.data);
+        final ChunkManifest manifest = ChunkManifest.chunk(file, Min, Average, Max);
+
+        final Path path = this.tmpDir.resolve("manifest");
+        manifest.write(path);
+        assertEquals(manifest, ChunkManifest.parse(Files.readAllBytes(path)));
+
+    }
+
+    @Test
+    public void parseInvalidManifests() {
+
+        for (final String manifest : Arrays.asList(
+                "",
+                "not a json",
+                "{\"size\":0}",
+                "{\"size\":10,\"chunks\":[{\"digest\":\"a\",\"offset\":0,\"length\":5}]}",
+                "{\"size\":10,\"chunks\":[{\"digest\":\"a\",\"offset\":0,\"length\":5}," +
+                        "{\"digest\":\"b\",\"offset\":6,\"length\":5}]}",
+                "{\"size\":0,\"chunks\":[{\"digest\":\"a\",\"offset\":0,\"length\":0}]}",
+                "{\"size\":5,\"chunks\":[{\"offset\":0,\"length\":5}]}")) {
+            try {
+                ChunkManifest.parse(manifest.getBytes(StandardCharsets.UTF_8));
+                fail(String.format("%s is parsed", manifest));
+            } catch (final IOException e) {
+                // expected.
+            }
+        }
+
+    }
+
+    private static Set<String> digests(final ChunkManifest manifest) {
+        return manifest.getChunks().stream().map(ChunkManifest.Entry::getDigest).collect(Collectors.toCollection(HashSet::new));
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.model;
+
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import mockit.Deencapsulation;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodecTest {
+
+    private Path tmpDir;
+    private Context ctx;
+
+    @Before
+    public void setUp() throws IOException {
+        this.tmpDir = Files.createTempDirectory(null);
+        final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(cfg, "userName", "testuser");
+        Deencapsulation.setField(cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        this.ctx = new Context(cfg);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Test
+    public void resolveAndOf() {
+
+        final String name = Paths.get("foo", "bar.txt").toString();
+        final Path plain = Codec.none.resolve(this.ctx, name, 1234L);
+        assertEquals(this.ctx.getPathPrefix().resolve(name).resolve("1234"), plain);
+        assertEquals(Codec.none, Codec.of(this.ctx, plain));
+
+        final Path compressed = Codec.gzip.resolve(this.ctx, name, 1234L);
+        assertEquals(this.ctx.getPathPrefix().resolve(".goobox-gzip").resolve(name).resolve("1234"), compressed);
+        assertEquals(Codec.gzip, Codec.of(this.ctx, compressed));
+
+        assertEquals(Codec.none, Codec.of(this.ctx, this.ctx.getPathPrefix().resolve(".goobox-gzip")));
+        assertEquals(Codec.none, Codec.of(this.ctx, Paths.get("other", ".goobox-gzip", "bar.txt")));
+
+    }
+
+    @Test
+    public void parse() {
+
+        assertEquals(Codec.gzip, Codec.parse("prefix/.goobox-gzip/bar.txt/1234", 7));
+        assertEquals(Codec.none, Codec.parse("prefix/.goobox-gzip/", 7));
+        assertEquals(Codec.none, Codec.parse("prefix/.goobox-gzipped/bar.txt", 7));
+        assertEquals(Codec.none, Codec.parse("prefix/bar.txt/1234", 7));
+
+    }
+
+    @Test
+    public void encodeAndDecode() throws IOException {
+
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i != 1000; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+        final byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+        for (final Codec codec : Codec.values()) {
+            final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try (final OutputStream out = codec.encode(buf)) {
+                out.write(body);
+            }
+            if (codec != Codec.none) {
+                assertTrue(buf.size() < body.length);
+            }
+            try (final InputStream in = codec.decode(new ByteArrayInputStream(buf.toByteArray()))) {
+                assertArrayEquals(body, IOUtils.toByteArray(in));
+            }
+        }
+
+    }
+
+    @Test
+    public void getDecodedSize() throws IOException {
+
+        final byte[] body = new byte[100000];
+        for (final Codec codec : Codec.values()) {
+            final Path file = this.tmpDir.resolve(codec.name());
+            try (final OutputStream out = codec.encode(Files.newOutputStream(file))) {
+                out.write(body);
+            }
+            assertEquals(body.length, codec.getDecodedSize(file));
+        }
+
+        // Sizes of broken files are estimated by themselves.
+        final Path broken = this.tmpDir.resolve("broken");
+        Files.write(broken, new byte[]{1, 2});
+        assertEquals(2, Codec.gzip.getDecodedSize(broken));
+
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.model;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PackIndexTest {
+
+    private Path tmpDir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.tmpDir = Files.createTempDirectory(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+
+        final Path file1 = this.tmpDir.resolve("file1");
+        Files.write(file1, "first file".getBytes(StandardCharsets.UTF_8));
+        final Path file2 = this.tmpDir.resolve("file2");
+        Files.write(file2, new byte[0]);
+        final Path file3 = this.tmpDir.resolve("file3");
+        Files.write(file3, "third".getBytes(StandardCharsets.UTF_8));
+
+        final Path pack = this.tmpDir.resolve("pack");
+        final PackIndex index = PackIndex.write(pack, Arrays.asList(
+                new PackIndex.Source("dir/file1", 1234L, file1),
+                new PackIndex.Source("file2", 5678L, file2),
+                new PackIndex.Source("file3", 9012L, file3)));
+        assertEquals(Arrays.asList(
+                new PackIndex.Entry("dir/file1", 1234L, 0, 10),
+                new PackIndex.Entry("file2", 5678L, 10, 0),
+                new PackIndex.Entry("file3", 9012L, 10, 5)), index.getFiles());
+        assertEquals(index, PackIndex.read(pack));
+
+        final byte[] body = Files.readAllBytes(pack);
+        for (final PackIndex.Entry entry : index.getFiles()) {
+            final Path source = this.tmpDir.resolve(Paths.get(entry.getName()).getFileName());
+            assertArrayEquals(
+                    Files.readAllBytes(source),
+                    Arrays.copyOfRange(body, (int) entry.getOffset(), (int) (entry.getOffset() + entry.getLength())));
+        }
+
+        // The footer and the index can be parsed separately as they are read by ranged downloads.
+        final byte[] footer = Arrays.copyOfRange(body, body.length - PackIndex.FooterSize, body.length);
+        final long length = PackIndex.parseFooter(footer);
+        assertEquals(index, PackIndex.parse(Arrays.copyOfRange(
+                body, (int) (body.length - PackIndex.FooterSize - length), body.length - PackIndex.FooterSize)));
+
+    }
+
+    @Test
+    public void emptyPack() throws IOException {
+        final Path pack = this.tmpDir.resolve("pack");
+        final PackIndex index = PackIndex.write(pack, Collections.emptyList());
+        assertEquals(Collections.emptyList(), index.getFiles());
+        assertEquals(index, PackIndex.read(pack));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidMagic() throws IOException {
+        PackIndex.parseFooter(new byte[PackIndex.FooterSize]);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidIndex() throws IOException {
+        PackIndex.parse("{\"files\": [{\"offset\": -1}]}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void notPack() throws IOException {
+        final Path file = this.tmpDir.resolve("file");
+        Files.write(file, "not a pack but long enough".getBytes(StandardCharsets.UTF_8));
+        PackIndex.read(file);
+    }
+
+}
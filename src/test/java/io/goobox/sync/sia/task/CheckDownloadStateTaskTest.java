@@ -20,8 +20,10 @@ package io.goobox.sync.sia.task;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Config;
 import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.TransferMonitor;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
 import io.goobox.sync.sia.client.api.model.InlineResponse20010;
 import io.goobox.sync.sia.client.api.model.InlineResponse20010Downloads;
 import io.goobox.sync.sia.db.CloudFile;
@@ -29,6 +31,8 @@ import io.goobox.sync.sia.db.DB;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
 import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.Codec;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
 import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
@@ -45,6 +49,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
@@ -116,7 +121,7 @@ public class CheckDownloadStateTaskTest {
             public long getFileSize() {
                 return 1234L;
             }
-        }, localPath);
+        }, localPath, this.ctx.getStagingArea().allocate(1234L));
         this.syncFile = DB.get(this.name).get();
 
         this.oldDate = RFC3339.format(new Date(10000));
@@ -187,6 +192,71 @@ public class CheckDownloadStateTaskTest {
 
     }
 
+    @Test
+    public void downloadedCompressedFile() throws IOException, ApiException {
+
+        final String name = "compressed.txt";
+        final Path cloudPath = Codec.gzip.resolve(this.ctx, name, 1000L);
+        final Path localPath = this.tmpDir.resolve(name);
+        final Path tempPath = this.ctx.getStagingArea().allocate(1234L);
+        DB.addForDownload(new SiaFileFromFilesAPI(this.ctx, new FileInfo()
+                .siapath(cloudPath.toString()).filesize(1234L)), localPath, tempPath);
+        DB.setDownloading(name);
+
+        final byte[] data = "test-data".getBytes();
+        try (final OutputStream out = Codec.gzip.encode(Files.newOutputStream(tempPath))) {
+            out.write(data);
+        }
+
+        new Expectations() {{
+            final InlineResponse20010 res = new InlineResponse20010();
+            res.setDownloads(Collections.singletonList(createCloudFile(cloudPath, tempPath, true, currentDate)));
+            api.renterDownloadsGet();
+            result = res;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+
+        new CheckDownloadStateTask(this.ctx).call();
+        assertEquals(SyncState.SYNCED, DB.get(name).get().getState());
+        assertArrayEquals(data, Files.readAllBytes(localPath));
+        assertEquals(DigestUtils.sha512Hex(data), DB.get(name).get().getLocalDigest().get());
+        assertFalse(Files.exists(tempPath));
+
+    }
+
+    @Test
+    public void downloadedBrokenCompressedFile() throws IOException, ApiException {
+
+        final String name = "compressed.txt";
+        final Path cloudPath = Codec.gzip.resolve(this.ctx, name, 1000L);
+        final Path localPath = this.tmpDir.resolve(name);
+        final Path tempPath = this.ctx.getStagingArea().allocate(1234L);
+        DB.addForDownload(new SiaFileFromFilesAPI(this.ctx, new FileInfo()
+                .siapath(cloudPath.toString()).filesize(1234L)), localPath, tempPath);
+        DB.setDownloading(name);
+        Files.write(tempPath, "test-data".getBytes());
+
+        new Expectations() {{
+            final InlineResponse20010 res = new InlineResponse20010();
+            res.setDownloads(Collections.singletonList(createCloudFile(cloudPath, tempPath, true, currentDate)));
+            api.renterDownloadsGet();
+            result = res;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+
+        new CheckDownloadStateTask(this.ctx).call();
+        assertEquals(SyncState.DOWNLOAD_FAILED, DB.get(name).get().getState());
+        assertFalse(Files.exists(localPath));
+        assertFalse(Files.exists(tempPath));
+
+    }
+
     @Test
     public void downloadingNewerFile() throws ApiException {
 
@@ -216,6 +286,9 @@ public class CheckDownloadStateTaskTest {
             result = res;
 
             App.getInstance();
+            result = Optional.of(app);
+            app.getTransferMonitor().update(TransferMonitor.Direction.download, syncFile.getName(), anyLong, anyLong);
+            app.refreshOverlayIcon((Path) any);
             times = 0;
         }};
 
@@ -247,6 +320,9 @@ public class CheckDownloadStateTaskTest {
             result = res;
 
             App.getInstance();
+            result = Optional.of(app);
+            app.getTransferMonitor().update(TransferMonitor.Direction.download, syncFile.getName(), anyLong, anyLong);
+            app.refreshOverlayIcon((Path) any);
             times = 0;
         }};
 
@@ -314,7 +390,7 @@ public class CheckDownloadStateTaskTest {
                 return 100L;
             }
         };
-        DB.addForDownload(cloudFile, localPath);
+        DB.addForDownload(cloudFile, localPath, this.ctx.getStagingArea().allocate(cloudFile.getFileSize()));
 
         final SyncFile syncFile = DB.get(name.toString()).get();
 
@@ -440,7 +516,7 @@ public class CheckDownloadStateTaskTest {
                 return 100L;
             }
         };
-        DB.addForDownload(cloudFile, localPath);
+        DB.addForDownload(cloudFile, localPath, this.ctx.getStagingArea().allocate(cloudFile.getFileSize()));
         DB.setDownloading(cloudFile.getName());
 
         final SyncFile syncFile = DB.get(name).get();
@@ -597,7 +673,7 @@ public class CheckDownloadStateTaskTest {
                 return 100L;
             }
         };
-        DB.addForDownload(cloudFile, localPath);
+        DB.addForDownload(cloudFile, localPath, this.ctx.getStagingArea().allocate(cloudFile.getFileSize()));
 
         final SyncFile syncFile = DB.get(name.toString()).get();
         final List<InlineResponse20010Downloads> files = Collections.singletonList(
@@ -837,6 +913,121 @@ public class CheckDownloadStateTaskTest {
     }
 
 
+    @Test
+    public void skipEntriesOlderThanWatermark() throws ApiException {
+
+        DB.setDownloading(syncFile.getName());
+        final InlineResponse20010Downloads other = createCloudFile(
+                this.ctx.getPathPrefix().resolve("other-file"), this.tmpDir.resolve("other-file"), true, currentDate);
+        final InlineResponse20010Downloads old = createCloudFile(
+                syncFile.getCloudPath().get(), syncFile.getTemporaryPath().get(), true, oldDate);
+
+        new Expectations() {{
+            final InlineResponse20010 res1 = new InlineResponse20010();
+            res1.setDownloads(Collections.singletonList(other));
+            final InlineResponse20010 res2 = new InlineResponse20010();
+            res2.setDownloads(Arrays.asList(other, old));
+            api.renterDownloadsGet();
+            returns(res1, res2);
+        }};
+
+        final CheckDownloadStateTask task = new CheckDownloadStateTask(this.ctx);
+        task.call();
+        task.call();
+        assertEquals(SyncState.DOWNLOADING, DB.get(syncFile.getName()).get().getState());
+
+    }
+
+    @Test
+    public void watermarksOfDaemons() throws IOException, ApiException {
+
+        final byte[] data = "test-data".getBytes();
+        Files.write(syncFile.getTemporaryPath().get(), data);
+        DB.setDownloading(syncFile.getName());
+
+        final Config cfg = this.ctx.getConfig();
+        Deencapsulation.setField(cfg, "additionalSiadApiAddresses", Collections.singletonList("127.0.0.1:10001"));
+        final Context ctx = new Context(cfg);
+
+        // The second daemon is listed before the download of the file registers, and the first one lists a newer
+        // download; the file must be found in the next round anyway.
+        final InlineResponse20010Downloads other = createCloudFile(
+                this.ctx.getPathPrefix().resolve("other-file"), this.tmpDir.resolve("other-file"), true, currentDate);
+        final InlineResponse20010Downloads downloaded = createCloudFile(
+                syncFile.getCloudPath().get(), syncFile.getTemporaryPath().get(), true, oldDate);
+
+        new Expectations() {{
+            final InlineResponse20010 first = new InlineResponse20010();
+            first.setDownloads(Collections.singletonList(other));
+            final InlineResponse20010 empty = new InlineResponse20010();
+            empty.setDownloads(Collections.emptyList());
+            final InlineResponse20010 second = new InlineResponse20010();
+            second.setDownloads(Collections.singletonList(downloaded));
+            api.renterDownloadsGet();
+            returns(first, empty, first, second);
+        }};
+
+        final CheckDownloadStateTask task = new CheckDownloadStateTask(ctx);
+        task.call();
+        assertEquals(SyncState.DOWNLOADING, DB.get(syncFile.getName()).get().getState());
+        task.call();
+        assertEquals(SyncState.SYNCED, DB.get(syncFile.getName()).get().getState());
+        assertArrayEquals(data, Files.readAllBytes(localPath));
+
+    }
+
+    @Test
+    public void pendingDownloadHoldsWatermark() throws IOException, ApiException {
+
+        final byte[] data = "test-data".getBytes();
+        Files.write(syncFile.getTemporaryPath().get(), data);
+        DB.setDownloading(syncFile.getName());
+
+        final InlineResponse20010Downloads other = createCloudFile(
+                this.ctx.getPathPrefix().resolve("other-file"), this.tmpDir.resolve("other-file"), true, currentDate);
+        final InlineResponse20010Downloads downloading = createCloudFile(
+                syncFile.getCloudPath().get(), syncFile.getTemporaryPath().get(), false, oldDate);
+        final InlineResponse20010Downloads downloaded = createCloudFile(
+                syncFile.getCloudPath().get(), syncFile.getTemporaryPath().get(), true, oldDate);
+
+        new Expectations() {{
+            final InlineResponse20010 res1 = new InlineResponse20010();
+            res1.setDownloads(Arrays.asList(other, downloading));
+            final InlineResponse20010 res2 = new InlineResponse20010();
+            res2.setDownloads(Arrays.asList(other, downloaded));
+            api.renterDownloadsGet();
+            returns(res1, res2);
+        }};
+
+        final CheckDownloadStateTask task = new CheckDownloadStateTask(this.ctx);
+        task.call();
+        assertEquals(SyncState.DOWNLOADING, DB.get(syncFile.getName()).get().getState());
+        task.call();
+        assertEquals(SyncState.SYNCED, DB.get(syncFile.getName()).get().getState());
+        assertArrayEquals(data, Files.readAllBytes(localPath));
+
+    }
+
+    @Test
+    public void isActive() throws ApiException {
+
+        new Expectations() {{
+            final InlineResponse20010 res = new InlineResponse20010();
+            res.setDownloads(Collections.emptyList());
+            api.renterDownloadsGet();
+            result = res;
+        }};
+
+        final CheckDownloadStateTask task = new CheckDownloadStateTask(this.ctx);
+        task.call();
+        assertTrue(task.isActive());
+
+        DB.setDownloadFailed(syncFile.getName());
+        task.call();
+        assertFalse(task.isActive());
+
+    }
+
     @Test
     public void parseDate() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
 
@@ -17,6 +17,7 @@
 
 package io.goobox.sync.sia.task;
 
+import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Config;
 import io.goobox.sync.sia.Context;
@@ -35,6 +36,7 @@ import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.junit.After;
@@ -130,7 +132,7 @@ public class CheckStateTaskTest {
         new CheckStateTask(this.ctx, executor).call();
         assertTrue(DBMock.committed);
         assertEquals(SyncState.FOR_DOWNLOAD, DB.get(siaFile).get().getState());
-        assertTrue(DB.get(siaFile).get().getTemporaryPath().get().startsWith(Paths.get(System.getProperty("java.io.tmpdir"))));
+        assertTrue(DB.get(siaFile).get().getTemporaryPath().get().startsWith(this.ctx.getConfig().getStagingDir()));
 
         // Check enqueued task.
         final Callable<Void> task = Deencapsulation.getField(executor.queue.get(0), "task");
@@ -216,7 +218,7 @@ public class CheckStateTaskTest {
         new CheckStateTask(this.ctx, executor).call();
         assertTrue(DBMock.committed);
         assertEquals(SyncState.FOR_DOWNLOAD, DB.get(siaFile).get().getState());
-        assertTrue(DB.get(siaFile).get().getTemporaryPath().get().startsWith(Paths.get(System.getProperty("java.io.tmpdir"))));
+        assertTrue(DB.get(siaFile).get().getTemporaryPath().get().startsWith(this.ctx.getConfig().getStagingDir()));
 
         // Check enqueued task.
         final Callable<Void> task = Deencapsulation.getField(executor.queue.get(0), "task");
@@ -425,6 +427,95 @@ public class CheckStateTaskTest {
 
     }
 
+    /**
+     * A file renamed in the local directory will be stored by moving the cloud file of the old name, which will not be
+     * deleted from the cloud network.
+     * <p>
+     * Target file condition: cloud yes (old name), local yes (new name), db yes (old name: DELETED, new name: MODIFIED).
+     */
+    @Test
+    public void renamedLocalFile() throws ApiException, IOException {
+
+        final FileInfo oldFile = this.createCloudFile(oldTimeStamp, true, 8);
+        final SiaFile oldSiaFile = new SiaFileFromFilesAPI(this.ctx, oldFile);
+        Files.write(oldSiaFile.getLocalPath(), "new data".getBytes());
+        DB.setSynced(oldSiaFile, oldSiaFile.getLocalPath());
+
+        final String newName = name + "-renamed";
+        final Path newLocalPath = this.ctx.getLocalPath(newName);
+        Files.move(oldSiaFile.getLocalPath(), newLocalPath);
+        Files.setLastModifiedTime(newLocalPath, FileTime.fromMillis(newTimeStamp.getTime()));
+        DB.setDeleted(name);
+        DB.setModified(newName, newLocalPath);
+        DB.commit();
+
+        final Path newCloudPath = this.ctx.getPathPrefix().resolve(newName).resolve(String.valueOf(newTimeStamp.getTime()));
+        final FileInfo newFile = new FileInfo();
+        newFile.setSiapath(APIUtils.toSlash(newCloudPath));
+        newFile.setAvailable(true);
+        newFile.setFilesize(8L);
+        new Expectations() {{
+            api.renterRenameSiapathPost(APIUtils.toSlash(oldSiaFile.getCloudPath()), APIUtils.toSlash(newCloudPath));
+
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Collections.singletonList(newFile));
+            api.renterFilesGet();
+            result = res;
+        }};
+
+        final ExecutorMock executor = new ExecutorMock();
+        new CheckStateTask(this.ctx, executor).call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.SYNCED, DB.get(newName).get().getState());
+        assertEquals(newCloudPath, DB.get(newName).get().getCloudPath().get());
+        assertFalse(DB.get(name).isPresent());
+        assertEquals(0, executor.queue.size());
+
+    }
+
+    /**
+     * A file FileWatcher paired with a deleted file is stored by moving the cloud file of the deleted file before
+     * cloud files are listed.
+     */
+    @Test
+    public void movedLocalFile() throws ApiException, IOException {
+
+        final FileInfo oldFile = this.createCloudFile(oldTimeStamp, true, 8);
+        final SiaFile oldSiaFile = new SiaFileFromFilesAPI(this.ctx, oldFile);
+        Files.write(oldSiaFile.getLocalPath(), "new data".getBytes());
+        DB.setSynced(oldSiaFile, oldSiaFile.getLocalPath());
+
+        final String newName = name + "-moved";
+        final Path newLocalPath = this.ctx.getLocalPath(newName);
+        Files.move(oldSiaFile.getLocalPath(), newLocalPath);
+        DB.setForMove(name, newName, newLocalPath, DigestUtils.sha512("new data"));
+        DB.commit();
+
+        final long modificationTime = Files.getLastModifiedTime(newLocalPath).toMillis();
+        final Path newCloudPath = this.ctx.getPathPrefix().resolve(newName).resolve(String.valueOf(modificationTime));
+        final FileInfo newFile = new FileInfo();
+        newFile.setSiapath(APIUtils.toSlash(newCloudPath));
+        newFile.setAvailable(true);
+        newFile.setFilesize(8L);
+        new Expectations() {{
+            api.renterRenameSiapathPost(APIUtils.toSlash(oldSiaFile.getCloudPath()), APIUtils.toSlash(newCloudPath));
+
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Collections.singletonList(newFile));
+            api.renterFilesGet();
+            result = res;
+        }};
+
+        final ExecutorMock executor = new ExecutorMock();
+        new CheckStateTask(this.ctx, executor).call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.SYNCED, DB.get(newName).get().getState());
+        assertEquals(newCloudPath, DB.get(newName).get().getCloudPath().get());
+        assertFalse(DB.get(name).isPresent());
+        assertEquals(0, executor.queue.size());
+
+    }
+
     /**
      * A file its state is UPLOAD_FAILED will be enqueued to be uploaded again.
      * <p>
@@ -739,7 +830,7 @@ public class CheckStateTaskTest {
         final FileInfo file = this.createCloudFile(newTimeStamp, true, 0);
         final SiaFile siaFile = new SiaFileFromFilesAPI(this.ctx, file);
         final Path localPath = siaFile.getLocalPath();
-        DB.addForDownload(siaFile, localPath);
+        DB.addForDownload(siaFile, localPath, this.ctx.getStagingArea().allocate(siaFile.getFileSize()));
         DB.setDownloadFailed(name);
 
         DB.commit();
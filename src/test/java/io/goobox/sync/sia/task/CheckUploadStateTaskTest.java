@@ -21,11 +21,17 @@ import io.goobox.sync.sia.APIUtils;
 import io.goobox.sync.sia.App;
 import io.goobox.sync.sia.Config;
 import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.TransferMonitor;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.client.api.model.InlineResponse20011;
 import io.goobox.sync.sia.client.api.model.InlineResponse20012;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
 import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
 import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
 import io.goobox.sync.sia.mocks.DBMock;
@@ -47,7 +53,10 @@ import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -107,6 +116,7 @@ public class CheckUploadStateTaskTest {
 
             App.getInstance();
             result = Optional.of(app);
+            app.getTransferMonitor().update(TransferMonitor.Direction.upload, name, 1234, 1234);
             app.refreshOverlayIcon(localPath);
         }};
 
@@ -117,7 +127,7 @@ public class CheckUploadStateTaskTest {
     }
 
     @Test
-    public void stillUploadingFile() throws IOException, ApiException {
+    public void stillUploadingFile(@Mocked App app) throws IOException, ApiException {
 
         DB.addNewFile(this.name, this.localPath);
         DB.setUploading(this.name);
@@ -129,6 +139,12 @@ public class CheckUploadStateTaskTest {
             ));
             renterApi.renterFilesGet();
             result = res;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.getTransferMonitor().update(TransferMonitor.Direction.upload, name, 1174, 1234);
+            app.refreshOverlayIcon((Path) any);
+            times = 0;
         }};
 
         new CheckUploadStateTask(this.ctx).call();
@@ -168,16 +184,14 @@ public class CheckUploadStateTaskTest {
 
     /**
      * Test the case where an uploading file is also deleted. In this case, the file should be marked as DELETED and
-     * the associated cloud file should deleted.
+     * the associated cloud file will be deleted by CollectGarbageTask.
      */
     @Test
     public void uploadingFileDeleted() throws NoSuchMethodException, ApiException, IOException, InvocationTargetException, IllegalAccessException {
 
-        final String slashedCloudPath = APIUtils.toSlash(cloudPath);
-        new Expectations(APIUtils.class) {{
-            APIUtils.toSlash(cloudPath);
-            result = slashedCloudPath;
-            renterApi.renterDeleteSiapathPost(slashedCloudPath);
+        new Expectations() {{
+            renterApi.renterDeleteSiapathPost(anyString);
+            times = 0;
         }};
 
         this.checkStatusAfterExecution(SyncState.DELETED, SyncState.DELETED);
@@ -225,6 +239,7 @@ public class CheckUploadStateTaskTest {
             result = res;
 
             renterApi.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath));
+            times = 0;
         }};
 
         new CheckUploadStateTask(this.ctx).call();
@@ -233,7 +248,311 @@ public class CheckUploadStateTaskTest {
 
     }
 
+    @Test
+    public void queryEachUploadingFile() throws IOException, ApiException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+        DB.setUploading(this.name);
+
+        new Expectations() {{
+            final InlineResponse20011 res = new InlineResponse20011();
+            res.setFile(createCloudFile(1234L, 100));
+            renterApi.renterFileSiapathGet(APIUtils.toSlash(cloudPath));
+            result = res;
+
+            renterApi.renterFilesGet();
+            times = 0;
+        }};
+
+        final CheckUploadStateTask task = new CheckUploadStateTask(this.ctx);
+        Deencapsulation.setField(task, "round", 1);
+        task.call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+        assertFalse(task.isActive());
+
+    }
+
+    @Test
+    public void checkManyUploadingFilesWithListing() throws IOException, ApiException {
+
+        final List<FileInfo> files = new ArrayList<>();
+        for (int i = 0; i <= CheckUploadStateTask.MaxFileQueries; i++) {
+            final String name = String.format("%s-%d", this.name, i);
+            final Path localPath = this.tmpDir.resolve(name);
+            final Path cloudPath = this.ctx.getPathPrefix().resolve(name).resolve(String.valueOf(System.currentTimeMillis()));
+            Files.createFile(localPath);
+            DB.addNewFile(name, localPath);
+            DB.setForUpload(name, localPath, cloudPath);
+            DB.setUploading(name);
+
+            final FileInfo file = new FileInfo();
+            file.setSiapath(cloudPath.toString());
+            file.setLocalpath(localPath.toString());
+            file.setFilesize(1234L);
+            file.setUploadprogress(new BigDecimal(100));
+            files.add(file);
+        }
+
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(files);
+            renterApi.renterFilesGet();
+            result = res;
+
+            renterApi.renterFileSiapathGet(anyString);
+            times = 0;
+        }};
+
+        final CheckUploadStateTask task = new CheckUploadStateTask(this.ctx);
+        Deencapsulation.setField(task, "round", 1);
+        task.call();
+        assertTrue(DBMock.committed);
+        for (int i = 0; i <= CheckUploadStateTask.MaxFileQueries; i++) {
+            assertEquals(SyncState.SYNCED, DB.get(String.format("%s-%d", this.name, i)).get().getState());
+        }
+
+    }
+
+    @Test
+    public void otherVersionsAreIgnoredInListing() throws IOException, ApiException {
+
+        final List<FileInfo> files = new ArrayList<>();
+        for (int i = 0; i <= CheckUploadStateTask.MaxFileQueries; i++) {
+            final String name = String.format("%s-%d", this.name, i);
+            final Path localPath = this.tmpDir.resolve(name);
+            Files.createFile(localPath);
+            DB.addNewFile(name, localPath);
+            DB.setForUpload(name, localPath, this.ctx.getPathPrefix().resolve(name).resolve("1"));
+            DB.setUploading(name);
+
+            final FileInfo file = new FileInfo();
+            file.setSiapath(this.ctx.getPathPrefix().resolve(name).resolve("0").toString());
+            file.setLocalpath(localPath.toString());
+            file.setFilesize(1234L);
+            file.setUploadprogress(new BigDecimal(100));
+            files.add(file);
+        }
+
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(files);
+            renterApi.renterFilesGet();
+            result = res;
+        }};
+
+        final CheckUploadStateTask task = new CheckUploadStateTask(this.ctx);
+        Deencapsulation.setField(task, "round", 1);
+        task.call();
+        for (int i = 0; i <= CheckUploadStateTask.MaxFileQueries; i++) {
+            assertEquals(SyncState.UPLOADING, DB.get(String.format("%s-%d", this.name, i)).get().getState());
+        }
+        assertTrue(task.isActive());
+
+    }
+
     @NotNull
+    @Test
+    public void uploadPack(@Mocked App app) throws ApiException, IOException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+        DB.setUploading(this.name);
+
+        final String packName = Packs.newPackName();
+        final Path packCloudPath = this.ctx.getPathPrefix().resolve(packName).resolve("1234");
+        final Path stagedPath = this.tmpDir.resolve("staged-pack");
+        Files.createFile(stagedPath);
+        DB.addPack(
+                new Pack(packName, packCloudPath, stagedPath, 100, false, null),
+                Collections.singletonList(new PackedFile(packName, this.cloudPath, this.name, 0, 0)));
+
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Collections.emptyList());
+            renterApi.renterFilesGet();
+            result = res;
+
+            final FileInfo pack = new FileInfo();
+            pack.setSiapath(APIUtils.toSlash(packCloudPath));
+            pack.setFilesize(100L);
+            pack.setUploadprogress(new BigDecimal(100));
+            renterApi.renterFileSiapathGet(APIUtils.toSlash(packCloudPath));
+            result = new InlineResponse20011().file(pack);
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+
+        new CheckUploadStateTask(this.ctx).call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+        assertEquals(this.cloudPath, DB.get(this.name).get().getCloudPath().get());
+        assertTrue(DB.getPack(packName).get().isUploaded());
+        assertFalse(DB.getPack(packName).get().getStagedPath().isPresent());
+        assertFalse(Files.exists(stagedPath));
+
+    }
+
+    @Test
+    public void failedToUploadPack(@Mocked App app) throws ApiException, IOException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+        DB.setUploading(this.name);
+
+        final String packName = Packs.newPackName();
+        final Path packCloudPath = this.ctx.getPathPrefix().resolve(packName).resolve("1234");
+        final Path stagedPath = this.tmpDir.resolve("staged-pack");
+        Files.createFile(stagedPath);
+        DB.addPack(
+                new Pack(packName, packCloudPath, stagedPath, 100, false, null),
+                Collections.singletonList(new PackedFile(packName, this.cloudPath, this.name, 0, 0)));
+
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Collections.emptyList());
+            renterApi.renterFilesGet();
+            result = res;
+
+            renterApi.renterFileSiapathGet(APIUtils.toSlash(packCloudPath));
+            result = new ApiException(400, "no file known by that path");
+            renterApi.renterDeleteSiapathPost(APIUtils.toSlash(packCloudPath));
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+
+        new CheckUploadStateTask(this.ctx).call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.UPLOAD_FAILED, DB.get(this.name).get().getState());
+        assertFalse(DB.getPack(packName).isPresent());
+        assertFalse(DB.getPackedFile(this.cloudPath).isPresent());
+        assertFalse(Files.exists(stagedPath));
+
+    }
+
+    @Test
+    public void retryCheckingPackAfterServerError() throws ApiException, IOException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+        DB.setUploading(this.name);
+
+        final String packName = Packs.newPackName();
+        final Path packCloudPath = this.ctx.getPathPrefix().resolve(packName).resolve("1234");
+        DB.addPack(
+                new Pack(packName, packCloudPath, null, 100, false, null),
+                Collections.singletonList(new PackedFile(packName, this.cloudPath, this.name, 0, 0)));
+
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Collections.emptyList());
+            renterApi.renterFilesGet();
+            result = res;
+
+            renterApi.renterFileSiapathGet(APIUtils.toSlash(packCloudPath));
+            result = new ApiException(500, "internal error");
+            renterApi.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+
+        final CheckUploadStateTask task = new CheckUploadStateTask(this.ctx);
+        task.call();
+        assertEquals(SyncState.UPLOADING, DB.get(this.name).get().getState());
+        assertTrue(DB.getPack(packName).isPresent());
+        assertTrue(task.isActive());
+
+    }
+
+    @Test
+    public void uploadChunkedFile(@Mocked App app) throws ApiException, IOException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+        DB.setUploading(this.name);
+
+        final Path chunkCloudPath = this.ctx.getPathPrefix().resolve(Chunks.chunkName("abc")).resolve("1234");
+        final Path manifestPath = this.ctx.getPathPrefix().resolve(Chunks.manifestName(this.name)).resolve("1234");
+        final Path stagedChunk = this.tmpDir.resolve("staged-chunk");
+        Files.createFile(stagedChunk);
+        final Path stagedManifest = this.tmpDir.resolve("staged-manifest");
+        Files.createFile(stagedManifest);
+        DB.addChunk(new Chunk("abc", chunkCloudPath, 100, stagedChunk, false));
+        DB.addChunkedFile(new ChunkedFile(
+                this.cloudPath, this.name, manifestPath, 100, Collections.singletonList("abc"), stagedManifest, false));
+
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Arrays.asList(
+                    new FileInfo().siapath(APIUtils.toSlash(chunkCloudPath)).filesize(100L)
+                            .uploadprogress(new BigDecimal(100)),
+                    new FileInfo().siapath(APIUtils.toSlash(manifestPath)).filesize(10L)
+                            .uploadprogress(new BigDecimal(100))));
+            renterApi.renterFilesGet();
+            result = res;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+
+        new CheckUploadStateTask(this.ctx).call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+        assertEquals(this.cloudPath, DB.get(this.name).get().getCloudPath().get());
+        assertTrue(DB.getChunk("abc").get().isUploaded());
+        assertTrue(DB.getChunkedFile(this.cloudPath).get().isUploaded());
+        assertFalse(Files.exists(stagedChunk));
+        assertFalse(Files.exists(stagedManifest));
+
+    }
+
+    @Test
+    public void failedToUploadChunk(@Mocked App app) throws ApiException, IOException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+        DB.setUploading(this.name);
+
+        final Path chunkCloudPath = this.ctx.getPathPrefix().resolve(Chunks.chunkName("abc")).resolve("1234");
+        final Path manifestPath = this.ctx.getPathPrefix().resolve(Chunks.manifestName(this.name)).resolve("1234");
+        final Path stagedChunk = this.tmpDir.resolve("staged-chunk");
+        Files.createFile(stagedChunk);
+        final Path stagedManifest = this.tmpDir.resolve("staged-manifest");
+        Files.createFile(stagedManifest);
+        DB.addChunk(new Chunk("abc", chunkCloudPath, 100, stagedChunk, false));
+        DB.addChunkedFile(new ChunkedFile(
+                this.cloudPath, this.name, manifestPath, 100, Collections.singletonList("abc"), stagedManifest, false));
+
+        new Expectations() {{
+            // The chunk is missing while the manifest has been uploaded.
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Collections.singletonList(
+                    new FileInfo().siapath(APIUtils.toSlash(manifestPath)).filesize(10L)
+                            .uploadprogress(new BigDecimal(100))));
+            renterApi.renterFilesGet();
+            result = res;
+            renterApi.renterDeleteSiapathPost(APIUtils.toSlash(manifestPath));
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+
+        new CheckUploadStateTask(this.ctx).call();
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.UPLOAD_FAILED, DB.get(this.name).get().getState());
+        assertFalse(DB.getChunk("abc").isPresent());
+        assertFalse(DB.getChunkedFile(this.cloudPath).isPresent());
+        assertFalse(Files.exists(stagedChunk));
+        assertFalse(Files.exists(stagedManifest));
+
+    }
+
     private FileInfo createCloudFile(long fileSize, double progress) {
         final FileInfo file = new FileInfo();
         file.setSiapath(this.cloudPath.toString());
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.ChunkManifest;
+import mockit.Deencapsulation;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings({"ConstantConditions", "ResultOfMethodCallIgnored"})
+@RunWith(JMockit.class)
+public class ChunksTest {
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Path stagingDir;
+    private Context context;
+    private byte[] chunk1;
+    private byte[] chunk2;
+    private String digest1;
+    private String digest2;
+    private Path chunkCloudPath1;
+    private Path chunkCloudPath2;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.stagingDir = Files.createTempDirectory(null);
+
+        final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(cfg, "userName", "test-user");
+        Deencapsulation.setField(cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        Deencapsulation.setField(cfg, "stagingDir", this.stagingDir.toAbsolutePath());
+        this.context = new Context(cfg);
+
+        this.chunk1 = "first chunk".getBytes(StandardCharsets.UTF_8);
+        this.chunk2 = "second chunk".getBytes(StandardCharsets.UTF_8);
+        this.digest1 = DigestUtils.sha256Hex(this.chunk1);
+        this.digest2 = DigestUtils.sha256Hex(this.chunk2);
+        this.chunkCloudPath1 = this.context.getPathPrefix().resolve(Chunks.chunkName(this.digest1)).resolve("1000");
+        this.chunkCloudPath2 = this.context.getPathPrefix().resolve(Chunks.chunkName(this.digest2)).resolve("2000");
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+        FileUtils.deleteDirectory(this.stagingDir.toFile());
+    }
+
+    @Test
+    public void expandManifestOfAnotherClient() throws ApiException, IOException {
+
+        final String name = Paths.get("dir", "file").toString();
+        final Path manifestPath = this.context.getPathPrefix().resolve(Chunks.manifestName(name)).resolve("5000");
+        final Path manifestFile = this.tmpDir.resolve("manifest");
+        new ChunkManifest(this.chunk1.length + this.chunk2.length, Arrays.asList(
+                new ChunkManifest.Entry(this.digest1, 0, this.chunk1.length),
+                new ChunkManifest.Entry(this.digest2, this.chunk1.length, this.chunk2.length))).write(manifestFile);
+        final byte[] manifest = Files.readAllBytes(manifestFile);
+
+        new Expectations() {{
+            api.renterDownloadSiapathGet(APIUtils.toSlash(manifestPath), anyString, false, false, anyLong, anyLong);
+            result = new Delegate<Object>() {
+                @SuppressWarnings("unused")
+                void download(String siapath, String destination, Boolean async, Boolean httpresp, Long length, Long offset)
+                        throws IOException {
+                    Files.write(Paths.get(destination), manifest);
+                }
+            };
+            times = 1;
+        }};
+
+        final FileInfo other = this.cloudFile(this.context.getPathPrefix().resolve("other").resolve("4000"), 10);
+        final FileInfo manifestInfo = this.cloudFile(manifestPath, manifest.length);
+        final FileInfo chunkInfo1 = this.cloudFile(this.chunkCloudPath1, this.chunk1.length);
+        final FileInfo chunkInfo2 = this.cloudFile(this.chunkCloudPath2, this.chunk2.length);
+        final List<FileInfo> res = Chunks.expand(this.context, Arrays.asList(chunkInfo1, chunkInfo2, manifestInfo, other));
+
+        final Path cloudPath = this.context.getPathPrefix().resolve(name).resolve("5000");
+        assertEquals(
+                Arrays.asList(APIUtils.toSlash(cloudPath), other.getSiapath()),
+                res.stream().map(FileInfo::getSiapath).sorted().collect(Collectors.toList()));
+        assertEquals(this.chunk1.length + this.chunk2.length, (long) res.stream()
+                .filter(file -> file.getSiapath().equals(APIUtils.toSlash(cloudPath)))
+                .findFirst().get().getFilesize());
+
+        assertEquals(
+                new Chunk(this.digest1, this.chunkCloudPath1, this.chunk1.length, null, true),
+                DB.getChunk(this.digest1).get());
+        final ChunkedFile chunkedFile = DB.getChunkedFile(cloudPath).get();
+        assertEquals(name, chunkedFile.getName());
+        assertEquals(manifestPath, chunkedFile.getManifestPath());
+        assertEquals(Arrays.asList(this.digest1, this.digest2), chunkedFile.getChunks());
+        assertTrue(chunkedFile.isUploaded());
+
+        // Known manifests are expanded without reading them, and versions missing chunks are dropped.
+        new Expectations() {{
+            api.renterDownloadSiapathGet(anyString, anyString, anyBoolean, anyBoolean, anyLong, anyLong);
+            times = 0;
+        }};
+        assertEquals(
+                Collections.singletonList(other.getSiapath()),
+                Chunks.expand(this.context, Arrays.asList(chunkInfo1, manifestInfo, other))
+                        .stream().map(FileInfo::getSiapath).collect(Collectors.toList()));
+        assertFalse(DB.getChunk(this.digest2).isPresent());
+
+        // Records of chunks and manifests which are not listed anymore are removed.
+        assertTrue(Chunks.expand(this.context, Collections.emptyList()).isEmpty());
+        assertFalse(DB.getChunk(this.digest1).isPresent());
+        assertFalse(DB.getChunkedFile(cloudPath).isPresent());
+
+    }
+
+    @Test
+    public void expandChunkedFileBeingUploaded() throws ApiException {
+
+        final Path cloudPath = this.context.getPathPrefix().resolve("file").resolve("5000");
+        final Path manifestPath = this.context.getPathPrefix().resolve(Chunks.manifestName("file")).resolve("5000");
+        DB.addChunk(new Chunk(this.digest1, this.chunkCloudPath1, this.chunk1.length, this.tmpDir.resolve("c"), false));
+        DB.addChunkedFile(new ChunkedFile(
+                cloudPath, "file", manifestPath, this.chunk1.length, Collections.singletonList(this.digest1),
+                this.tmpDir.resolve("m"), false));
+
+        new Expectations() {{
+            api.renterDownloadSiapathGet(anyString, anyString, anyBoolean, anyBoolean, anyLong, anyLong);
+            times = 0;
+        }};
+
+        // Versions are dropped until their chunks are available.
+        assertTrue(Chunks.expand(this.context, Arrays.asList(
+                this.cloudFile(this.chunkCloudPath1, this.chunk1.length).available(false),
+                this.cloudFile(manifestPath, 100))).isEmpty());
+
+        assertEquals(
+                Collections.singletonList(APIUtils.toSlash(cloudPath)),
+                Chunks.expand(this.context, Arrays.asList(
+                        this.cloudFile(this.chunkCloudPath1, this.chunk1.length),
+                        this.cloudFile(manifestPath, 100)))
+                        .stream().map(FileInfo::getSiapath).collect(Collectors.toList()));
+
+        // Records being uploaded are kept even if they are not listed.
+        assertTrue(Chunks.expand(this.context, Collections.emptyList()).isEmpty());
+        assertTrue(DB.getChunk(this.digest1).isPresent());
+        assertTrue(DB.getChunkedFile(cloudPath).isPresent());
+
+    }
+
+    @Test
+    public void downloadReusesLocalChunks() throws ApiException, IOException {
+
+        // The local file consists of the first chunk only.
+        final Path localPath = this.tmpDir.resolve("file");
+        Files.write(localPath, this.chunk1);
+
+        final Path cloudPath = this.context.getPathPrefix().resolve("file").resolve("5000");
+        final ChunkedFile file = new ChunkedFile(
+                cloudPath, "file", this.context.getPathPrefix().resolve(Chunks.manifestName("file")).resolve("5000"),
+                this.chunk1.length + this.chunk2.length, Arrays.asList(this.digest1, this.digest2), null, true);
+        DB.addChunk(new Chunk(this.digest1, this.chunkCloudPath1, this.chunk1.length, null, true));
+        DB.addChunk(new Chunk(this.digest2, this.chunkCloudPath2, this.chunk2.length, null, true));
+
+        new Expectations() {{
+            api.renterDownloadSiapathGet(
+                    APIUtils.toSlash(chunkCloudPath2), anyString, false, false, (long) chunk2.length, 0L);
+            result = new Delegate<Object>() {
+                @SuppressWarnings("unused")
+                void download(String siapath, String destination, Boolean async, Boolean httpresp, Long length, Long offset)
+                        throws IOException {
+                    Files.write(Paths.get(destination), chunk2);
+                }
+            };
+            times = 1;
+            api.renterDownloadSiapathGet(
+                    APIUtils.toSlash(chunkCloudPath1), anyString, anyBoolean, anyBoolean, anyLong, anyLong);
+            times = 0;
+        }};
+
+        final Path destination = this.tmpDir.resolve("destination");
+        Chunks.download(this.context, file, destination, localPath);
+
+        final byte[] expected = new byte[this.chunk1.length + this.chunk2.length];
+        System.arraycopy(this.chunk1, 0, expected, 0, this.chunk1.length);
+        System.arraycopy(this.chunk2, 0, expected, this.chunk1.length, this.chunk2.length);
+        assertArrayEquals(expected, Files.readAllBytes(destination));
+
+    }
+
+    @Test
+    public void downloadBrokenChunk() throws ApiException {
+
+        final Path cloudPath = this.context.getPathPrefix().resolve("file").resolve("5000");
+        final ChunkedFile file = new ChunkedFile(
+                cloudPath, "file", this.context.getPathPrefix().resolve(Chunks.manifestName("file")).resolve("5000"),
+                this.chunk1.length, Collections.singletonList(this.digest1), null, true);
+        DB.addChunk(new Chunk(this.digest1, this.chunkCloudPath1, this.chunk1.length, null, true));
+
+        new Expectations() {{
+            api.renterDownloadSiapathGet(anyString, anyString, false, false, anyLong, anyLong);
+            result = new Delegate<Object>() {
+                @SuppressWarnings("unused")
+                void download(String siapath, String destination, Boolean async, Boolean httpresp, Long length, Long offset)
+                        throws IOException {
+                    Files.write(Paths.get(destination), "broken data".getBytes(StandardCharsets.UTF_8));
+                }
+            };
+        }};
+
+        try {
+            Chunks.download(this.context, file, this.tmpDir.resolve("destination"), this.tmpDir.resolve("not-exist"));
+            fail();
+        } catch (final IOException e) {
+            // expected.
+        }
+
+    }
+
+    @Test
+    public void names() {
+
+        final String name = Paths.get("dir", "file").toString();
+        assertTrue(Chunks.isChunk(Chunks.chunkName(this.digest1)));
+        assertFalse(Chunks.isChunk(name));
+        assertEquals(this.digest1, Chunks.getDigest(Chunks.chunkName(this.digest1)));
+
+        assertTrue(Chunks.isManifest(Chunks.manifestName(name)));
+        assertFalse(Chunks.isManifest(name));
+        assertEquals(name, Chunks.getFileName(Chunks.manifestName(name)));
+        assertEquals(name, Chunks.getFileName(name));
+
+    }
+
+    @Test
+    public void isChunkable() throws IOException {
+
+        final Path file = this.tmpDir.resolve("file");
+        Files.write(file, this.chunk1);
+        assertFalse(Chunks.isChunkable(this.context, file));
+
+        Deencapsulation.setField(this.context.getConfig(), "chunkThreshold", (long) this.chunk1.length + 1);
+        assertFalse(Chunks.isChunkable(this.context, file));
+        Deencapsulation.setField(this.context.getConfig(), "chunkThreshold", (long) this.chunk1.length);
+        assertTrue(Chunks.isChunkable(this.context, file));
+        assertFalse(Chunks.isChunkable(this.context, this.tmpDir.resolve("not-exist")));
+
+    }
+
+    private FileInfo cloudFile(final Path cloudPath, final long size) {
+        return new FileInfo().siapath(APIUtils.toSlash(cloudPath)).filesize(size).available(true);
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.client.api.model.InlineResponse20012;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.mocks.DBMock;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.VerificationsInOrder;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JMockit.class)
+public class CollectGarbageTaskTest {
+
+    private static final long FileSize = 1234L;
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Config cfg;
+    private Context ctx;
+    private String name;
+    private Path localPath;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+
+        this.cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(this.cfg, "userName", "test-user");
+        Deencapsulation.setField(this.cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        this.ctx = new Context(this.cfg);
+
+        this.name = String.format("file-%x", System.currentTimeMillis());
+        this.localPath = this.tmpDir.resolve(this.name);
+        Files.createFile(this.localPath);
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    @Test
+    public void deleteSupersededVersions() throws IOException, ApiException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath(3));
+        DB.setUploading(this.name);
+
+        this.listFiles(
+                this.createFileInfo(this.cloudPath(2), true),
+                this.createFileInfo(this.cloudPath(1), true),
+                this.createFileInfo(this.cloudPath(3), true));
+
+        final CollectGarbageTask task = this.createTask();
+        task.call();
+
+        new VerificationsInOrder() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(1)));
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(2)));
+        }};
+        assertEquals(2, task.getCollectedFiles());
+        assertEquals(2 * FileSize, task.getReclaimedBytes());
+
+    }
+
+    @Test
+    public void keepReferencedVersion() throws IOException, ApiException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath(1));
+
+        this.listFiles(
+                this.createFileInfo(this.cloudPath(0), true),
+                this.createFileInfo(this.cloudPath(1), true),
+                this.createFileInfo(this.cloudPath(2), true));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(0)));
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(1)));
+            times = 0;
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(2)));
+            times = 0;
+        }};
+        this.createTask().call();
+
+    }
+
+    @Test
+    public void deleteAbandonedUploads() throws IOException, ApiException {
+
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath(2));
+        DB.setUploading(this.name);
+
+        this.listFiles(
+                this.createFileInfo(this.cloudPath(1), false),
+                this.createFileInfo(this.cloudPath(2), false));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(1)));
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(2)));
+            times = 0;
+        }};
+        this.createTask().call();
+
+    }
+
+    @Test
+    public void deleteUploadsOfModifiedFiles() throws IOException, ApiException {
+
+        DB.addNewFile(this.name, this.localPath);
+
+        this.listFiles(this.createFileInfo(this.cloudPath(1), false));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(1)));
+        }};
+        this.createTask().call();
+
+    }
+
+    @Test
+    public void deleteUnusedChunks() throws ApiException {
+
+        final long now = System.currentTimeMillis();
+        DB.addChunk(new Chunk("referenced", this.chunkPath("referenced", 1), FileSize, null, true));
+        DB.addChunk(new Chunk("unreferenced", this.chunkPath("unreferenced", 1), FileSize, null, true));
+        DB.addChunkedFile(new ChunkedFile(
+                this.cloudPath(1), this.name,
+                this.ctx.getPathPrefix().resolve(Chunks.manifestName(this.name)).resolve("1"),
+                FileSize, Collections.singletonList("referenced"), null, true));
+
+        this.listFiles(
+                this.createFileInfo(this.chunkPath("referenced", 1), true),
+                this.createFileInfo(this.chunkPath("referenced", 2), true),
+                this.createFileInfo(this.chunkPath("unreferenced", 1), true),
+                this.createFileInfo(this.chunkPath("recent", now), true));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(chunkPath("referenced", 1)));
+            times = 0;
+            api.renterDeleteSiapathPost(APIUtils.toSlash(chunkPath("referenced", 2)));
+            api.renterDeleteSiapathPost(APIUtils.toSlash(chunkPath("unreferenced", 1)));
+            api.renterDeleteSiapathPost(APIUtils.toSlash(chunkPath("recent", now)));
+            times = 0;
+        }};
+        final CollectGarbageTask task = this.createTask();
+        task.call();
+
+        assertEquals(2, task.getCollectedFiles());
+        assertTrue(DB.getChunk("referenced").isPresent());
+        assertFalse(DB.getChunk("unreferenced").isPresent());
+
+    }
+
+    @Test
+    public void keepAvailableFilesNotInDB() throws ApiException {
+
+        this.listFiles(
+                this.createFileInfo(this.cloudPath(1), true),
+                this.createFileInfo(this.cloudPath(2), false));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(1)));
+            times = 0;
+            api.renterDeleteSiapathPost(APIUtils.toSlash(cloudPath(2)));
+        }};
+        this.createTask().call();
+
+    }
+
+    @Test
+    public void ignoreFilesOutsidePathPrefix() throws ApiException {
+
+        this.listFiles(this.createFileInfo(Paths.get("other-user", "Goobox", this.name, "1"), false));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+        this.createTask().call();
+
+    }
+
+    @Test
+    public void dryRun() throws ApiException {
+
+        Deencapsulation.setField(this.cfg, "gcDryRun", true);
+        this.listFiles(
+                this.createFileInfo(this.cloudPath(1), true),
+                this.createFileInfo(this.cloudPath(2), true));
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+        final CollectGarbageTask task = this.createTask();
+        task.call();
+        assertEquals(1, task.getCollectedFiles());
+        assertEquals(FileSize, task.getReclaimedBytes());
+
+    }
+
+    @Test
+    public void deleteInBatches() throws ApiException {
+
+        final List<FileInfo> files = new ArrayList<>();
+        for (int i = 0; i <= CollectGarbageTask.BatchSize + 5; i++) {
+            files.add(this.createFileInfo(this.cloudPath(i), true));
+        }
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(files);
+            api.renterFilesGet();
+            result = res;
+
+            api.renterDeleteSiapathPost(anyString);
+            times = CollectGarbageTask.BatchSize;
+        }};
+
+        final CollectGarbageTask task = this.createTask();
+        task.call();
+        assertEquals(CollectGarbageTask.BatchSize, task.getCollectedFiles());
+
+    }
+
+    @NotNull
+    private CollectGarbageTask createTask() {
+        final CollectGarbageTask task = new CollectGarbageTask(this.ctx);
+        Deencapsulation.setField(task, "deleteInterval", 0L);
+        return task;
+    }
+
+    @NotNull
+    private Path cloudPath(final long timestamp) {
+        return this.ctx.getPathPrefix().resolve(this.name).resolve(String.valueOf(timestamp));
+    }
+
+    @NotNull
+    private Path chunkPath(@NotNull final String digest, final long timestamp) {
+        return this.ctx.getPathPrefix().resolve(Chunks.chunkName(digest)).resolve(String.valueOf(timestamp));
+    }
+
+    private void listFiles(@NotNull final FileInfo... files) throws ApiException {
+        new Expectations() {{
+            final InlineResponse20012 res = new InlineResponse20012();
+            res.setFiles(Arrays.asList(files));
+            api.renterFilesGet();
+            result = res;
+        }};
+    }
+
+    @NotNull
+    private FileInfo createFileInfo(@NotNull final Path cloudPath, final boolean available) {
+        final FileInfo file = new FileInfo();
+        file.setSiapath(APIUtils.toSlash(cloudPath));
+        file.setLocalpath(this.localPath.toString());
+        file.setFilesize(FileSize);
+        file.setAvailable(available);
+        file.setUploadprogress(new BigDecimal(available ? 100 : 50));
+        return file;
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.PackIndex;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings({"ConstantConditions", "ResultOfMethodCallIgnored"})
+@RunWith(JMockit.class)
+public class CompactPacksTaskTest {
+
+    @Mocked
+    private App app;
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Path stagingDir;
+    private Context context;
+    private String packName;
+    private Path packCloudPath;
+    private List<String> names;
+    private List<Path> cloudPaths;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.stagingDir = Files.createTempDirectory(null);
+
+        final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(cfg, "userName", "test-user");
+        Deencapsulation.setField(cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        Deencapsulation.setField(cfg, "stagingDir", this.stagingDir.toAbsolutePath());
+        Deencapsulation.setField(cfg, "packThreshold", 1024L);
+        this.context = new Context(cfg);
+
+        this.packName = Packs.newPackName();
+        this.packCloudPath = this.context.getPathPrefix().resolve(this.packName).resolve("1000");
+        this.names = Arrays.asList("file-0", "file-1", "file-2");
+        this.cloudPaths = this.names.stream()
+                .map(name -> this.context.getPathPrefix().resolve(name).resolve("1234"))
+                .collect(Collectors.toList());
+
+        long offset = 0;
+        final List<PackedFile> packedFiles = new ArrayList<>();
+        for (int i = 0; i != this.names.size(); i++) {
+            final Path localPath = this.tmpDir.resolve(this.names.get(i));
+            final byte[] body = String.format("body of %s", this.names.get(i)).getBytes(StandardCharsets.UTF_8);
+            Files.write(localPath, body);
+            final FileInfo file = new FileInfo()
+                    .siapath(APIUtils.toSlash(this.cloudPaths.get(i)))
+                    .filesize((long) body.length);
+            DB.setSynced(new SiaFileFromFilesAPI(this.context, file), localPath);
+            packedFiles.add(new PackedFile(this.packName, this.cloudPaths.get(i), this.names.get(i), offset, body.length));
+            offset += body.length;
+        }
+        DB.addPack(new Pack(this.packName, this.packCloudPath, null, offset + 100, true, null), packedFiles);
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+        FileUtils.deleteDirectory(this.stagingDir.toFile());
+    }
+
+    @Test
+    public void compactPackHavingDeletedFile() throws ApiException, IOException {
+
+        for (final String name : this.names.subList(1, this.names.size())) {
+            DB.remove(name);
+            DB.setPackedFilesDeleted(name);
+        }
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 1;
+            api.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+        new CompactPacksTask(this.context).call();
+        assertTrue(DBMock.committed);
+
+        final List<Pack> packs = DB.getPacks().stream()
+                .filter(pack -> !pack.getName().equals(this.packName))
+                .collect(Collectors.toList());
+        assertEquals(1, packs.size());
+        final Pack pack = packs.get(0);
+        assertFalse(pack.isUploaded());
+        assertEquals(Optional.of(this.packName), pack.getReplaces());
+        assertEquals(
+                Collections.singletonList(this.cloudPaths.get(0)),
+                DB.getPackedFiles(pack.getName()).stream().map(PackedFile::getCloudPath).collect(Collectors.toList()));
+        assertEquals(
+                Collections.singletonList(new PackIndex.Entry(this.names.get(0), 1234L, 0, 14)),
+                PackIndex.read(pack.getStagedPath().get()).getFiles());
+
+        // The old pack is still used until the new pack is uploaded.
+        assertEquals(this.packName, DB.getPackedFile(this.cloudPaths.get(0)).get().getPack());
+
+        // Packs being replaced aren't compacted again.
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 0;
+        }};
+        new CompactPacksTask(this.context).call();
+
+    }
+
+    @Test
+    public void deletePackWithoutLiveFiles() throws ApiException {
+
+        for (final String name : this.names) {
+            DB.remove(name);
+            DB.setPackedFilesDeleted(name);
+        }
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(packCloudPath));
+            times = 1;
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 0;
+        }};
+        new CompactPacksTask(this.context).call();
+        assertFalse(DB.getPack(this.packName).isPresent());
+        assertTrue(DB.getPackedFiles(this.packName).isEmpty());
+
+    }
+
+    @Test
+    public void keepPackWithoutGarbage() throws ApiException, IOException {
+
+        // Packs without enough garbage are kept without reading their files.
+        new Expectations(DigestUtils.class) {{
+            DigestUtils.sha512((InputStream) any);
+            times = 0;
+        }};
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 0;
+            api.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+        new CompactPacksTask(this.context).call();
+        assertTrue(DB.getPack(this.packName).isPresent());
+
+    }
+
+    @Test
+    public void keepPackHavingLittleGarbage() throws ApiException, IOException {
+
+        DB.remove(this.names.get(1));
+        DB.setPackedFilesDeleted(this.names.get(1));
+
+        new Expectations(DigestUtils.class) {{
+            DigestUtils.sha512((InputStream) any);
+            times = 0;
+        }};
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 0;
+            api.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+        new CompactPacksTask(this.context).call();
+        assertTrue(DB.getPack(this.packName).isPresent());
+        assertTrue(DB.getPackedFile(this.cloudPaths.get(1)).get().isDeleted());
+
+    }
+
+    @Test
+    public void postponePackHavingFileBeingSynchronized() throws ApiException, IOException {
+
+        for (final String name : this.names.subList(1, this.names.size())) {
+            DB.remove(name);
+            DB.setPackedFilesDeleted(name);
+        }
+        Files.write(this.tmpDir.resolve(this.names.get(0)), "modified".getBytes(StandardCharsets.UTF_8));
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 0;
+            api.renterDeleteSiapathPost(anyString);
+            times = 0;
+        }};
+        new CompactPacksTask(this.context).call();
+        assertEquals(1, DB.getPacks().size());
+
+    }
+
+    @Test
+    public void deleteReplacedPack() throws ApiException {
+
+        final String newPackName = Packs.newPackName();
+        DB.addPack(
+                new Pack(newPackName, this.context.getPathPrefix().resolve(newPackName).resolve("2000"), null, 100, true, this.packName),
+                Collections.emptyList());
+
+        new Expectations() {{
+            api.renterDeleteSiapathPost(APIUtils.toSlash(packCloudPath));
+            times = 1;
+        }};
+        new CompactPacksTask(this.context).call();
+        assertFalse(DB.getPack(this.packName).isPresent());
+        assertTrue(DB.getPack(newPackName).isPresent());
+
+    }
+
+}
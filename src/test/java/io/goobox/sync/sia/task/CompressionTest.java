@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.model.Codec;
+import mockit.Deencapsulation;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("ConstantConditions")
+public class CompressionTest {
+
+    private Path tmpDir;
+    private Path stagingDir;
+    private Config cfg;
+    private Context context;
+    private byte[] text;
+    private byte[] random;
+
+    @Before
+    public void setUp() throws IOException {
+
+        this.tmpDir = Files.createTempDirectory(null);
+        this.stagingDir = Files.createTempDirectory(null);
+
+        this.cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(this.cfg, "userName", "test-user");
+        Deencapsulation.setField(this.cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        Deencapsulation.setField(this.cfg, "stagingDir", this.stagingDir.toAbsolutePath());
+        this.context = new Context(this.cfg);
+
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i != 10000; i++) {
+            builder.append(String.format("%05d: the quick brown fox jumps over the lazy dog%n", i));
+        }
+        this.text = builder.toString().getBytes(StandardCharsets.UTF_8);
+        this.random = new byte[this.text.length];
+        new Random(1).nextBytes(this.random);
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+        FileUtils.deleteDirectory(this.stagingDir.toFile());
+    }
+
+    @Test
+    public void isCompressible() throws IOException {
+
+        final Path textFile = this.tmpDir.resolve("file.txt");
+        Files.write(textFile, this.text);
+        assertFalse(Compression.isCompressible(this.context, textFile));
+
+        Deencapsulation.setField(this.cfg, "compressionThreshold", (long) this.text.length + 1);
+        assertFalse(Compression.isCompressible(this.context, textFile));
+        Deencapsulation.setField(this.cfg, "compressionThreshold", (long) this.text.length);
+        assertTrue(Compression.isCompressible(this.context, textFile));
+
+        // Files of compressed formats are skipped by their extensions even if their bodies are compressible.
+        final Path zipFile = this.tmpDir.resolve("file.ZIP");
+        Files.write(zipFile, this.text);
+        assertFalse(Compression.isCompressible(this.context, zipFile));
+
+        // Files of which samples aren't compressed are skipped.
+        final Path randomFile = this.tmpDir.resolve("file.bin");
+        Files.write(randomFile, this.random);
+        assertFalse(Compression.isCompressible(this.context, randomFile));
+
+        assertFalse(Compression.isCompressible(this.context, this.tmpDir.resolve("not-exist")));
+
+    }
+
+    @Test
+    public void compressAndDecode() throws IOException {
+
+        final Path file = this.tmpDir.resolve("file.txt");
+        Files.write(file, this.text);
+
+        final Path stagedPath = Compression.compress(this.context, file).get();
+        assertTrue(this.context.getStagingArea().contains(stagedPath));
+        assertTrue(Files.size(stagedPath) <= this.text.length * Compression.MaxRatio);
+        try (final InputStream in = Codec.gzip.decode(Files.newInputStream(stagedPath))) {
+            assertArrayEquals(this.text, IOUtils.toByteArray(in));
+        }
+
+        Compression.decode(this.context, Codec.gzip, stagedPath);
+        assertArrayEquals(this.text, Files.readAllBytes(stagedPath));
+        try (final Stream<Path> files = Files.list(this.stagingDir)) {
+            assertArrayEquals(new Object[]{stagedPath}, files.toArray());
+        }
+
+    }
+
+    @Test
+    public void compressIncompressibleFile() throws IOException {
+
+        // The sample is compressible but the rest of the file isn't.
+        final byte[] body = new byte[this.text.length + this.random.length * 10];
+        System.arraycopy(this.text, 0, body, 0, this.text.length);
+        for (int i = 0; i != 10; i++) {
+            System.arraycopy(this.random, 0, body, this.text.length + this.random.length * i, this.random.length);
+        }
+        final Path file = this.tmpDir.resolve("file.bin");
+        Files.write(file, body);
+
+        assertEquals(Optional.empty(), Compression.compress(this.context, file));
+        try (final Stream<Path> files = Files.list(this.stagingDir)) {
+            assertEquals(0, files.count());
+        }
+
+    }
+
+    @Test
+    public void decodeBrokenFile() throws IOException {
+
+        final Path tempPath = this.context.getStagingArea().allocate(this.text.length);
+        Files.write(tempPath, this.text);
+        try {
+            Compression.decode(this.context, Codec.gzip, tempPath);
+            fail("a file which isn't compressed is decoded");
+        } catch (final IOException e) {
+            // expected.
+        }
+        assertArrayEquals(this.text, Files.readAllBytes(tempPath));
+        try (final Stream<Path> files = Files.list(this.stagingDir)) {
+            assertEquals(1, files.count());
+        }
+
+    }
+
+}
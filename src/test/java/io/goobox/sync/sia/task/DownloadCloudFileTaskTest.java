@@ -25,9 +25,12 @@ import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.db.CloudFile;
 import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
 import io.goobox.sync.sia.db.SyncState;
 import io.goobox.sync.sia.mocks.DBMock;
 import mockit.Deencapsulation;
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
@@ -39,8 +42,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -98,7 +104,7 @@ public class DownloadCloudFileTaskTest {
             public long getFileSize() {
                 return System.currentTimeMillis();
             }
-        }, this.localPath);
+        }, this.localPath, Files.createTempFile(this.tmpDir, null, null));
         DBMock.committed = false;
 
     }
@@ -217,4 +223,39 @@ public class DownloadCloudFileTaskTest {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Test a file bundled in a pack is read from the pack synchronously and moved to the local path.
+     */
+    @Test
+    public void downloadPackedFile() throws ApiException, IOException {
+
+        final String packName = Packs.newPackName();
+        final Path packCloudPath = this.ctx.getPathPrefix().resolve(packName).resolve("1234");
+        DB.addPack(
+                new Pack(packName, packCloudPath, null, 100, true, null),
+                Collections.singletonList(new PackedFile(packName, this.remotePath, this.name, 3, 5)));
+
+        final Path tempPath = DB.get(this.name).get().getTemporaryPath().get();
+        new Expectations() {{
+            api.renterDownloadSiapathGet(
+                    APIUtils.toSlash(packCloudPath), APIUtils.toSlash(tempPath), false, false, 5L, 3L);
+            result = new Delegate<Object>() {
+                @SuppressWarnings("unused")
+                void download(String siapath, String destination, Boolean async, Boolean httpresp, Long length, Long offset)
+                        throws IOException {
+                    Files.write(Paths.get(destination), "hello".getBytes(StandardCharsets.UTF_8));
+                }
+            };
+            api.renterDownloadasyncSiapathGet(anyString, anyString);
+            times = 0;
+        }};
+        new DownloadCloudFileTask(this.ctx, this.name).call();
+
+        assertTrue(DBMock.committed);
+        assertEquals(SyncState.SYNCED, DB.get(this.name).get().getState());
+        assertEquals("hello", new String(Files.readAllBytes(this.localPath), StandardCharsets.UTF_8));
+        assertFalse(Files.exists(tempPath));
+
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.StoredContent;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("ConstantConditions")
+@RunWith(JMockit.class)
+public class MoveCloudFileTaskTest {
+
+    @Mocked
+    private RenterApi api;
+
+    @Mocked
+    private App app;
+
+    private Path tmpDir;
+    private Context context;
+    private byte[] body;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        MetricsRegistry.getDefault().clear();
+        this.tmpDir = Files.createTempDirectory(null);
+
+        final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(cfg, "userName", "test-user");
+        Deencapsulation.setField(cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        this.context = new Context(cfg);
+        this.body = "some body".getBytes(StandardCharsets.UTF_8);
+
+        // old-name was renamed to new-name.
+        final Path oldPath = this.context.getLocalPath("old-name");
+        Files.write(oldPath, this.body);
+        Files.setLastModifiedTime(oldPath, FileTime.fromMillis(1000));
+        DB.setSynced(new SiaFileFromFilesAPI(this.context, new FileInfo()
+                .siapath(APIUtils.toSlash(this.getCloudPath("old-name", 1000)))
+                .filesize((long) this.body.length)), oldPath);
+
+        final Path newPath = this.context.getLocalPath("new-name");
+        Files.move(oldPath, newPath);
+        Files.setLastModifiedTime(newPath, FileTime.fromMillis(2000));
+        DB.setForMove("old-name", "new-name", newPath, DigestUtils.sha512(this.body));
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    private Path getCloudPath(final String name, final long creationTime) {
+        return this.context.getPathPrefix().resolve(name).resolve(Long.toString(creationTime));
+    }
+
+    @Test
+    public void moveCloudFile() throws ApiException {
+
+        assertEquals(SyncState.FOR_MOVE, DB.get("new-name").get().getState());
+        assertEquals(SyncState.FOR_CLOUD_DELETE, DB.get("old-name").get().getState());
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(
+                    APIUtils.toSlash(getCloudPath("old-name", 1000)), APIUtils.toSlash(getCloudPath("new-name", 2000)));
+        }};
+        new MoveCloudFileTask(this.context, "new-name").call();
+
+        final SyncFile syncFile = DB.get("new-name").get();
+        assertEquals(SyncState.SYNCED, syncFile.getState());
+        assertEquals(this.getCloudPath("new-name", 2000), syncFile.getCloudPath().get());
+        assertEquals(2000L, (long) syncFile.getLocalModificationTime().get());
+        assertEquals(SyncState.DELETED, DB.get("old-name").get().getState());
+        assertEquals(
+                Collections.singletonList(this.getCloudPath("new-name", 2000)),
+                DB.getStoredContents(syncFile.getLocalDigest().get()).stream()
+                        .map(StoredContent::getCloudPath).collect(Collectors.toList()));
+
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        assertEquals(1, registry.counter(MoveCloudFileTask.MovedFilesMetric, "").get());
+        assertEquals(this.body.length, registry.counter(MoveCloudFileTask.MovedBytesMetric, "").get());
+
+    }
+
+    @Test
+    public void uploadIfFailedToMove() throws ApiException {
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(anyString, anyString);
+            result = new ApiException();
+        }};
+        new MoveCloudFileTask(this.context, "new-name").call();
+
+        assertEquals(SyncState.MODIFIED, DB.get("new-name").get().getState());
+        assertEquals(SyncState.DELETED, DB.get("old-name").get().getState());
+
+    }
+
+    @Test
+    public void deleteIfMovedFileModified() throws ApiException, IOException {
+
+        final Path newPath = this.context.getLocalPath("new-name");
+        Files.write(newPath, "other body".getBytes(StandardCharsets.UTF_8));
+        DB.setModified("new-name", newPath);
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(anyString, anyString);
+            times = 0;
+        }};
+        new MoveCloudFileTask(this.context, "new-name").call();
+
+        assertEquals(SyncState.MODIFIED, DB.get("new-name").get().getState());
+        assertEquals(SyncState.DELETED, DB.get("old-name").get().getState());
+
+    }
+
+}
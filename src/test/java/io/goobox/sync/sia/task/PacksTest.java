@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.PackIndex;
+import mockit.Deencapsulation;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings({"ConstantConditions", "ResultOfMethodCallIgnored"})
+@RunWith(JMockit.class)
+public class PacksTest {
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Path stagingDir;
+    private Context context;
+    private String packName;
+    private Path packCloudPath;
+    private byte[] packBody;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.stagingDir = Files.createTempDirectory(null);
+
+        final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(cfg, "userName", "test-user");
+        Deencapsulation.setField(cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        Deencapsulation.setField(cfg, "stagingDir", this.stagingDir.toAbsolutePath());
+        this.context = new Context(cfg);
+
+        final Path file1 = this.tmpDir.resolve("file1");
+        Files.write(file1, "first".getBytes(StandardCharsets.UTF_8));
+        final Path file2 = this.tmpDir.resolve("file2");
+        Files.write(file2, "second".getBytes(StandardCharsets.UTF_8));
+        final Path pack = this.tmpDir.resolve("pack");
+        PackIndex.write(pack, Arrays.asList(
+                new PackIndex.Source("dir/file1", 1000L, file1),
+                new PackIndex.Source("file2", 2000L, file2)));
+        this.packBody = Files.readAllBytes(pack);
+
+        this.packName = Packs.newPackName();
+        this.packCloudPath = this.context.getPathPrefix().resolve(this.packName).resolve("3000");
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+        FileUtils.deleteDirectory(this.stagingDir.toFile());
+    }
+
+    @Test
+    public void expandPackOfAnotherClient() throws ApiException {
+
+        final String slashedPackCloudPath = APIUtils.toSlash(this.packCloudPath);
+        new Expectations() {{
+            api.renterDownloadSiapathGet(slashedPackCloudPath, anyString, false, false, anyLong, anyLong);
+            result = new Delegate<Object>() {
+                @SuppressWarnings("unused")
+                void download(String siapath, String destination, Boolean async, Boolean httpresp, Long length, Long offset)
+                        throws IOException {
+                    Files.write(Paths.get(destination), Arrays.copyOfRange(
+                            packBody, offset.intValue(), (int) (offset + length)));
+                }
+            };
+            times = 2;
+        }};
+
+        final FileInfo other = this.cloudFile(this.context.getPathPrefix().resolve("other").resolve("4000"), 10);
+        final List<FileInfo> res = Packs.expand(this.context, Arrays.asList(
+                this.cloudFile(this.packCloudPath, this.packBody.length), other));
+
+        final Path cloudPath1 = this.context.getPathPrefix().resolve(Paths.get("dir", "file1")).resolve("1000");
+        final Path cloudPath2 = this.context.getPathPrefix().resolve("file2").resolve("2000");
+        assertEquals(
+                Arrays.asList(APIUtils.toSlash(cloudPath1), APIUtils.toSlash(cloudPath2), other.getSiapath()),
+                res.stream().map(FileInfo::getSiapath).sorted().collect(Collectors.toList()));
+
+        assertTrue(DB.getPack(this.packName).get().isUploaded());
+        final PackedFile packedFile = DB.getPackedFile(cloudPath2).get();
+        assertEquals("file2", packedFile.getName());
+        assertEquals(5, packedFile.getOffset());
+        assertEquals(6, packedFile.getLength());
+        assertEquals(Paths.get("dir", "file1").toString(), DB.getPackedFile(cloudPath1).get().getName());
+
+        // Known packs are expanded without reading their indexes, and deleted files are dropped.
+        DB.setPackedFilesDeleted("file2");
+        new Expectations() {{
+            api.renterDownloadSiapathGet(anyString, anyString, anyBoolean, anyBoolean, anyLong, anyLong);
+            times = 0;
+        }};
+        assertEquals(
+                Collections.singletonList(APIUtils.toSlash(cloudPath1)),
+                Packs.expand(this.context, Collections.singletonList(this.cloudFile(this.packCloudPath, this.packBody.length)))
+                        .stream().map(FileInfo::getSiapath).collect(Collectors.toList()));
+
+        // Records of packs which are not listed anymore are removed.
+        assertTrue(Packs.expand(this.context, Collections.emptyList()).isEmpty());
+        assertFalse(DB.getPack(this.packName).isPresent());
+        assertFalse(DB.getPackedFile(cloudPath1).isPresent());
+
+    }
+
+    @Test
+    public void expandPackBeingUploaded() throws ApiException {
+
+        final Path cloudPath = this.context.getPathPrefix().resolve("file").resolve("1000");
+        DB.addPack(
+                new Pack(this.packName, this.packCloudPath, this.tmpDir.resolve("pack"), this.packBody.length, false, null),
+                Collections.singletonList(new PackedFile(this.packName, cloudPath, "file", 0, 5)));
+
+        new Expectations() {{
+            api.renterDownloadSiapathGet(anyString, anyString, anyBoolean, anyBoolean, anyLong, anyLong);
+            times = 0;
+        }};
+
+        // Packs which aren't available yet are dropped.
+        assertTrue(Packs.expand(this.context, Collections.singletonList(
+                this.cloudFile(this.packCloudPath, this.packBody.length).available(false))).isEmpty());
+
+        assertEquals(
+                Collections.singletonList(APIUtils.toSlash(cloudPath)),
+                Packs.expand(this.context, Collections.singletonList(this.cloudFile(this.packCloudPath, this.packBody.length)))
+                        .stream().map(FileInfo::getSiapath).collect(Collectors.toList()));
+
+        // Records of packs being uploaded are kept even if they are not listed.
+        assertTrue(Packs.expand(this.context, Collections.emptyList()).isEmpty());
+        assertTrue(DB.getPack(this.packName).isPresent());
+
+    }
+
+    @Test
+    public void downloadPackedFile() throws ApiException {
+
+        final Path cloudPath = this.context.getPathPrefix().resolve("file").resolve("1000");
+        final PackedFile packedFile = new PackedFile(this.packName, cloudPath, "file", 5, 6);
+        DB.addPack(
+                new Pack(this.packName, this.packCloudPath, null, this.packBody.length, true, null),
+                Collections.singletonList(packedFile));
+
+        final Path destination = this.tmpDir.resolve("destination");
+        new Expectations() {{
+            api.renterDownloadSiapathGet(
+                    APIUtils.toSlash(packCloudPath), APIUtils.toSlash(destination), false, false, 6L, 5L);
+        }};
+        Packs.download(this.context, packedFile, destination);
+
+    }
+
+    @Test
+    public void isPack() {
+        assertTrue(Packs.isPack(this.packName));
+        assertFalse(Packs.isPack("file"));
+        assertFalse(Packs.isPack(Packs.PackFolder));
+    }
+
+    @Test
+    public void isPackable() throws IOException {
+
+        final Path file = this.tmpDir.resolve("file1");
+        assertFalse(Packs.isPackable(this.context, file));
+
+        Deencapsulation.setField(this.context.getConfig(), "packThreshold", 5L);
+        assertFalse(Packs.isPackable(this.context, file));
+        Deencapsulation.setField(this.context.getConfig(), "packThreshold", 6L);
+        assertTrue(Packs.isPackable(this.context, file));
+        assertFalse(Packs.isPackable(this.context, this.tmpDir.resolve("not-exist")));
+
+    }
+
+    private FileInfo cloudFile(final Path cloudPath, final long size) {
+        return new FileInfo().siapath(APIUtils.toSlash(cloudPath)).filesize(size).available(true);
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.client.api.model.FileInfo;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.StoredContent;
+import io.goobox.sync.sia.db.SyncFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.metrics.MetricsRegistry;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.SiaFileFromFilesAPI;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("ConstantConditions")
+@RunWith(JMockit.class)
+public class StoredContentsTest {
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Context context;
+    private byte[] body;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        MetricsRegistry.getDefault().clear();
+        this.tmpDir = Files.createTempDirectory(null);
+
+        final Config cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(cfg, "userName", "test-user");
+        Deencapsulation.setField(cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        this.context = new Context(cfg);
+        this.body = "some body".getBytes(StandardCharsets.UTF_8);
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+    }
+
+    /**
+     * Creates the given file and marks it as synced with the cloud file created at the given time.
+     */
+    private Path addSyncedFile(final String name, final long creationTime) throws IOException {
+
+        final Path localPath = this.context.getLocalPath(name);
+        Files.write(localPath, this.body);
+        Files.setLastModifiedTime(localPath, FileTime.fromMillis(creationTime));
+        DB.setSynced(new SiaFileFromFilesAPI(this.context, new FileInfo()
+                .siapath(APIUtils.toSlash(this.getCloudPath(name, creationTime)))
+                .filesize((long) this.body.length)), localPath);
+        return localPath;
+
+    }
+
+    /**
+     * Creates the given file and marks it as modified.
+     */
+    private Path addModifiedFile(final String name, final long modificationTime) throws IOException {
+
+        final Path localPath = this.context.getLocalPath(name);
+        Files.write(localPath, this.body);
+        Files.setLastModifiedTime(localPath, FileTime.fromMillis(modificationTime));
+        DB.setModified(name, localPath);
+        return localPath;
+
+    }
+
+    private Path getCloudPath(final String name, final long creationTime) {
+        return this.context.getPathPrefix().resolve(name).resolve(Long.toString(creationTime));
+    }
+
+    private String getDigest(final String name) {
+        return DB.get(name).get().getLocalDigest().get();
+    }
+
+    @Test
+    public void reuseCloudFileOfRenamedFile() throws IOException, ApiException {
+
+        final Path oldPath = this.addSyncedFile("old-name", 1000);
+        Files.delete(oldPath);
+        DB.setDeleted("old-name");
+        final Path newPath = this.addModifiedFile("new-name", 2000);
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(
+                    APIUtils.toSlash(getCloudPath("old-name", 1000)), APIUtils.toSlash(getCloudPath("new-name", 2000)));
+        }};
+        assertTrue(StoredContents.reuse(this.context, DB.get("new-name").get(), newPath));
+
+        final SyncFile syncFile = DB.get("new-name").get();
+        assertEquals(SyncState.SYNCED, syncFile.getState());
+        assertEquals(this.getCloudPath("new-name", 2000), syncFile.getCloudPath().get());
+        assertEquals(SyncState.DELETED, DB.get("old-name").get().getState());
+        assertEquals(
+                Collections.singletonList(this.getCloudPath("new-name", 2000)),
+                DB.getStoredContents(this.getDigest("new-name")).stream()
+                        .map(StoredContent::getCloudPath).collect(Collectors.toList()));
+
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        assertEquals(1, registry.counter(StoredContents.ReusedFilesMetric, "").get());
+        assertEquals(this.body.length, registry.counter(StoredContents.SavedBytesMetric, "").get());
+
+    }
+
+    @Test
+    public void reuseOlderVersion() throws IOException, ApiException {
+
+        final Path localPath = this.addSyncedFile("file", 1000);
+        Files.setLastModifiedTime(localPath, FileTime.fromMillis(2000));
+        DB.setModified("file", localPath);
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(
+                    APIUtils.toSlash(getCloudPath("file", 1000)), APIUtils.toSlash(getCloudPath("file", 2000)));
+        }};
+        assertTrue(StoredContents.reuse(this.context, DB.get("file").get(), localPath));
+
+        final SyncFile syncFile = DB.get("file").get();
+        assertEquals(SyncState.SYNCED, syncFile.getState());
+        assertEquals(this.getCloudPath("file", 2000), syncFile.getCloudPath().get());
+
+    }
+
+    @Test
+    public void notReuseCloudFileOfSyncedFile() throws IOException, ApiException {
+
+        this.addSyncedFile("original", 1000);
+        final Path copyPath = this.addModifiedFile("copy", 2000);
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(anyString, anyString);
+            times = 0;
+        }};
+        assertFalse(StoredContents.reuse(this.context, DB.get("copy").get(), copyPath));
+        assertEquals(SyncState.MODIFIED, DB.get("copy").get().getState());
+
+    }
+
+    @Test
+    public void notReuseIfFileModifiedAfterDigest() throws IOException, ApiException {
+
+        final Path oldPath = this.addSyncedFile("old-name", 1000);
+        Files.delete(oldPath);
+        DB.setDeleted("old-name");
+        final Path newPath = this.addModifiedFile("new-name", 2000);
+        Files.setLastModifiedTime(newPath, FileTime.fromMillis(3000));
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(anyString, anyString);
+            times = 0;
+        }};
+        assertFalse(StoredContents.reuse(this.context, DB.get("new-name").get(), newPath));
+
+    }
+
+    @Test
+    public void removeStaleContent() throws IOException, ApiException {
+
+        final Path oldPath = this.addSyncedFile("old-name", 1000);
+        Files.delete(oldPath);
+        DB.setDeleted("old-name");
+        final Path newPath = this.addModifiedFile("new-name", 2000);
+        final String digest = this.getDigest("new-name");
+
+        new Expectations() {{
+            api.renterRenameSiapathPost(anyString, anyString);
+            result = new ApiException(400, "no file known by that path");
+        }};
+        assertFalse(StoredContents.reuse(this.context, DB.get("new-name").get(), newPath));
+        assertEquals(SyncState.MODIFIED, DB.get("new-name").get().getState());
+        assertTrue(DB.getStoredContents(digest).isEmpty());
+
+    }
+
+}
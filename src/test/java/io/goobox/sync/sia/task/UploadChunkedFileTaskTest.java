@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2017-2018 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.db.Chunk;
+import io.goobox.sync.sia.db.ChunkedFile;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.ChunkManifest;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings({"ConstantConditions", "ResultOfMethodCallIgnored"})
+@RunWith(JMockit.class)
+public class UploadChunkedFileTaskTest {
+
+    @Mocked
+    private App app;
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Path stagingDir;
+    private Config cfg;
+    private Context context;
+    private String name;
+    private Path localPath;
+    private Path cloudPath;
+    private Path manifestPath;
+    private byte[] body;
+    private String digest;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.stagingDir = Files.createTempDirectory(null);
+
+        this.cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(this.cfg, "userName", "test-user");
+        Deencapsulation.setField(this.cfg, "dataPieces", 120L);
+        Deencapsulation.setField(this.cfg, "parityPieces", 50L);
+        Deencapsulation.setField(this.cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        Deencapsulation.setField(this.cfg, "stagingDir", this.stagingDir.toAbsolutePath());
+        Deencapsulation.setField(this.cfg, "chunkThreshold", 1L);
+        this.context = new Context(this.cfg);
+
+        this.name = "test-file";
+        this.localPath = this.tmpDir.resolve(this.name);
+        this.cloudPath = this.context.getPathPrefix().resolve(this.name).resolve("1000");
+        this.manifestPath = this.context.getPathPrefix().resolve(Chunks.manifestName(this.name)).resolve("1000");
+        this.body = "body of the test file".getBytes(StandardCharsets.UTF_8);
+        this.digest = DigestUtils.sha256Hex(this.body);
+        Files.write(this.localPath, this.body);
+        DB.addNewFile(this.name, this.localPath);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+        FileUtils.deleteDirectory(this.stagingDir.toFile());
+    }
+
+    @Test
+    public void uploadNewChunks() throws ApiException, IOException {
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(
+                    withPrefix(APIUtils.toSlash(context.getPathPrefix().resolve(Chunks.chunkName(digest)))),
+                    anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            times = 1;
+            api.renterUploadSiapathPost(
+                    APIUtils.toSlash(manifestPath), anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            times = 1;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.wakeUpUploadTracker();
+        }};
+        new UploadChunkedFileTask(this.context, this.localPath).call();
+        assertTrue(DBMock.committed);
+
+        final Chunk chunk = DB.getChunk(this.digest).get();
+        assertFalse(chunk.isUploaded());
+        assertEquals(this.body.length, chunk.getLength());
+        assertArrayEquals(this.body, Files.readAllBytes(chunk.getStagedPath().get()));
+
+        final ChunkedFile chunkedFile = DB.getChunkedFile(this.cloudPath).get();
+        assertFalse(chunkedFile.isUploaded());
+        assertEquals(this.name, chunkedFile.getName());
+        assertEquals(this.manifestPath, chunkedFile.getManifestPath());
+        assertEquals(Collections.singletonList(this.digest), chunkedFile.getChunks());
+        assertEquals(
+                ChunkManifest.chunk(this.localPath),
+                ChunkManifest.parse(Files.readAllBytes(chunkedFile.getStagedPath().get())));
+
+        assertEquals(SyncState.UPLOADING, DB.get(this.name).get().getState());
+
+    }
+
+    @Test
+    public void skipStoredChunks() throws ApiException {
+
+        DB.addChunk(new Chunk(
+                this.digest, this.context.getPathPrefix().resolve(Chunks.chunkName(this.digest)).resolve("500"),
+                this.body.length, null, true));
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(
+                    APIUtils.toSlash(manifestPath), anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            times = 1;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.wakeUpUploadTracker();
+        }};
+        new UploadChunkedFileTask(this.context, this.localPath).call();
+
+        assertTrue(DB.getChunk(this.digest).get().isUploaded());
+        assertTrue(DB.getChunkedFile(this.cloudPath).isPresent());
+        assertEquals(SyncState.UPLOADING, DB.get(this.name).get().getState());
+
+    }
+
+    @Test
+    public void failedToUploadManifest() throws ApiException, IOException {
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(
+                    withPrefix(APIUtils.toSlash(context.getPathPrefix().resolve(Chunks.chunkName(digest)))),
+                    anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            times = 1;
+            api.renterUploadSiapathPost(
+                    APIUtils.toSlash(manifestPath), anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            result = new ApiException();
+            times = UploadLocalFileTask.MaxRetry;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+        new UploadChunkedFileTask(this.context, this.localPath).call();
+        assertTrue(DBMock.committed);
+
+        // The chunk is kept so that it will be reused, but the manifest is released.
+        final Chunk chunk = DB.getChunk(this.digest).get();
+        assertFalse(DB.getChunkedFile(this.cloudPath).isPresent());
+        assertEquals(SyncState.UPLOAD_FAILED, DB.get(this.name).get().getState());
+        try (final Stream<Path> files = Files.list(this.stagingDir)) {
+            assertArrayEquals(new Object[]{chunk.getStagedPath().get()}, files.toArray());
+        }
+
+    }
+
+    @Test
+    public void skipFileNotForUpload() throws ApiException, IOException {
+
+        DB.setModified(this.name, this.localPath);
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, anyLong, anyLong);
+            times = 0;
+        }};
+        new UploadChunkedFileTask(this.context, this.localPath).call();
+        assertTrue(DB.getChunkedFiles().isEmpty());
+
+    }
+
+}
@@ -24,23 +24,30 @@ import io.goobox.sync.sia.Context;
 import io.goobox.sync.sia.client.ApiException;
 import io.goobox.sync.sia.client.api.RenterApi;
 import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.SyncFile;
 import io.goobox.sync.sia.db.SyncState;
 import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.Codec;
 import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -118,6 +125,9 @@ public class UploadLocalFileTaskTest {
             api.renterUploadSiapathPost(slashedCloudPath, slashedLocalPath, cfg.getDataPieces(), cfg.getParityPieces());
 
             App.getInstance();
+            result = Optional.of(app);
+            app.wakeUpUploadTracker();
+            app.refreshOverlayIcon((Path) any);
             times = 0;
         }};
         new UploadLocalFileTask(this.context, this.localPath).call();
@@ -236,6 +246,9 @@ public class UploadLocalFileTaskTest {
             api.renterDeleteSiapathPost(slashedCloudPath);
 
             App.getInstance();
+            result = Optional.of(app);
+            app.wakeUpUploadTracker();
+            app.refreshOverlayIcon((Path) any);
             times = 0;
         }};
         new UploadLocalFileTask(this.context, this.localPath).call();
@@ -244,5 +257,72 @@ public class UploadLocalFileTaskTest {
 
     }
 
+    @Test
+    public void uploadCompressedFile() throws ApiException, IOException {
+
+        final byte[] body = this.prepareCompressibleFile();
+        final Path compressedPath = Codec.gzip.resolve(
+                this.context, this.name, DB.get(this.name).get().getCloudCreationTime().get());
+        new Expectations() {{
+            api.renterUploadSiapathPost(
+                    APIUtils.toSlash(compressedPath), anyString, cfg.getDataPieces(), cfg.getParityPieces());
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.wakeUpUploadTracker();
+        }};
+        new UploadLocalFileTask(this.context, this.localPath).call();
+        assertTrue(DBMock.committed);
+
+        final SyncFile syncFile = DB.get(this.name).get();
+        assertEquals(SyncState.UPLOADING, syncFile.getState());
+        assertEquals(compressedPath, syncFile.getCloudPath().get());
+        final Path stagedPath = syncFile.getTemporaryPath().get();
+        assertTrue(this.context.getStagingArea().contains(stagedPath));
+        try (final InputStream in = Codec.gzip.decode(Files.newInputStream(stagedPath))) {
+            assertArrayEquals(body, IOUtils.toByteArray(in));
+        }
+
+    }
+
+    @Test
+    public void failedToUploadCompressedFile() throws ApiException, IOException {
+
+        this.prepareCompressibleFile();
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            result = new ApiException();
+            times = UploadLocalFileTask.MaxRetry;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon(localPath);
+        }};
+        new UploadLocalFileTask(this.context, this.localPath).call();
+        assertEquals(SyncState.UPLOAD_FAILED, DB.get(this.name).get().getState());
+        try (final Stream<Path> files = Files.list(this.cfg.getStagingDir())) {
+            assertEquals(0, files.count());
+        }
+
+    }
+
+    /**
+     * Writes a compressible body to the local file, enables compression, and returns the body.
+     */
+    private byte[] prepareCompressibleFile() throws IOException {
+
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i != 1000; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+        final byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(this.localPath, body);
+        DB.setForUpload(this.name, this.localPath, this.cloudPath);
+
+        Deencapsulation.setField(this.cfg, "stagingDir", this.tmpDir.resolve("staging").toAbsolutePath());
+        Deencapsulation.setField(this.cfg, "compressionThreshold", 1L);
+        return body;
+
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 Junpei Kawamoto
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.sia.task;
+
+import io.goobox.sync.sia.APIUtils;
+import io.goobox.sync.sia.App;
+import io.goobox.sync.sia.Config;
+import io.goobox.sync.sia.Context;
+import io.goobox.sync.sia.client.ApiException;
+import io.goobox.sync.sia.client.api.RenterApi;
+import io.goobox.sync.sia.db.DB;
+import io.goobox.sync.sia.db.Pack;
+import io.goobox.sync.sia.db.PackedFile;
+import io.goobox.sync.sia.db.SyncState;
+import io.goobox.sync.sia.mocks.DBMock;
+import io.goobox.sync.sia.model.PackIndex;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings({"ConstantConditions", "ResultOfMethodCallIgnored"})
+@RunWith(JMockit.class)
+public class UploadPackTaskTest {
+
+    @Mocked
+    private App app;
+
+    @Mocked
+    private RenterApi api;
+
+    private Path tmpDir;
+    private Path stagingDir;
+    private Config cfg;
+    private Context context;
+    private List<String> names;
+    private List<Path> localPaths;
+    private List<Path> cloudPaths;
+
+    @Before
+    public void setUp() throws IOException {
+
+        new DBMock();
+        this.tmpDir = Files.createTempDirectory(null);
+        this.stagingDir = Files.createTempDirectory(null);
+
+        this.cfg = new Config(this.tmpDir.resolve(App.ConfigFileName));
+        Deencapsulation.setField(this.cfg, "userName", "test-user");
+        Deencapsulation.setField(this.cfg, "dataPieces", 120L);
+        Deencapsulation.setField(this.cfg, "parityPieces", 50L);
+        Deencapsulation.setField(this.cfg, "syncDir", this.tmpDir.toAbsolutePath());
+        Deencapsulation.setField(this.cfg, "stagingDir", this.stagingDir.toAbsolutePath());
+        Deencapsulation.setField(this.cfg, "packThreshold", 1024L);
+        this.context = new Context(this.cfg);
+
+        this.names = new ArrayList<>();
+        this.localPaths = new ArrayList<>();
+        this.cloudPaths = new ArrayList<>();
+        for (int i = 0; i != 3; i++) {
+            final String name = String.format("test-file-%d", i);
+            final Path localPath = this.tmpDir.resolve(name);
+            final Path cloudPath = this.context.getPathPrefix().resolve(name).resolve(String.valueOf(1000L + i));
+            Files.write(localPath, String.format("body of %s", name).getBytes(StandardCharsets.UTF_8));
+            DB.addNewFile(name, localPath);
+            DB.setForUpload(name, localPath, cloudPath);
+            this.names.add(name);
+            this.localPaths.add(localPath);
+            this.cloudPaths.add(cloudPath);
+        }
+
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DB.close();
+        FileUtils.deleteDirectory(this.tmpDir.toFile());
+        FileUtils.deleteDirectory(this.stagingDir.toFile());
+    }
+
+    @Test
+    public void uploadPack() throws ApiException, IOException {
+
+        // The last file was modified after it was enqueued, and it won't be bundled.
+        DB.setModified(this.names.get(2), this.localPaths.get(2));
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            times = 1;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.wakeUpUploadTracker();
+        }};
+        new UploadPackTask(this.context, this.localPaths).call();
+        assertTrue(DBMock.committed);
+
+        final List<Pack> packs = DB.getPacks();
+        assertEquals(1, packs.size());
+        final Pack pack = packs.get(0);
+        assertTrue(Packs.isPack(pack.getName()));
+        assertFalse(pack.isUploaded());
+        assertTrue(pack.getCloudPath().startsWith(this.context.getPathPrefix().resolve(pack.getName())));
+        assertTrue(pack.getStagedPath().isPresent());
+
+        final Path staged = pack.getStagedPath().get();
+        assertEquals(Files.size(staged), pack.getSize());
+        final PackIndex index = PackIndex.read(staged);
+        assertEquals(
+                Arrays.asList(APIUtils.toSlash(this.cloudPaths.get(0)), APIUtils.toSlash(this.cloudPaths.get(1))),
+                Packs.toPackedFiles(this.context, pack.getName(), index).stream()
+                        .map(file -> APIUtils.toSlash(file.getCloudPath()))
+                        .collect(Collectors.toList()));
+        assertEquals(
+                this.cloudPaths.subList(0, 2),
+                DB.getPackedFiles(pack.getName()).stream().map(PackedFile::getCloudPath).collect(Collectors.toList()));
+        assertEquals(this.names.get(1), DB.getPackedFile(this.cloudPaths.get(1)).get().getName());
+
+        assertEquals(SyncState.UPLOADING, DB.get(this.names.get(0)).get().getState());
+        assertEquals(SyncState.UPLOADING, DB.get(this.names.get(1)).get().getState());
+        assertEquals(SyncState.MODIFIED, DB.get(this.names.get(2)).get().getState());
+
+    }
+
+    @Test
+    public void failedToUpload() throws ApiException, IOException {
+
+        new Expectations() {{
+            api.renterUploadSiapathPost(anyString, anyString, cfg.getDataPieces(), cfg.getParityPieces());
+            result = new ApiException();
+            times = UploadLocalFileTask.MaxRetry;
+
+            App.getInstance();
+            result = Optional.of(app);
+            app.refreshOverlayIcon((Path) any);
+            times = 3;
+        }};
+        new UploadPackTask(this.context, this.localPaths).call();
+        assertTrue(DBMock.committed);
+
+        assertTrue(DB.getPacks().isEmpty());
+        for (final String name : this.names) {
+            assertEquals(SyncState.UPLOAD_FAILED, DB.get(name).get().getState());
+        }
+        try (final Stream<Path> files = Files.list(this.stagingDir)) {
+            assertEquals(0, files.count());
+        }
+
+    }
+
+    @Test
+    public void schedule(@Mocked final Executor executor) throws IOException {
+
+        final List<Path> localPaths = new ArrayList<>();
+        for (int i = 0; i != Packs.MaxPackFiles + 1; i++) {
+            localPaths.add(this.localPaths.get(i % this.localPaths.size()));
+        }
+        UploadPackTask.schedule(this.context, executor, localPaths);
+
+        new Verifications() {{
+            executor.execute((Runnable) any);
+            times = 2;
+        }};
+
+    }
+
+}
@@ -85,7 +85,7 @@ public class WaitContractsTaskTest {
 
             renter.renterContractsGet();
             returns(res1, res2);
-            Thread.sleep(App.DefaultSleepTime);
+            Thread.sleep(App.MinSleepTime);
         }};
         task.call();
 
@@ -68,8 +68,10 @@ public class WaitSynchronizationTaskTest {
             res2.setSynced(true);
 
             consensus.consensusGet();
-            returns(res1, res2);
-            Thread.sleep(App.DefaultSleepTime);
+            returns(res1, res1, res2);
+            // Sleep times double while the consensus DB isn't synchronized.
+            Thread.sleep(App.MinSleepTime);
+            Thread.sleep(2 * App.MinSleepTime);
 
         }};
         task.call();